@@ -0,0 +1,83 @@
+package utils;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Calculo de {@link TransformBatch} con la Vector API. Cada iteracion toma tantas transformaciones como entran en un registro
+ * vectorial, calcula el seno y coseno de sus angulos y los nueve elementos de rotacion y escala sin salir de los registros, y
+ * guarda cada elemento en su propio array. Despues una sola pasada escribe cada matriz completa en el destino, de forma
+ * secuencial.
+ * <p>
+ * Necesita el modulo {@code jdk.incubator.vector} para compilar y para correr, por eso esta fuera de {@code src}:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp &lt;clases de src&gt; -d &lt;destino&gt; src-vector/utils/TransformBatchVector.java
+ * </pre>
+ * {@link TransformBatch} solo la carga si la JVM arranco con {@code --add-modules jdk.incubator.vector}.
+ */
+
+final class TransformBatchVector implements TransformBatch.Kernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final float TO_RADIANS = (float) (Math.PI / 180);
+    // Posicion dentro de la matriz de cada elemento de rotacion y escala
+    private static final int[] ROTATION_INDICES = {0, 1, 2, 4, 5, 6, 8, 9, 10};
+
+    @Override
+    public void compute(TransformBatch batch, float[] dest, int offset) {
+        int n = batch.count, bound = SPECIES.loopBound(n);
+        float[][] r = batch.rotation;
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector x = FloatVector.fromArray(SPECIES, batch.ax, i).mul(TO_RADIANS);
+            FloatVector y = FloatVector.fromArray(SPECIES, batch.ay, i).mul(TO_RADIANS);
+            FloatVector z = FloatVector.fromArray(SPECIES, batch.az, i).mul(TO_RADIANS);
+            FloatVector sinX = x.lanewise(VectorOperators.SIN), cosX = x.lanewise(VectorOperators.COS);
+            FloatVector sinY = y.lanewise(VectorOperators.SIN), cosY = y.lanewise(VectorOperators.COS);
+            FloatVector sinZ = z.lanewise(VectorOperators.SIN), cosZ = z.lanewise(VectorOperators.COS);
+            FloatVector sx = FloatVector.fromArray(SPECIES, batch.sx, i);
+            FloatVector sy = FloatVector.fromArray(SPECIES, batch.sy, i);
+            FloatVector sz = FloatVector.fromArray(SPECIES, batch.sz, i);
+            // Mismas formulas que el calculo escalar
+            FloatVector sinXsinY = sinX.mul(sinY), cosXsinY = cosX.mul(sinY);
+            cosY.mul(cosZ).mul(sx).intoArray(r[0], i);
+            sinXsinY.mul(cosZ).add(cosX.mul(sinZ)).mul(sx).intoArray(r[1], i);
+            sinX.mul(sinZ).sub(cosXsinY.mul(cosZ)).mul(sx).intoArray(r[2], i);
+            cosY.mul(sinZ).mul(sy).neg().intoArray(r[3], i);
+            cosX.mul(cosZ).sub(sinXsinY.mul(sinZ)).mul(sy).intoArray(r[4], i);
+            cosXsinY.mul(sinZ).add(sinX.mul(cosZ)).mul(sy).intoArray(r[5], i);
+            sinY.mul(sz).intoArray(r[6], i);
+            sinX.mul(cosY).mul(sz).neg().intoArray(r[7], i);
+            cosX.mul(cosY).mul(sz).intoArray(r[8], i);
+        }
+        // Las transformaciones que no llenan un registro
+        for (; i < n; i++) {
+            float sinX = (float) Math.sin(batch.ax[i] * TO_RADIANS), cosX = (float) Math.cos(batch.ax[i] * TO_RADIANS);
+            float sinY = (float) Math.sin(batch.ay[i] * TO_RADIANS), cosY = (float) Math.cos(batch.ay[i] * TO_RADIANS);
+            float sinZ = (float) Math.sin(batch.az[i] * TO_RADIANS), cosZ = (float) Math.cos(batch.az[i] * TO_RADIANS);
+            float sx = batch.sx[i], sy = batch.sy[i], sz = batch.sz[i];
+            r[0][i] = cosY * cosZ * sx;
+            r[1][i] = (sinX * sinY * cosZ + cosX * sinZ) * sx;
+            r[2][i] = (-cosX * sinY * cosZ + sinX * sinZ) * sx;
+            r[3][i] = -cosY * sinZ * sy;
+            r[4][i] = (-sinX * sinY * sinZ + cosX * cosZ) * sy;
+            r[5][i] = (cosX * sinY * sinZ + sinX * cosZ) * sy;
+            r[6][i] = sinY * sz;
+            r[7][i] = -sinX * cosY * sz;
+            r[8][i] = cosX * cosY * sz;
+        }
+
+        for (int j = 0, pointer = offset; j < n; j++, pointer += TransformBatch.MATRIX_LENGTH) {
+            for (int k = 0; k < TransformBatch.ROTATION_ELEMENTS; k++) dest[pointer + ROTATION_INDICES[k]] = r[k][j];
+            dest[pointer + 3] = 0;
+            dest[pointer + 7] = 0;
+            dest[pointer + 11] = 0;
+            dest[pointer + 12] = batch.px[j];
+            dest[pointer + 13] = batch.py[j];
+            dest[pointer + 14] = batch.pz[j];
+            dest[pointer + 15] = 1;
+        }
+    }
+
+}
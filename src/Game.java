@@ -1,23 +1,29 @@
 
-import converter.OldOBJLoader;
+import converter.MeshOptimizer;
+import converter.MeshSimplifier;
+import converter.ModelData;
+import converter.OBJLoader;
 import entities.*;
 import guis.*;
 import models.*;
 import render.*;
+import terrains.ScatterRule;
 import terrains.Terrain;
+import terrains.VegetationScatter;
 import textures.*;
 import water.*;
 import utils.MousePicker;
 
+import java.awt.Font;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 
 import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
-import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL30;
 
 /**
  * <h3>World Space</h3>
@@ -45,6 +51,20 @@ public class Game {
     private static TerrainTexturePack texturePack;
     private static TerrainTexture blendMap;
 
+    // Proporcion de triangulos de cada nivel de detalle y tamanio en pantalla por debajo del cual se usa cada uno
+    private static final float[] LOD_RATIOS = {0.5f, 0.25f};
+    private static final float[] LOD_SCREEN_SIZES = {0.2f, 0.08f};
+    // Distancia a la camara a partir de la cual la vegetacion se renderiza como impostor
+    private static final float IMPOSTOR_DISTANCE = 90;
+    // Tamanio de las celdas de los pinos y helechos, que se combinan por celda, y distancia a la camara hasta la que se generan
+    private static final float STATIC_CELL_SIZE = 50, TREE_DISTANCE = Terrain.SIZE * 1.5f;
+    // Tamanio de las celdas de la vegetacion distribuida y distancia a la camara hasta la que se generan
+    private static final float SCATTER_CELL_SIZE = 25, SCATTER_DISTANCE = 120;
+    // Si muestra el ACMR de cada modelo y de sus niveles de detalle antes y despues de optimizarlos
+    private static final boolean PRINT_MESH_STATS = false;
+    // Malla de cada modelo, que se usa para combinar las entidades estaticas
+    private static final Map<TexturedModel, ModelData> modelData = new HashMap<>();
+
     private static final String obj_dir = "obj/";
     private static final String heightmap_dir = "terrain/heightmap/";
     private static final String terrain_dir = "terrain/";
@@ -54,10 +74,16 @@ public class Game {
         DisplayManager.create();
 
         Loader loader = new Loader();
+        // Entrelaza y comprime los vertices de los modelos y el terreno para reducir el tamanio de cada vertice
+        loader.setVertexLayout(VertexLayout.COMPRESSED);
+        // Los modelos y el terreno comparten los buffers del arena de mallas, asi no se vincula un vao por modelo
+        loader.setMeshArena(true);
         MasterRenderer renderer = new MasterRenderer(loader);
 
+        Light sun = new Light(new Vector3f(20000, 40000, 20000), new Vector3f(1, 1, 1));
+
         createTextures(loader);
-        createModels(loader);
+        createModels(loader, renderer, sun);
 
         List<Terrain> terrains = new ArrayList<>();
         List<Entity> entities = new ArrayList<>();
@@ -66,9 +92,6 @@ public class Game {
         Terrain terrain = new Terrain(0, -1, loader, texturePack, blendMap, heightmap_dir + "heightmap_water");
         terrains.add(terrain);
 
-        placeModels(entities, terrain);
-
-        Light sun = new Light(new Vector3f(20000, 40000, 20000), new Vector3f(1, 1, 1));
         lights.add(sun);
 
         Player player = new Player(playerModel, new Vector3f(0, 0, 0), new Vector3f(0, 180, 0), new Vector3f(0.7f, 0.7f, 0.7f));
@@ -80,64 +103,85 @@ public class Game {
         // guis.add(new GuiTexture(loader.loadTexture("gui/logo"), new Vector2f(0.4f, 0.6f), new Vector2f(0.25f, 0.25f)));
 
         GuiRenderer guiRenderer = new GuiRenderer(loader);
+        // Contador de FPS en la esquina superior izquierda
+        FontAtlas font = new FontAtlas(loader, new Font(Font.SANS_SERIF, Font.BOLD, 48));
+        GuiText frameTime = new GuiText(font, 32, new Vector2f(-0.98f, 0.98f), 0.06f, new Vector3f(1, 1, 1));
+        List<GuiText> texts = new ArrayList<>();
+        texts.add(frameTime);
+
+        // Las entidades que se mueven juntas cuelgan de nodos del grafo de escena
+        SceneNode sceneGraph = new SceneNode();
+        renderer.setSceneGraph(sceneGraph);
+
+        /* La vegetacion se distribuye segun el blend map en celdas que se generan alrededor de la camara. Nunca se mueve, asi
+         * que cada celda se combina en una malla por textura. Los pinos y helechos usan celdas mas grandes que se cargan en todo
+         * el terreno porque se ven desde lejos, y la vegetacion chica solo se genera cerca de la camara. */
+        VegetationScatter treeScatter = new VegetationScatter(terrain, terrain_dir + "blend_map", 120, STATIC_CELL_SIZE, TREE_DISTANCE, sceneGraph);
+        treeScatter.setStaticBatching(loader, modelData);
+        treeScatter.addRule(new ScatterRule(treeModel, ScatterRule.Channel.BACKGROUND, 0.002f, 6).setHeightRange(0.5f, Terrain.MAX_HEIGHT).setMaxSlope(30).setScaleRange(0.8f, 1.4f));
+        treeScatter.addRule(new ScatterRule(fernModel, ScatterRule.Channel.BACKGROUND, 0.004f, 2.5f).setHeightRange(0.5f, Terrain.MAX_HEIGHT).setMaxSlope(35).setScaleRange(0.9f, 0.9f).setTextureCount(4));
+        VegetationScatter scatter = new VegetationScatter(terrain, terrain_dir + "blend_map", 121, SCATTER_CELL_SIZE, SCATTER_DISTANCE, sceneGraph);
+        scatter.setStaticBatching(loader, modelData);
+        scatter.addRule(new ScatterRule(herbModel, ScatterRule.Channel.BACKGROUND, 0.01f, 2).setHeightRange(0.5f, Terrain.MAX_HEIGHT).setMaxSlope(35).setScaleRange(0.8f, 1.4f));
+        scatter.addRule(new ScatterRule(flowerModel, ScatterRule.Channel.G, 0.03f, 1.5f).setHeightRange(0.5f, Terrain.MAX_HEIGHT).setMaxSlope(35).setScaleRange(0.8f, 1.2f));
 
         /* MousePicker picker = new MousePicker(camera, renderer.getProjectionMatrix(), terrain);
-        Entity lamp = new Entity(lampModel, new Vector3f(293, -6.8f, -305), new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
-        entities.add(lamp);
-        Light light = new Light(new Vector3f(293, 7, -305), new Vector3f(0, 2, 2), new Vector3f(1, 0.01f, 0.002f));
+        SceneNode lamp = new SceneNode(new Entity(lampModel, new Vector3f(293, -6.8f, -305), new Vector3f(0, 0, 0), new Vector3f(1, 1, 1)));
+        // La luz cuelga del farol, asi que se mueve con el
+        Light light = new Light(new Vector3f(0, 15, 0), new Vector3f(0, 2, 2), new Vector3f(1, 0.01f, 0.002f));
+        lamp.addChild(new SceneNode(light));
+        sceneGraph.addChild(lamp);
         lights.add(light); */
 
-        WaterFrameBuffers buffers = new WaterFrameBuffers();
-        WaterShader waterShader = new WaterShader();
-        WaterRenderer waterRenderer = new WaterRenderer(loader, waterShader, renderer.getProjectionMatrix(), buffers);
-        List<WaterTile> waters = new ArrayList<>();
-        WaterTile water = new WaterTile(75, -75, 0);
-        waters.add(water);
-
+        // La refraccion se copia de la pasada principal en lugar de renderizar la escena otra vez
+        WaterFrameBuffers buffers = new WaterFrameBuffers(1, true);
+        WaterRenderer waterRenderer = new WaterRenderer(loader, renderer.getProjectionMatrix(), buffers);
+        WaterPasses waterPasses = new WaterPasses(buffers, renderer.getProjectionMatrix());
+        // Las pasadas del agua se ven distorsionadas, asi que usan modelos mas simples y no renderizan la vegetacion chica
+        renderer.setLodBias(RenderPass.REFLECTION, 0.5f);
+        renderer.setLodBias(RenderPass.REFRACTION, 0.5f);
+        renderer.excludeFromPass(herbModel, RenderPass.REFLECTION);
+        renderer.excludeFromPass(flowerModel, RenderPass.REFLECTION);
+        // Reemplaza la reflexion plana por el reflejo en espacio de pantalla, que no vuelve a renderizar la escena
+        ScreenSpaceReflection screenSpaceReflection = new ScreenSpaceReflection(renderer.getProjectionMatrix(), renderer.getSkyboxRenderer());
+        waterPasses.setScreenSpaceReflection(screenSpaceReflection);
+        List<WaterTile> tiles = new ArrayList<>();
+        tiles.add(new WaterTile(75, -75, 0));
+        // Malla del agua recortada a las partes de los tiles donde el terreno queda por debajo del agua
+        List<WaterSurface> waters = WaterSurface.create(loader, tiles, terrains);
+
+        Vector4f noClipPlane = new Vector4f(0, 0, 0, 0); // Deshabilita el plano de recorte
         while (!Display.isCloseRequested()) {
             player.move(terrain);
             camera.move();
 
-            // updatePicker(picker, lamp, light);
-
-            /* Una vez habilitado un plano de recorte, se debe especificar su ecuacion en el Vertex Shader para que se aplique
-             * correctamente durante el renderizado. Esto permite crear efectos complejos, como renderizar escenas desde el
-             * interior de un objeto o mostrar unicamente las partes visibles a traves de un agujero. */
-            GL11.glEnable(GL30.GL_CLIP_DISTANCE0);
-
-            // Renderiza las texturas de reflexion
-            buffers.bindReflectionFrameBuffer();
-            // Mueva la camara por debajo del agua para simular el efecto de reflejo en los objetos
-            float distance = 2 * (camera.getPosition().y - water.getHeight());
-            camera.getPosition().y -= distance;
-            camera.invertXAngle();
-            /* Recorta todo lo que esta por encima de la altura del agua. Esto nos deja mucho margen de error y es lo que causa
-             * los fallos, especialmente cuando el agua estaba distorcionada. Ahora que hemos amortiguado la distorsion, el error
-             * casi ha desaparecido, pero todavia se ve algun pixel ocasional, por lo que en lugar de hacer que el plano de recorte
-             * se corte exactamente en la superficie del agua, podemos agregar un pequenio desplazamiento para crea una pequenia
-             * superposicion (+ 1f). */
-            renderer.renderScene(entities, terrains, lights, camera, new Vector4f(0, 1, 0, -water.getHeight() + 1f));
-            // Vuelve la camara a su posicion original
-            camera.getPosition().y += distance;
-            camera.invertXAngle();
-
-            // Renderiza las texturas de refraccion
-            buffers.bindRefractionFrameBuffer();
-            // Recorta todo lo que esta por debajo de la altura del agua
-            renderer.renderScene(entities, terrains, lights, camera, new Vector4f(0, -1, 0, water.getHeight()));
+            // updatePicker(picker, lamp);
+            // Las celdas nuevas o descartadas cambian las sombras de los objetos estaticos
+            if (treeScatter.update(camera.getPosition()) | scatter.update(camera.getPosition())) renderer.invalidateShadows();
+            sceneGraph.update();
+
+            // Renderiza las texturas de reflexion y refraccion solo si el agua esta a la vista
+            boolean waterVisible = waterPasses.render(renderer, entities, terrains, lights, camera, waters);
 
             // Renderiza en pantalla
-            GL11.glDisable(GL30.GL_CLIP_DISTANCE0); // Para el renderizado final, solo queremos renderizar toda la escena en pantalla sin recortar nada
-            buffers.unbindCurrentFrameBuffer();
-            renderer.renderScene(entities, terrains, lights, camera, new Vector4f(0, 0, 0, 0)); // Deshabilita el plano de recorte
-            waterRenderer.render(waters, camera, sun);
+            renderer.renderScene(entities, terrains, lights, camera, noClipPlane, RenderPass.MAIN);
+            if (waterVisible) {
+                waterPasses.copyScene(waters, camera);
+                waterRenderer.render(waters, camera, sun);
+            }
             guiRenderer.render(guis);
+            float seconds = DisplayManager.getFrameTimeSeconds();
+            frameTime.clear().append("FPS ").append(seconds > 0 ? Math.round(1 / seconds) : 0).append("  ").append(seconds * 1000, 1).append(" ms");
+            guiRenderer.renderText(texts);
 
             DisplayManager.update();
         }
 
+        treeScatter.clean();
+        scatter.clean();
         buffers.clean();
-        waterShader.clean();
+        waterRenderer.clean();
+        screenSpaceReflection.clean();
         guiRenderer.clean();
         renderer.clean();
         loader.clean();
@@ -154,68 +198,88 @@ public class Game {
         blendMap = new TerrainTexture(loader.loadTexture(terrain_dir + "blend_map"));
     }
 
-    private static void createModels(Loader loader) {
+    private static void createModels(Loader loader, MasterRenderer renderer, Light sun) {
         playerModel = getTexturedModel(loader, obj_dir + "player", obj_dir + "player");
-        treeModel = getTexturedModel(loader, obj_dir + "pine", obj_dir + "pine");
-        herbModel = getTexturedModel(loader, obj_dir + "herb", obj_dir + "herb");
-        flowerModel = getTexturedModel(loader, obj_dir + "herb", obj_dir + "flower");
         lampModel = getTexturedModel(loader, obj_dir + "lamp", obj_dir + "lamp");
+        lampModel.getTexture().setUseFakeLighting(true);
 
+        // La textura de la vegetacion se configura antes de generar el impostor porque el atlas usa la iluminacion falsa
+        ModelTexture herbTexture = new ModelTexture(loader.loadTexture(obj_dir + "herb"));
+        herbTexture.setHasTransparency(true);
+        herbTexture.setUseFakeLighting(true);
+        ModelTexture flowerTexture = new ModelTexture(loader.loadTexture(obj_dir + "flower"));
+        flowerTexture.setHasTransparency(true);
+        flowerTexture.setUseFakeLighting(true);
         ModelTexture fernTextureAtlas = new ModelTexture(loader.loadTexture(obj_dir + "fern"));
         fernTextureAtlas.setNumberOfRows(2); // Especifica la cantidad de filas para el texture atlas
-        fernModel = new TexturedModel(OldOBJLoader.loadOBJ(obj_dir + "fern", loader), fernTextureAtlas);
-
-        fernModel.getTexture().setHasTransparency(true);
-        herbModel.getTexture().setHasTransparency(true);
-        herbModel.getTexture().setUseFakeLighting(true);
-        flowerModel.getTexture().setHasTransparency(true);
-        flowerModel.getTexture().setUseFakeLighting(true);
-        lampModel.getTexture().setUseFakeLighting(true);
-    }
+        fernTextureAtlas.setHasTransparency(true);
 
-    private static void placeModels(List<Entity> entities, Terrain terrain) {
-        Random random = new Random(120);
-        for (int i = 0; i < 12; i++) {
-            if (i % 3 == 0) {
-                float x = random.nextFloat() * Terrain.SIZE, z = random.nextFloat() * -Terrain.SIZE;
-                float y = terrain.getHeightOfTerrain(x, z);
-                entities.add(new Entity(fernModel, random.nextInt(4), new Vector3f(x, y, z), new Vector3f(0, random.nextFloat() * 360, 0), new Vector3f(0.9f, 0.9f, 0.9f)));
-            }
-            if (i % 2 == 0) {
-                float x = random.nextFloat() * Terrain.SIZE, z = random.nextFloat() * -Terrain.SIZE;
-                float y = terrain.getHeightOfTerrain(x, z);
-                float sacale = random.nextFloat() * 0.6f + 0.8f;
-                entities.add(getEntity(treeModel, new Vector3f(x, y, z), new Vector3f(0, 0, 0), new Vector3f(sacale, sacale, sacale)));
-            }
-        }
+        treeModel = loadVegetation(loader, renderer, sun, obj_dir + "pine", new ModelTexture(loader.loadTexture(obj_dir + "pine")));
+        herbModel = loadVegetation(loader, renderer, sun, obj_dir + "herb", herbTexture);
+        flowerModel = loadVegetation(loader, renderer, sun, obj_dir + "herb", flowerTexture);
+        fernModel = loadVegetation(loader, renderer, sun, obj_dir + "fern", fernTextureAtlas);
     }
 
     private static TexturedModel getTexturedModel(Loader loader, String obj, String texture) {
         // Ahora el modelo en crudo y la textura se "juntan" para crear el modelo texturizado
-        return new TexturedModel(OldOBJLoader.loadOBJ(obj, loader), new ModelTexture(loader.loadTexture(texture)));
+        return loadModel(loader, obj, OBJLoader.loadOBJ(obj), new ModelTexture(loader.loadTexture(texture)));
     }
 
     /**
-     * Obtiene una nueva entidad texturizada con iluminacion especular y transformacion.
+     * Carga el modelo de vegetacion y genera su impostor para renderizar los ejemplares lejanos como quads instanciados.
      *
-     * @param texturedModel modelo texturizado.
-     * @return la entidad texturizada con iluminacion especular y transformacion.
+     * @param obj     nombre del archivo obj.
+     * @param texture textura del modelo.
+     * @return el modelo texturizado con sus niveles de detalle y su impostor.
      */
-    private static Entity getEntity(TexturedModel texturedModel, Vector3f position, Vector3f angle, Vector3f scale) {
-        // Aplica iluminacion especular a la textura
-        ModelTexture texture = texturedModel.getTexture();
-        // texture.setShineDamper(10);
-        // texture.setReflectivity(1);
-        return new Entity(texturedModel, position, angle, scale);
+    private static TexturedModel loadVegetation(Loader loader, MasterRenderer renderer, Light sun, String obj, ModelTexture texture) {
+        ModelData data = OBJLoader.loadOBJ(obj);
+        TexturedModel model = loadModel(loader, obj, data, texture);
+        renderer.createImpostor(model, data, sun.getPosition(), IMPOSTOR_DISTANCE);
+        return model;
     }
 
-    private static void updatePicker(MousePicker picker, Entity lamp, Light light) {
+    /**
+     * Carga el modelo optimizando el orden de sus triangulos y vertices antes de enviarlo a la GPU, y genera sus niveles de
+     * detalle. Los niveles que no logran reducir la cantidad de triangulos del nivel anterior se descartan.
+     *
+     * @param name    nombre del modelo, usado para mostrar el ACMR.
+     * @param data    datos del modelo.
+     * @param texture textura del modelo.
+     * @return el modelo texturizado con sus niveles de detalle.
+     */
+    private static TexturedModel loadModel(Loader loader, String name, ModelData data, ModelTexture texture) {
+        ModelData optimized = MeshOptimizer.optimize(data, true);
+        TexturedModel model = new TexturedModel(loadRawModel(loader, optimized), texture);
+        modelData.put(model, optimized);
+        StringBuilder stats = PRINT_MESH_STATS ? appendMeshStats(new StringBuilder(name), "base", optimized) : null;
+        ModelData[] lods = MeshSimplifier.generateLods(data, LOD_RATIOS);
+        int triangles = data.getIndices().length / 3;
+        for (int i = 0; i < lods.length; i++) {
+            int lodTriangles = lods[i].getIndices().length / 3;
+            if (lodTriangles >= triangles) break;
+            ModelData lod = MeshOptimizer.optimize(lods[i], true);
+            model.addLod(loadRawModel(loader, lod), LOD_SCREEN_SIZES[i]);
+            if (stats != null) appendMeshStats(stats, "lod" + (i + 1), lod);
+            triangles = lodTriangles;
+        }
+        if (stats != null) System.out.println(stats);
+        model.setBoundingRadius(data.getFurthestPoint());
+        return model;
+    }
+
+    private static StringBuilder appendMeshStats(StringBuilder stats, String level, ModelData data) {
+        return stats.append(String.format(" | %s: %d triangulos, ACMR %.3f -> %.3f", level, data.getIndices().length / 3, data.getACMRBefore(), data.getACMRAfter()));
+    }
+
+    private static RawModel loadRawModel(Loader loader, ModelData data) {
+        return loader.loadToVAO(data.getVertices(), data.getTextureCoords(), data.getNormals(), data.getIndices());
+    }
+
+    private static void updatePicker(MousePicker picker, SceneNode lamp) {
         picker.update();
         Vector3f terrainPoint = picker.getCurrentTerrainPoint();
-        if (terrainPoint != null) {
-            lamp.setPosition(terrainPoint);
-            light.setPosition(new Vector3f(terrainPoint.x, terrainPoint.y + 15, terrainPoint.z));
-        }
+        if (terrainPoint != null) lamp.setPosition(terrainPoint);
     }
 
 }
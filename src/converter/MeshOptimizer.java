@@ -0,0 +1,298 @@
+package converter;
+
+import java.util.Arrays;
+
+/**
+ * Reordena los triangulos y vertices de un modelo para que la GPU lo procese mas rapido sin cambiar su apariencia.
+ * <h3>Cache de vertices</h3>
+ * Despues de ejecutar el Vertex Shader sobre un vertice, la GPU guarda el resultado en una pequenia cache (post-transform
+ * cache) de manera que si el siguiente triangulo usa el mismo indice, no hace falta volver a procesarlo. Si los triangulos
+ * estan en el orden en que aparecen en el archivo .obj, los vertices compartidos suelen estar muy separados en el buffer de
+ * indices y la cache casi nunca acierta. El algoritmo de Forsyth ordena los triangulos eligiendo siempre el que mejor puntaje
+ * tiene segun cuantos de sus vertices estan en la cache y cuantos triangulos les quedan por usar a esos vertices.
+ * <p>
+ * La metrica usada para medirlo es el <b>ACMR</b> (average cache miss ratio), que es la cantidad de vertices procesados por
+ * triangulo. El peor caso es 3 (ningun vertice se reutiliza) y en una malla bien ordenada se acerca a 0.5-0.7.
+ * <h3>Overdraw</h3>
+ * Si los triangulos que miran hacia afuera del modelo se dibujan primero, tapan a los de atras y el depth test descarta los
+ * fragmentos ocultos antes de ejecutar el Fragment Shader. Para no arruinar la cache, los triangulos se ordenan por grupos
+ * (clusters) de triangulos consecutivos y no de forma individual.
+ * <h3>Vertex fetch</h3>
+ * Por ultimo, los vertices se renumeran en el orden en que los usa el buffer de indices, asi la GPU lee la memoria de forma
+ * secuencial. Los vertices que ningun triangulo usa se eliminan.
+ * <p>
+ * <a href="https://tomforsyth1000.github.io/papers/fast_vert_cache_opt.html">Linear-Speed Vertex Cache Optimisation</a>
+ * <a href="https://gfx.cs.princeton.edu/pubs/Sander_2007_%3ETR/tipsy.pdf">Fast Triangle Reordering for Vertex Locality and Reduced Overdraw</a>
+ */
+
+public class MeshOptimizer {
+
+    // Tamanio de la cache LRU que simula el algoritmo de Forsyth
+    private static final int CACHE_SIZE = 32;
+    // Tamanio de la cache FIFO usada para calcular el ACMR
+    private static final int ACMR_CACHE_SIZE = 16;
+    // Constantes del puntaje de Forsyth
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    // Cantidad de triangulos consecutivos que se mantienen juntos al ordenar por overdraw
+    private static final int OVERDRAW_CLUSTER_SIZE = 32;
+
+    /**
+     * Aplica todas las optimizaciones al modelo. El ACMR de antes y despues queda guardado en los datos devueltos para poder
+     * medir la mejora.
+     *
+     * @param data     datos del modelo.
+     * @param overdraw si tambien ordena los triangulos para reducir el overdraw.
+     * @return los datos del modelo optimizados.
+     */
+    public static ModelData optimize(ModelData data, boolean overdraw) {
+        int vertexCount = data.getVertices().length / 3;
+        int[] indices = optimizeVertexCache(data.getIndices(), vertexCount);
+        if (overdraw) indices = optimizeOverdraw(indices, data.getVertices(), OVERDRAW_CLUSTER_SIZE);
+        ModelData optimized = optimizeVertexFetch(new ModelData(data.getVertices(), data.getTextureCoords(), data.getNormals(), indices, data.getFurthestPoint()));
+        // Renumerar los vertices no cambia que vertices comparten los triangulos, asi que el ACMR final se mide sobre el resultado
+        optimized.setACMR(calculateACMR(data.getIndices(), vertexCount), calculateACMR(optimized.getIndices(), optimized.getVertices().length / 3));
+        return optimized;
+    }
+
+    /**
+     * Calcula el ACMR simulando una cache FIFO como la de la mayoria de las GPUs.
+     *
+     * @param indices     array de indices.
+     * @param vertexCount cantidad de vertices.
+     * @return la cantidad promedio de vertices procesados por triangulo.
+     */
+    public static float calculateACMR(int[] indices, int vertexCount) {
+        if (indices.length == 0) return 0;
+        // Momento (en cantidad de fallos) en que cada vertice entro a la cache
+        int[] timestamps = new int[vertexCount];
+        Arrays.fill(timestamps, -ACMR_CACHE_SIZE - 1);
+        int misses = 0;
+        for (int index : indices) {
+            // Si entraron mas de ACMR_CACHE_SIZE vertices despues de este, ya fue expulsado de la cache
+            if (misses - timestamps[index] > ACMR_CACHE_SIZE) timestamps[index] = misses++;
+        }
+        return (float) misses / (indices.length / 3);
+    }
+
+    /**
+     * Reordena los triangulos usando el algoritmo de Forsyth.
+     *
+     * @param indices     array de indices.
+     * @param vertexCount cantidad de vertices.
+     * @return un nuevo array de indices con los mismos triangulos en otro orden.
+     */
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+
+        // Lista de triangulos que usa cada vertice, guardadas de forma contigua en adjacency a partir de offsets[v]
+        int[] remaining = new int[vertexCount];
+        for (int index : indices) remaining[index]++;
+        int[] offsets = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) offsets[v + 1] = offsets[v] + remaining[v];
+        int[] adjacency = new int[indices.length];
+        int[] fill = Arrays.copyOf(offsets, vertexCount);
+        for (int t = 0; t < triangleCount; t++)
+            for (int k = 0; k < 3; k++) adjacency[fill[indices[t * 3 + k]]++] = t;
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) vertexScores[v] = vertexScore(-1, remaining[v]);
+        float[] triangleScores = new float[triangleCount];
+        boolean[] emitted = new boolean[triangleCount];
+
+        int best = -1;
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]] + vertexScores[indices[t * 3 + 2]];
+            if (best == -1 || triangleScores[t] > triangleScores[best]) best = t;
+        }
+
+        // La cache tiene 3 lugares extra para los vertices del triangulo que se agrega antes de expulsar los ultimos
+        int[] cache = new int[CACHE_SIZE + 3], newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int[] result = new int[triangleCount * 3];
+        int cursor = 0; // Primer triangulo que podria no haberse emitido, para buscar el siguiente cuando la cache se vacia
+
+        for (int emittedCount = 0; emittedCount < triangleCount; emittedCount++) {
+            emitted[best] = true;
+            int a = indices[best * 3], b = indices[best * 3 + 1], c = indices[best * 3 + 2];
+            result[emittedCount * 3] = a;
+            result[emittedCount * 3 + 1] = b;
+            result[emittedCount * 3 + 2] = c;
+
+            // Los vertices del triangulo pasan al frente de la cache y el resto se desplaza
+            int newCount = 0;
+            newCache[newCount++] = a;
+            if (b != a) newCache[newCount++] = b;
+            if (c != a && c != b) newCache[newCount++] = c;
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                if (v != a && v != b && v != c) newCache[newCount++] = v;
+            }
+
+            // Quita el triangulo de la lista de triangulos pendientes de cada uno de sus vertices
+            for (int k = 0; k < 3; k++) {
+                int v = indices[best * 3 + k];
+                int start = offsets[v], end = start + remaining[v];
+                for (int i = start; i < end; i++) {
+                    if (adjacency[i] == best) {
+                        adjacency[i] = adjacency[end - 1];
+                        remaining[v]--;
+                        break;
+                    }
+                }
+            }
+
+            // Actualiza el puntaje de los vertices que estan (o acaban de salir de) la cache
+            for (int i = 0; i < newCount; i++) {
+                int v = newCache[i];
+                cachePosition[v] = i < CACHE_SIZE ? i : -1;
+                vertexScores[v] = vertexScore(cachePosition[v], remaining[v]);
+            }
+
+            // El siguiente triangulo es el de mayor puntaje entre los que usan algun vertice de la cache
+            best = -1;
+            for (int i = 0; i < newCount; i++) {
+                int v = newCache[i];
+                for (int j = offsets[v], end = offsets[v] + remaining[v]; j < end; j++) {
+                    int t = adjacency[j];
+                    triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]] + vertexScores[indices[t * 3 + 2]];
+                    if (best == -1 || triangleScores[t] > triangleScores[best]) best = t;
+                }
+            }
+
+            int[] temp = cache;
+            cache = newCache;
+            newCache = temp;
+            cacheCount = Math.min(newCount, CACHE_SIZE);
+
+            // Si ningun vertice de la cache tiene triangulos pendientes, continua con el primero que no se emitio
+            if (best == -1 && emittedCount + 1 < triangleCount) {
+                while (emitted[cursor]) cursor++;
+                best = cursor;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Ordena grupos de triangulos consecutivos para que los que estan en el exterior del modelo y miran hacia afuera se dibujen
+     * primero. Conviene llamarlo despues de {@link #optimizeVertexCache(int[], int)} para que cada grupo conserve la localidad
+     * de la cache.
+     *
+     * @param indices     array de indices.
+     * @param positions   array de posiciones.
+     * @param clusterSize cantidad de triangulos por grupo.
+     * @return un nuevo array de indices.
+     */
+    public static int[] optimizeOverdraw(int[] indices, float[] positions, int clusterSize) {
+        int triangleCount = indices.length / 3;
+        int clusterCount = (triangleCount + clusterSize - 1) / clusterSize;
+
+        // Centro del modelo ponderado por el area de cada triangulo
+        float[] centroids = new float[clusterCount * 3], normals = new float[clusterCount * 3], areas = new float[clusterCount];
+        float meshX = 0, meshY = 0, meshZ = 0, meshArea = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            int cluster = t / clusterSize;
+            int a = indices[t * 3] * 3, b = indices[t * 3 + 1] * 3, c = indices[t * 3 + 2] * 3;
+            float e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1], e1z = positions[b + 2] - positions[a + 2];
+            float e2x = positions[c] - positions[a], e2y = positions[c + 1] - positions[a + 1], e2z = positions[c + 2] - positions[a + 2];
+            // El producto vectorial de dos aristas es la normal del triangulo y su longitud es el doble del area
+            float nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+            float area = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            float cx = (positions[a] + positions[b] + positions[c]) / 3, cy = (positions[a + 1] + positions[b + 1] + positions[c + 1]) / 3, cz = (positions[a + 2] + positions[b + 2] + positions[c + 2]) / 3;
+            centroids[cluster * 3] += cx * area;
+            centroids[cluster * 3 + 1] += cy * area;
+            centroids[cluster * 3 + 2] += cz * area;
+            normals[cluster * 3] += nx;
+            normals[cluster * 3 + 1] += ny;
+            normals[cluster * 3 + 2] += nz;
+            areas[cluster] += area;
+            meshX += cx * area;
+            meshY += cy * area;
+            meshZ += cz * area;
+            meshArea += area;
+        }
+        if (meshArea > 0) {
+            meshX /= meshArea;
+            meshY /= meshArea;
+            meshZ /= meshArea;
+        }
+
+        /* El puntaje de cada grupo es la distancia desde el centro del modelo proyectada sobre la normal promedio del grupo. Los
+         * grupos con mayor puntaje estan en la parte de afuera y mirando hacia afuera, por lo que es mas probable que tapen a
+         * los demas. */
+        Integer[] order = new Integer[clusterCount];
+        float[] scores = new float[clusterCount];
+        for (int i = 0; i < clusterCount; i++) {
+            order[i] = i;
+            float length = (float) Math.sqrt(normals[i * 3] * normals[i * 3] + normals[i * 3 + 1] * normals[i * 3 + 1] + normals[i * 3 + 2] * normals[i * 3 + 2]);
+            if (length == 0 || areas[i] == 0) continue;
+            float dx = centroids[i * 3] / areas[i] - meshX, dy = centroids[i * 3 + 1] / areas[i] - meshY, dz = centroids[i * 3 + 2] / areas[i] - meshZ;
+            scores[i] = (dx * normals[i * 3] + dy * normals[i * 3 + 1] + dz * normals[i * 3 + 2]) / length;
+        }
+        Arrays.sort(order, (x, y) -> Float.compare(scores[y], scores[x]));
+
+        int[] result = new int[indices.length];
+        int pointer = 0;
+        for (int cluster : order) {
+            int start = cluster * clusterSize * 3, end = Math.min((cluster + 1) * clusterSize, triangleCount) * 3;
+            for (int i = start; i < end; i++) result[pointer++] = indices[i];
+        }
+        return result;
+    }
+
+    /**
+     * Renumera los vertices en el orden en que aparecen por primera vez en el buffer de indices y elimina los que no se usan.
+     *
+     * @param data datos del modelo.
+     * @return los datos del modelo con los vertices reordenados.
+     */
+    public static ModelData optimizeVertexFetch(ModelData data) {
+        int vertexCount = data.getVertices().length / 3;
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int[] indices = new int[data.getIndices().length];
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int index = data.getIndices()[i];
+            if (remap[index] == -1) remap[index] = next++;
+            indices[i] = remap[index];
+        }
+
+        float[] vertices = new float[next * 3], textureCoords = new float[next * 2], normals = new float[next * 3];
+        for (int v = 0; v < vertexCount; v++) {
+            int target = remap[v];
+            if (target == -1) continue;
+            System.arraycopy(data.getVertices(), v * 3, vertices, target * 3, 3);
+            System.arraycopy(data.getTextureCoords(), v * 2, textureCoords, target * 2, 2);
+            System.arraycopy(data.getNormals(), v * 3, normals, target * 3, 3);
+        }
+        return new ModelData(vertices, textureCoords, normals, indices, data.getFurthestPoint());
+    }
+
+    /**
+     * Calcula el puntaje de Forsyth de un vertice. Los vertices que estan al frente de la cache y los que tienen pocos
+     * triangulos pendientes tienen mayor puntaje (terminar de usar un vertice permite sacarlo de la cache).
+     *
+     * @param cachePosition posicion en la cache o -1 si no esta.
+     * @param remaining     cantidad de triangulos pendientes que usan el vertice.
+     * @return el puntaje del vertice.
+     */
+    private static float vertexScore(int cachePosition, int remaining) {
+        if (remaining == 0) return -1; // Ya no hay triangulos que lo usen
+        float score = 0;
+        if (cachePosition >= 0) {
+            // Los vertices del ultimo triangulo tienen un puntaje fijo para no favorecer un orden especifico entre ellos
+            if (cachePosition < 3) score = LAST_TRIANGLE_SCORE;
+            else score = (float) Math.pow(1 - (cachePosition - 3) * (1f / (CACHE_SIZE - 3)), CACHE_DECAY_POWER);
+        }
+        score += VALENCE_BOOST_SCALE * (float) Math.pow(remaining, -VALENCE_BOOST_POWER);
+        return score;
+    }
+
+}
@@ -0,0 +1,296 @@
+package converter;
+
+import java.util.*;
+
+/**
+ * Genera versiones simplificadas (niveles de detalle o LODs) de un modelo mediante el colapso de aristas guiado por quadricas
+ * de error.
+ * <p>
+ * Cada vertice acumula una quadrica, que es una matriz simetrica de 4x4 construida a partir de los planos de los triangulos
+ * que lo rodean. Evaluar la quadrica en un punto da la suma de las distancias al cuadrado de ese punto a todos esos planos, asi
+ * que indica cuanto se deformaria la superficie si el vertice se moviera a ese punto. En cada paso se colapsa la arista de
+ * menor error, moviendo uno de sus vertices sobre el otro (half-edge collapse). Como el vertice que queda ya existe, sus
+ * coordenadas de textura y normal siguen siendo validas y no hace falta interpolarlas.
+ * <p>
+ * Los vertices que comparten posicion con otro vertice (las costuras de textura que duplica {@link OBJLoader}) no se mueven,
+ * porque moverlos separaria las dos copias y abriria un agujero en el modelo. Los bordes abiertos (como los de las hojas del
+ * helecho) se protegen agregando planos perpendiculares a ellos para que solo colapsen a lo largo del borde.
+ * <p>
+ * <a href="https://www.cs.cmu.edu/~./garland/Papers/quadrics.pdf">Surface Simplification Using Quadric Error Metrics</a>
+ */
+
+public class MeshSimplifier {
+
+    // Peso de los planos que protegen los bordes abiertos
+    private static final double BOUNDARY_WEIGHT = 100;
+
+    /**
+     * Genera un nivel de detalle por cada proporcion de triangulos especificada.
+     *
+     * @param data   datos del modelo original.
+     * @param ratios proporcion de triangulos que conserva cada nivel (por ejemplo 0.5 para la mitad).
+     * @return los datos de cada nivel de detalle, en el mismo orden que las proporciones.
+     */
+    public static ModelData[] generateLods(ModelData data, float... ratios) {
+        ModelData[] lods = new ModelData[ratios.length];
+        for (int i = 0; i < ratios.length; i++)
+            lods[i] = simplify(data, Math.max(1, (int) (data.getIndices().length / 3 * ratios[i])));
+        return lods;
+    }
+
+    /**
+     * Simplifica el modelo hasta que tenga como maximo la cantidad de triangulos especificada o hasta que no queden aristas que
+     * se puedan colapsar sin dar vuelta algun triangulo.
+     *
+     * @param data           datos del modelo.
+     * @param targetTriangles cantidad de triangulos deseada.
+     * @return los datos del modelo simplificado.
+     */
+    public static ModelData simplify(ModelData data, int targetTriangles) {
+        float[] positions = data.getVertices();
+        int[] indices = Arrays.copyOf(data.getIndices(), data.getIndices().length);
+        int vertexCount = positions.length / 3, triangleCount = indices.length / 3;
+
+        // Triangulos que usa cada vertice
+        List<List<Integer>> vertexTriangles = new ArrayList<>(vertexCount);
+        for (int v = 0; v < vertexCount; v++) vertexTriangles.add(new ArrayList<>());
+        for (int t = 0; t < triangleCount; t++)
+            for (int k = 0; k < 3; k++) vertexTriangles.get(indices[t * 3 + k]).add(t);
+
+        boolean[] locked = findSeamVertices(positions);
+        double[][] quadrics = new double[vertexCount][10];
+        for (int t = 0; t < triangleCount; t++) addTriangleQuadric(quadrics, positions, indices, t);
+        addBoundaryQuadrics(quadrics, positions, indices);
+
+        boolean[] removedTriangles = new boolean[triangleCount];
+        boolean[] removedVertices = new boolean[vertexCount];
+        int[] versions = new int[vertexCount];
+
+        PriorityQueue<Collapse> queue = new PriorityQueue<>();
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int a = indices[t * 3 + k], b = indices[t * 3 + (k + 1) % 3];
+                pushCollapse(queue, quadrics, positions, locked, versions, a, b);
+                pushCollapse(queue, quadrics, positions, locked, versions, b, a);
+            }
+        }
+
+        int remaining = triangleCount;
+        while (remaining > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            int from = collapse.from, to = collapse.to;
+            // Descarta los colapsos calculados antes de que alguno de los dos vertices cambiara
+            if (removedVertices[from] || removedVertices[to] || versions[from] != collapse.fromVersion || versions[to] != collapse.toVersion)
+                continue;
+            if (!isValidCollapse(positions, indices, vertexTriangles.get(from), removedTriangles, from, to)) continue;
+
+            for (int t : vertexTriangles.get(from)) {
+                if (removedTriangles[t]) continue;
+                if (indices[t * 3] == to || indices[t * 3 + 1] == to || indices[t * 3 + 2] == to) {
+                    // El triangulo contiene la arista colapsada y queda degenerado
+                    removedTriangles[t] = true;
+                    remaining--;
+                } else {
+                    for (int k = 0; k < 3; k++)
+                        if (indices[t * 3 + k] == from) indices[t * 3 + k] = to;
+                    vertexTriangles.get(to).add(t);
+                }
+            }
+            removedVertices[from] = true;
+            for (int i = 0; i < 10; i++) quadrics[to][i] += quadrics[from][i];
+            versions[to]++;
+
+            // Recalcula el costo de las aristas que ahora llegan al vertice resultante
+            for (int t : vertexTriangles.get(to)) {
+                if (removedTriangles[t]) continue;
+                for (int k = 0; k < 3; k++) {
+                    int other = indices[t * 3 + k];
+                    if (other == to) continue;
+                    pushCollapse(queue, quadrics, positions, locked, versions, to, other);
+                    pushCollapse(queue, quadrics, positions, locked, versions, other, to);
+                }
+            }
+        }
+
+        int[] result = new int[remaining * 3];
+        int pointer = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            if (removedTriangles[t]) continue;
+            result[pointer++] = indices[t * 3];
+            result[pointer++] = indices[t * 3 + 1];
+            result[pointer++] = indices[t * 3 + 2];
+        }
+        // Elimina los vertices que quedaron sin usar
+        return MeshOptimizer.optimizeVertexFetch(new ModelData(positions, data.getTextureCoords(), data.getNormals(), result, data.getFurthestPoint()));
+    }
+
+    /**
+     * Encuentra los vertices que comparten posicion con otro vertice.
+     *
+     * @param positions array de posiciones.
+     * @return un array que indica si cada vertice esta en una costura.
+     */
+    private static boolean[] findSeamVertices(float[] positions) {
+        int vertexCount = positions.length / 3;
+        Map<String, Integer> firstVertex = new HashMap<>();
+        boolean[] seam = new boolean[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            String key = positions[v * 3] + "," + positions[v * 3 + 1] + "," + positions[v * 3 + 2];
+            Integer other = firstVertex.putIfAbsent(key, v);
+            if (other != null) seam[v] = seam[other] = true;
+        }
+        return seam;
+    }
+
+    /**
+     * Suma la quadrica del plano del triangulo (ponderada por su area) a cada uno de sus vertices.
+     */
+    private static void addTriangleQuadric(double[][] quadrics, float[] positions, int[] indices, int t) {
+        int a = indices[t * 3], b = indices[t * 3 + 1], c = indices[t * 3 + 2];
+        double[] normal = triangleNormal(positions, a, b, c);
+        double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+        if (length == 0) return;
+        double nx = normal[0] / length, ny = normal[1] / length, nz = normal[2] / length;
+        double d = -(nx * positions[a * 3] + ny * positions[a * 3 + 1] + nz * positions[a * 3 + 2]);
+        double area = length / 2;
+        for (int k = 0; k < 3; k++) addPlane(quadrics[indices[t * 3 + k]], nx, ny, nz, d, area);
+    }
+
+    /**
+     * Agrega a los vertices de cada borde abierto un plano perpendicular al triangulo que contiene el borde, de modo que alejar
+     * un vertice del borde tenga un error alto.
+     */
+    private static void addBoundaryQuadrics(double[][] quadrics, float[] positions, int[] indices) {
+        Map<Long, Integer> edgeCount = new HashMap<>();
+        for (int t = 0; t < indices.length / 3; t++) {
+            for (int k = 0; k < 3; k++) {
+                long key = edgeKey(indices[t * 3 + k], indices[t * 3 + (k + 1) % 3]);
+                edgeCount.merge(key, 1, Integer::sum);
+            }
+        }
+        for (int t = 0; t < indices.length / 3; t++) {
+            int a = indices[t * 3], b = indices[t * 3 + 1], c = indices[t * 3 + 2];
+            double[] normal = triangleNormal(positions, a, b, c);
+            for (int k = 0; k < 3; k++) {
+                int from = indices[t * 3 + k], to = indices[t * 3 + (k + 1) % 3];
+                if (edgeCount.get(edgeKey(from, to)) != 1) continue;
+                double ex = positions[to * 3] - positions[from * 3], ey = positions[to * 3 + 1] - positions[from * 3 + 1], ez = positions[to * 3 + 2] - positions[from * 3 + 2];
+                // El plano contiene el borde y es perpendicular al triangulo
+                double px = ey * normal[2] - ez * normal[1], py = ez * normal[0] - ex * normal[2], pz = ex * normal[1] - ey * normal[0];
+                double length = Math.sqrt(px * px + py * py + pz * pz);
+                if (length == 0) continue;
+                px /= length;
+                py /= length;
+                pz /= length;
+                double d = -(px * positions[from * 3] + py * positions[from * 3 + 1] + pz * positions[from * 3 + 2]);
+                addPlane(quadrics[from], px, py, pz, d, BOUNDARY_WEIGHT);
+                addPlane(quadrics[to], px, py, pz, d, BOUNDARY_WEIGHT);
+            }
+        }
+    }
+
+    /**
+     * Verifica que mover el vertice from sobre to no de vuelta ninguno de los triangulos que sobreviven al colapso.
+     */
+    private static boolean isValidCollapse(float[] positions, int[] indices, List<Integer> triangles, boolean[] removedTriangles, int from, int to) {
+        for (int t : triangles) {
+            if (removedTriangles[t]) continue;
+            int a = indices[t * 3], b = indices[t * 3 + 1], c = indices[t * 3 + 2];
+            if (a == to || b == to || c == to) continue;
+            double[] before = triangleNormal(positions, a, b, c);
+            double[] after = triangleNormal(positions, a == from ? to : a, b == from ? to : b, c == from ? to : c);
+            if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) return false;
+        }
+        return true;
+    }
+
+    private static void pushCollapse(PriorityQueue<Collapse> queue, double[][] quadrics, float[] positions, boolean[] locked, int[] versions, int from, int to) {
+        if (locked[from]) return;
+        double[] q = quadrics[from], r = quadrics[to];
+        double x = positions[to * 3], y = positions[to * 3 + 1], z = positions[to * 3 + 2];
+        // Evalua (Qfrom + Qto) en la posicion del vertice de destino
+        double error = 0;
+        for (int i = 0; i < 10; i++) error += evaluateTerm(i, q[i] + r[i], x, y, z);
+        queue.add(new Collapse(from, to, Math.max(0, error), versions[from], versions[to]));
+    }
+
+    /**
+     * Suma el plano (a, b, c, d) a la quadrica, guardada como los 10 coeficientes de la mitad superior de la matriz
+     * simetrica: aa, ab, ac, ad, bb, bc, bd, cc, cd, dd.
+     */
+    private static void addPlane(double[] q, double a, double b, double c, double d, double weight) {
+        q[0] += weight * a * a;
+        q[1] += weight * a * b;
+        q[2] += weight * a * c;
+        q[3] += weight * a * d;
+        q[4] += weight * b * b;
+        q[5] += weight * b * c;
+        q[6] += weight * b * d;
+        q[7] += weight * c * c;
+        q[8] += weight * c * d;
+        q[9] += weight * d * d;
+    }
+
+    /**
+     * Evalua un termino de v^T * Q * v, donde v = (x, y, z, 1). Los terminos fuera de la diagonal aparecen dos veces.
+     */
+    private static double evaluateTerm(int i, double value, double x, double y, double z) {
+        switch (i) {
+            case 0:
+                return value * x * x;
+            case 1:
+                return 2 * value * x * y;
+            case 2:
+                return 2 * value * x * z;
+            case 3:
+                return 2 * value * x;
+            case 4:
+                return value * y * y;
+            case 5:
+                return 2 * value * y * z;
+            case 6:
+                return 2 * value * y;
+            case 7:
+                return value * z * z;
+            case 8:
+                return 2 * value * z;
+            default:
+                return value;
+        }
+    }
+
+    private static double[] triangleNormal(float[] positions, int a, int b, int c) {
+        double e1x = positions[b * 3] - positions[a * 3], e1y = positions[b * 3 + 1] - positions[a * 3 + 1], e1z = positions[b * 3 + 2] - positions[a * 3 + 2];
+        double e2x = positions[c * 3] - positions[a * 3], e2y = positions[c * 3 + 1] - positions[a * 3 + 1], e2z = positions[c * 3 + 2] - positions[a * 3 + 2];
+        return new double[]{e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+    }
+
+    private static long edgeKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    /**
+     * Colapso candidato del vertice from sobre el vertice to.
+     */
+    private static class Collapse implements Comparable<Collapse> {
+
+        private final int from, to;
+        private final double error;
+        private final int fromVersion, toVersion; // Versiones de los vertices cuando se calculo el error
+
+        private Collapse(int from, int to, double error, int fromVersion, int toVersion) {
+            this.from = from;
+            this.to = to;
+            this.error = error;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(error, other.error);
+        }
+
+    }
+
+}
@@ -11,6 +11,8 @@ public class ModelData {
     private final float[] normals;
     private final int[] indices;
     private final float furthestPoint; // Punto mas lejano
+    // ACMR antes y despues de optimizar el modelo, o -1 si no se optimizo
+    private float acmrBefore = -1, acmrAfter = -1;
 
     public ModelData(float[] vertices, float[] textureCoords, float[] normals, int[] indices, float furthestPoint) {
         this.vertices = vertices;
@@ -40,4 +42,17 @@ public class ModelData {
         return furthestPoint;
     }
 
+    void setACMR(float before, float after) {
+        acmrBefore = before;
+        acmrAfter = after;
+    }
+
+    public float getACMRBefore() {
+        return acmrBefore;
+    }
+
+    public float getACMRAfter() {
+        return acmrAfter;
+    }
+
 }
@@ -9,6 +9,16 @@ import models.RawModel;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
+/**
+ * Primer analizador de archivos obj. Escribe las coordenadas de textura y normales de cada cara directamente sobre el indice de
+ * la posicion, por lo que si una misma posicion se usa con distintas coordenadas de textura (una costura de textura), la ultima
+ * cara procesada pisa los valores de las anteriores y la textura se ve corrupta en la costura.
+ *
+ * @deprecated usar {@link OBJLoader}, que duplica los vertices de las costuras y permite optimizar el modelo con
+ * {@link MeshOptimizer} antes de cargarlo.
+ */
+
+@Deprecated
 public class OldOBJLoader {
 
     /**
@@ -0,0 +1,36 @@
+package deferred;
+
+import shaders.ShaderProgram;
+
+public class CompositeShader extends ShaderProgram {
+
+    private static final String VERTEX_FILE = "src/deferred/compositeVertexShader.glsl";
+    private static final String FRAGMENT_FILE = "src/deferred/compositeFragmentShader.glsl";
+
+    private int location_albedoTexture, location_diffuseTexture, location_specularTexture, location_depthTexture;
+
+    public CompositeShader() {
+        super(VERTEX_FILE, FRAGMENT_FILE);
+    }
+
+    @Override
+    protected void bindAttributes() {
+        bindAttribute(0, "position");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_albedoTexture = getUniformLocation("albedoTexture");
+        location_diffuseTexture = getUniformLocation("diffuseTexture");
+        location_specularTexture = getUniformLocation("specularTexture");
+        location_depthTexture = getUniformLocation("depthTexture");
+    }
+
+    public void connectTextureUnits() {
+        loadInt(location_albedoTexture, DeferredRenderer.ALBEDO_UNIT);
+        loadInt(location_diffuseTexture, DeferredRenderer.DIFFUSE_UNIT);
+        loadInt(location_specularTexture, DeferredRenderer.SPECULAR_UNIT);
+        loadInt(location_depthTexture, DeferredRenderer.DEPTH_UNIT);
+    }
+
+}
@@ -0,0 +1,244 @@
+package deferred;
+
+import entities.Camera;
+import entities.Light;
+import models.RawModel;
+import render.Loader;
+import shaders.ShaderVariants;
+import shadows.ShadowMapRenderer;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Renderizado diferido, una alternativa a los shaders forward cuando muchas luces se superponen sobre vegetacion densa.
+ * <p>
+ * Las entidades y el terreno se renderizan primero al G-buffer con la variante {@code DEFERRED} de sus shaders, que solo guarda
+ * los datos de la superficie sin calcular la iluminacion. Despues cada luz se dibuja una sola vez: las luces sin atenuacion con
+ * un quad de pantalla completa y las luces locales con una esfera del tamanio de su radio de influencia, sumando su aporte al
+ * buffer de luces. Asi el costo de la iluminacion depende de la cantidad de pixeles que toca cada luz y no de cuantas veces se
+ * dibujo encima de cada pixel. Por ultimo, la composicion combina el albedo con la luz acumulada en el framebuffer actual.
+ */
+
+public class DeferredRenderer {
+
+    // Unidades de textura de los buffers
+    public static final int ALBEDO_UNIT = 0, NORMAL_UNIT = 1, MATERIAL_UNIT = 2, DEPTH_UNIT = 3, DIFFUSE_UNIT = 4, SPECULAR_UNIT = 5;
+
+    private static final int MAX_LIGHTS = 1024; // Luces por llamada
+    private static final int INSTANCE_DATA_LENGTH = 10; // x, y, z, radio, color y atenuacion
+
+    private static final float[] QUAD = {-1, 1, -1, -1, 1, 1, 1, -1};
+    private static final int SPHERE_SEGMENTS = 12, SPHERE_RINGS = 8;
+
+    private static final FloatBuffer buffer = BufferUtils.createFloatBuffer(MAX_LIGHTS * INSTANCE_DATA_LENGTH);
+
+    private final Loader loader;
+    private final GBuffer gBuffer = new GBuffer(Display.getWidth(), Display.getHeight());
+    private final RawModel quad, sphere;
+    private final int globalVbo, localVbo;
+    private final ShaderVariants<LightShader> lightShaders = new ShaderVariants<>(LightShader.FEATURES, LightShader::new, LightShader::isValid);
+    private final CompositeShader compositeShader = new CompositeShader();
+    private final Matrix4f projectionMatrix;
+    private final Matrix4f inverseViewProjection = new Matrix4f();
+    private final List<Light> sunLight = new ArrayList<>(1); // Lista con solo el sol para la pasada con sombras
+
+    public DeferredRenderer(Loader loader, Matrix4f projectionMatrix) {
+        this.loader = loader;
+        this.projectionMatrix = projectionMatrix;
+        quad = loader.loadToVAO(QUAD, 2);
+        sphere = loader.loadToVAO(createSphere(), 3);
+        globalVbo = createInstancedAttributes(quad);
+        localVbo = createInstancedAttributes(sphere);
+        for (LightShader shader : lightShaders.getAll()) {
+            shader.start();
+            shader.loadProjectionMatrix(projectionMatrix);
+            shader.loadScreenSize(Display.getWidth(), Display.getHeight());
+            shader.connectTextureUnits();
+            shader.stop();
+        }
+        compositeShader.start();
+        compositeShader.connectTextureUnits();
+        compositeShader.stop();
+    }
+
+    /**
+     * Vincula el G-buffer para la pasada de geometria.
+     */
+    public void bindGBuffer() {
+        gBuffer.bindGeometry();
+        glEnable(GL_DEPTH_TEST);
+    }
+
+    /**
+     * Acumula la iluminacion de todas las luces en el buffer de luces y vuelve al framebuffer por defecto.
+     *
+     * @param lights     fuentes de luz de la escena.
+     * @param camera     camara.
+     * @param viewMatrix matriz de vista de la pasada.
+     * @param sun        luz que proyecta las sombras, que se dibuja sola, o null si no hay sombras.
+     * @param shadows    renderer del mapa de sombras ya renderizado, o null si no hay sombras.
+     */
+    public void renderLights(List<Light> lights, Camera camera, Matrix4f viewMatrix, Light sun, ShadowMapRenderer shadows) {
+        gBuffer.bindLighting();
+        Matrix4f.mul(projectionMatrix, viewMatrix, inverseViewProjection);
+        inverseViewProjection.invert();
+        bindTexture(NORMAL_UNIT, gBuffer.getNormalTexture());
+        bindTexture(MATERIAL_UNIT, gBuffer.getMaterialTexture());
+        bindTexture(DEPTH_UNIT, gBuffer.getDepthTexture());
+        // Suma el aporte de cada luz sin modificar la profundidad
+        glEnable(GL_BLEND);
+        glBlendFunc(GL_ONE, GL_ONE);
+        glDepthMask(false);
+
+        glDisable(GL_DEPTH_TEST);
+        if (sun != null && shadows != null) {
+            sunLight.clear();
+            sunLight.add(sun);
+            renderLights(sunLight, null, LightShader.GLOBAL_LIGHT | LightShader.SHADOWS, quad, globalVbo, GL_TRIANGLE_STRIP, camera, viewMatrix, shadows);
+            renderLights(lights, sun, LightShader.GLOBAL_LIGHT, quad, globalVbo, GL_TRIANGLE_STRIP, camera, viewMatrix, null);
+        } else renderLights(lights, null, LightShader.GLOBAL_LIGHT, quad, globalVbo, GL_TRIANGLE_STRIP, camera, viewMatrix, null);
+
+        /* Dibuja las caras interiores de las esferas y solo pasan los pixeles cuya superficie esta delante de ellas, lo que
+         * tambien funciona cuando la camara esta dentro de la esfera. Las esferas que pasan el plano lejano se aplastan contra
+         * el en lugar de recortarse. */
+        glEnable(GL_DEPTH_TEST);
+        glDepthFunc(GL_GEQUAL);
+        glCullFace(GL_FRONT);
+        glEnable(GL_DEPTH_CLAMP);
+        renderLights(lights, null, 0, sphere, localVbo, GL_TRIANGLES, camera, viewMatrix, null);
+        glDisable(GL_DEPTH_CLAMP);
+        glCullFace(GL_BACK);
+        glDepthFunc(GL_LESS);
+
+        glDepthMask(true);
+        glDisable(GL_BLEND);
+        gBuffer.unbind();
+    }
+
+    /**
+     * Combina el albedo con la iluminacion acumulada en el framebuffer actual y escribe la profundidad de la escena.
+     */
+    public void composite() {
+        compositeShader.start();
+        bindTexture(ALBEDO_UNIT, gBuffer.getAlbedoTexture());
+        bindTexture(DIFFUSE_UNIT, gBuffer.getDiffuseTexture());
+        bindTexture(SPECULAR_UNIT, gBuffer.getSpecularTexture());
+        bindTexture(DEPTH_UNIT, gBuffer.getDepthTexture());
+        glBindVertexArray(quad.getID());
+        glEnableVertexAttribArray(0);
+        glDrawArrays(GL_TRIANGLE_STRIP, 0, quad.getVertexCount());
+        glDisableVertexAttribArray(0);
+        glBindVertexArray(0);
+        compositeShader.stop();
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    /**
+     * Dibuja las luces globales o las locales con una llamada instanciada por cada {@link #MAX_LIGHTS} luces.
+     *
+     * @param skip     luz que ya se dibujo, o null.
+     * @param features variante del shader, que indica si se dibujan las luces globales.
+     * @param shadows  renderer del mapa de sombras para la variante con sombras, o null.
+     */
+    private void renderLights(List<Light> lights, Light skip, int features, RawModel model, int vbo, int mode, Camera camera, Matrix4f viewMatrix, ShadowMapRenderer shadows) {
+        boolean global = (features & LightShader.GLOBAL_LIGHT) != 0;
+        LightShader shader = null;
+        int index = 0;
+        while (index < lights.size()) {
+            buffer.clear();
+            int count = 0;
+            for (; index < lights.size() && count < MAX_LIGHTS; index++) {
+                Light light = lights.get(index);
+                float radius = light.getRadius();
+                if (Float.isInfinite(radius) != global || radius <= 0 || light == skip) continue;
+                storeLight(light, radius);
+                count++;
+            }
+            if (count == 0) break;
+            if (shader == null) {
+                shader = lightShaders.get(features);
+                shader.start();
+                shader.loadCamera(viewMatrix, inverseViewProjection, camera.getPosition());
+                if (shadows != null) {
+                    shader.loadShadows(shadows);
+                    shadows.bindShadowMap();
+                }
+                glBindVertexArray(model.getID());
+                for (int i = 0; i < 4; i++) glEnableVertexAttribArray(i);
+            }
+            buffer.flip();
+            loader.updateVbo(vbo, buffer);
+            glDrawArraysInstanced(mode, 0, model.getVertexCount(), count);
+        }
+        if (shader == null) return;
+        for (int i = 0; i < 4; i++) glDisableVertexAttribArray(i);
+        glBindVertexArray(0);
+        shader.stop();
+    }
+
+    private void storeLight(Light light, float radius) {
+        Vector3f position = light.getPosition(), colour = light.getColour(), attenuation = light.getAttenuation();
+        buffer.put(position.x).put(position.y).put(position.z).put(Float.isInfinite(radius) ? 0 : radius);
+        buffer.put(colour.x).put(colour.y).put(colour.z);
+        buffer.put(attenuation.x).put(attenuation.y).put(attenuation.z);
+    }
+
+    private int createInstancedAttributes(RawModel model) {
+        int vbo = loader.createEmptyVbo(MAX_LIGHTS * INSTANCE_DATA_LENGTH);
+        loader.addInstancedAttribute(model.getID(), vbo, 1, 4, INSTANCE_DATA_LENGTH, 0);
+        loader.addInstancedAttribute(model.getID(), vbo, 2, 3, INSTANCE_DATA_LENGTH, 4);
+        loader.addInstancedAttribute(model.getID(), vbo, 3, 3, INSTANCE_DATA_LENGTH, 7);
+        return vbo;
+    }
+
+    private static void bindTexture(int unit, int texture) {
+        glActiveTexture(GL_TEXTURE0 + unit);
+        glBindTexture(GL_TEXTURE_2D, texture);
+    }
+
+    /**
+     * Crea una esfera de radio 1 como lista de triangulos con las caras hacia afuera en sentido antihorario. Los vertices se
+     * alejan del centro lo suficiente para que las caras planas envuelvan a la esfera real y el volumen no recorte la luz.
+     *
+     * @return las posiciones de los vertices.
+     */
+    private static float[] createSphere() {
+        float scale = (float) (1 / (Math.cos(Math.PI / SPHERE_SEGMENTS) * Math.cos(Math.PI / SPHERE_RINGS / 2)));
+        float[] vertices = new float[SPHERE_SEGMENTS * SPHERE_RINGS * 6 * 3];
+        int pointer = 0;
+        for (int ring = 0; ring < SPHERE_RINGS; ring++) {
+            for (int segment = 0; segment < SPHERE_SEGMENTS; segment++) {
+                // Quad entre dos anillos y dos segmentos, dividido en dos triangulos
+                int[][] corners = {{ring, segment}, {ring + 1, segment}, {ring + 1, segment + 1}, {ring, segment}, {ring + 1, segment + 1}, {ring, segment + 1}};
+                for (int[] corner : corners) {
+                    double theta = Math.PI * corner[0] / SPHERE_RINGS, phi = 2 * Math.PI * corner[1] / SPHERE_SEGMENTS;
+                    vertices[pointer++] = (float) (Math.sin(theta) * Math.cos(phi)) * scale;
+                    vertices[pointer++] = (float) Math.cos(theta) * scale;
+                    vertices[pointer++] = (float) (-Math.sin(theta) * Math.sin(phi)) * scale;
+                }
+            }
+        }
+        return vertices;
+    }
+
+    public void clean() {
+        gBuffer.clean();
+        lightShaders.clean();
+        compositeShader.clean();
+    }
+
+}
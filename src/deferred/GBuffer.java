@@ -0,0 +1,152 @@
+package deferred;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.Display;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Framebuffers del renderizado diferido.
+ * <p>
+ * El G-buffer guarda los datos de la superficie visible en cada pixel: el albedo (con alpha 1 donde hay geometria), la normal
+ * en el espacio mundial, el material (shineDamper y reflectividad) y la profundidad. El buffer de luces acumula por separado la
+ * iluminacion difusa y especular de todas las luces, porque la composicion final aplica el minimo de luz ambiental solo a la
+ * difusa, igual que los shaders forward. Tiene su propio buffer de profundidad, copiado del G-buffer, para probar los volumenes
+ * de las luces contra la escena mientras la textura de profundidad se lee en el shader.
+ */
+
+public class GBuffer {
+
+    private final int width, height;
+    private final int frameBuffer, albedoTexture, normalTexture, materialTexture, depthTexture;
+    private final int lightFrameBuffer, diffuseTexture, specularTexture, lightDepthBuffer;
+
+    public GBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        frameBuffer = createFrameBuffer(3);
+        albedoTexture = createTextureAttachment(GL_COLOR_ATTACHMENT0, GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE);
+        normalTexture = createTextureAttachment(GL_COLOR_ATTACHMENT1, GL_RGBA16F, GL_RGBA, GL_FLOAT);
+        materialTexture = createTextureAttachment(GL_COLOR_ATTACHMENT2, GL_RG16F, GL_RG, GL_FLOAT);
+        depthTexture = createTextureAttachment(GL_DEPTH_ATTACHMENT, GL_DEPTH_COMPONENT24, GL_DEPTH_COMPONENT, GL_FLOAT);
+        checkFrameBuffer();
+        lightFrameBuffer = createFrameBuffer(2);
+        diffuseTexture = createTextureAttachment(GL_COLOR_ATTACHMENT0, GL_RGBA16F, GL_RGBA, GL_FLOAT);
+        specularTexture = createTextureAttachment(GL_COLOR_ATTACHMENT1, GL_RGBA16F, GL_RGBA, GL_FLOAT);
+        lightDepthBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, lightDepthBuffer);
+        // El formato tiene que ser igual al de la textura de profundidad para poder copiarla con glBlitFramebuffer()
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, lightDepthBuffer);
+        checkFrameBuffer();
+        unbind();
+    }
+
+    /**
+     * Vincula el G-buffer y lo limpia para la pasada de geometria. El alpha del albedo queda en 0 en los pixeles sin geometria.
+     */
+    public void bindGeometry() {
+        bind(frameBuffer);
+        glClearColor(0, 0, 0, 0);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+    }
+
+    /**
+     * Copia la profundidad del G-buffer al buffer de luces, lo vincula y limpia la iluminacion acumulada.
+     */
+    public void bindLighting() {
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, frameBuffer);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, lightFrameBuffer);
+        glBlitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+        bind(lightFrameBuffer);
+        glClearColor(0, 0, 0, 0);
+        glClear(GL_COLOR_BUFFER_BIT);
+    }
+
+    public void unbind() {
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glViewport(0, 0, Display.getWidth(), Display.getHeight());
+    }
+
+    private void bind(int id) {
+        glBindTexture(GL_TEXTURE_2D, 0); // Se asegura de que la textura no este unida
+        glBindFramebuffer(GL_FRAMEBUFFER, id);
+        glViewport(0, 0, width, height);
+    }
+
+    /**
+     * Crea el framebuffer e indica que renderiza a los primeros colores adjuntos, uno por cada salida del Fragment Shader.
+     *
+     * @param attachments cantidad de colores adjuntos.
+     * @return el id del framebuffer.
+     */
+    private int createFrameBuffer(int attachments) {
+        int id = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, id);
+        IntBuffer drawBuffers = BufferUtils.createIntBuffer(attachments);
+        for (int i = 0; i < attachments; i++) drawBuffers.put(GL_COLOR_ATTACHMENT0 + i);
+        drawBuffers.flip();
+        glDrawBuffers(drawBuffers);
+        return id;
+    }
+
+    private int createTextureAttachment(int attachment, int internalFormat, int format, int type) {
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, (ByteBuffer) null);
+        // Cada pixel se lee exactamente en su posicion, asi que no se interpola
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glFramebufferTexture(GL_FRAMEBUFFER, attachment, id, 0);
+        return id;
+    }
+
+    private static void checkFrameBuffer() {
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+            throw new RuntimeException("Could not create the G-buffer");
+    }
+
+    public void clean() {
+        glDeleteFramebuffers(frameBuffer);
+        glDeleteTextures(albedoTexture);
+        glDeleteTextures(normalTexture);
+        glDeleteTextures(materialTexture);
+        glDeleteTextures(depthTexture);
+        glDeleteFramebuffers(lightFrameBuffer);
+        glDeleteTextures(diffuseTexture);
+        glDeleteTextures(specularTexture);
+        glDeleteRenderbuffers(lightDepthBuffer);
+    }
+
+    public int getAlbedoTexture() {
+        return albedoTexture;
+    }
+
+    public int getNormalTexture() {
+        return normalTexture;
+    }
+
+    public int getMaterialTexture() {
+        return materialTexture;
+    }
+
+    public int getDepthTexture() {
+        return depthTexture;
+    }
+
+    public int getDiffuseTexture() {
+        return diffuseTexture;
+    }
+
+    public int getSpecularTexture() {
+        return specularTexture;
+    }
+
+}
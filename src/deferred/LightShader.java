@@ -0,0 +1,118 @@
+package deferred;
+
+import shaders.ShaderProgram;
+import shadows.ShadowMapRenderer;
+
+import java.util.List;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+public class LightShader extends ShaderProgram {
+
+    // Caracteristicas de las variantes
+    public static final int GLOBAL_LIGHT = 1; // Quad de pantalla completa en lugar de un volumen
+    public static final int SHADOWS = 2; // El sol, que se dibuja solo, recibe las sombras
+    public static final int FEATURES = 2;
+
+    private static final String VERTEX_FILE = "src/deferred/lightVertexShader.glsl";
+    private static final String FRAGMENT_FILE = "src/deferred/lightFragmentShader.glsl";
+
+    private int location_viewMatrix, location_projectionMatrix, location_inverseViewProjection;
+    private int location_cameraPosition, location_screenSize;
+    private int location_normalTexture, location_materialTexture, location_depthTexture;
+    private int location_shadowMap;
+    private int[] location_shadowMatrices, location_cascadeFar;
+
+    /**
+     * @param features mascara de bits con las caracteristicas de la variante.
+     */
+    public LightShader(int features) {
+        super(VERTEX_FILE, FRAGMENT_FILE, getDefines(features));
+    }
+
+    private static String[] getDefines(int features) {
+        List<String> defines = getDefines(features, "GLOBAL_LIGHT", "SHADOWS");
+        defines.add("SHADOW_CASCADES " + ShadowMapRenderer.CASCADES);
+        return defines.toArray(new String[0]);
+    }
+
+    /**
+     * Indica si la combinacion de caracteristicas se usa. Solo las luces globales proyectan sombras.
+     *
+     * @param features mascara de bits con las caracteristicas de la variante.
+     * @return true si hay que compilar la variante.
+     */
+    public static boolean isValid(int features) {
+        return (features & SHADOWS) == 0 || (features & GLOBAL_LIGHT) != 0;
+    }
+
+    @Override
+    protected void bindAttributes() {
+        bindAttribute(0, "position");
+        bindAttribute(1, "lightPosition");
+        bindAttribute(2, "lightColour");
+        bindAttribute(3, "lightAttenuation");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_viewMatrix = getUniformLocation("viewMatrix");
+        location_projectionMatrix = getUniformLocation("projectionMatrix");
+        location_inverseViewProjection = getUniformLocation("inverseViewProjection");
+        location_cameraPosition = getUniformLocation("cameraPosition");
+        location_screenSize = getUniformLocation("screenSize");
+        location_normalTexture = getUniformLocation("normalTexture");
+        location_materialTexture = getUniformLocation("materialTexture");
+        location_depthTexture = getUniformLocation("depthTexture");
+        location_shadowMap = getUniformLocation("shadowMap");
+        location_shadowMatrices = new int[ShadowMapRenderer.CASCADES];
+        location_cascadeFar = new int[ShadowMapRenderer.CASCADES];
+        for (int i = 0; i < ShadowMapRenderer.CASCADES; i++) {
+            location_shadowMatrices[i] = getUniformLocation("shadowMatrices[" + i + "]");
+            location_cascadeFar[i] = getUniformLocation("cascadeFar[" + i + "]");
+        }
+    }
+
+    public void connectTextureUnits() {
+        loadInt(location_normalTexture, DeferredRenderer.NORMAL_UNIT);
+        loadInt(location_materialTexture, DeferredRenderer.MATERIAL_UNIT);
+        loadInt(location_depthTexture, DeferredRenderer.DEPTH_UNIT);
+        loadInt(location_shadowMap, ShadowMapRenderer.SHADOW_UNIT);
+    }
+
+    public void loadProjectionMatrix(Matrix4f matrix) {
+        loadMatrix(location_projectionMatrix, matrix);
+    }
+
+    /**
+     * Carga la matriz de vista y la inversa de la matriz de vista-proyeccion, con la que se reconstruye la posicion mundial de
+     * cada pixel a partir de su profundidad.
+     *
+     * @param viewMatrix            matriz de vista.
+     * @param inverseViewProjection inversa de la matriz de vista-proyeccion.
+     * @param cameraPosition        posicion de la camara.
+     */
+    public void loadCamera(Matrix4f viewMatrix, Matrix4f inverseViewProjection, Vector3f cameraPosition) {
+        loadMatrix(location_viewMatrix, viewMatrix);
+        loadMatrix(location_inverseViewProjection, inverseViewProjection);
+        loadVector(location_cameraPosition, cameraPosition);
+    }
+
+    /**
+     * Carga las matrices y las distancias de las cascadas del mapa de sombras.
+     *
+     * @param shadows renderer del mapa de sombras.
+     */
+    public void loadShadows(ShadowMapRenderer shadows) {
+        for (int i = 0; i < ShadowMapRenderer.CASCADES; i++) {
+            loadMatrix(location_shadowMatrices[i], shadows.getShadowMatrix(i));
+            loadFloat(location_cascadeFar[i], shadows.getCascadeFar(i));
+        }
+    }
+
+    public void loadScreenSize(float width, float height) {
+        load2DVector(location_screenSize, width, height);
+    }
+
+}
@@ -0,0 +1,22 @@
+#version 400 core
+
+out vec4 out_Color;
+
+uniform sampler2D albedoTexture, diffuseTexture, specularTexture, depthTexture;
+
+void main(void) {
+
+    ivec2 pixel = ivec2(gl_FragCoord.xy);
+    vec4 albedo = texelFetch(albedoTexture, pixel, 0);
+    // Deja el color de limpieza en los pixeles sin geometria para que despues se dibuje el skybox
+    if (albedo.a == 0.0) discard;
+
+    // Se asegura que ninguna parte de la escena se oscurece por completo, igual que los shaders forward
+    vec3 totalDiffuse = max(texelFetch(diffuseTexture, pixel, 0).rgb, 0.2);
+    vec3 totalSpecular = texelFetch(specularTexture, pixel, 0).rgb;
+    out_Color = vec4(totalDiffuse, 1.0) * vec4(albedo.rgb, 1.0) + vec4(totalSpecular, 1.0);
+
+    // Escribe la profundidad de la escena para que el agua, los impostores y el skybox se prueben contra ella
+    gl_FragDepth = texelFetch(depthTexture, pixel, 0).r;
+
+}
@@ -0,0 +1,74 @@
+#version 400 core
+
+flat in vec4 pass_lightPosition;
+flat in vec3 pass_lightColour;
+flat in vec3 pass_lightAttenuation;
+
+layout(location = 0) out vec4 out_Diffuse;
+layout(location = 1) out vec4 out_Specular;
+
+uniform sampler2D normalTexture, materialTexture, depthTexture;
+uniform mat4 inverseViewProjection, viewMatrix;
+uniform vec3 cameraPosition;
+uniform vec2 screenSize;
+
+uniform sampler2DArrayShadow shadowMap;
+uniform mat4 shadowMatrices[SHADOW_CASCADES];
+uniform float cascadeFar[SHADOW_CASCADES];
+
+#ifdef SHADOWS
+// Fraccion de la luz del sol que llega a la posicion (ver fragmentShader.glsl)
+float getShadow(vec3 worldPosition) {
+    float viewDepth = -(viewMatrix * vec4(worldPosition, 1.0)).z;
+    if (viewDepth > cascadeFar[SHADOW_CASCADES - 1]) return 1.0;
+    int cascade = 0;
+    while (cascade < SHADOW_CASCADES - 1 && viewDepth > cascadeFar[cascade]) cascade++;
+    vec3 shadowCoords = (shadowMatrices[cascade] * vec4(worldPosition, 1.0)).xyz * 0.5 + 0.5;
+    vec2 texelSize = 1.0 / vec2(textureSize(shadowMap, 0).xy);
+    float lit = 0.0;
+    for (int x = -1; x <= 1; x++)
+        for (int y = -1; y <= 1; y++)
+            lit += texture(shadowMap, vec4(shadowCoords.xy + vec2(x, y) * texelSize, cascade, shadowCoords.z - 0.0005));
+    return lit / 9.0;
+}
+#endif
+
+void main(void) {
+
+    ivec2 pixel = ivec2(gl_FragCoord.xy);
+    float depth = texelFetch(depthTexture, pixel, 0).r;
+    // Los pixeles sin geometria se quedan con la profundidad de limpieza
+    if (depth == 1.0) discard;
+
+    // Reconstruye la posicion mundial del pixel deshaciendo la proyeccion de su posicion en pantalla y su profundidad
+    vec4 worldPosition = inverseViewProjection * vec4(vec3(gl_FragCoord.xy / screenSize, depth) * 2.0 - 1.0, 1.0);
+    worldPosition /= worldPosition.w;
+
+    vec3 toLightVector = pass_lightPosition.xyz - worldPosition.xyz;
+    float distance = length(toLightVector);
+#ifndef GLOBAL_LIGHT
+    // El volumen cubre mas pixeles que la esfera de influencia (los que estan delante de ella)
+    if (distance > pass_lightPosition.w) discard;
+#endif
+
+    // Misma iluminacion que addLight() en los shaders forward
+    vec3 unitNormal = texelFetch(normalTexture, pixel, 0).xyz;
+    vec2 material = texelFetch(materialTexture, pixel, 0).rg; // shineDamper y reflectividad
+    vec3 unitVectorToCamera = normalize(cameraPosition - worldPosition.xyz);
+    float attFactor = pass_lightAttenuation.x + (pass_lightAttenuation.y * distance) + (pass_lightAttenuation.z * distance * distance);
+    vec3 unitLightVector = toLightVector / distance;
+    float brightness = max(dot(unitNormal, unitLightVector), 0.0);
+    vec3 reflectedLightDirection = reflect(-unitLightVector, unitNormal);
+    float specularFactor = max(dot(reflectedLightDirection, unitVectorToCamera), 0.0);
+    float dampedFactor = pow(specularFactor, material.x);
+
+#ifdef SHADOWS
+    vec3 colour = pass_lightColour * getShadow(worldPosition.xyz);
+#else
+    vec3 colour = pass_lightColour;
+#endif
+
+    out_Diffuse = vec4((brightness * colour) / attFactor, 0.0);
+    out_Specular = vec4((dampedFactor * material.y * colour) / attFactor, 0.0);
+
+}
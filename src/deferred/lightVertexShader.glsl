@@ -0,0 +1,28 @@
+#version 400 core
+
+in vec3 position; // Vertice de la esfera unitaria, o esquina del quad de pantalla completa
+in vec4 lightPosition; // Posicion y radio de influencia de la luz
+in vec3 lightColour;
+in vec3 lightAttenuation;
+
+flat out vec4 pass_lightPosition;
+flat out vec3 pass_lightColour;
+flat out vec3 pass_lightAttenuation;
+
+uniform mat4 viewMatrix, projectionMatrix;
+
+void main(void) {
+
+#ifdef GLOBAL_LIGHT
+    // Las luces sin atenuacion iluminan toda la pantalla
+    gl_Position = vec4(position.xy, 0.0, 1.0);
+#else
+    // La esfera se escala al radio de influencia, de modo que solo se procesan los pixeles a los que llega la luz
+    gl_Position = projectionMatrix * viewMatrix * vec4(lightPosition.xyz + position * lightPosition.w, 1.0);
+#endif
+
+    pass_lightPosition = lightPosition;
+    pass_lightColour = lightColour;
+    pass_lightAttenuation = lightAttenuation;
+
+}
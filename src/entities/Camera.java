@@ -24,6 +24,9 @@ public class Camera {
 
     private final Player player;
 
+    // Si la camara esta unida a un nodo del grafo de escena, que escribe su posicion y yaw en lugar de seguir al player
+    private boolean attached;
+
     public Camera(Player player) {
         this.player = player;
     }
@@ -32,6 +35,7 @@ public class Camera {
      * Mueve la camara dependiendo de la entrada del usuario.
      */
     public void move() {
+        if (attached) return;
         calculateZoom();
         calculateAngles();
         calculateCameraPosition(calculateHorizontalDistance(), calculateVerticalDistance());
@@ -106,6 +110,23 @@ public class Camera {
         return (float) (zoom * Math.sin(Math.toRadians(xAngle)));
     }
 
+    /**
+     * Une la camara a un nodo del grafo de escena. Desde ese momento {@link #move()} no hace nada y el nodo escribe la posicion
+     * y el yaw de la camara con {@link #setWorldTransform(float, float, float, float)}.
+     */
+    void attach() {
+        attached = true;
+    }
+
+    /**
+     * Coloca la camara en la posicion mundial mirando en la direccion del angulo [y] del nodo, con la misma conversion de
+     * angulo a yaw que se usa para seguir al player. La inclinacion sigue siendo la de la camara.
+     */
+    void setWorldTransform(float x, float y, float z, float angleY) {
+        position.set(x, y, z);
+        yaw = 180 - angleY;
+    }
+
     public Vector3f getPosition() {
         return position;
     }
@@ -1,7 +1,9 @@
 package entities;
 
 import models.TexturedModel;
+import utils.Maths;
 
+import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector3f;
 
 /**
@@ -22,6 +24,14 @@ public class Entity {
      * ser potencia de 2 y la cantidad de filas tiene que ser igual a la cantidad de columnas. */
     private int textureIndex; // Indica que texture atlas usa esta entidad
 
+    // Las entidades dinamicas se mueven, por lo que sus sombras se renderizan en cada frame en lugar de guardarse en la cache
+    private boolean dynamic;
+
+    /* Matriz de transformacion del nodo del grafo de escena al que esta unida la entidad. Mientras esta unida, el nodo escribe
+     * la posicion, el angulo y la escala mundiales de la entidad, que se usan para el culling, los impostores y la combinacion
+     * estatica, pero se renderiza con esta matriz. */
+    private Matrix4f worldMatrix;
+
     public Entity(TexturedModel model, Vector3f position, Vector3f angle, Vector3f scale) {
         this.model = model;
         this.position = position;
@@ -47,6 +57,10 @@ public class Entity {
         return (float) row / model.getTexture().getNumberOfRows();
     }
 
+    public int getTextureIndex() {
+        return textureIndex;
+    }
+
     public void increasePosition(float dx, float dy, float dz) {
         position.x += dx;
         position.y += dy;
@@ -86,4 +100,27 @@ public class Entity {
     public Vector3f getScale() {
         return scale;
     }
+
+    /**
+     * Obtiene la matriz de transformacion de la entidad.
+     *
+     * @param dest matriz donde se calcula la transformacion si la entidad no esta unida a un nodo del grafo de escena.
+     * @return la matriz del nodo o la matriz de destino.
+     */
+    public Matrix4f getTransformationMatrix(Matrix4f dest) {
+        if (worldMatrix != null) return worldMatrix;
+        return Maths.createTransformationMatrix(position, angle, scale, dest);
+    }
+
+    void setWorldMatrix(Matrix4f worldMatrix) {
+        this.worldMatrix = worldMatrix;
+    }
+
+    public boolean isDynamic() {
+        return dynamic;
+    }
+
+    public void setDynamic(boolean dynamic) {
+        this.dynamic = dynamic;
+    }
 }
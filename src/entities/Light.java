@@ -8,6 +8,9 @@ import org.lwjgl.util.vector.Vector3f;
 
 public class Light {
 
+    // Intensidad por debajo de la cual la luz ya no cambia el color de un pixel de 8 bits
+    private static final float MIN_INTENSITY = 1f / 256;
+
     private Vector3f position, colour, attenuation = new Vector3f(1, 0, 0);
 
     public Light(Vector3f position, Vector3f colour) {
@@ -41,4 +44,21 @@ public class Light {
         return attenuation;
     }
 
+    /**
+     * Calcula el radio de influencia de la luz, que es la distancia a partir de la cual la intensidad atenuada
+     * {@code colour / (a + b * d + c * d * d)} queda por debajo de {@link #MIN_INTENSITY}. Una luz sin atenuacion por distancia,
+     * como el sol, tiene radio infinito.
+     *
+     * @return el radio de influencia o {@code Float.POSITIVE_INFINITY} si la luz no se atenua.
+     */
+    public float getRadius() {
+        float a = attenuation.x, b = attenuation.y, c = attenuation.z;
+        // Factor de atenuacion a partir del cual la luz deja de influir
+        float k = Math.max(colour.x, Math.max(colour.y, colour.z)) / MIN_INTENSITY;
+        if (a >= k) return 0;
+        if (c > 0) return (float) ((-b + Math.sqrt(b * b - 4 * c * (a - k))) / (2 * c));
+        if (b > 0) return Math.max(0, (k - a) / b);
+        return Float.POSITIVE_INFINITY;
+    }
+
 }
@@ -22,6 +22,7 @@ public class Player extends Entity {
 
     public Player(TexturedModel model, Vector3f position, Vector3f angle, Vector3f scale) {
         super(model, position, angle, scale);
+        setDynamic(true);
     }
 
     /**
@@ -0,0 +1,298 @@
+package entities;
+
+import utils.Frustum;
+import utils.Maths;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Nodo del grafo de escena. Cada nodo tiene una transformacion relativa a su padre y puede llevar una entidad, una luz o la
+ * camara, que se mueven junto con el nodo. Por ejemplo, un farol es un nodo con la entidad del farol y un hijo con la luz un poco mas
+ * arriba, asi que mover el farol tambien mueve la luz.
+ * <p>
+ * Las transformaciones mundiales se recalculan solo en los subarboles que cambiaron: mover un nodo lo marca como sucio y
+ * marca los limites de sus ancestros para recalcular, de modo que {@link #update()} baja solo por las ramas marcadas. Mover
+ * un vehiculo que lleva cincuenta objetos recalcula cincuenta y un nodos, no el mundo entero.
+ * <p>
+ * Cada nodo guarda una esfera en el espacio mundial que envuelve a su entidad y a todo su subarbol, asi que
+ * {@link #collectEntities(Frustum, List)} descarta subarboles enteros con una sola prueba contra el frustum.
+ */
+
+public class SceneNode {
+
+    private SceneNode parent;
+    private final List<SceneNode> children = new ArrayList<>();
+    private final Entity entity;
+    private final Light light;
+    private final Camera camera;
+
+    // Transformacion relativa al padre
+    private final Vector3f position = new Vector3f(), angle = new Vector3f(), scale = new Vector3f(1, 1, 1);
+    private final Matrix4f localMatrix = new Matrix4f(), worldMatrix = new Matrix4f();
+    private boolean dirty = true; // La transformacion local cambio
+    private boolean boundsDirty = true; // Algo cambio en el subarbol
+
+    // Esfera que envuelve al subarbol. Un radio negativo indica que el subarbol no tiene entidades y uno infinito que no se descarta
+    private final Vector3f boundsCenter = new Vector3f();
+    private float boundsRadius = -1;
+
+    private static final float TO_DEGREES = (float) (180 / Math.PI);
+    // Debajo de este coseno del angulo [y] la rotacion pierde un grado de libertad y el angulo [z] se toma como cero
+    private static final float GIMBAL_LOCK_COS = 1e-6f;
+    // Angulos mundiales de la ultima actualizacion, compartidos porque update() solo se llama desde el hilo de render
+    private static final Vector3f worldAngle = new Vector3f();
+
+    public SceneNode() {
+        this(null, null, null);
+    }
+
+    /**
+     * Crea un nodo con la entidad. La posicion, el angulo y la escala de la entidad pasan a ser la transformacion local del
+     * nodo y desde ese momento el nodo escribe en la entidad su posicion, angulo y escala mundiales.
+     */
+    public SceneNode(Entity entity) {
+        this(entity, null, null);
+        position.set(entity.getPosition());
+        angle.set(entity.getAngle());
+        scale.set(entity.getScale());
+        entity.setWorldMatrix(worldMatrix);
+    }
+
+    /**
+     * Crea un nodo con la luz. La posicion de la luz pasa a ser la posicion local del nodo.
+     */
+    public SceneNode(Light light) {
+        this(null, light, null);
+        position.set(light.getPosition());
+    }
+
+    /**
+     * Crea un nodo con la camara, que deja de seguir al player. La posicion de la camara pasa a ser la posicion local del nodo
+     * y desde ese momento el nodo escribe en la camara su posicion y su yaw mundiales, por ejemplo para una camara montada en
+     * un vehiculo.
+     */
+    public SceneNode(Camera camera) {
+        this(null, null, camera);
+        position.set(camera.getPosition());
+        angle.y = 180 - camera.getYaw();
+        camera.attach();
+    }
+
+    private SceneNode(Entity entity, Light light, Camera camera) {
+        this.entity = entity;
+        this.light = light;
+        this.camera = camera;
+    }
+
+    public void addChild(SceneNode child) {
+        if (child.parent != null) child.parent.removeChild(child);
+        child.parent = this;
+        children.add(child);
+        // El hijo tiene que tomar la transformacion de su nuevo padre
+        child.markDirty();
+    }
+
+    public void removeChild(SceneNode child) {
+        if (children.remove(child)) {
+            child.parent = null;
+            child.markDirty();
+            markBoundsDirty();
+        }
+    }
+
+    public void setPosition(float x, float y, float z) {
+        position.set(x, y, z);
+        markDirty();
+    }
+
+    public void setPosition(Vector3f position) {
+        setPosition(position.x, position.y, position.z);
+    }
+
+    public void increasePosition(float dx, float dy, float dz) {
+        setPosition(position.x + dx, position.y + dy, position.z + dz);
+    }
+
+    public void setAngle(float x, float y, float z) {
+        angle.set(x, y, z);
+        markDirty();
+    }
+
+    public void increaseRotation(float dx, float dy, float dz) {
+        setAngle(angle.x + dx, angle.y + dy, angle.z + dz);
+    }
+
+    public void setScale(float x, float y, float z) {
+        scale.set(x, y, z);
+        markDirty();
+    }
+
+    private void markDirty() {
+        dirty = true;
+        markBoundsDirty();
+    }
+
+    /**
+     * Marca los limites del nodo y de sus ancestros. Se detiene en el primer ancestro que ya estaba marcado porque los que
+     * estan por encima tambien lo estan.
+     */
+    private void markBoundsDirty() {
+        boundsDirty = true;
+        if (parent != null && !parent.boundsDirty) parent.markBoundsDirty();
+    }
+
+    /**
+     * Actualiza las transformaciones mundiales y los limites de los subarboles que cambiaron. Se llama sobre la raiz una vez
+     * por frame, despues de mover los nodos y antes de renderizar.
+     */
+    public void update() {
+        update(false);
+    }
+
+    private void update(boolean parentChanged) {
+        if (!boundsDirty && !parentChanged) return;
+        boolean changed = dirty || parentChanged;
+        if (changed) {
+            Maths.createTransformationMatrix(position, angle, scale, localMatrix);
+            if (parent != null) Matrix4f.mul(parent.worldMatrix, localMatrix, worldMatrix);
+            else worldMatrix.load(localMatrix);
+            applyToAttachments();
+            dirty = false;
+        }
+        for (SceneNode child : children) child.update(changed);
+        updateBounds();
+        boundsDirty = false;
+    }
+
+    /**
+     * Escribe la posicion mundial en la entidad, la luz y la camara. En la entidad tambien escribe la escala mundial (la
+     * longitud de cada eje de la matriz) para que el culling y el nivel de detalle usen el tamanio real, y los angulos
+     * mundiales para que los impostores y la combinacion estatica la orienten igual que la matriz. La camara toma el angulo
+     * [y] mundial como yaw.
+     */
+    private void applyToAttachments() {
+        if (entity != null || camera != null) {
+            float scaleX = length(worldMatrix.m00, worldMatrix.m01, worldMatrix.m02);
+            float scaleY = length(worldMatrix.m10, worldMatrix.m11, worldMatrix.m12);
+            float scaleZ = length(worldMatrix.m20, worldMatrix.m21, worldMatrix.m22);
+            extractAngles(scaleX, scaleY, scaleZ);
+            if (entity != null) {
+                entity.getPosition().set(worldMatrix.m30, worldMatrix.m31, worldMatrix.m32);
+                entity.getAngle().set(worldAngle);
+                entity.getScale().set(scaleX, scaleY, scaleZ);
+            }
+            if (camera != null) camera.setWorldTransform(worldMatrix.m30, worldMatrix.m31, worldMatrix.m32, worldAngle.y);
+        }
+        if (light != null) light.getPosition().set(worldMatrix.m30, worldMatrix.m31, worldMatrix.m32);
+    }
+
+    /**
+     * Obtiene los angulos de la rotacion mundial invirtiendo {@link Maths#createTransformationMatrix(Vector3f, Vector3f,
+     * Vector3f, Matrix4f)}: con la escala quitada, m20 es el seno del angulo [y], m21 y m22 dan el angulo [x] y m10 y m00 el
+     * angulo [z]. Con escalas no uniformes en los ancestros la matriz puede tener cizalla y los angulos son una aproximacion.
+     */
+    private void extractAngles(float scaleX, float scaleY, float scaleZ) {
+        float m00 = worldMatrix.m00 / scaleX, m10 = worldMatrix.m10 / scaleY, m20 = worldMatrix.m20 / scaleZ;
+        float sinY = Math.max(-1, Math.min(1, m20));
+        float cosY = (float) Math.sqrt(1 - sinY * sinY);
+        worldAngle.y = (float) Math.asin(sinY) * TO_DEGREES;
+        if (cosY > GIMBAL_LOCK_COS) {
+            worldAngle.x = (float) Math.atan2(-worldMatrix.m21 / scaleZ, worldMatrix.m22 / scaleZ) * TO_DEGREES;
+            worldAngle.z = (float) Math.atan2(-m10, m00) * TO_DEGREES;
+        } else {
+            // Con el angulo [z] en cero, m12 es el seno y m11 el coseno del angulo [x]
+            worldAngle.x = (float) Math.atan2(worldMatrix.m12 / scaleY, worldMatrix.m11 / scaleY) * TO_DEGREES;
+            worldAngle.z = 0;
+        }
+    }
+
+    /**
+     * Calcula la esfera que envuelve a la esfera de la entidad y a las esferas de los hijos, empezando por la primera y
+     * agrandandola para incluir cada una de las demas.
+     */
+    private void updateBounds() {
+        boundsRadius = -1;
+        if (entity != null) {
+            float radius = entity.getModel().getBoundingRadius();
+            Vector3f scale = entity.getScale();
+            // Las entidades sin radio conocido nunca se descartan
+            include(entity.getPosition(), radius > 0 ? radius * Math.max(scale.x, Math.max(scale.y, scale.z)) : Float.POSITIVE_INFINITY);
+        }
+        for (SceneNode child : children)
+            if (child.boundsRadius >= 0) include(child.boundsCenter, child.boundsRadius);
+    }
+
+    private void include(Vector3f center, float radius) {
+        if (boundsRadius < 0) {
+            boundsCenter.set(center);
+            boundsRadius = radius;
+            return;
+        }
+        if (Float.isInfinite(boundsRadius) || Float.isInfinite(radius)) {
+            boundsRadius = Float.POSITIVE_INFINITY;
+            return;
+        }
+        float dx = center.x - boundsCenter.x, dy = center.y - boundsCenter.y, dz = center.z - boundsCenter.z;
+        float distance = length(dx, dy, dz);
+        if (distance + radius <= boundsRadius) return; // La esfera ya esta adentro
+        if (distance + boundsRadius <= radius) { // La esfera envuelve a la actual
+            boundsCenter.set(center);
+            boundsRadius = radius;
+            return;
+        }
+        float newRadius = (distance + boundsRadius + radius) / 2;
+        float t = (newRadius - boundsRadius) / distance;
+        boundsCenter.set(boundsCenter.x + dx * t, boundsCenter.y + dy * t, boundsCenter.z + dz * t);
+        boundsRadius = newRadius;
+    }
+
+    /**
+     * Agrega las entidades del subarbol que pueden verse, descartando los subarboles cuya esfera esta fuera del frustum.
+     *
+     * @param frustum frustum de la camara o null para agregar todas las entidades.
+     * @param dest    lista donde se agregan las entidades.
+     */
+    public void collectEntities(Frustum frustum, List<Entity> dest) {
+        if (boundsRadius < 0) return;
+        if (frustum != null && !Float.isInfinite(boundsRadius) && !frustum.intersectsSphere(boundsCenter, boundsRadius)) return;
+        if (entity != null) dest.add(entity);
+        for (SceneNode child : children) child.collectEntities(frustum, dest);
+    }
+
+    private static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    public SceneNode getParent() {
+        return parent;
+    }
+
+    public List<SceneNode> getChildren() {
+        return children;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    public Light getLight() {
+        return light;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    public Vector3f getPosition() {
+        return position;
+    }
+
+    public Matrix4f getWorldMatrix() {
+        return worldMatrix;
+    }
+
+}
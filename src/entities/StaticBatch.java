@@ -0,0 +1,176 @@
+package entities;
+
+import converter.ModelData;
+import impostors.Impostor;
+import models.TexturedModel;
+import render.Loader;
+import textures.ModelTexture;
+import utils.Maths;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Lote estatico: malla que combina las entidades que nunca se mueven de una celda del mundo y comparten textura, para
+ * renderizarlas con una sola llamada en lugar de cargar las variables uniformes de cada una.
+ * <p>
+ * Los vertices de cada entidad se transforman al espacio mundial al cargar la escena y se guardan relativos al centro del
+ * lote, que se renderiza como una entidad mas en esa posicion. Como cada celda es un lote aparte, el frustum culling, los
+ * planos de recorte y el culling de oclusion siguen descartando las celdas que no se ven. El desplazamiento del texture atlas
+ * de cada entidad se aplica directamente a sus coordenadas de textura.
+ * <p>
+ * El lote no tiene niveles de detalle. Si todas sus entidades usan el mismo impostor, cuando el centro del lote esta mas
+ * lejos que la distancia del impostor se renderizan las entidades originales como impostores.
+ */
+
+public class StaticBatch extends Entity {
+
+    private final List<Entity> members;
+
+    private StaticBatch(TexturedModel model, Vector3f center, List<Entity> members) {
+        super(model, center, new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+        this.members = members;
+    }
+
+    /**
+     * Agrupa las entidades por celda y por textura y carga la malla combinada de cada grupo.
+     *
+     * @param loader    cargador de las mallas.
+     * @param entities  entidades estaticas.
+     * @param modelData datos de la malla de cada modelo. Las entidades cuyo modelo no tiene datos no se agrupan.
+     * @param cellSize  tamanio de cada celda en los ejes [x] y [z], o infinito para agrupar solo por textura.
+     * @return los lotes.
+     */
+    public static List<StaticBatch> create(Loader loader, List<Entity> entities, Map<TexturedModel, ModelData> modelData, float cellSize) {
+        // Grupos por celda y dentro de cada celda por textura. El orden de insercion mantiene el mismo resultado en cada ejecucion
+        Map<Long, Map<ModelTexture, List<Entity>>> cells = new LinkedHashMap<>();
+        for (Entity entity : entities) {
+            if (!modelData.containsKey(entity.getModel())) continue;
+            int cellX = (int) Math.floor(entity.getPosition().x / cellSize), cellZ = (int) Math.floor(entity.getPosition().z / cellSize);
+            cells.computeIfAbsent(getKey(cellX, cellZ), k -> new LinkedHashMap<>())
+                    .computeIfAbsent(entity.getModel().getTexture(), k -> new ArrayList<>())
+                    .add(entity);
+        }
+        List<StaticBatch> batches = new ArrayList<>();
+        for (Map<ModelTexture, List<Entity>> cell : cells.values())
+            for (Map.Entry<ModelTexture, List<Entity>> group : cell.entrySet())
+                batches.add(create(loader, group.getValue(), modelData, createTexture(group.getKey())));
+        return batches;
+    }
+
+    private static StaticBatch create(Loader loader, List<Entity> members, Map<TexturedModel, ModelData> modelData, ModelTexture texture) {
+        int vertexCount = 0, indexCount = 0;
+        for (Entity entity : members) {
+            ModelData data = modelData.get(entity.getModel());
+            vertexCount += data.getVertices().length / 3;
+            indexCount += data.getIndices().length;
+        }
+        float[] vertices = new float[vertexCount * 3], textureCoords = new float[vertexCount * 2], normals = new float[vertexCount * 3];
+        int[] indices = new int[indexCount];
+
+        Matrix4f matrix = new Matrix4f();
+        int vertexPointer = 0, indexPointer = 0;
+        for (Entity entity : members) {
+            ModelData data = modelData.get(entity.getModel());
+            Maths.createTransformationMatrix(entity.getPosition(), entity.getAngle(), entity.getScale(), matrix);
+            Vector3f scale = entity.getScale();
+            int rows = entity.getModel().getTexture().getNumberOfRows();
+            float offsetX = entity.getTextureXOffset(), offsetY = entity.getTextureYOffset();
+            float[] v = data.getVertices(), t = data.getTextureCoords(), n = data.getNormals();
+            int first = vertexPointer;
+            for (int i = 0; i < v.length / 3; i++, vertexPointer++) {
+                float x = v[i * 3], y = v[i * 3 + 1], z = v[i * 3 + 2];
+                vertices[vertexPointer * 3] = matrix.m00 * x + matrix.m10 * y + matrix.m20 * z + matrix.m30;
+                vertices[vertexPointer * 3 + 1] = matrix.m01 * x + matrix.m11 * y + matrix.m21 * z + matrix.m31;
+                vertices[vertexPointer * 3 + 2] = matrix.m02 * x + matrix.m12 * y + matrix.m22 * z + matrix.m32;
+                // Mismo calculo que el vertex shader con el atlas: se reducen las coordenadas y se desplazan a la textura de la entidad
+                textureCoords[vertexPointer * 2] = t[i * 2] / rows + offsetX;
+                textureCoords[vertexPointer * 2 + 1] = t[i * 2 + 1] / rows + offsetY;
+                /* La normal se rota con la matriz y se divide por la escala de cada eje (la inversa transpuesta), asi sigue siendo
+                 * perpendicular a la superficie aunque la escala no sea uniforme. */
+                float nx = n[i * 3] / scale.x, ny = n[i * 3 + 1] / scale.y, nz = n[i * 3 + 2] / scale.z;
+                float wx = matrix.m00 / scale.x * nx + matrix.m10 / scale.y * ny + matrix.m20 / scale.z * nz;
+                float wy = matrix.m01 / scale.x * nx + matrix.m11 / scale.y * ny + matrix.m21 / scale.z * nz;
+                float wz = matrix.m02 / scale.x * nx + matrix.m12 / scale.y * ny + matrix.m22 / scale.z * nz;
+                float length = (float) Math.sqrt(wx * wx + wy * wy + wz * wz);
+                if (length > 0) {
+                    wx /= length;
+                    wy /= length;
+                    wz /= length;
+                }
+                normals[vertexPointer * 3] = wx;
+                normals[vertexPointer * 3 + 1] = wy;
+                normals[vertexPointer * 3 + 2] = wz;
+            }
+            for (int index : data.getIndices()) indices[indexPointer++] = first + index;
+        }
+
+        // Centro de la caja que envuelve al lote y radio de la esfera con ese centro
+        Vector3f min = new Vector3f(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
+        Vector3f max = new Vector3f(-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE);
+        for (int i = 0; i < vertexCount; i++) {
+            min.set(Math.min(min.x, vertices[i * 3]), Math.min(min.y, vertices[i * 3 + 1]), Math.min(min.z, vertices[i * 3 + 2]));
+            max.set(Math.max(max.x, vertices[i * 3]), Math.max(max.y, vertices[i * 3 + 1]), Math.max(max.z, vertices[i * 3 + 2]));
+        }
+        Vector3f center = new Vector3f((min.x + max.x) / 2, (min.y + max.y) / 2, (min.z + max.z) / 2);
+        float radius = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            vertices[i * 3] -= center.x;
+            vertices[i * 3 + 1] -= center.y;
+            vertices[i * 3 + 2] -= center.z;
+            float x = vertices[i * 3], y = vertices[i * 3 + 1], z = vertices[i * 3 + 2];
+            radius = Math.max(radius, x * x + y * y + z * z);
+        }
+
+        TexturedModel model = new TexturedModel(loader.loadToVAO(vertices, textureCoords, normals, indices), texture);
+        model.setBoundingRadius((float) Math.sqrt(radius));
+        model.setImpostor(getSharedImpostor(members));
+        return new StaticBatch(model, center, members);
+    }
+
+    /**
+     * Copia la textura sin el texture atlas, porque el desplazamiento de cada entidad ya esta en las coordenadas de textura.
+     */
+    private static ModelTexture createTexture(ModelTexture source) {
+        ModelTexture texture = new ModelTexture(source.getID());
+        texture.setShineDamper(source.getShineDamper());
+        texture.setReflectivity(source.getReflectivity());
+        texture.setHasTransparency(source.isHasTransparency());
+        texture.setUseFakeLighting(source.isUseFakeLighting());
+        return texture;
+    }
+
+    private static long getKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+    /**
+     * @return el modelo de todas las entidades del lote, o null si tiene entidades de distintos modelos.
+     */
+    public TexturedModel getSourceModel() {
+        TexturedModel model = members.get(0).getModel();
+        for (Entity entity : members)
+            if (entity.getModel() != model) return null;
+        return model;
+    }
+
+    private static Impostor getSharedImpostor(List<Entity> members) {
+        Impostor impostor = members.get(0).getModel().getImpostor();
+        for (Entity entity : members)
+            if (entity.getModel().getImpostor() != impostor) return null;
+        return impostor;
+    }
+
+    /**
+     * @return las entidades que forman el lote, que se renderizan como impostores cuando el lote esta lejos.
+     */
+    public List<Entity> getMembers() {
+        return members;
+    }
+
+}
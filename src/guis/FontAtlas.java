@@ -0,0 +1,201 @@
+package guis;
+
+import render.Loader;
+import textures.TextureData;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+/**
+ * Atlas de glifos con campo de distancia con signo (SDF) para renderizar texto a cualquier tamanio.
+ * <p>
+ * En lugar de guardar la cobertura de cada pixel, cada texel del atlas guarda la distancia al borde del glifo mas cercano,
+ * mapeada al rango [0, 1] donde 0.5 es el borde. Al interpolar esa distancia con el filtro lineal el borde se mantiene
+ * nitido aunque el texto se agrande, y el fragment shader lo suaviza con un ancho que depende del tamanio en pantalla.
+ * <p>
+ * Los glifos de los caracteres ASCII imprimibles se dibujan con una fuente de AWT en celdas del mismo tamanio y despues se
+ * calcula la transformada de distancia de la imagen completa, asi que no hace falta ningun archivo de fuente.
+ */
+
+public class FontAtlas {
+
+    private static final char FIRST_CHAR = 32, LAST_CHAR = 126;
+    private static final int COLUMNS = 16;
+    private static final int SPREAD = 8; // Distancia maxima en pixeles que guarda el campo, a cada lado del borde
+
+    private final int texture;
+    private final int cellWidth, cellHeight; // Tamanio de cada celda en pixeles
+    private final int lineHeight, padding;
+    private final int atlasWidth, atlasHeight;
+    private final int[] advances = new int[LAST_CHAR - FIRST_CHAR + 1];
+
+    /**
+     * @param loader cargador de la textura.
+     * @param font   fuente de AWT con la que se dibujan los glifos. Alrededor de 48 puntos alcanza para cualquier tamanio.
+     */
+    public FontAtlas(Loader loader, Font font) {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        FontMetrics metrics = image.createGraphics().getFontMetrics(font);
+        int maxAdvance = 0;
+        for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+            advances[c - FIRST_CHAR] = metrics.charWidth(c);
+            maxAdvance = Math.max(maxAdvance, advances[c - FIRST_CHAR]);
+        }
+        padding = SPREAD;
+        lineHeight = metrics.getHeight();
+        cellWidth = maxAdvance + 2 * padding;
+        cellHeight = lineHeight + 2 * padding;
+        int rows = (advances.length + COLUMNS - 1) / COLUMNS;
+        atlasWidth = COLUMNS * cellWidth;
+        atlasHeight = rows * cellHeight;
+
+        image = new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setFont(font);
+        g.setColor(Color.WHITE);
+        for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+            int index = c - FIRST_CHAR;
+            g.drawString(String.valueOf(c), index % COLUMNS * cellWidth + padding, index / COLUMNS * cellHeight + padding + metrics.getAscent());
+        }
+        g.dispose();
+
+        texture = loader.loadTexture(createDistanceField(image));
+    }
+
+    /**
+     * Calcula el campo de distancia de la imagen. Para cada pixel busca la distancia al pixel mas cercano del otro lado del
+     * borde, con la transformada de distancia euclidiana exacta de Felzenszwalb y Huttenlocher, que recorre primero las
+     * columnas y despues las filas en tiempo lineal.
+     */
+    private TextureData createDistanceField(BufferedImage image) {
+        int width = image.getWidth(), height = image.getHeight();
+        boolean[] inside = new boolean[width * height];
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                inside[y * width + x] = (image.getRaster().getSample(x, y, 0)) >= 128;
+        float[] toInside = distanceTransform(inside, true, width, height);
+        float[] toOutside = distanceTransform(inside, false, width, height);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * width * height);
+        for (int i = 0; i < width * height; i++) {
+            // Positiva adentro del glifo y negativa afuera
+            float distance = (float) (Math.sqrt(toOutside[i]) - Math.sqrt(toInside[i]));
+            float value = Math.max(0, Math.min(1, 0.5f + distance / (2 * SPREAD)));
+            byte b = (byte) Math.round(value * 255);
+            buffer.put((byte) 255).put((byte) 255).put((byte) 255).put(b);
+        }
+        buffer.flip();
+        return new TextureData(width, height, buffer);
+    }
+
+    /**
+     * Calcula la distancia al cuadrado desde cada pixel al pixel mas cercano que esta adentro (o afuera) del glifo.
+     */
+    private static float[] distanceTransform(boolean[] inside, boolean target, int width, int height) {
+        float[] grid = new float[width * height];
+        for (int i = 0; i < grid.length; i++) grid[i] = inside[i] == target ? 0 : 1e20f;
+        int size = Math.max(width, height);
+        float[] f = new float[size], d = new float[size], z = new float[size + 1];
+        int[] v = new int[size];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) f[y] = grid[y * width + x];
+            transform(f, height, d, v, z);
+            for (int y = 0; y < height; y++) grid[y * width + x] = d[y];
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(grid, y * width, f, 0, width);
+            transform(f, width, d, v, z);
+            System.arraycopy(d, 0, grid, y * width, width);
+        }
+        return grid;
+    }
+
+    /**
+     * Transformada de distancia en una dimension: calcula la envolvente inferior de las parabolas con vertice en cada muestra.
+     */
+    private static void transform(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = -Float.MAX_VALUE;
+        z[1] = Float.MAX_VALUE;
+        for (int q = 1; q < n; q++) {
+            float s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Float.MAX_VALUE;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) k++;
+            d[q] = (q - v[k]) * (q - v[k]) + f[v[k]];
+        }
+    }
+
+    /**
+     * Verifica si el atlas tiene el glifo del caracter.
+     */
+    public boolean hasGlyph(char c) {
+        return c >= FIRST_CHAR && c <= LAST_CHAR;
+    }
+
+    /**
+     * @return el avance horizontal del caracter en pixeles de la fuente.
+     */
+    public int getAdvance(char c) {
+        return advances[c - FIRST_CHAR];
+    }
+
+    /**
+     * @return la coordenada de textura [u] del borde izquierdo de la celda del caracter.
+     */
+    public float getU(char c) {
+        return (float) ((c - FIRST_CHAR) % COLUMNS * cellWidth) / atlasWidth;
+    }
+
+    /**
+     * @return la coordenada de textura [v] del borde superior de la celda del caracter.
+     */
+    public float getV(char c) {
+        return (float) ((c - FIRST_CHAR) / COLUMNS * cellHeight) / atlasHeight;
+    }
+
+    public float getCellU() {
+        return (float) cellWidth / atlasWidth;
+    }
+
+    public float getCellV() {
+        return (float) cellHeight / atlasHeight;
+    }
+
+    public int getCellWidth() {
+        return cellWidth;
+    }
+
+    public int getCellHeight() {
+        return cellHeight;
+    }
+
+    /**
+     * @return el margen en pixeles entre el borde de la celda y el punto donde empieza el glifo.
+     */
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * @return la altura de una linea de texto en pixeles de la fuente.
+     */
+    public int getLineHeight() {
+        return lineHeight;
+    }
+
+    public int getTexture() {
+        return texture;
+    }
+
+}
@@ -0,0 +1,40 @@
+package guis;
+
+/**
+ * Lote de GUI estaticas en modo retenido. Los vertices se escriben en su propio vbo una sola vez al crear el lote, asi que
+ * en cada frame solo se dibujan los tramos de cada textura. Si alguna GUI del lote cambia, hay que crear un lote nuevo.
+ */
+
+public class GuiBatch {
+
+    private final int vao;
+    private final int[] textures, firsts, counts; // Textura, primer vertice y cantidad de vertices de cada tramo
+
+    GuiBatch(int vao, int[] textures, int[] firsts, int[] counts) {
+        this.vao = vao;
+        this.textures = textures;
+        this.firsts = firsts;
+        this.counts = counts;
+    }
+
+    int getVao() {
+        return vao;
+    }
+
+    int getRuns() {
+        return textures.length;
+    }
+
+    int getTexture(int run) {
+        return textures[run];
+    }
+
+    int getFirst(int run) {
+        return firsts[run];
+    }
+
+    int getCount(int run) {
+        return counts[run];
+    }
+
+}
@@ -1,62 +1,212 @@
 package guis;
 
-import models.RawModel;
 import render.Loader;
-import utils.Maths;
+import shaders.ShaderVariants;
 
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
-import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector3f;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 
+/**
+ * Renderiza las GUI por lotes. En lugar de cargar una matriz y hacer una llamada por GUI, escribe los vertices ya
+ * transformados de cada quad y sus coordenadas de textura en un vbo que se actualiza en cada frame, y dibuja con una sola
+ * llamada cada tramo de GUI seguidas que usan la misma textura. Las GUI se dibujan en el orden de la lista para que se
+ * sigan superponiendo igual, asi que conviene agrupar las que comparten textura o usar atlas (ver {@link GuiTexture}).
+ * <p>
+ * Las GUI que no cambian se pueden guardar en un {@link GuiBatch lote retenido} para no volver a escribir sus vertices.
+ * <p>
+ * Los {@link GuiText textos} usan el mismo vbo: los glifos de los textos seguidos que comparten fuente y color se dibujan
+ * con una sola llamada.
+ */
+
 public class GuiRenderer {
 
-    private final GuiShader shader;
-    private final RawModel quad;
+    private static final int MAX_QUADS = 1000; // Quads por actualizacion del vbo
+    private static final int VERTEX_LENGTH = 4; // x, y, u, v
+    private static final int QUAD_LENGTH = 6 * VERTEX_LENGTH; // Dos triangulos por quad
+
+    /* Esquinas del quad en el orden de los dos triangulos. Las posiciones estan en el rango [-1, 1] con [y] hacia arriba,
+     * mientras que las coordenadas de textura tienen (0, 0) en la esquina superior izquierda de la imagen, por eso la
+     * coordenada [v] se invierte respecto de la posicion. */
+    private static final float[] CORNERS = {-1, 1, -1, -1, 1, 1, 1, 1, -1, -1, 1, -1};
+
+    private static final FloatBuffer buffer = BufferUtils.createFloatBuffer(MAX_QUADS * QUAD_LENGTH);
+
+    private final Loader loader;
+    private final ShaderVariants<GuiShader> shaders = new ShaderVariants<>(GuiShader.FEATURES, GuiShader::new);
+    private final int vbo, vao;
 
     public GuiRenderer(Loader loader) {
-        shader = new GuiShader();
-        float[] vertices = {
-                -1, 1,
-                -1, -1,
-                1, 1,
-                1, -1
-        };
-        quad = loader.loadToVAO(vertices, 2);
+        this.loader = loader;
+        vbo = loader.createEmptyVbo(MAX_QUADS * QUAD_LENGTH);
+        vao = loader.createInterleavedVao(vbo, 2, 2);
     }
 
     public void render(List<GuiTexture> guis) {
+        if (guis.isEmpty()) return;
+        GuiShader shader = shaders.get(0);
+        prepare(shader);
+        glBindVertexArray(vao);
+        for (int first = 0; first < guis.size(); first += MAX_QUADS) {
+            int count = Math.min(MAX_QUADS, guis.size() - first);
+            buffer.clear();
+            for (int i = first; i < first + count; i++) storeQuad(guis.get(i), buffer);
+            buffer.flip();
+            loader.updateVbo(vbo, buffer);
+            // Cada tramo de GUI seguidas con la misma textura se dibuja con una llamada
+            int start = 0;
+            for (int i = 1; i <= count; i++) {
+                int texture = guis.get(first + start).getTexture();
+                if (i < count && guis.get(first + i).getTexture() == texture) continue;
+                glBindTexture(GL_TEXTURE_2D, texture);
+                glDrawArrays(GL_TRIANGLES, start * 6, (i - start) * 6);
+                start = i;
+            }
+        }
+        finish(shader);
+    }
+
+    /**
+     * Renderiza los textos. Solo se vuelve a calcular la distribucion de los textos que cambiaron.
+     *
+     * @param texts textos en el orden en que se dibujan.
+     */
+    public void renderText(List<GuiText> texts) {
+        if (texts.isEmpty()) return;
+        GuiShader shader = shaders.get(GuiShader.DISTANCE_FIELD);
+        prepare(shader);
+        glBindVertexArray(vao);
+        float aspectRatio = (float) Display.getHeight() / Display.getWidth();
+        GuiText run = null; // Primer texto del tramo que todavia no se dibujo
+        int quads = 0;
+        buffer.clear();
+        for (GuiText text : texts) {
+            int count = Math.min(MAX_QUADS, text.layout(aspectRatio));
+            if (count == 0) continue;
+            if (run != null && (quads + count > MAX_QUADS || !hasSameStyle(text, run))) {
+                drawText(shader, run, quads);
+                quads = 0;
+            }
+            if (quads == 0) run = text;
+            buffer.put(text.getVertices(), 0, count * QUAD_LENGTH);
+            quads += count;
+        }
+        if (quads > 0) drawText(shader, run, quads);
+        finish(shader);
+    }
+
+    private static boolean hasSameStyle(GuiText a, GuiText b) {
+        Vector3f colourA = a.getColour(), colourB = b.getColour();
+        return a.getFont() == b.getFont() && colourA.x == colourB.x && colourA.y == colourB.y && colourA.z == colourB.z;
+    }
+
+    private void drawText(GuiShader shader, GuiText run, int quads) {
+        buffer.flip();
+        loader.updateVbo(vbo, buffer);
+        buffer.clear();
+        glBindTexture(GL_TEXTURE_2D, run.getFont().getTexture());
+        shader.loadColour(run.getColour());
+        glDrawArrays(GL_TRIANGLES, 0, quads * 6);
+    }
+
+    /**
+     * Renderiza un lote retenido sin volver a escribir sus vertices.
+     *
+     * @param batch lote de GUI estaticas.
+     */
+    public void render(GuiBatch batch) {
+        GuiShader shader = shaders.get(0);
+        prepare(shader);
+        glBindVertexArray(batch.getVao());
+        for (int run = 0; run < batch.getRuns(); run++) {
+            glBindTexture(GL_TEXTURE_2D, batch.getTexture(run));
+            glDrawArrays(GL_TRIANGLES, batch.getFirst(run), batch.getCount(run));
+        }
+        finish(shader);
+    }
+
+    /**
+     * Crea un lote retenido con las GUI que no cambian entre frames, como los iconos fijos del HUD.
+     *
+     * @param guis GUI estaticas en el orden en que se dibujan.
+     * @return el lote.
+     */
+    public GuiBatch createBatch(List<GuiTexture> guis) {
+        FloatBuffer data = BufferUtils.createFloatBuffer(Math.max(1, guis.size()) * QUAD_LENGTH);
+        List<Integer> textures = new ArrayList<>(), firsts = new ArrayList<>(), counts = new ArrayList<>();
+        for (int i = 0; i < guis.size(); i++) {
+            GuiTexture gui = guis.get(i);
+            storeQuad(gui, data);
+            int last = textures.size() - 1;
+            if (last >= 0 && textures.get(last) == gui.getTexture()) counts.set(last, counts.get(last) + 6);
+            else {
+                textures.add(gui.getTexture());
+                firsts.add(i * 6);
+                counts.add(6);
+            }
+        }
+        data.flip();
+        int batchVbo = loader.createEmptyVbo(data.capacity());
+        loader.updateVbo(batchVbo, data);
+        return new GuiBatch(loader.createInterleavedVao(batchVbo, 2, 2), toArray(textures), toArray(firsts), toArray(counts));
+    }
+
+    private static void prepare(GuiShader shader) {
         shader.start();
-        glBindVertexArray(quad.getID());
         glEnableVertexAttribArray(0);
+        glEnableVertexAttribArray(1);
+        glActiveTexture(GL_TEXTURE0);
         // Le saca la transparencia a la gui (fondo negro de la imagen)
         glEnable(GL_BLEND);
         // Configura el modo de mezcla de OpenGL para renderizar objetos transparentes de manera que su opacidad se mezcle suavemente con los pixeles de fondo existentes
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
         // Deshabilita las pruebas de profundidad para que se vean las guis que estan por debajo de esta
         glDisable(GL_DEPTH_TEST);
-        for (GuiTexture gui : guis) {
-            glActiveTexture(GL_TEXTURE0);
-            glBindTexture(GL_TEXTURE_2D, gui.getTexture());
-            Matrix4f matrix = Maths.createTransformationMatrix(gui.getPosition(), gui.getScale());
-            shader.loadTransformationMatrix(matrix);
-            glDrawArrays(GL_TRIANGLE_STRIP, 0, quad.getVertexCount());
-        }
+    }
+
+    private static void finish(GuiShader shader) {
         /* Primero desactivamos los atributos de vertice mientras aun tenemos acceso a la configuracion del objeto de Vertex Array,
          * y luego desvinculamos el objeto de Vertex Array. */
         glDisableVertexAttribArray(0);
+        glDisableVertexAttribArray(1);
         glBindVertexArray(0);
         glEnable(GL_DEPTH_TEST);
         glDisable(GL_BLEND);
         shader.stop();
     }
 
+    /**
+     * Escribe los seis vertices del quad de la GUI con la misma transformacion que aplicaba la matriz de la GUI: primero la
+     * escala y despues la traslacion.
+     */
+    private static void storeQuad(GuiTexture gui, FloatBuffer data) {
+        Vector2f position = gui.getPosition(), scale = gui.getScale();
+        Vector2f offset = gui.getTextureOffset(), size = gui.getTextureScale();
+        for (int i = 0; i < CORNERS.length; i += 2) {
+            float x = CORNERS[i], y = CORNERS[i + 1];
+            data.put(position.x + x * scale.x).put(position.y + y * scale.y);
+            data.put(offset.x + (x + 1) / 2 * size.x).put(offset.y + (1 - (y + 1) / 2) * size.y);
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) array[i] = values.get(i);
+        return array;
+    }
+
     public void clean() {
-        shader.clean();
+        shaders.clean();
     }
 
 }
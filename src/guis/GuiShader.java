@@ -2,31 +2,39 @@ package guis;
 
 import shaders.ShaderProgram;
 
-import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
 
 public class GuiShader extends ShaderProgram {
 
+    // Caracteristicas de las variantes
+    public static final int DISTANCE_FIELD = 1; // La textura es el atlas de una fuente con campo de distancia (ver FontAtlas)
+    public static final int FEATURES = 1;
+
     private static final String VERTEX_FILE = "src/guis/guiVertexShader.glsl";
     private static final String FRAGMENT_FILE = "src/guis/guiFragmentShader.glsl";
 
-    private int location_transformationMatrix;
+    private int location_colour;
 
-    public GuiShader() {
-        super(VERTEX_FILE, FRAGMENT_FILE);
+    /**
+     * @param features mascara de bits con las caracteristicas de la variante.
+     */
+    public GuiShader(int features) {
+        super(VERTEX_FILE, FRAGMENT_FILE, getDefines(features, "DISTANCE_FIELD").toArray(new String[0]));
     }
 
     @Override
     protected void bindAttributes() {
         bindAttribute(0, "position");
+        bindAttribute(1, "textureCoordinates");
     }
 
     @Override
     protected void getAllUniformLocations() {
-        location_transformationMatrix = getUniformLocation("transformationMatrix");
+        location_colour = getUniformLocation("colour");
     }
 
-    public void loadTransformationMatrix(Matrix4f matrix) {
-        loadMatrix(location_transformationMatrix, matrix);
+    public void loadColour(Vector3f colour) {
+        loadVector(location_colour, colour);
     }
 
 }
@@ -0,0 +1,164 @@
+package guis;
+
+import org.lwjgl.util.vector.Vector2f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Texto en pantalla que se renderiza con un {@link FontAtlas}.
+ * <p>
+ * Los caracteres se guardan en un array de tamanio fijo y se escriben con los metodos append, que no crean objetos, asi que
+ * los textos que cambian en cada frame (como el contador de FPS) no generan basura. La distribucion de los glifos se guarda
+ * y solo se vuelve a calcular cuando cambian los caracteres o la relacion de aspecto, por lo que volver a escribir el mismo
+ * texto no cuesta nada.
+ */
+
+public class GuiText {
+
+    private final FontAtlas font;
+    private final char[] chars;
+    private int length;
+    private final Vector2f position;
+    private final float fontSize;
+    private final Vector3f colour;
+
+    // Distribucion guardada: seis vertices (x, y, u, v) por cada glifo visible
+    private final float[] vertices;
+    private int quads;
+    private int layoutLength = -1;
+    private float layoutAspectRatio;
+    private boolean dirty = true;
+
+    /**
+     * @param font     atlas de la fuente.
+     * @param capacity cantidad maxima de caracteres. Los que no entran se descartan.
+     * @param position esquina superior izquierda del texto en coordenadas de pantalla, en el rango [-1, 1].
+     * @param fontSize altura de una linea en coordenadas de pantalla.
+     * @param colour   color del texto.
+     */
+    public GuiText(FontAtlas font, int capacity, Vector2f position, float fontSize, Vector3f colour) {
+        this.font = font;
+        this.chars = new char[capacity];
+        this.position = position;
+        this.fontSize = fontSize;
+        this.colour = colour;
+        vertices = new float[capacity * 6 * 4];
+    }
+
+    /**
+     * Borra el texto para volver a escribirlo.
+     */
+    public GuiText clear() {
+        length = 0;
+        return this;
+    }
+
+    public GuiText setText(CharSequence text) {
+        return clear().append(text);
+    }
+
+    public GuiText append(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) append(text.charAt(i));
+        return this;
+    }
+
+    public GuiText append(char c) {
+        if (length == chars.length) return this;
+        if (chars[length] != c) dirty = true;
+        chars[length++] = c;
+        return this;
+    }
+
+    public GuiText append(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        // Busca la potencia de 10 del primer digito para escribir los digitos de izquierda a derecha
+        long divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) append((char) ('0' + value / divisor % 10));
+        return this;
+    }
+
+    /**
+     * Escribe el numero redondeado a la cantidad de decimales indicada.
+     */
+    public GuiText append(float value, int decimals) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long rounded = Math.round(value * scale);
+        append(rounded / scale);
+        if (decimals > 0) {
+            append('.');
+            long fraction = rounded % scale;
+            for (long divisor = scale / 10; divisor > 0; divisor /= 10) append((char) ('0' + fraction / divisor % 10));
+        }
+        return this;
+    }
+
+    /**
+     * Distribuye los glifos si el texto cambio desde la ultima vez.
+     *
+     * @param aspectRatio alto dividido por el ancho de la pantalla, para que los glifos no se estiren.
+     * @return la cantidad de quads que hay en {@link #getVertices()}.
+     */
+    int layout(float aspectRatio) {
+        if (!dirty && length == layoutLength && aspectRatio == layoutAspectRatio) return quads;
+        float scaleY = fontSize / font.getLineHeight(), scaleX = scaleY * aspectRatio;
+        float x = position.x, y = position.y;
+        int pointer = 0;
+        quads = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c == '\n') {
+                x = position.x;
+                y -= fontSize;
+                continue;
+            }
+            if (!font.hasGlyph(c)) c = '?';
+            if (c != ' ') {
+                // La celda tiene un margen alrededor del glifo para el campo de distancia
+                float left = x - font.getPadding() * scaleX, right = left + font.getCellWidth() * scaleX;
+                float top = y + font.getPadding() * scaleY, bottom = top - font.getCellHeight() * scaleY;
+                float u0 = font.getU(c), v0 = font.getV(c), u1 = u0 + font.getCellU(), v1 = v0 + font.getCellV();
+                pointer = storeVertex(pointer, left, top, u0, v0);
+                pointer = storeVertex(pointer, left, bottom, u0, v1);
+                pointer = storeVertex(pointer, right, top, u1, v0);
+                pointer = storeVertex(pointer, right, top, u1, v0);
+                pointer = storeVertex(pointer, left, bottom, u0, v1);
+                pointer = storeVertex(pointer, right, bottom, u1, v1);
+                quads++;
+            }
+            x += font.getAdvance(c) * scaleX;
+        }
+        layoutLength = length;
+        layoutAspectRatio = aspectRatio;
+        dirty = false;
+        return quads;
+    }
+
+    private int storeVertex(int pointer, float x, float y, float u, float v) {
+        vertices[pointer++] = x;
+        vertices[pointer++] = y;
+        vertices[pointer++] = u;
+        vertices[pointer++] = v;
+        return pointer;
+    }
+
+    float[] getVertices() {
+        return vertices;
+    }
+
+    public FontAtlas getFont() {
+        return font;
+    }
+
+    public Vector3f getColour() {
+        return colour;
+    }
+
+}
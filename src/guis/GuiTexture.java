@@ -3,18 +3,30 @@ package guis;
 import org.lwjgl.util.vector.Vector2f;
 
 /**
- * Las GUI solo tiene posicion y escala.
+ * Las GUI solo tiene posicion y escala. Si la textura es un atlas, la GUI usa solo la region indicada por el desplazamiento y
+ * la escala de las coordenadas de textura, de forma que todas las GUI del atlas se dibujan juntas.
  */
 
 public class GuiTexture {
 
     private final int texture;
     private final Vector2f position, scale;
+    private final Vector2f textureOffset, textureScale;
 
     public GuiTexture(int texture, Vector2f position, Vector2f scale) {
+        this(texture, position, scale, new Vector2f(0, 0), new Vector2f(1, 1));
+    }
+
+    /**
+     * @param textureOffset esquina superior izquierda de la region del atlas en coordenadas de textura.
+     * @param textureScale  tamanio de la region del atlas en coordenadas de textura.
+     */
+    public GuiTexture(int texture, Vector2f position, Vector2f scale, Vector2f textureOffset, Vector2f textureScale) {
         this.texture = texture;
         this.position = position;
         this.scale = scale;
+        this.textureOffset = textureOffset;
+        this.textureScale = textureScale;
     }
 
     public int getTexture() {
@@ -28,4 +40,12 @@ public class GuiTexture {
     public Vector2f getScale() {
         return scale;
     }
+
+    public Vector2f getTextureOffset() {
+        return textureOffset;
+    }
+
+    public Vector2f getTextureScale() {
+        return textureScale;
+    }
 }
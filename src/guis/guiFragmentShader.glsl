@@ -5,11 +5,20 @@ in vec2 textureCoords;
 out vec4 out_Color;
 
 uniform sampler2D guiTexture;
+uniform vec3 colour; // Color del texto
 
 void main(void) {
 
 /*  El metodo texture se utiliza para muestrear una textura en una coordenada especifica. Toma como argumento la textura
     y las coordenadas de textura, y devuelve el color de la textura en esas coordenadas. */
+#ifdef DISTANCE_FIELD
+/*  El alfa del atlas guarda la distancia al borde del glifo, donde 0.5 es el borde. fwidth mide cuanto cambia la
+    distancia entre pixeles vecinos, asi que el borde se suaviza siempre en un pixel sin importar el tamanio del texto. */
+    float distance = texture(guiTexture, textureCoords).a;
+    float width = fwidth(distance);
+    out_Color = vec4(colour, smoothstep(0.5 - width, 0.5 + width, distance));
+#else
     out_Color = texture(guiTexture, textureCoords);
+#endif
 
 }
\ No newline at end of file
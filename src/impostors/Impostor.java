@@ -0,0 +1,56 @@
+package impostors;
+
+/**
+ * Un impostor reemplaza al modelo 3D de una entidad lejana por un quad que siempre mira hacia la camara y que se texturiza con
+ * una imagen del modelo. Las imagenes se generan una sola vez al cargar el modelo renderizandolo desde varios angulos alrededor
+ * del eje [y] y se guardan en un atlas, donde cada columna es un angulo y cada fila una textura del texture atlas del modelo. Al
+ * renderizar, el shader elige la columna cuyo angulo se parece mas a la direccion desde la que la camara ve a la entidad.
+ */
+
+public class Impostor {
+
+    private final int textureID; // Id del atlas
+    private final int angles, variants; // Columnas y filas del atlas
+    private final float width; // Ancho del quad con escala 1 (diametro horizontal del modelo)
+    private final float minY, height; // Altura de la base y alto del quad con escala 1
+    private final float distance; // Distancia a la camara a partir de la cual se usa el impostor
+
+    public Impostor(int textureID, int angles, int variants, float width, float minY, float height, float distance) {
+        this.textureID = textureID;
+        this.angles = angles;
+        this.variants = variants;
+        this.width = width;
+        this.minY = minY;
+        this.height = height;
+        this.distance = distance;
+    }
+
+    public int getTextureID() {
+        return textureID;
+    }
+
+    public int getAngles() {
+        return angles;
+    }
+
+    public int getVariants() {
+        return variants;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+}
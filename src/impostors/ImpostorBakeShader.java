@@ -0,0 +1,64 @@
+package impostors;
+
+import shaders.ShaderProgram;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+public class ImpostorBakeShader extends ShaderProgram {
+
+    private static final String VERTEX_FILE = "src/impostors/impostorBakeVertexShader.glsl";
+    private static final String FRAGMENT_FILE = "src/impostors/impostorBakeFragmentShader.glsl";
+
+    private int location_transformationMatrix, location_projectionMatrix;
+    private int location_useFakeLighting;
+    private int location_numberOfRows;
+    private int location_offset;
+    private int location_lightDirection;
+
+    public ImpostorBakeShader() {
+        super(VERTEX_FILE, FRAGMENT_FILE);
+    }
+
+    @Override
+    protected void bindAttributes() {
+        bindAttribute(0, "position");
+        bindAttribute(1, "textureCoords");
+        bindAttribute(2, "normal");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_transformationMatrix = getUniformLocation("transformationMatrix");
+        location_projectionMatrix = getUniformLocation("projectionMatrix");
+        location_useFakeLighting = getUniformLocation("useFakeLighting");
+        location_numberOfRows = getUniformLocation("numberOfRows");
+        location_offset = getUniformLocation("offset");
+        location_lightDirection = getUniformLocation("lightDirection");
+    }
+
+    public void loadTransformationMatrix(Matrix4f matrix) {
+        loadMatrix(location_transformationMatrix, matrix);
+    }
+
+    public void loadProjectionMatrix(Matrix4f matrix) {
+        loadMatrix(location_projectionMatrix, matrix);
+    }
+
+    public void loadFakeLighting(boolean useFake) {
+        loadBoolean(location_useFakeLighting, useFake);
+    }
+
+    public void loadNumberOfRows(int numberOfRows) {
+        loadFloat(location_numberOfRows, numberOfRows);
+    }
+
+    public void loadOffset(float x, float y) {
+        load2DVector(location_offset, x, y);
+    }
+
+    public void loadLightDirection(Vector3f direction) {
+        loadVector(location_lightDirection, direction);
+    }
+
+}
@@ -0,0 +1,161 @@
+package impostors;
+
+import converter.ModelData;
+import models.RawModel;
+import models.TexturedModel;
+import render.MasterRenderer;
+import textures.ModelTexture;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL14.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Genera el atlas de un impostor renderizando el modelo en un FBO. Cada celda del atlas es una captura ortografica del modelo
+ * rotado alrededor del eje [y], de modo que la celda queda completamente ocupada por el modelo sin importar su tamanio.
+ */
+
+public class ImpostorBaker {
+
+    public static final int ANGLES = 8; // Cantidad de angulos capturados alrededor del modelo
+    private static final int TILE_SIZE = 128; // Resolucion de cada celda del atlas
+
+    private final ImpostorBakeShader shader = new ImpostorBakeShader();
+    private final List<Integer> textures = new ArrayList<>();
+
+    /**
+     * Genera el impostor del modelo.
+     *
+     * @param model         modelo texturizado.
+     * @param data          datos del modelo, usados para calcular sus dimensiones.
+     * @param lightPosition posicion de la luz direccional con la que se ilumina el atlas.
+     * @param distance      distancia a la camara a partir de la cual se usa el impostor.
+     * @return el impostor.
+     */
+    public Impostor bake(TexturedModel model, ModelData data, Vector3f lightPosition, float distance) {
+        // Calcula el radio horizontal y la altura del modelo para que la captura no desperdicie espacio del atlas
+        float[] vertices = data.getVertices();
+        float radius = 0, minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < vertices.length; i += 3) {
+            radius = Math.max(radius, (float) Math.sqrt(vertices[i] * vertices[i] + vertices[i + 2] * vertices[i + 2]));
+            minY = Math.min(minY, vertices[i + 1]);
+            maxY = Math.max(maxY, vertices[i + 1]);
+        }
+        // Un pequenio margen evita que el borde del modelo quede cortado por el borde de la celda
+        radius *= 1.02f;
+        float margin = (maxY - minY) * 0.01f;
+        minY -= margin;
+        maxY += margin;
+
+        ModelTexture texture = model.getTexture();
+        int rows = texture.getNumberOfRows(), variants = rows * rows;
+        int width = ANGLES * TILE_SIZE, height = variants * TILE_SIZE;
+
+        int atlas = createAtlas(width, height);
+        int frameBuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, frameBuffer);
+        glDrawBuffer(GL_COLOR_ATTACHMENT0);
+        glFramebufferTexture(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, atlas, 0);
+        int depthBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+
+        glViewport(0, 0, width, height);
+        // El alfa 0 marca las partes de la celda que no pertenecen al modelo
+        glClearColor(0, 0, 0, 0);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        glEnable(GL_DEPTH_TEST);
+        MasterRenderer.disableCulling();
+
+        shader.start();
+        shader.loadProjectionMatrix(createProjectionMatrix(radius, minY, maxY));
+        shader.loadLightDirection(lightPosition.normalise(new Vector3f()));
+        shader.loadFakeLighting(texture.isUseFakeLighting());
+        shader.loadNumberOfRows(rows);
+
+        RawModel rawModel = model.getRawModel();
+        glBindVertexArray(rawModel.getID());
+        glEnableVertexAttribArray(0);
+        glEnableVertexAttribArray(1);
+        glEnableVertexAttribArray(2);
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, texture.getID());
+
+        for (int variant = 0; variant < variants; variant++) {
+            shader.loadOffset((float) (variant % rows) / rows, (float) (variant / rows) / rows);
+            for (int angle = 0; angle < ANGLES; angle++) {
+                // Cada captura se renderiza solo en su celda del atlas
+                glViewport(angle * TILE_SIZE, variant * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                Matrix4f matrix = new Matrix4f();
+                Matrix4f.rotate((float) (2 * Math.PI * angle / ANGLES), new Vector3f(0, 1, 0), matrix, matrix);
+                shader.loadTransformationMatrix(matrix);
+                glDrawElementsBaseVertex(GL_TRIANGLES, rawModel.getVertexCount(), rawModel.getIndexType(), rawModel.getIndexOffset(), rawModel.getBaseVertex());
+            }
+        }
+
+        glDisableVertexAttribArray(0);
+        glDisableVertexAttribArray(1);
+        glDisableVertexAttribArray(2);
+        glBindVertexArray(0);
+        shader.stop();
+        MasterRenderer.enableCulling();
+
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glViewport(0, 0, Display.getWidth(), Display.getHeight());
+        glDeleteRenderbuffers(depthBuffer);
+        glDeleteFramebuffers(frameBuffer);
+
+        // Los mipmaps evitan el parpadeo de los impostores lejanos que ocupan pocos pixeles
+        glBindTexture(GL_TEXTURE_2D, atlas);
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        return new Impostor(atlas, ANGLES, variants, radius * 2, minY, maxY - minY, distance);
+    }
+
+    private int createAtlas(int width, int height) {
+        int id = glGenTextures();
+        textures.add(id);
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        // Evita que el filtrado mezcle los bordes de celdas vecinas al repetir la textura
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        return id;
+    }
+
+    /**
+     * Crea una proyeccion ortografica que mapea el cilindro que envuelve al modelo a toda la celda. Como la camara mira desde
+     * [+z] hacia [-z], la profundidad se invierte para que los puntos con mayor [z] queden mas cerca.
+     */
+    private Matrix4f createProjectionMatrix(float radius, float minY, float maxY) {
+        Matrix4f matrix = new Matrix4f();
+        matrix.m00 = 1 / radius;
+        matrix.m11 = 2 / (maxY - minY);
+        matrix.m31 = -(maxY + minY) / (maxY - minY);
+        matrix.m22 = -1 / radius;
+        return matrix;
+    }
+
+    public void clean() {
+        shader.clean();
+        for (int texture : textures) glDeleteTextures(texture);
+    }
+
+}
@@ -0,0 +1,113 @@
+package impostors;
+
+import converter.ModelData;
+import entities.Camera;
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import render.Loader;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * Renderiza los impostores de las entidades lejanas. Todas las entidades que comparten un impostor se dibujan con una sola
+ * llamada instanciada: el quad se carga una vez y los datos de cada entidad (posicion, rotacion, escala y fila del atlas) se
+ * copian en cada frame a un vbo cuyos atributos avanzan una vez por instancia.
+ */
+
+public class ImpostorRenderer {
+
+    private static final int MAX_INSTANCES = 10000; // Instancias por llamada
+    private static final int INSTANCE_DATA_LENGTH = 7; // x, y, z, rotacion, escala horizontal, escala vertical, fila
+
+    // Quad con la base en el origen dibujado como triangle strip
+    private static final float[] VERTICES = {-0.5f, 1, -0.5f, 0, 0.5f, 1, 0.5f, 0};
+
+    private static final FloatBuffer buffer = BufferUtils.createFloatBuffer(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
+
+    private final Loader loader;
+    private final RawModel quad;
+    private final int vbo;
+    private final ImpostorShader shader = new ImpostorShader();
+    private final ImpostorBaker baker = new ImpostorBaker();
+
+    public ImpostorRenderer(Loader loader, Matrix4f projectionMatrix) {
+        this.loader = loader;
+        quad = loader.loadToVAO(VERTICES, 2);
+        vbo = loader.createEmptyVbo(MAX_INSTANCES * INSTANCE_DATA_LENGTH);
+        loader.addInstancedAttribute(quad.getID(), vbo, 1, 4, INSTANCE_DATA_LENGTH, 0);
+        loader.addInstancedAttribute(quad.getID(), vbo, 2, 3, INSTANCE_DATA_LENGTH, 4);
+        shader.start();
+        shader.loadProjectionMatrix(projectionMatrix);
+        shader.stop();
+    }
+
+    /**
+     * Genera el impostor del modelo y lo asigna al modelo.
+     *
+     * @param model         modelo texturizado.
+     * @param data          datos del modelo.
+     * @param lightPosition posicion de la luz direccional con la que se ilumina el atlas.
+     * @param distance      distancia a la camara a partir de la cual se usa el impostor.
+     */
+    public void createImpostor(TexturedModel model, ModelData data, Vector3f lightPosition, float distance) {
+        model.setImpostor(baker.bake(model, data, lightPosition, distance));
+    }
+
+    public void render(Map<Impostor, List<Entity>> impostors, Camera camera, Vector4f clipPlane) {
+        if (impostors.isEmpty()) return;
+        shader.start();
+        shader.loadClipPlane(clipPlane);
+        shader.loadViewMatrix(camera);
+        glBindVertexArray(quad.getID());
+        glEnableVertexAttribArray(0);
+        glEnableVertexAttribArray(1);
+        glEnableVertexAttribArray(2);
+        glActiveTexture(GL_TEXTURE0);
+        for (Impostor impostor : impostors.keySet()) {
+            shader.loadImpostor(impostor);
+            glBindTexture(GL_TEXTURE_2D, impostor.getTextureID());
+            List<Entity> batch = impostors.get(impostor);
+            for (int first = 0; first < batch.size(); first += MAX_INSTANCES) {
+                int count = Math.min(MAX_INSTANCES, batch.size() - first);
+                buffer.clear();
+                for (int i = first; i < first + count; i++) storeInstance(batch.get(i));
+                buffer.flip();
+                loader.updateVbo(vbo, buffer);
+                glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, quad.getVertexCount(), count);
+            }
+        }
+        glDisableVertexAttribArray(0);
+        glDisableVertexAttribArray(1);
+        glDisableVertexAttribArray(2);
+        glBindVertexArray(0);
+        shader.stop();
+    }
+
+    private void storeInstance(Entity entity) {
+        Vector3f position = entity.getPosition(), scale = entity.getScale();
+        buffer.put(position.x).put(position.y).put(position.z);
+        buffer.put((float) Math.toRadians(entity.getAngle().y));
+        buffer.put(Math.max(scale.x, scale.z)).put(scale.y);
+        buffer.put(entity.getTextureIndex());
+    }
+
+    public void clean() {
+        shader.clean();
+        baker.clean();
+    }
+
+}
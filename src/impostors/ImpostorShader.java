@@ -0,0 +1,72 @@
+package impostors;
+
+import entities.Camera;
+import shaders.ShaderProgram;
+import utils.Maths;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector4f;
+
+public class ImpostorShader extends ShaderProgram {
+
+    private static final String VERTEX_FILE = "src/impostors/impostorVertexShader.glsl";
+    private static final String FRAGMENT_FILE = "src/impostors/impostorFragmentShader.glsl";
+
+    private int location_viewMatrix, location_projectionMatrix;
+    private int location_cameraPosition;
+    private int location_angles, location_variants;
+    private int location_width, location_minY, location_height;
+    private int location_plane;
+    private final Matrix4f viewMatrix = new Matrix4f(); // Se reutiliza en cada frame
+
+    public ImpostorShader() {
+        super(VERTEX_FILE, FRAGMENT_FILE);
+    }
+
+    @Override
+    protected void bindAttributes() {
+        bindAttribute(0, "position");
+        bindAttribute(1, "instancePosition");
+        bindAttribute(2, "instanceScale");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_viewMatrix = getUniformLocation("viewMatrix");
+        location_projectionMatrix = getUniformLocation("projectionMatrix");
+        location_cameraPosition = getUniformLocation("cameraPosition");
+        location_angles = getUniformLocation("angles");
+        location_variants = getUniformLocation("variants");
+        location_width = getUniformLocation("width");
+        location_minY = getUniformLocation("minY");
+        location_height = getUniformLocation("height");
+        location_plane = getUniformLocation("plane");
+    }
+
+    public void loadProjectionMatrix(Matrix4f matrix) {
+        loadMatrix(location_projectionMatrix, matrix);
+    }
+
+    public void loadViewMatrix(Camera camera) {
+        loadMatrix(location_viewMatrix, Maths.createViewMatrix(camera, viewMatrix));
+        loadVector(location_cameraPosition, camera.getPosition());
+    }
+
+    /**
+     * Carga las dimensiones del atlas y del quad del impostor.
+     *
+     * @param impostor impostor.
+     */
+    public void loadImpostor(Impostor impostor) {
+        loadFloat(location_angles, impostor.getAngles());
+        loadFloat(location_variants, impostor.getVariants());
+        loadFloat(location_width, impostor.getWidth());
+        loadFloat(location_minY, impostor.getMinY());
+        loadFloat(location_height, impostor.getHeight());
+    }
+
+    public void loadClipPlane(Vector4f plane) {
+        loadVector(location_plane, plane);
+    }
+
+}
@@ -0,0 +1,22 @@
+#version 400 core
+
+in vec2 pass_textureCoords;
+in vec3 surfaceNormal;
+
+out vec4 out_Color;
+
+uniform sampler2D modelTexture;
+uniform vec3 lightDirection; // Direccion hacia la luz
+
+void main(void) {
+
+    vec4 textureColor = texture(modelTexture, pass_textureCoords);
+    if (textureColor.a < 0.5) discard;
+
+    // Misma iluminacion difusa que las entidades con una sola luz direccional (sin especular, que depende de la camara)
+    float brightness = max(dot(normalize(surfaceNormal), lightDirection), 0.2);
+
+    // El alfa queda en 1 solo donde hay modelo, el resto de la celda conserva el alfa 0 del color de limpieza
+    out_Color = vec4(brightness * textureColor.rgb, 1.0);
+
+}
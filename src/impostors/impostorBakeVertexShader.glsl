@@ -0,0 +1,27 @@
+#version 400 core
+
+in vec3 position;
+in vec2 textureCoords;
+in vec3 normal;
+
+out vec2 pass_textureCoords;
+out vec3 surfaceNormal;
+
+uniform mat4 transformationMatrix, projectionMatrix;
+uniform float useFakeLighting;
+uniform float numberOfRows;
+uniform vec2 offset;
+
+void main(void) {
+
+/*  La matriz de transformacion solo rota el modelo hacia el angulo que se esta capturando y la proyeccion es ortografica,
+    por lo que el modelo ocupa toda la celda del atlas sin importar su tamanio. */
+    gl_Position = projectionMatrix * transformationMatrix * vec4(position, 1.0);
+    pass_textureCoords = (textureCoords / numberOfRows) + offset;
+
+/*  La iluminacion se calcula en el espacio del modelo sin rotar, asi la luz queda igual en todos los angulos del atlas como
+    en una entidad que no esta rotada. */
+    surfaceNormal = normal;
+    if (useFakeLighting > 0.5) surfaceNormal = vec3(0.0, 1.0, 0.0);
+
+}
@@ -0,0 +1,15 @@
+#version 400 core
+
+in vec2 pass_textureCoords;
+
+out vec4 out_Color;
+
+uniform sampler2D impostorTexture;
+
+void main(void) {
+
+    vec4 textureColor = texture(impostorTexture, pass_textureCoords);
+    if (textureColor.a < 0.5) discard;
+    out_Color = textureColor;
+
+}
@@ -0,0 +1,38 @@
+#version 400 core
+
+in vec2 position; // Esquina del quad, [x] entre -0.5 y 0.5, [y] entre 0 y 1
+in vec4 instancePosition; // Posicion de la entidad y rotacion en [y] en radianes
+in vec3 instanceScale; // Escala horizontal, escala vertical y fila del atlas
+
+out vec2 pass_textureCoords;
+
+uniform mat4 viewMatrix, projectionMatrix;
+uniform vec3 cameraPosition;
+uniform float angles, variants;
+uniform float width, minY, height;
+uniform vec4 plane;
+
+const float PI = 3.1415926535897932384626433832795;
+
+void main(void) {
+
+    vec3 center = instancePosition.xyz;
+    vec2 toCamera = cameraPosition.xz - center.xz;
+    if (dot(toCamera, toCamera) < 0.0001) toCamera = vec2(0.0, 1.0);
+
+/*  El atlas se captura mirando al modelo desde [+z], rotandolo en cada columna un angulo de 360/angles grados. La camara ve
+    a la entidad desde el angulo atan(x, z) del vector hacia la camara, por lo que la columna que corresponde es la de la
+    rotacion de la entidad menos ese angulo. */
+    float viewAngle = atan(toCamera.x, toCamera.y);
+    float column = mod(floor((instancePosition.w - viewAngle) / (2.0 * PI) * angles + 0.5), angles);
+
+    // El quad solo gira alrededor del eje [y], asi los arboles no se inclinan cuando la camara los mira desde arriba
+    vec3 right = normalize(vec3(toCamera.y, 0.0, -toCamera.x));
+    vec3 worldPosition = center + right * (position.x * width * instanceScale.x);
+    worldPosition.y += (minY + position.y * height) * instanceScale.y;
+
+    gl_ClipDistance[0] = dot(vec4(worldPosition, 1.0), plane);
+    gl_Position = projectionMatrix * viewMatrix * vec4(worldPosition, 1.0);
+    pass_textureCoords = vec2((column + position.x + 0.5) / angles, (instanceScale.z + position.y) / variants);
+
+}
@@ -1,5 +1,7 @@
 package models;
 
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+
 /**
  * En el ambito del diseño tridimensional, un "modelo en bruto" o RawModel se refiere a una estructura de datos que alberga
  * informacion cruda acerca de un modelo 3D. Este termino sugiere la presencia de datos fundamentales sin procesar que describen
@@ -17,10 +19,46 @@ package models;
 public class RawModel {
 
     private final int id, vertexCount;
+    private final int indexType; // Tipo de los indices almacenados en el buffer de indices (GL_UNSIGNED_INT o GL_UNSIGNED_SHORT)
+    private final boolean shared; // Si los buffers pertenecen a un arena de mallas compartido con otros modelos
+    // Primer indice y primer vertice del modelo dentro de los buffers, que solo cambian cuando el arena se compacta
+    private int firstIndex, baseVertex;
 
     public RawModel(int id, int vertexCount) {
+        this(id, vertexCount, GL_UNSIGNED_INT);
+    }
+
+    public RawModel(int id, int vertexCount, int indexType) {
         this.id = id; // id del vao
         this.vertexCount = vertexCount; // Cantidad de vertices que hay en el modelo
+        this.indexType = indexType;
+        shared = false;
+    }
+
+    /**
+     * Crea un modelo que ocupa una parte de los buffers de un arena de mallas.
+     *
+     * @param id          id del vao del arena.
+     * @param vertexCount cantidad de indices del modelo.
+     * @param indexType   tipo de los indices.
+     * @param firstIndex  primer indice del modelo en el buffer de indices.
+     * @param baseVertex  valor que se suma a cada indice para obtener el vertice en el buffer de vertices.
+     */
+    public RawModel(int id, int vertexCount, int indexType, int firstIndex, int baseVertex) {
+        this.id = id;
+        this.vertexCount = vertexCount;
+        this.indexType = indexType;
+        this.firstIndex = firstIndex;
+        this.baseVertex = baseVertex;
+        shared = true;
+    }
+
+    /**
+     * Mueve el modelo dentro de los buffers del arena.
+     */
+    public void relocate(int firstIndex, int baseVertex) {
+        this.firstIndex = firstIndex;
+        this.baseVertex = baseVertex;
     }
 
     public int getID() {
@@ -31,4 +69,27 @@ public class RawModel {
         return vertexCount;
     }
 
+    public int getIndexType() {
+        return indexType;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    public int getFirstIndex() {
+        return firstIndex;
+    }
+
+    public int getBaseVertex() {
+        return baseVertex;
+    }
+
+    /**
+     * @return el desplazamiento en bytes del primer indice del modelo, que es lo que recibe glDrawElements.
+     */
+    public long getIndexOffset() {
+        return (long) firstIndex * (indexType == GL_UNSIGNED_INT ? 4 : 2);
+    }
+
 }
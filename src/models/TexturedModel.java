@@ -1,9 +1,17 @@
 package models;
 
+import impostors.Impostor;
 import textures.ModelTexture;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Representa un modelo texturizado, ya que el modelo sin formato solo representa datos.
+ * <p>
+ * Opcionalmente puede tener niveles de detalle (LODs), que son versiones simplificadas del mismo modelo con la misma textura.
+ * Cada nivel tiene un tamanio minimo en pantalla, por lo que una entidad lejana (que ocupa poco en pantalla) se renderiza con
+ * menos triangulos sin que se note la diferencia.
  */
 
 public class TexturedModel {
@@ -11,11 +19,54 @@ public class TexturedModel {
     private final RawModel rawModel; // Modelo sin formato o crudo
     private final ModelTexture texture; // Textura del modelo con la que queremos texturizar el modelo especificado
 
+    private float boundingRadius; // Radio de la esfera que envuelve al modelo con escala 1
+    // Niveles de detalle ordenados del mas detallado al menos detallado, junto con el tamanio en pantalla a partir del cual se usan
+    private final List<TexturedModel> lods = new ArrayList<>();
+    private final List<Float> lodScreenSizes = new ArrayList<>();
+    private Impostor impostor; // Reemplazo del modelo para las entidades lejanas
+
     public TexturedModel(RawModel rawModel, ModelTexture texture) {
         this.rawModel = rawModel;
         this.texture = texture;
     }
 
+    /**
+     * Agrega un nivel de detalle que se usa cuando el modelo ocupa en pantalla menos que el tamanio especificado. Los niveles
+     * se tienen que agregar del mas detallado al menos detallado.
+     *
+     * @param rawModel   modelo simplificado.
+     * @param screenSize proporcion de la altura de la pantalla que ocupa el diametro de la esfera envolvente por debajo de la
+     *                   cual se usa este nivel.
+     */
+    public void addLod(RawModel rawModel, float screenSize) {
+        lods.add(new TexturedModel(rawModel, texture));
+        lodScreenSizes.add(screenSize);
+    }
+
+    /**
+     * Obtiene el nivel de detalle adecuado para el tamanio que ocupa el modelo en pantalla.
+     *
+     * @param screenSize proporcion de la altura de la pantalla que ocupa el diametro de la esfera envolvente.
+     * @return el modelo texturizado del nivel de detalle, o este mismo modelo si no hay un nivel menos detallado adecuado.
+     */
+    public TexturedModel getLod(float screenSize) {
+        TexturedModel lod = this;
+        for (int i = 0; i < lods.size() && screenSize < lodScreenSizes.get(i); i++) lod = lods.get(i);
+        return lod;
+    }
+
+    public Impostor getImpostor() {
+        return impostor;
+    }
+
+    public void setImpostor(Impostor impostor) {
+        this.impostor = impostor;
+    }
+
+    public boolean hasLods() {
+        return !lods.isEmpty();
+    }
+
     public RawModel getRawModel() {
         return rawModel;
     }
@@ -24,4 +75,13 @@ public class TexturedModel {
         return texture;
     }
 
+    public float getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    public void setBoundingRadius(float boundingRadius) {
+        this.boundingRadius = boundingRadius;
+        for (TexturedModel lod : lods) lod.setBoundingRadius(boundingRadius);
+    }
+
 }
@@ -0,0 +1,330 @@
+package render;
+
+import entities.Light;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * Iluminacion clusterizada (clustered forward shading).
+ * <p>
+ * El volumen de vision se divide en una grilla de celdas (clusters o froxels): {@link #GRID_X} x {@link #GRID_Y} tiles en
+ * pantalla y {@link #GRID_Z} rebanadas en profundidad. Las rebanadas crecen exponencialmente con la distancia para que las
+ * celdas lejanas no sean mucho mas profundas que anchas. En cada pasada la CPU asigna cada luz local (con radio de influencia
+ * finito) a todas las celdas que toca su esfera y sube a la GPU tres buffer textures: los datos de las luces, la lista de
+ * indices de luces de cada celda y el desplazamiento y la cantidad de indices de cada celda. El fragment shader calcula su
+ * celda a partir de {@code gl_FragCoord} y de su profundidad, y solo ilumina con las luces de esa celda, de modo que el costo
+ * depende de la cantidad de luces cercanas y no de la cantidad total de luces.
+ * <p>
+ * La asignacion se reparte entre varios hilos por rebanadas de profundidad, asi cada hilo escribe en celdas distintas y no
+ * hace falta sincronizar. Los hilos viven mientras exista el objeto y esperan dormidos a la siguiente pasada, y el hilo de
+ * renderizado procesa la primera parte de las rebanadas en lugar de quedarse esperando, asi repartir el trabajo no crea
+ * objetos en cada pasada. Las luces sin atenuacion (como el sol) no se asignan a celdas y se siguen cargando en las variables
+ * uniformes de los shaders.
+ */
+
+public class ClusteredLighting {
+
+    public static final int GRID_X = 16, GRID_Y = 9, GRID_Z = 24;
+    private static final int CLUSTER_COUNT = GRID_X * GRID_Y * GRID_Z;
+    public static final float CLUSTER_NEAR = 1; // Todo lo que este mas cerca que esta distancia cae en la primera rebanada
+    private static final int MAX_LIGHTS = 1024; // Luces locales por pasada
+    private static final int MAX_LIGHTS_PER_CLUSTER = 64;
+    private static final int MAX_LIGHT_INDICES = CLUSTER_COUNT * 16; // Indices totales, en promedio 16 luces por celda
+    private static final int LIGHT_TEXELS = 3; // Posicion y radio, color y atenuacion
+
+    // Unidades de textura de los buffer textures, despues de las que usan los shaders del terreno (0 a 4)
+    public static final int LIGHT_DATA_UNIT = 5, LIGHT_INDEX_UNIT = 6, LIGHT_GRID_UNIT = 7;
+
+    private final float near, far;
+    private final float logDepthRatio;
+
+    // Hilos que ayudan al hilo de renderizado, cada uno con su propio rango de rebanadas
+    private final Thread[] workers;
+    private final int slicesPerWorker;
+    private final AtomicInteger remaining = new AtomicInteger(); // Hilos que todavia no terminaron la pasada
+    private volatile int generation; // Numero de pasada, que despierta a los hilos cuando cambia
+    private volatile boolean closed;
+    private volatile Thread caller;
+    private volatile Throwable failure;
+
+    // Luces locales de la pasada actual en espacio de vista
+    private final float[] viewX = new float[MAX_LIGHTS], viewY = new float[MAX_LIGHTS], depth = new float[MAX_LIGHTS], radius = new float[MAX_LIGHTS];
+    private int lightCount;
+    private float xScale, yScale;
+
+    // Lista de luces de cada celda antes de compactarlas en un unico buffer de indices
+    private final int[][] clusterLights = new int[CLUSTER_COUNT][MAX_LIGHTS_PER_CLUSTER];
+    private final int[] clusterCounts = new int[CLUSTER_COUNT];
+
+    private final FloatBuffer lightData = BufferUtils.createFloatBuffer(MAX_LIGHTS * LIGHT_TEXELS * 4);
+    private final IntBuffer lightIndices = BufferUtils.createIntBuffer(MAX_LIGHT_INDICES);
+    private final IntBuffer lightGrid = BufferUtils.createIntBuffer(CLUSTER_COUNT * 2);
+
+    private final int lightDataBuffer, lightIndexBuffer, lightGridBuffer;
+    private final int lightDataTexture, lightIndexTexture, lightGridTexture;
+
+    private final Vector4f viewPosition = new Vector4f();
+
+    public ClusteredLighting(float near, float far) {
+        this.near = near;
+        this.far = far;
+        logDepthRatio = (float) Math.log(far / CLUSTER_NEAR);
+        // El hilo de renderizado tambien procesa rebanadas, asi que cuenta como uno de los hilos
+        int threads = Math.max(1, Math.min(GRID_Z, Runtime.getRuntime().availableProcessors()));
+        slicesPerWorker = (GRID_Z + threads - 1) / threads;
+        workers = new Thread[(GRID_Z + slicesPerWorker - 1) / slicesPerWorker - 1];
+        for (int i = 0; i < workers.length; i++) {
+            int from = (i + 1) * slicesPerWorker, to = Math.min(GRID_Z, from + slicesPerWorker);
+            workers[i] = new Thread(() -> work(from, to), "Clustered lighting");
+            // Para que el juego pueda terminar aunque no se llame a clean()
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        lightDataBuffer = createBuffer(MAX_LIGHTS * LIGHT_TEXELS * 4 * 4);
+        lightIndexBuffer = createBuffer(MAX_LIGHT_INDICES * 4);
+        lightGridBuffer = createBuffer(CLUSTER_COUNT * 2 * 4);
+        lightDataTexture = createBufferTexture(GL_RGBA32F, lightDataBuffer);
+        lightIndexTexture = createBufferTexture(GL_R32UI, lightIndexBuffer);
+        lightGridTexture = createBufferTexture(GL_RG32UI, lightGridBuffer);
+    }
+
+    /**
+     * Asigna las luces locales a las celdas del frustum de la camara y sube el resultado a la GPU.
+     *
+     * @param lights           fuentes de luz de la escena.
+     * @param projectionMatrix matriz de proyeccion.
+     * @param viewMatrix       matriz de vista de la pasada.
+     */
+    public void update(List<Light> lights, Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        xScale = projectionMatrix.m00;
+        yScale = projectionMatrix.m11;
+        lightCount = 0;
+        lightData.clear();
+        for (Light light : lights) {
+            float lightRadius = light.getRadius();
+            if (Float.isInfinite(lightRadius) || lightRadius <= 0 || lightCount == MAX_LIGHTS) continue;
+            Vector3f position = light.getPosition();
+            viewPosition.set(position.x, position.y, position.z, 1);
+            Matrix4f.transform(viewMatrix, viewPosition, viewPosition);
+            // Descarta las luces que estan completamente detras de la camara o mas alla del plano lejano
+            if (-viewPosition.z + lightRadius < 0 || -viewPosition.z - lightRadius > far) continue;
+            viewX[lightCount] = viewPosition.x;
+            viewY[lightCount] = viewPosition.y;
+            depth[lightCount] = -viewPosition.z;
+            radius[lightCount] = lightRadius;
+            lightData.put(position.x).put(position.y).put(position.z).put(lightRadius);
+            lightData.put(light.getColour().x).put(light.getColour().y).put(light.getColour().z).put(0);
+            lightData.put(light.getAttenuation().x).put(light.getAttenuation().y).put(light.getAttenuation().z).put(0);
+            lightCount++;
+        }
+        lightData.flip();
+
+        assignLights();
+        compact();
+
+        uploadBuffer(lightDataBuffer, lightData);
+        uploadBuffer(lightIndexBuffer, lightIndices);
+        uploadBuffer(lightGridBuffer, lightGrid);
+    }
+
+    /**
+     * Reparte las rebanadas de profundidad entre los hilos y espera a que todos terminen.
+     */
+    private void assignLights() {
+        // Sin luces locales no vale la pena despertar a los hilos
+        if (lightCount == 0) {
+            Arrays.fill(clusterCounts, 0);
+            return;
+        }
+        caller = Thread.currentThread();
+        remaining.set(workers.length);
+        // La escritura volatil publica las luces de la pasada a los hilos antes de despertarlos
+        generation++;
+        for (Thread worker : workers) LockSupport.unpark(worker);
+        assignLights(0, Math.min(GRID_Z, slicesPerWorker));
+        while (remaining.get() > 0) LockSupport.park(this);
+        Throwable error = failure;
+        if (error != null) {
+            failure = null;
+            throw new RuntimeException("Could not assign lights to clusters", error);
+        }
+    }
+
+    /**
+     * Ciclo de cada hilo: duerme hasta que cambia el numero de pasada, procesa sus rebanadas y avisa al hilo de renderizado
+     * cuando es el ultimo en terminar.
+     */
+    private void work(int from, int to) {
+        int seen = 0;
+        while (true) {
+            // park puede volver sin motivo, por eso se vuelve a comparar la pasada
+            while (generation == seen && !closed) LockSupport.park(this);
+            if (closed) return;
+            seen = generation;
+            try {
+                assignLights(from, to);
+            } catch (Throwable e) {
+                failure = e;
+            }
+            if (remaining.decrementAndGet() == 0) LockSupport.unpark(caller);
+        }
+    }
+
+    /**
+     * Asigna las luces a las celdas de las rebanadas especificadas. Para cada rebanada que toca la esfera de la luz, se busca el
+     * rango de tiles que cubre la caja que envuelve a la esfera dentro de la profundidad de esa rebanada.
+     *
+     * @param from primera rebanada.
+     * @param to   rebanada siguiente a la ultima.
+     */
+    private void assignLights(int from, int to) {
+        for (int z = from; z < to; z++)
+            for (int i = z * GRID_X * GRID_Y; i < (z + 1) * GRID_X * GRID_Y; i++) clusterCounts[i] = 0;
+        for (int light = 0; light < lightCount; light++) {
+            float minDepth = depth[light] - radius[light], maxDepth = depth[light] + radius[light];
+            int firstSlice = Math.max(from, getSlice(minDepth)), lastSlice = Math.min(to - 1, getSlice(maxDepth));
+            for (int z = firstSlice; z <= lastSlice; z++) {
+                // Profundidad de la parte de la esfera que cae dentro de la rebanada
+                // Lo que esta detras del plano cercano no se ve, asi que se toma el plano cercano como minimo
+                float sliceNear = Math.max(near, Math.max(getSliceDepth(z), minDepth));
+                float sliceFar = Math.max(sliceNear, Math.min(getSliceDepth(z + 1), maxDepth));
+                int minX = getTile(xScale, viewX[light] - radius[light], sliceNear, sliceFar, true, GRID_X);
+                int maxX = getTile(xScale, viewX[light] + radius[light], sliceNear, sliceFar, false, GRID_X);
+                int minY = getTile(yScale, viewY[light] - radius[light], sliceNear, sliceFar, true, GRID_Y);
+                int maxY = getTile(yScale, viewY[light] + radius[light], sliceNear, sliceFar, false, GRID_Y);
+                for (int y = minY; y <= maxY; y++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        int cluster = x + y * GRID_X + z * GRID_X * GRID_Y;
+                        // Si la celda esta llena, la luz se ignora en esa celda
+                        if (clusterCounts[cluster] < MAX_LIGHTS_PER_CLUSTER)
+                            clusterLights[cluster][clusterCounts[cluster]++] = light;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtiene el tile que contiene el borde de la caja de la luz. Como la proyeccion divide por la profundidad, el borde mas
+     * extremo de la caja en pantalla esta en la profundidad mas cercana o en la mas lejana de la rebanada segun el signo.
+     */
+    private static int getTile(float scale, float edge, float near, float far, boolean min, int tiles) {
+        float a = scale * edge / near, b = scale * edge / far;
+        float ndc = min ? Math.min(a, b) : Math.max(a, b);
+        int tile = (int) Math.floor((ndc * 0.5f + 0.5f) * tiles);
+        return Math.max(0, Math.min(tiles - 1, tile));
+    }
+
+    /**
+     * Obtiene la rebanada que contiene la profundidad especificada. Debe coincidir con el calculo del fragment shader.
+     */
+    private int getSlice(float depth) {
+        if (depth <= CLUSTER_NEAR) return 0;
+        int slice = (int) (Math.log(depth / CLUSTER_NEAR) / logDepthRatio * GRID_Z);
+        return Math.min(GRID_Z - 1, slice);
+    }
+
+    /**
+     * Obtiene la profundidad en la que comienza la rebanada.
+     */
+    private float getSliceDepth(int slice) {
+        if (slice == 0) return 0;
+        return CLUSTER_NEAR * (float) Math.exp(logDepthRatio * slice / GRID_Z);
+    }
+
+    /**
+     * Junta las listas de luces de todas las celdas en un unico buffer de indices y guarda el desplazamiento y la cantidad de
+     * indices de cada celda.
+     */
+    private void compact() {
+        lightIndices.clear();
+        lightGrid.clear();
+        int offset = 0;
+        for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+            int count = Math.min(clusterCounts[cluster], MAX_LIGHT_INDICES - offset);
+            lightIndices.put(clusterLights[cluster], 0, count);
+            lightGrid.put(offset).put(count);
+            offset += count;
+        }
+        lightIndices.flip();
+        lightGrid.flip();
+    }
+
+    /**
+     * Vincula los buffer textures a sus unidades de textura.
+     */
+    public void bind() {
+        glActiveTexture(GL_TEXTURE0 + LIGHT_DATA_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, lightDataTexture);
+        glActiveTexture(GL_TEXTURE0 + LIGHT_INDEX_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, lightIndexTexture);
+        glActiveTexture(GL_TEXTURE0 + LIGHT_GRID_UNIT);
+        glBindTexture(GL_TEXTURE_BUFFER, lightGridTexture);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    public float getFar() {
+        return far;
+    }
+
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    private static int createBuffer(int size) {
+        int id = glGenBuffers();
+        glBindBuffer(GL_TEXTURE_BUFFER, id);
+        glBufferData(GL_TEXTURE_BUFFER, size, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        return id;
+    }
+
+    private static int createBufferTexture(int format, int buffer) {
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_BUFFER, id);
+        // Un buffer texture no copia los datos, solo permite leer el buffer desde el shader con texelFetch()
+        glTexBuffer(GL_TEXTURE_BUFFER, format, buffer);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+        return id;
+    }
+
+    private static void uploadBuffer(int id, FloatBuffer data) {
+        glBindBuffer(GL_TEXTURE_BUFFER, id);
+        glBufferSubData(GL_TEXTURE_BUFFER, 0, data);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    private static void uploadBuffer(int id, IntBuffer data) {
+        glBindBuffer(GL_TEXTURE_BUFFER, id);
+        glBufferSubData(GL_TEXTURE_BUFFER, 0, data);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    public void clean() {
+        closed = true;
+        for (Thread worker : workers) LockSupport.unpark(worker);
+        glDeleteTextures(lightDataTexture);
+        glDeleteTextures(lightIndexTexture);
+        glDeleteTextures(lightGridTexture);
+        glDeleteBuffers(lightDataBuffer);
+        glDeleteBuffers(lightIndexBuffer);
+        glDeleteBuffers(lightGridBuffer);
+    }
+
+}
@@ -0,0 +1,167 @@
+package render;
+
+import entities.Entity;
+import models.RawModel;
+import models.TexturedModel;
+import shaders.DepthShader;
+import shaders.ShaderVariants;
+import terrains.Terrain;
+import textures.ModelTexture;
+import utils.Maths;
+
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector4f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Pasada previa de profundidad. Renderiza el terreno y las entidades solo al buffer de profundidad con un shader que no calcula
+ * la iluminacion, para que despues la pasada de color pruebe la profundidad con GL_LEQUAL sin escribirla y los shaders caros se
+ * ejecuten como mucho una vez por pixel, aunque la vegetacion se dibuje varias veces encima del mismo pixel.
+ * <p>
+ * Si el contexto soporta el dibujo indirecto, los modelos opacos del {@link MeshArena arena de mallas} no cargan una matriz
+ * por entidad: se juntan en una lista de comandos y se dibujan todos con una sola llamada. Los modelos con prueba alfa
+ * necesitan la textura y el desplazamiento del atlas de cada entidad, asi que siguen dibujandose de a uno.
+ */
+
+public class DepthRenderer {
+
+    private final ShaderVariants<DepthShader> shaders = new ShaderVariants<>(DepthShader.FEATURES, DepthShader::new, DepthShader::isValid);
+    private final Matrix4f transformationMatrix = new Matrix4f(); // Se reutiliza para cada objeto
+    private final IndirectDraw indirectDraw; // null si el contexto no soporta el dibujo indirecto
+
+    public DepthRenderer(Matrix4f projectionMatrix) {
+        for (DepthShader shader : shaders.getAll()) {
+            shader.start();
+            shader.loadProjectionMatrix(projectionMatrix);
+            shader.connectTextureUnits();
+            shader.stop();
+        }
+        indirectDraw = IndirectDraw.isSupported() ? new IndirectDraw(1, DepthShader.INSTANCE_MATRIX_ATTRIBUTE, false) : null;
+    }
+
+    public void renderTerrains(List<Terrain> terrains, Matrix4f viewMatrix, Vector4f clipPlane) {
+        if (terrains.isEmpty()) return;
+        int passFeatures = getPassFeatures(clipPlane);
+        DepthShader shader = null;
+        if (indirectDraw != null) indirectDraw.clear();
+        for (Terrain terrain : terrains) {
+            RawModel model = terrain.getModel();
+            Maths.createTranslationMatrix(terrain.getX(), 0, terrain.getZ(), transformationMatrix);
+            if (indirectDraw != null && indirectDraw.accepts(model)) {
+                indirectDraw.addCommand(model, 1);
+                indirectDraw.addInstance(transformationMatrix);
+                continue;
+            }
+            if (shader == null) shader = start(passFeatures, viewMatrix, clipPlane);
+            glBindVertexArray(model.getID());
+            glEnableVertexAttribArray(0);
+            shader.loadTransformationMatrix(transformationMatrix);
+            glDrawElementsBaseVertex(GL_TRIANGLES, model.getVertexCount(), model.getIndexType(), model.getIndexOffset(), model.getBaseVertex());
+            glDisableVertexAttribArray(0);
+        }
+        if (shader != null) stop(shader);
+        drawIndirect(passFeatures, viewMatrix, clipPlane);
+    }
+
+    /**
+     * Renderiza las entidades agrupadas por la variante del shader que corresponde a su textura.
+     *
+     * @param entities   entidades agrupadas por modelo.
+     * @param viewMatrix matriz de vista de la pasada.
+     * @param clipPlane  plano de recorte de la pasada.
+     */
+    public void renderEntities(Map<TexturedModel, List<Entity>> entities, Matrix4f viewMatrix, Vector4f clipPlane) {
+        int passFeatures = getPassFeatures(clipPlane);
+        for (int features = 0; features <= (DepthShader.ALPHA_TEST | DepthShader.TEXTURE_ATLAS); features++) {
+            DepthShader shader = null;
+            boolean indirect = indirectDraw != null && features == 0;
+            if (indirect) indirectDraw.clear();
+            for (TexturedModel model : entities.keySet()) {
+                ModelTexture texture = model.getTexture();
+                if (DepthShader.getFeatures(texture) != features) continue;
+                if (indirect && indirectDraw.accepts(model.getRawModel())) {
+                    addCommand(model, entities.get(model));
+                    continue;
+                }
+                if (shader == null) shader = start(passFeatures | features, viewMatrix, clipPlane);
+                render(shader, model, entities.get(model), (features & DepthShader.ALPHA_TEST) != 0);
+            }
+            if (shader != null) stop(shader);
+            if (indirect) drawIndirect(passFeatures, viewMatrix, clipPlane);
+        }
+    }
+
+    private void addCommand(TexturedModel model, List<Entity> batch) {
+        if (batch.isEmpty()) return;
+        indirectDraw.addCommand(model.getRawModel(), batch.size());
+        for (Entity entity : batch) indirectDraw.addInstance(entity.getTransformationMatrix(transformationMatrix));
+    }
+
+    /**
+     * Dibuja con una sola llamada los comandos que se juntaron en la lista de dibujo indirecto.
+     */
+    private void drawIndirect(int passFeatures, Matrix4f viewMatrix, Vector4f clipPlane) {
+        if (indirectDraw == null || indirectDraw.isEmpty()) return;
+        DepthShader shader = start(passFeatures | DepthShader.INDIRECT, viewMatrix, clipPlane);
+        indirectDraw.draw();
+        stop(shader);
+    }
+
+    private void render(DepthShader shader, TexturedModel model, List<Entity> batch, boolean alphaTest) {
+        RawModel rawModel = model.getRawModel();
+        ModelTexture texture = model.getTexture();
+        glBindVertexArray(rawModel.getID());
+        glEnableVertexAttribArray(0);
+        if (alphaTest) {
+            glEnableVertexAttribArray(1);
+            shader.loadNumberOfRows(texture.getNumberOfRows());
+            glActiveTexture(GL_TEXTURE0);
+            glBindTexture(GL_TEXTURE_2D, texture.getID());
+        }
+        // Las mismas caras que en la pasada de color, de lo contrario las caras traseras de la vegetacion no tendrian profundidad
+        if (texture.isHasTransparency()) MasterRenderer.disableCulling();
+        for (Entity entity : batch) {
+            shader.loadTransformationMatrix(entity.getTransformationMatrix(transformationMatrix));
+            if (alphaTest) shader.loadOffset(entity.getTextureXOffset(), entity.getTextureYOffset());
+            glDrawElementsBaseVertex(GL_TRIANGLES, rawModel.getVertexCount(), rawModel.getIndexType(), rawModel.getIndexOffset(), rawModel.getBaseVertex());
+        }
+        MasterRenderer.enableCulling();
+        glDisableVertexAttribArray(0);
+        glDisableVertexAttribArray(1);
+        glBindVertexArray(0);
+    }
+
+    private DepthShader start(int features, Matrix4f viewMatrix, Vector4f clipPlane) {
+        DepthShader shader = shaders.get(features);
+        shader.start();
+        shader.loadViewMatrix(viewMatrix);
+        shader.loadClipPlane(clipPlane);
+        // Solo escribe la profundidad
+        glColorMask(false, false, false, false);
+        return shader;
+    }
+
+    private void stop(DepthShader shader) {
+        glColorMask(true, true, true, true);
+        shader.stop();
+        glBindVertexArray(0);
+    }
+
+    private static int getPassFeatures(Vector4f clipPlane) {
+        return MasterRenderer.isClipping(clipPlane) ? DepthShader.CLIP_PLANE : 0;
+    }
+
+    public void clean() {
+        shaders.clean();
+        if (indirectDraw != null) indirectDraw.clean();
+    }
+
+}
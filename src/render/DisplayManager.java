@@ -1,5 +1,7 @@
 package render;
 
+import utils.ScratchArena;
+
 import javax.swing.*;
 
 import org.lwjgl.LWJGLException;
@@ -42,6 +44,8 @@ public class DisplayManager {
         // Obtiene la diferencia de tiempo entre cada frame en segundos
         delta = (currentFrameTime - lastFrameTime) / 1000f;
         lastFrameTime = currentFrameTime;
+        // Los temporales del frame que termino ya no se usan
+        ScratchArena.FRAME.reset();
     }
 
     public static void close() {
@@ -4,58 +4,156 @@ import entities.Entity;
 import models.RawModel;
 import models.TexturedModel;
 import shaders.EntityShader;
+import shaders.ShaderVariants;
 import textures.ModelTexture;
-import utils.Maths;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
 
 /**
  * Renderiza la entidad.
  * <p>
  * La matriz de vista controla la posicion y orientacion de la camara, mientras que la matriz de proyeccion controla como se
  * proyectan los objetos en la pantalla. Ambas son cruciales para lograr una representacion precisa y realista en un entorno 3D.
+ * <p>
+ * Si el contexto soporta el dibujo indirecto y las luces no se eligen por entidad, los modelos del {@link MeshArena arena de
+ * mallas} que comparten textura se dibujan con una sola llamada: la matriz y el desplazamiento del atlas de cada entidad van
+ * en un vbo por instancia en lugar de cargarse en las variables uniformes. Sin la iluminacion clusterizada, las luces de
+ * cada entidad se cargan antes de dibujarla, asi que esas pasadas siguen dibujando de a una entidad.
  * <a href="https://www.youtube.com/watch?v=1KGwhqhJlDI&list=RD_xYNJlx03_M&index=4">:D</a>
  */
 
 public class EntityRenderer {
 
-    private final EntityShader shader;
+    private final ShaderVariants<EntityShader> shaders;
+    private final Matrix4f transformationMatrix = new Matrix4f(); // Se reutiliza para cada entidad
+    private EntityShader shader; // Variante que se esta usando
+    private int boundVao; // Los modelos del arena de mallas comparten el vao, que se vincula una sola vez
+    private final IndirectDraw indirectDraw; // null si el contexto no soporta el dibujo indirecto
+    private final List<TexturedModel> indirectModels = new ArrayList<>(); // Modelos de la variante que se dibujan indirectamente
+    // Junta los modelos con la misma textura para dibujarlos con la misma llamada
+    private static final Comparator<TexturedModel> BY_TEXTURE = Comparator.comparingInt(model -> model.getTexture().getID());
 
-    public EntityRenderer(EntityShader shader, Matrix4f projectionMatrix) {
-        this.shader = shader;
-        shader.start();
-        shader.loadProjectionMatrix(projectionMatrix);
-        shader.stop();
+    public EntityRenderer(ShaderVariants<EntityShader> shaders, Matrix4f projectionMatrix) {
+        this.shaders = shaders;
+        for (EntityShader shader : shaders.getAll()) {
+            shader.start();
+            shader.loadProjectionMatrix(projectionMatrix);
+            shader.connectTextureUnits();
+            shader.stop();
+        }
+        indirectDraw = IndirectDraw.isSupported() ? new IndirectDraw(3, EntityShader.INSTANCE_MATRIX_ATTRIBUTE, true) : null;
     }
 
     /**
      * Renderiza las entidades.
      *
-     * @param entities lista de entidades.
+     * <p>
+     * Los modelos se agrupan por la variante del shader que corresponde a su textura, y cada variante se inicia una sola vez y
+     * recibe las variables uniformes de la pasada antes de renderizar sus modelos. Sin administrador de luces, los modelos del
+     * arena se dejan para el final y se dibujan con la variante {@link EntityShader#INDIRECT}.
+     *
+     * @param entities     lista de entidades.
+     * @param lightManager elige las luces de cada entidad, o null si las luces se cargan una vez por pasada.
+     * @param passFeatures caracteristicas de la pasada ({@link EntityShader#CLIP_PLANE},
+     *                     {@link EntityShader#CLUSTERED_LIGHTING} y {@link EntityShader#DEFERRED}).
+     * @param passSetup    carga las variables uniformes de la pasada en la variante.
      */
-    public void render(Map<TexturedModel, List<Entity>> entities) {
-        // Itera todos los modelos
-        for (TexturedModel model : entities.keySet()) {
-            // Separa la preparacion del modelo del renderizado para una mejor optimizacion, evitando preparar 200 objetos utilizando la misma instancia por ejemplo
-            prepareTexturedModel(model);
-            // Obtiene la lista de entidades de ese modelo texturizado y las itera
-            List<Entity> batch = entities.get(model);
-            for (Entity entity : batch) {
-                prepareInstance(entity);
-                /* Renderiza triangulos mediante el uso de indices almacenados en un vbo. Como le estamos pasando un buffer de
-                 * indices que contiene ints, entonces se especifica con GL_UNSIGNED_INT comenzando desde el principio. */
-                glDrawElements(GL_TRIANGLES, model.getRawModel().getVertexCount(), GL_UNSIGNED_INT, 0);
+    public void render(Map<TexturedModel, List<Entity>> entities, LightManager lightManager, int passFeatures, Consumer<EntityShader> passSetup) {
+        boolean indirect = indirectDraw != null && lightManager == null;
+        for (int features = 0; features <= (EntityShader.FAKE_LIGHTING | EntityShader.TEXTURE_ATLAS); features++) {
+            shader = null;
+            indirectModels.clear();
+            for (TexturedModel model : entities.keySet()) {
+                if (EntityShader.getFeatures(model.getTexture()) != features) continue;
+                if (indirect && indirectDraw.accepts(model.getRawModel())) {
+                    indirectModels.add(model);
+                    continue;
+                }
+                if (shader == null) {
+                    shader = shaders.get(passFeatures | features);
+                    shader.start();
+                    passSetup.accept(shader);
+                }
+                render(model, entities.get(model), lightManager);
             }
-            unbindTexturedModel();
+            if (shader != null) shader.stop();
+            if (!indirectModels.isEmpty()) renderIndirect(entities, passFeatures | features | EntityShader.INDIRECT, passSetup);
+        }
+        // Deshabilita la lista de atributos y desvincula el vao
+        if (boundVao == 0) return;
+        glDisableVertexAttribArray(0);
+        glDisableVertexAttribArray(1);
+        glDisableVertexAttribArray(2);
+        glBindVertexArray(0);
+        boundVao = 0;
+    }
+
+    private void render(TexturedModel model, List<Entity> batch, LightManager lightManager) {
+        // Separa la preparacion del modelo del renderizado para una mejor optimizacion, evitando preparar 200 objetos utilizando la misma instancia por ejemplo
+        prepareTexturedModel(model);
+        // Itera las entidades de ese modelo texturizado
+        for (Entity entity : batch) {
+            prepareInstance(entity);
+            if (lightManager != null) loadLights(entity, lightManager);
+            /* Renderiza triangulos mediante el uso de indices almacenados en un vbo. El tipo de los indices depende de como
+             * se cargo el modelo (GL_UNSIGNED_INT o GL_UNSIGNED_SHORT). Los modelos del arena de mallas comienzan en su parte
+             * del buffer y suman el base vertex a cada indice, los demas comienzan desde el principio del buffer. */
+            RawModel rawModel = model.getRawModel();
+            glDrawElementsBaseVertex(GL_TRIANGLES, rawModel.getVertexCount(), rawModel.getIndexType(), rawModel.getIndexOffset(), rawModel.getBaseVertex());
         }
+        unbindTexturedModel();
+    }
+
+    /**
+     * Dibuja los modelos del arena de la variante con una llamada por textura. Los modelos se ordenan por textura, y cada vez
+     * que cambia se dibujan los comandos que se juntaron con la textura anterior.
+     *
+     * @param entities  entidades agrupadas por modelo.
+     * @param features  caracteristicas de la variante indirecta.
+     * @param passSetup carga las variables uniformes de la pasada en la variante.
+     */
+    private void renderIndirect(Map<TexturedModel, List<Entity>> entities, int features, Consumer<EntityShader> passSetup) {
+        indirectModels.sort(BY_TEXTURE);
+        shader = shaders.get(features);
+        shader.start();
+        passSetup.accept(shader);
+        ModelTexture texture = null;
+        for (TexturedModel model : indirectModels) {
+            if (model.getTexture() != texture) {
+                drawIndirect(texture);
+                texture = model.getTexture();
+                indirectDraw.clear();
+            }
+            List<Entity> batch = entities.get(model);
+            if (batch.isEmpty()) continue;
+            indirectDraw.addCommand(model.getRawModel(), batch.size());
+            for (Entity entity : batch)
+                indirectDraw.addInstance(entity.getTransformationMatrix(transformationMatrix), entity.getTextureXOffset(), entity.getTextureYOffset());
+        }
+        drawIndirect(texture);
+        shader.stop();
+    }
+
+    private void drawIndirect(ModelTexture texture) {
+        if (texture == null || indirectDraw.isEmpty()) return;
+        prepareTexture(texture);
+        indirectDraw.draw();
+        // La lista de dibujo desvincula el vao del arena y deshabilita sus atributos
+        boundVao = 0;
+        unbindTexturedModel();
     }
 
     /**
@@ -69,18 +167,28 @@ public class EntityRenderer {
         RawModel rawModel = model.getRawModel();
         /* Obtiene el id para vincular el vao de ese modelo, lo que permite a OpenGL recordar los estados de los atributos de
          * vertices asociados a ese vao para su uso posterior durante el proceso de renderizado. */
-        glBindVertexArray(rawModel.getID());
-        /* Habilita la lista de atributos especificando el numero correspondiente. Al habilitar un atributo, se indica a OpenGL que
-         * utilice esos datos durante el renderizado. La lista de atributos viene deshabilitada por defecto. */
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
+        if (rawModel.getID() != boundVao) {
+            glBindVertexArray(rawModel.getID());
+            boundVao = rawModel.getID();
+            /* Habilita la lista de atributos especificando el numero correspondiente. Al habilitar un atributo, se indica a
+             * OpenGL que utilice esos datos durante el renderizado. La lista de atributos viene deshabilitada por defecto. */
+            glEnableVertexAttribArray(0);
+            glEnableVertexAttribArray(1);
+            glEnableVertexAttribArray(2);
+        }
         // Obtiene la textura del modelo para poder cargar los datos especificos en el shader
-        ModelTexture texture = model.getTexture();
+        prepareTexture(model.getTexture());
+    }
+
+    /**
+     * Carga las variables uniformes de la textura y la vincula.
+     *
+     * @param texture textura del modelo.
+     */
+    private void prepareTexture(ModelTexture texture) {
         shader.loadNumberOfRows(texture.getNumberOfRows());
         // Deshabilita la seleccion de caras posteriores cada vez que renderiza una textura con transparencia
         if (texture.isHasTransparency()) MasterRenderer.disableCulling();
-        shader.loadFakeLighting(texture.isUseFakeLighting());
         // Carga los valores de luz especular en el shader antes de renderizar el objeto
         shader.loadSpecularLight(texture.getShineDamper(), texture.getReflectivity());
         /* Selecciona la unidad de textura activa entre las disponibles en el contexto. OpenGL permite multiples unidades de
@@ -94,7 +202,7 @@ public class EntityRenderer {
          * cambiar entre texturas al activar diferentes unidades y vincular las texturas correspondientes a esas unidades. Ademas,
          * al enlazar texturas, se puede configurar como interactuan con los fragmentos en el shader durante el proceso de
          * renderizado. */
-        glBindTexture(GL_TEXTURE_2D, model.getTexture().getID());
+        glBindTexture(GL_TEXTURE_2D, texture.getID());
     }
 
     /**
@@ -103,23 +211,33 @@ public class EntityRenderer {
      * @param entity entidad.
      */
     private void prepareInstance(Entity entity) {
-        Matrix4f matrix = Maths.createTransformationMatrix(entity.getPosition(), entity.getAngle(), entity.getScale());
-        shader.loadTransformationMatrix(matrix);
+        shader.loadTransformationMatrix(entity.getTransformationMatrix(transformationMatrix));
         shader.loadOffset(entity.getTextureXOffset(), entity.getTextureYOffset());
     }
 
+    /**
+     * Carga las luces que mas iluminan a la esfera que envuelve a la entidad. Las entidades cuyo modelo no tiene radio conocido
+     * se tratan como un punto.
+     *
+     * @param entity       entidad.
+     * @param lightManager administrador de luces.
+     */
+    private void loadLights(Entity entity, LightManager lightManager) {
+        Vector3f scale = entity.getScale();
+        float radius = entity.getModel().getBoundingRadius() * Math.max(scale.x, Math.max(scale.y, scale.z));
+        shader.loadSelectedLights(lightManager.select(entity.getPosition(), radius));
+    }
+
     /**
      * Deshabilita el modelo texturizado.
      */
     private void unbindTexturedModel() {
         // Habilita la seleccion nuevamente para que este habilitado para el siguiente modelo
         MasterRenderer.enableCulling();
-        // Deshabilita la lista de atributos
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
-        // Desvincula el vao
-        glBindVertexArray(0);
+    }
+
+    public void clean() {
+        if (indirectDraw != null) indirectDraw.clean();
     }
 
 }
@@ -0,0 +1,165 @@
+package render;
+
+import models.RawModel;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
+import org.lwjgl.util.vector.Matrix4f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.opengl.GL40.*;
+import static org.lwjgl.opengl.GL43.*;
+
+/**
+ * Lista de comandos de dibujo indirecto para renderizar modelos del {@link MeshArena arena de mallas} con una sola llamada a
+ * glMultiDrawElementsIndirect.
+ * <p>
+ * Cada comando dibuja todas las instancias de un modelo a partir de su parte de los buffers del arena. Los datos de todas
+ * las instancias de todos los comandos (la matriz de transformacion y, si se pide, el desplazamiento del texture atlas) van
+ * seguidos en un vbo que se lee con atributos por instancia, y el baseInstance de cada comando indica donde empiezan los
+ * datos de sus instancias.
+ */
+
+class IndirectDraw {
+
+    // Cada comando tiene count, instanceCount, firstIndex, baseVertex y baseInstance
+    private static final int COMMAND_LENGTH = 5;
+    private static final int MATRIX_LENGTH = 16, OFFSET_LENGTH = 2;
+
+    private final int vertexAttributes; // Cantidad de atributos de vertice que lee el shader, desde el atributo 0
+    private final int attribute; // Primer atributo de la matriz por instancia, que ocupa cuatro (una columna cada uno)
+    private final boolean textureOffsets; // Si cada instancia tiene el desplazamiento del atlas en el atributo siguiente a la matriz
+    private final int instanceLength; // Floats de cada instancia
+    private final int commandBuffer = glGenBuffers(), instanceBuffer = glGenBuffers();
+    private IntBuffer commands = BufferUtils.createIntBuffer(64 * COMMAND_LENGTH);
+    private FloatBuffer instances;
+    private int vao, commandCount, instanceCount;
+
+    /**
+     * @param vertexAttributes cantidad de atributos de vertice que lee el shader.
+     * @param attribute        primer atributo de la matriz por instancia.
+     * @param textureOffsets   si cada instancia tambien lleva el desplazamiento del texture atlas.
+     */
+    IndirectDraw(int vertexAttributes, int attribute, boolean textureOffsets) {
+        this.vertexAttributes = vertexAttributes;
+        this.attribute = attribute;
+        this.textureOffsets = textureOffsets;
+        instanceLength = MATRIX_LENGTH + (textureOffsets ? OFFSET_LENGTH : 0);
+        instances = BufferUtils.createFloatBuffer(1024 * instanceLength);
+    }
+
+    /**
+     * @return true si el contexto puede dibujar con glMultiDrawElementsIndirect y leer los atributos por instancia desde el
+     * baseInstance de cada comando.
+     */
+    static boolean isSupported() {
+        ContextCapabilities capabilities = GLContext.getCapabilities();
+        return (capabilities.OpenGL43 || capabilities.GL_ARB_multi_draw_indirect) && (capabilities.OpenGL42 || capabilities.GL_ARB_base_instance);
+    }
+
+    void clear() {
+        commands.clear();
+        instances.clear();
+        vao = commandCount = instanceCount = 0;
+    }
+
+    /**
+     * @return true si el modelo se puede agregar, es decir si esta en el arena y comparte el vao con los comandos anteriores.
+     */
+    boolean accepts(RawModel model) {
+        return model.isShared() && (vao == 0 || model.getID() == vao);
+    }
+
+    /**
+     * Agrega un comando para dibujar el modelo. Despues se tienen que agregar los datos de sus instancias.
+     *
+     * @param model     modelo del arena.
+     * @param instances cantidad de instancias.
+     */
+    void addCommand(RawModel model, int instances) {
+        if (commands.remaining() < COMMAND_LENGTH) {
+            IntBuffer buffer = BufferUtils.createIntBuffer(commands.capacity() * 2);
+            commands.flip();
+            commands = buffer.put(commands);
+        }
+        vao = model.getID();
+        commands.put(model.getVertexCount()).put(instances).put(model.getFirstIndex()).put(model.getBaseVertex()).put(instanceCount);
+        commandCount++;
+    }
+
+    void addInstance(Matrix4f matrix) {
+        addInstance(matrix, 0, 0);
+    }
+
+    /**
+     * Agrega una instancia con el desplazamiento del texture atlas, que se ignora si la lista no lleva desplazamientos.
+     */
+    void addInstance(Matrix4f matrix, float offsetX, float offsetY) {
+        if (instances.remaining() < instanceLength) {
+            FloatBuffer buffer = BufferUtils.createFloatBuffer(instances.capacity() * 2);
+            instances.flip();
+            instances = buffer.put(instances);
+        }
+        // Por columnas, que es como se leen los cuatro atributos de la matriz
+        matrix.store(instances);
+        if (textureOffsets) instances.put(offsetX).put(offsetY);
+        instanceCount++;
+    }
+
+    boolean isEmpty() {
+        return commandCount == 0;
+    }
+
+    /**
+     * Carga los comandos y los datos de las instancias y dibuja todos los comandos. El shader y las texturas ya tienen que
+     * estar listos.
+     */
+    void draw() {
+        commands.flip();
+        instances.flip();
+        // Cargar los datos con glBufferData reemplaza el almacenamiento, asi no se espera a que la GPU termine con el anterior
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, instanceBuffer);
+        glBufferData(GL_ARRAY_BUFFER, instances, GL_STREAM_DRAW);
+
+        glBindVertexArray(vao);
+        for (int i = 0; i < vertexAttributes; i++) glEnableVertexAttribArray(i);
+        /* Los atributos se apuntan en cada pasada porque el vao del arena es compartido y cada renderer tiene su propio vbo de
+         * instancias. */
+        int stride = instanceLength * 4;
+        for (int column = 0; column < 4; column++) {
+            glVertexAttribPointer(attribute + column, 4, GL_FLOAT, false, stride, column * 4 * 4);
+            glVertexAttribDivisor(attribute + column, 1);
+            glEnableVertexAttribArray(attribute + column);
+        }
+        if (textureOffsets) {
+            glVertexAttribPointer(attribute + 4, OFFSET_LENGTH, GL_FLOAT, false, stride, MATRIX_LENGTH * 4);
+            glVertexAttribDivisor(attribute + 4, 1);
+            glEnableVertexAttribArray(attribute + 4);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, commandCount, 0);
+
+        for (int column = 0; column < 4; column++) glDisableVertexAttribArray(attribute + column);
+        if (textureOffsets) glDisableVertexAttribArray(attribute + 4);
+        for (int i = 0; i < vertexAttributes; i++) glDisableVertexAttribArray(i);
+        glBindVertexArray(0);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    void clean() {
+        glDeleteBuffers(commandBuffer);
+        glDeleteBuffers(instanceBuffer);
+    }
+
+}
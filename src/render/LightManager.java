@@ -0,0 +1,176 @@
+package render;
+
+import entities.Light;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Elige las fuentes de luz mas relevantes para cada entidad cuando los shaders solo pueden recibir {@link #MAX_LIGHTS} luces
+ * en sus variables uniformes.
+ * <p>
+ * Las luces locales se guardan en una cuadricula sobre el plano [x,z], donde cada luz se agrega a todas las celdas que toca su
+ * radio de influencia. Para una entidad solo se revisan las luces de las celdas que toca su esfera envolvente, y se eligen las
+ * que mas iluminan el punto de la entidad mas cercano a cada luz. Las luces sin atenuacion (como el sol) iluminan todo y siempre se eligen
+ * primero.
+ */
+
+public class LightManager {
+
+    public static final int MAX_LIGHTS = 4; // Luces que aceptan los shaders
+    private static final float CELL_SIZE = 32; // Tamanio de cada celda de la cuadricula
+    // Las luces que cubren mas celdas que estas se revisan siempre, en lugar de agregarlas a cientos de celdas
+    private static final int MAX_CELLS_PER_LIGHT = 64;
+
+    private final List<Light> globalLights = new ArrayList<>(); // Luces sin atenuacion
+    private final List<Light> largeLights = new ArrayList<>(); // Luces con un radio demasiado grande para la cuadricula
+    private final List<Light> localLights = new ArrayList<>();
+    private final Map<Long, List<Light>> cells = new HashMap<>();
+    private final List<List<Light>> freeCells = new ArrayList<>(); // Listas de celdas que se reutilizan para no generar basura
+
+    private final List<Light> selected = new ArrayList<>(MAX_LIGHTS);
+    private final float[] scores = new float[MAX_LIGHTS];
+
+    /**
+     * Reconstruye la cuadricula con las luces de la escena. Se llama una vez por pasada porque las luces se pueden mover.
+     *
+     * @param lights fuentes de luz de la escena.
+     */
+    public void update(List<Light> lights) {
+        for (List<Light> cell : cells.values()) {
+            cell.clear();
+            freeCells.add(cell);
+        }
+        cells.clear();
+        globalLights.clear();
+        largeLights.clear();
+        localLights.clear();
+        for (Light light : lights) {
+            float radius = light.getRadius();
+            if (Float.isInfinite(radius)) {
+                globalLights.add(light);
+                continue;
+            }
+            if (radius <= 0) continue;
+            localLights.add(light);
+            Vector3f position = light.getPosition();
+            int minX = getCell(position.x - radius), maxX = getCell(position.x + radius);
+            int minZ = getCell(position.z - radius), maxZ = getCell(position.z + radius);
+            if ((maxX - minX + 1) * (maxZ - minZ + 1) > MAX_CELLS_PER_LIGHT) {
+                largeLights.add(light);
+                continue;
+            }
+            for (int x = minX; x <= maxX; x++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    List<Light> cell = cells.get(getKey(x, z));
+                    if (cell == null) {
+                        cell = freeCells.isEmpty() ? new ArrayList<>() : freeCells.remove(freeCells.size() - 1);
+                        cells.put(getKey(x, z), cell);
+                    }
+                    cell.add(light);
+                }
+            }
+        }
+    }
+
+    /**
+     * Elige las luces que mas iluminan a una esfera. La lista devuelta se reutiliza en cada llamada.
+     *
+     * @param position centro de la esfera.
+     * @param radius   radio de la esfera.
+     * @return las luces elegidas, primero las globales y despues las locales de mayor a menor intensidad.
+     */
+    public List<Light> select(Vector3f position, float radius) {
+        selectGlobalLights();
+        int first = selected.size();
+        int minX = getCell(position.x - radius), maxX = getCell(position.x + radius);
+        int minZ = getCell(position.z - radius), maxZ = getCell(position.z + radius);
+        // Una esfera enorme revisa todas las luces en lugar de recorrer cientos de celdas
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > MAX_CELLS_PER_LIGHT) {
+            for (Light light : localLights) consider(light, position, radius, first);
+            return selected;
+        }
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                List<Light> cell = cells.get(getKey(x, z));
+                if (cell != null) for (Light light : cell) consider(light, position, radius, first);
+            }
+        }
+        for (Light light : largeLights) consider(light, position, radius, first);
+        return selected;
+    }
+
+    /**
+     * Elige las luces locales mas cercanas a un punto sin importar si lo alcanzan. Se usa para el terreno, que es una sola
+     * malla enorme, tomando como punto la posicion de la camara.
+     *
+     * @param position punto de referencia.
+     * @return las luces elegidas.
+     */
+    public List<Light> selectNearest(Vector3f position) {
+        selectGlobalLights();
+        int first = selected.size();
+        for (Light light : localLights) {
+            // Distancia al borde de la esfera de influencia, negativa si el punto esta dentro
+            Vector3f lightPosition = light.getPosition();
+            float dx = lightPosition.x - position.x, dy = lightPosition.y - position.y, dz = lightPosition.z - position.z;
+            float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz) - light.getRadius();
+            insert(light, -distance, first);
+        }
+        return selected;
+    }
+
+    private void selectGlobalLights() {
+        selected.clear();
+        for (int i = 0; i < globalLights.size() && i < MAX_LIGHTS; i++) selected.add(globalLights.get(i));
+    }
+
+    /**
+     * Calcula la intensidad de la luz en el punto de la esfera mas cercano a la luz y la agrega a las elegidas si esta entre
+     * las mas intensas.
+     */
+    private void consider(Light light, Vector3f position, float radius, int first) {
+        /* Una luz que toca varias celdas aparece en cada una. Si ya se eligio se ignora, y si se descarto se vuelve a descartar
+         * porque su puntaje no cambia. */
+        for (int i = first; i < selected.size(); i++) if (selected.get(i) == light) return;
+        Vector3f lightPosition = light.getPosition();
+        float dx = lightPosition.x - position.x, dy = lightPosition.y - position.y, dz = lightPosition.z - position.z;
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance > light.getRadius() + radius) return;
+        distance = Math.max(0, distance - radius);
+        Vector3f attenuation = light.getAttenuation(), colour = light.getColour();
+        float attFactor = attenuation.x + attenuation.y * distance + attenuation.z * distance * distance;
+        insert(light, Math.max(colour.x, Math.max(colour.y, colour.z)) / attFactor, first);
+    }
+
+    /**
+     * Inserta la luz en la lista de elegidas manteniendola ordenada por puntaje, descartando la de menor puntaje si la lista
+     * esta llena. Las primeras posiciones (las luces globales) no se tocan.
+     */
+    private void insert(Light light, float score, int first) {
+        int count = selected.size();
+        if (first == MAX_LIGHTS) return;
+        if (count == MAX_LIGHTS && score <= scores[count - 1]) return;
+        if (count == MAX_LIGHTS) selected.remove(--count);
+        int index = count;
+        while (index > first && scores[index - 1] < score) {
+            if (index < MAX_LIGHTS) scores[index] = scores[index - 1];
+            index--;
+        }
+        scores[index] = score;
+        selected.add(index, light);
+    }
+
+    private static int getCell(float coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static long getKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+}
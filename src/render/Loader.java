@@ -11,6 +11,7 @@ import java.util.List;
 import javax.swing.*;
 
 import de.matthiasmann.twl.utils.PNGDecoder;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.*;
 import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureLoader;
@@ -20,6 +21,7 @@ import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
 
 /**
  * Esta clase carga modelos 3D en memoria.
@@ -73,11 +75,23 @@ import static org.lwjgl.opengl.GL30.*;
 
 public class Loader {
 
+    // Tamanio en bytes de cada vertice entrelazado (sin comprimir: 8 floats, comprimido: 3 floats + 2 half floats + 1 int)
+    private static final int INTERLEAVED_STRIDE = 8 * 4, COMPRESSED_STRIDE = 3 * 4 + 2 * 2 + 4;
+    // Cantidad maxima de vertices que se pueden referenciar con indices de 16 bits
+    private static final int MAX_SHORT_INDEXED_VERTICES = 65536;
+    // Capacidad inicial del arena de mallas, que se duplica cuando no alcanza
+    private static final int ARENA_VERTICES = 1 << 18, ARENA_INDICES = 1 << 20;
+
     // Listas para poder administrar la memoria
     private final List<Integer> vaos = new ArrayList<>(), vbos = new ArrayList<>(), textures = new ArrayList<>();
 
+    private VertexLayout layout = VertexLayout.SEPARATE;
+    private MeshArena meshArena; // Arena de donde se reservan los modelos, que se crea la primera vez que se activa
+    private boolean useMeshArena;
+
     /**
-     * Carga el modelo en el vao.
+     * Carga el modelo en el vao usando la organizacion de vertices configurada con {@link #setVertexLayout(VertexLayout)}, o en
+     * el arena de mallas si esta activado con {@link #setMeshArena(boolean)}.
      *
      * @param position      array de posiciones.
      * @param textureCoords array de coordenadas de texturas.
@@ -86,6 +100,9 @@ public class Loader {
      * @return el modelo sin procesar.
      */
     public RawModel loadToVAO(float[] position, float[] textureCoords, float[] normals, int[] indices) {
+        if (useMeshArena) return meshArena.allocate(position, textureCoords, normals, indices);
+        if (layout != VertexLayout.SEPARATE)
+            return loadToInterleavedVAO(position, textureCoords, normals, indices, layout == VertexLayout.COMPRESSED);
         int id = init();
         // Vincula el indice de buffer
         bindIndicesBuffer(indices);
@@ -96,6 +113,83 @@ public class Loader {
         return new RawModel(id, indices.length);
     }
 
+    /**
+     * Carga el modelo en el vao usando un unico vbo con los atributos de cada vertice entrelazados. Si el modelo tiene como
+     * maximo 65536 vertices, los indices se almacenan con 16 bits en lugar de 32.
+     *
+     * @param position      array de posiciones.
+     * @param textureCoords array de coordenadas de texturas.
+     * @param normals       array de normales.
+     * @param indices       array de indices.
+     * @param compressed    si las coordenadas de textura se guardan como half floats y las normales empaquetadas en 10 bits.
+     * @return el modelo sin procesar.
+     */
+    public RawModel loadToInterleavedVAO(float[] position, float[] textureCoords, float[] normals, int[] indices, boolean compressed) {
+        int vertexCount = position.length / 3;
+        ByteBuffer buffer = storeInterleavedData(position, textureCoords, normals, compressed);
+
+        int id = init();
+        int indexType = bindIndicesBuffer(indices, vertexCount <= MAX_SHORT_INDEXED_VERTICES);
+        int vbo = glGenBuffers();
+        vbos.add(vbo);
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+        setInterleavedAttributes(compressed);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        unbindVao();
+        return new RawModel(id, indices.length, indexType);
+    }
+
+    /**
+     * Entrelaza los atributos de cada vertice en un buffer listo para cargar en un vbo.
+     *
+     * @param compressed si las coordenadas de textura se guardan como half floats y las normales empaquetadas en 10 bits.
+     * @return el buffer con los vertices.
+     */
+    static ByteBuffer storeInterleavedData(float[] position, float[] textureCoords, float[] normals, boolean compressed) {
+        int vertexCount = position.length / 3;
+        ByteBuffer buffer = BufferUtils.createByteBuffer(vertexCount * getStride(compressed));
+        for (int i = 0; i < vertexCount; i++) {
+            buffer.putFloat(position[i * 3]).putFloat(position[i * 3 + 1]).putFloat(position[i * 3 + 2]);
+            if (compressed) {
+                buffer.putShort(Utils.toHalfFloat(textureCoords[i * 2])).putShort(Utils.toHalfFloat(textureCoords[i * 2 + 1]));
+                buffer.putInt(Utils.packNormal(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2]));
+            } else {
+                buffer.putFloat(textureCoords[i * 2]).putFloat(textureCoords[i * 2 + 1]);
+                buffer.putFloat(normals[i * 3]).putFloat(normals[i * 3 + 1]).putFloat(normals[i * 3 + 2]);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Configura los atributos del vao vinculado para leer los vertices entrelazados del vbo vinculado.
+     *
+     * @param compressed si los vertices estan comprimidos.
+     */
+    static void setInterleavedAttributes(boolean compressed) {
+        int stride = getStride(compressed);
+        /* Cada atributo apunta al mismo vbo, pero comenzando desde un desplazamiento distinto dentro del vertice y avanzando de a
+         * stride bytes para pasar al siguiente vertice. */
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, stride, 0);
+        if (compressed) {
+            glVertexAttribPointer(1, 2, GL_HALF_FLOAT, false, stride, 12);
+            // Normalizado para que el shader reciba cada componente ya convertido al rango [-1,1]
+            glVertexAttribPointer(2, 4, GL_INT_2_10_10_10_REV, true, stride, 16);
+        } else {
+            glVertexAttribPointer(1, 2, GL_FLOAT, false, stride, 12);
+            glVertexAttribPointer(2, 3, GL_FLOAT, false, stride, 20);
+        }
+    }
+
+    /**
+     * @return el tamanio en bytes de cada vertice entrelazado.
+     */
+    static int getStride(boolean compressed) {
+        return compressed ? COMPRESSED_STRIDE : INTERLEAVED_STRIDE;
+    }
+
     /**
      * Carga los objetos que estan compuestos solo por vertices, como guis, skybox y water.
      *
@@ -110,6 +204,75 @@ public class Loader {
         return new RawModel(id, vertices.length / dimension);
     }
 
+    /**
+     * Crea un vbo vacio que se actualiza en cada frame, como el de los datos por instancia del renderizado instanciado.
+     *
+     * @param floatCount cantidad maxima de floats que puede almacenar el vbo.
+     * @return el id del vbo.
+     */
+    public int createEmptyVbo(int floatCount) {
+        int id = glGenBuffers();
+        vbos.add(id);
+        glBindBuffer(GL_ARRAY_BUFFER, id);
+        // GL_STREAM_DRAW le indica a OpenGL que los datos se modifican una vez por frame y se usan pocas veces
+        glBufferData(GL_ARRAY_BUFFER, floatCount * 4, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        return id;
+    }
+
+    /**
+     * Crea un vao que lee sus atributos intercalados de un vbo, como los vertices que se escriben en cada frame.
+     *
+     * @param vbo   id del vbo con los vertices.
+     * @param sizes numero de componentes de cada atributo, en el orden en que estan intercalados.
+     * @return el id del vao.
+     */
+    public int createInterleavedVao(int vbo, int... sizes) {
+        int id = init();
+        int stride = 0;
+        for (int size : sizes) stride += size;
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        for (int attribute = 0, offset = 0; attribute < sizes.length; offset += sizes[attribute++])
+            glVertexAttribPointer(attribute, sizes[attribute], GL_FLOAT, false, stride * 4, offset * 4);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        unbindVao();
+        return id;
+    }
+
+    /**
+     * Agrega al vao un atributo que avanza una vez por instancia en lugar de una vez por vertice.
+     *
+     * @param vao                 id del vao.
+     * @param vbo                 id del vbo con los datos por instancia.
+     * @param attribute           numero en la lista de atributos.
+     * @param dataSize            numero de componentes del atributo.
+     * @param instancedDataLength cantidad de floats que ocupa cada instancia en el vbo.
+     * @param offset              cantidad de floats desde el comienzo de la instancia hasta el atributo.
+     */
+    public void addInstancedAttribute(int vao, int vbo, int attribute, int dataSize, int instancedDataLength, int offset) {
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBindVertexArray(vao);
+        glVertexAttribPointer(attribute, dataSize, GL_FLOAT, false, instancedDataLength * 4, offset * 4);
+        // Con un divisor de 1 el atributo pasa al siguiente valor en cada instancia
+        glVertexAttribDivisor(attribute, 1);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        unbindVao();
+    }
+
+    /**
+     * Reemplaza el contenido del vbo. Antes de copiar los datos se descarta el almacenamiento anterior (orphaning) para que la
+     * CPU no tenga que esperar a que la GPU termine de usar los datos del frame anterior.
+     *
+     * @param vbo    id del vbo.
+     * @param buffer datos listos para leer.
+     */
+    public void updateVbo(int vbo, FloatBuffer buffer) {
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBufferData(GL_ARRAY_BUFFER, (long) glGetBufferParameteri(GL_ARRAY_BUFFER, GL_BUFFER_SIZE), GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, buffer);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
     /**
      * Inicializa un objeto vao y lo vincula al contexto actual de OpenGL.
      *
@@ -131,11 +294,27 @@ public class Loader {
      * @param indices array de indices.
      */
     private void bindIndicesBuffer(int[] indices) {
+        bindIndicesBuffer(indices, false);
+    }
+
+    /**
+     * Vincula el buffer de indices.
+     *
+     * @param indices    array de indices.
+     * @param shortIndex si los indices se almacenan con 16 bits.
+     * @return el tipo de los indices almacenados.
+     */
+    private int bindIndicesBuffer(int[] indices, boolean shortIndex) {
         int id = glGenBuffers();
         vbos.add(id);
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, id);
+        if (shortIndex) {
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, Utils.storeIndicesInShortBuffer(indices), GL_STATIC_DRAW);
+            return GL_UNSIGNED_SHORT;
+        }
         IntBuffer buffer = Utils.storeIndicesInBuffer(indices);
         glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+        return GL_UNSIGNED_INT;
     }
 
     /**
@@ -165,6 +344,37 @@ public class Loader {
         glBindBuffer(GL_ARRAY_BUFFER, 0);
     }
 
+    /**
+     * Establece como se organizan los datos de vertice de los modelos que se carguen a partir de ahora.
+     *
+     * @param layout organizacion de los vertices.
+     */
+    public void setVertexLayout(VertexLayout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Activa o desactiva el arena de mallas para los modelos que se carguen a partir de ahora. Los modelos del arena comparten
+     * el vao y usan la organizacion de vertices configurada al activarlo, que tiene que ser entrelazada.
+     *
+     * @param enabled si los modelos se reservan del arena.
+     */
+    public void setMeshArena(boolean enabled) {
+        if (enabled && meshArena == null) {
+            if (layout == VertexLayout.SEPARATE) throw new IllegalStateException("The mesh arena needs an interleaved vertex layout");
+            meshArena = new MeshArena(layout == VertexLayout.COMPRESSED, ARENA_VERTICES, ARENA_INDICES);
+        }
+        // Al desactivarlo, el arena sigue existiendo para los modelos que ya se cargaron en el
+        useMeshArena = enabled;
+    }
+
+    /**
+     * Libera la parte del arena que ocupa el modelo. Los modelos que tienen su propio vao se eliminan al limpiar el cargador.
+     */
+    public void unload(RawModel model) {
+        if (meshArena != null && model.isShared()) meshArena.free(model);
+    }
+
     /**
      * Desvincula el vao.
      */
@@ -182,6 +392,7 @@ public class Loader {
         for (int vao : vaos) glDeleteVertexArrays(vao);
         for (int vbo : vbos) glDeleteBuffers(vbo);
         for (int texture : textures) glDeleteTextures(texture);
+        if (meshArena != null) meshArena.clean();
     }
 
     /**
@@ -216,6 +427,18 @@ public class Loader {
      * @return el id de la textura del mapa de cubo para vincularlo cuando renderize el skybox.
      */
     public int loadCubeMap(String[] textureFiles) {
+        return loadCubeMap(textureFiles, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Carga un mapa de cubo reduciendo cada cara a la mitad hasta que no supere el tamanio indicado. Reducir las caras antes de
+     * subirlas ahorra memoria de video, por ejemplo para los cube maps que solo se ven en reflejos.
+     *
+     * @param textureFiles texturas del mapa de cubo.
+     * @param maxSize      tamanio maximo en pixeles del lado de cada cara.
+     * @return el id de la textura del mapa de cubo.
+     */
+    public int loadCubeMap(String[] textureFiles, int maxSize) {
         int id = glGenTextures();
         /* La muestra en su sombreador de fragmentos esta vinculada a la unidad de textura 0. Las unidades de textura son
          * referencias a objetos de textura que se pueden muestrear en un sombreador. Las texturas estan vinculadas a unidades de
@@ -228,6 +451,7 @@ public class Loader {
         glBindTexture(GL_TEXTURE_CUBE_MAP, id);
         for (int i = 0; i < textureFiles.length; i++) {
             TextureData data = decodeTextureFile("res/" + textureFiles[i] + ".png");
+            while (data.getWidth() > maxSize && data.getWidth() > 1 && data.getHeight() > 1) data = downsample(data);
             glTexImage2D(GL_TEXTURE_CUBE_MAP_POSITIVE_X + i, 0, GL_RGBA, data.getWidth(), data.getHeight(), 0, GL_RGBA, GL_UNSIGNED_BYTE, data.getBuffer());
         }
         // Hace que la textura lusza suave
@@ -237,6 +461,50 @@ public class Loader {
         return id;
     }
 
+    /**
+     * Carga una textura generada en memoria, como el atlas de una fuente, con filtro lineal y sin mipmaps.
+     *
+     * @param data datos de la textura en RGBA.
+     * @return el id de la textura.
+     */
+    public int loadTexture(TextureData data) {
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, data.getWidth(), data.getHeight(), 0, GL_RGBA, GL_UNSIGNED_BYTE, data.getBuffer());
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        textures.add(id);
+        return id;
+    }
+
+    /**
+     * Reduce la textura a la mitad promediando cada bloque de 2x2 pixeles.
+     *
+     * @param data datos de la textura en RGBA.
+     * @return los datos de la textura reducida.
+     */
+    private static TextureData downsample(TextureData data) {
+        int width = data.getWidth() / 2, height = data.getHeight() / 2;
+        int sourceWidth = data.getWidth();
+        ByteBuffer source = data.getBuffer();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * width * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int topLeft = 4 * (2 * y * sourceWidth + 2 * x), bottomLeft = topLeft + 4 * sourceWidth;
+                for (int c = 0; c < 4; c++) {
+                    int sum = (source.get(topLeft + c) & 0xFF) + (source.get(topLeft + 4 + c) & 0xFF)
+                            + (source.get(bottomLeft + c) & 0xFF) + (source.get(bottomLeft + 4 + c) & 0xFF);
+                    buffer.put((byte) ((sum + 2) / 4));
+                }
+            }
+        }
+        buffer.flip();
+        return new TextureData(width, height, buffer);
+    }
+
     /**
      * Decodifica un archivo de textura.
      *
@@ -1,15 +1,27 @@
 package render;
 
+import converter.ModelData;
+import deferred.DeferredRenderer;
 import entities.*;
+import impostors.Impostor;
+import impostors.ImpostorRenderer;
 import models.TexturedModel;
 import shaders.EntityShader;
+import shaders.ShaderVariants;
 import shaders.TerrainShader;
+import shadows.ShadowMapRenderer;
 import skybox.SkyboxRenderer;
 import terrains.Terrain;
+import utils.Frustum;
+import utils.Maths;
+import utils.ScratchArena;
 
+import java.nio.IntBuffer;
 import java.util.*;
 
+import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 import org.lwjgl.util.vector.Matrix4f;
 
@@ -24,6 +36,7 @@ public class MasterRenderer {
     private static final int FOV = 70; // Angulo de vision
     private static final float NEAR_PLANE = 0.1f; // Plano cercano
     private static final float FAR_PLANE = 1000; // Plano lejano
+    private static final int SKYBOX_SIZE = 1024; // Tamanio maximo de las caras del skybox
 
     // https://rgbcolorpicker.com/0-1 o usar los colores del skybox (que son los que estan asigandos)
     private static final float RED = 0.5444f;
@@ -32,21 +45,50 @@ public class MasterRenderer {
 
     private Matrix4f projectionMatrix;
 
-    private final EntityShader entityShader = new EntityShader();
+    private final ShaderVariants<EntityShader> entityShaders;
     private final EntityRenderer entityRenderer;
-    private final TerrainShader terrainShader = new TerrainShader();
+    private final ShaderVariants<TerrainShader> terrainShaders;
     private final TerrainRenderer terrainRenderer;
     private final SkyboxRenderer skyboxRenderer;
+    private final ImpostorRenderer impostorRenderer;
+    private final OcclusionCuller occlusionCuller;
+    private final Frustum frustum = new Frustum();
+    private boolean occlusionCulling = true;
+    private final ClusteredLighting clusteredLighting = new ClusteredLighting(NEAR_PLANE, FAR_PLANE);
+    private boolean clustered = true;
+    private final DeferredRenderer deferredRenderer;
+    private boolean deferredShading;
+    private final DepthRenderer depthRenderer;
+    private boolean depthPrePass;
+    private final ShadowMapRenderer shadowMapRenderer;
+    private boolean shadows = true;
+    private final List<Light> uniformLights = new ArrayList<>(); // Luces que se cargan en las variables uniformes
+    private final LightManager lightManager = new LightManager(); // Elige las luces de cada entidad sin la iluminacion clusterizada
+    private final IntBuffer viewport = BufferUtils.createIntBuffer(16);
 
     private final Map<TexturedModel, List<Entity>> entities = new HashMap<>();
     private final List<Terrain> terrains = new ArrayList<>();
+    private final Map<Impostor, List<Entity>> impostors = new HashMap<>();
+    private final List<List<Entity>> freeBatches = new ArrayList<>(); // Listas de lotes que se reutilizan para no generar basura
+    private final Map<RenderPass, Set<TexturedModel>> excludedModels = new EnumMap<>(RenderPass.class);
+    private final Map<RenderPass, Float> lodBiases = new EnumMap<>(RenderPass.class);
+    private float lodBias = 1; // Sesgo del nivel de detalle de la pasada actual
+    private SceneNode sceneGraph;
+    private final List<Entity> sceneEntities = new ArrayList<>(), shadowCasters = new ArrayList<>(); // Se reutilizan en cada pasada
 
     public MasterRenderer(Loader loader) {
         enableCulling();
         createProjectionMatrix();
-        entityRenderer = new EntityRenderer(entityShader, projectionMatrix);
-        terrainRenderer = new TerrainRenderer(terrainShader, projectionMatrix);
-        skyboxRenderer = new SkyboxRenderer(loader, projectionMatrix);
+        entityShaders = new ShaderVariants<>(EntityShader.FEATURES, EntityShader::new, EntityShader::isValid);
+        terrainShaders = new ShaderVariants<>(TerrainShader.FEATURES, TerrainShader::new, TerrainShader::isValid);
+        entityRenderer = new EntityRenderer(entityShaders, projectionMatrix);
+        terrainRenderer = new TerrainRenderer(terrainShaders, projectionMatrix);
+        skyboxRenderer = new SkyboxRenderer(loader, projectionMatrix, SKYBOX_SIZE);
+        impostorRenderer = new ImpostorRenderer(loader, projectionMatrix);
+        occlusionCuller = new OcclusionCuller(loader, projectionMatrix);
+        deferredRenderer = new DeferredRenderer(loader, projectionMatrix);
+        depthRenderer = new DepthRenderer(projectionMatrix);
+        shadowMapRenderer = new ShadowMapRenderer(projectionMatrix, NEAR_PLANE);
     }
 
     /**
@@ -65,31 +107,342 @@ public class MasterRenderer {
         glDisable(GL_CULL_FACE);
     }
 
-    public void renderScene(List<Entity> entities, List<Terrain> terrains, List<Light> lights, Camera camera, Vector4f clipPlane) {
-        for (Terrain terrain : terrains) processTerrain(terrain);
-        for (Entity entity : entities) processEntity(entity);
-        render(lights, camera, clipPlane);
+    /**
+     * Renderiza la escena descartando las entidades que estan fuera del frustum de la camara. En la pasada principal, las
+     * entidades tambien se agrupan en el culler de oclusion para descartar las que estan ocultas detras del terreno.
+     * <p>
+     * Con el renderizado diferido, la pasada principal renderiza el terreno y las entidades al G-buffer y despues calcula la
+     * iluminacion por pixel. Las pasadas del agua siguen usando los shaders forward porque sus framebuffers son mas chicos.
+     * <p>
+     * Con la pasada previa de profundidad, el terreno y las entidades se renderizan primero solo a la profundidad y despues la
+     * pasada de color calcula la iluminacion una sola vez por pixel visible.
+     * <p>
+     * Con las sombras, la pasada principal renderiza primero el mapa de sombras del sol (la primera luz sin atenuacion) con
+     * todas las entidades, porque las que estan fuera de la vista tambien pueden proyectar sombra dentro de ella.
+     * <p>
+     * En las pasadas que recortan la escena, las entidades y los terrenos que quedan enteros del lado recortado del plano se
+     * descartan antes de agruparlos, en lugar de procesar todos sus vertices para que los recorte gl_ClipDistance. Cada pasada
+     * ademas puede excluir modelos y usar un {@link #setLodBias(RenderPass, float) sesgo} en el nivel de detalle.
+     * <p>
+     * Las entidades del {@link #setSceneGraph(SceneNode) grafo de escena} se suman a las de la lista, descartando primero los
+     * subarboles enteros que quedan fuera del frustum.
+     *
+     * @param pass pasada de renderizado.
+     */
+    public void renderScene(List<Entity> entities, List<Terrain> terrains, List<Light> lights, Camera camera, Vector4f clipPlane, RenderPass pass) {
+        Matrix4f viewMatrix = Maths.createViewMatrix(camera, ScratchArena.FRAME.matrix());
+        frustum.update(projectionMatrix, viewMatrix);
+        boolean deferred = deferredShading && pass == RenderPass.MAIN;
+        List<Light> sceneLights = lights;
+        Light sun = shadows && pass == RenderPass.MAIN ? getSun(lights) : null;
+        boolean shadowed = sun != null;
+        if (shadowed) {
+            shadowMapRenderer.render(getShadowCasters(entities), terrains, sun, viewMatrix);
+            shadowMapRenderer.bindShadowMap();
+        }
+        if (!deferred) lights = prepareLights(lights, viewMatrix);
+        boolean occlusion = occlusionCulling && pass == RenderPass.MAIN;
+        boolean clipping = isClipping(clipPlane);
+        Set<TexturedModel> excluded = excludedModels.getOrDefault(pass, Collections.emptySet());
+        lodBias = lodBiases.getOrDefault(pass, 1f);
+        for (Terrain terrain : terrains)
+            if (!clipping || isInsideClipPlane(terrain, clipPlane)) processTerrain(terrain);
+        cullEntities(entities, camera, clipPlane, clipping, occlusion, excluded);
+        if (sceneGraph != null) {
+            sceneEntities.clear();
+            sceneGraph.collectEntities(frustum, sceneEntities);
+            cullEntities(sceneEntities, camera, clipPlane, clipping, occlusion, excluded);
+        }
+        boolean prePass = depthPrePass && !deferred;
+        if (deferred) deferredRenderer.bindGBuffer();
+        else prepare();
+        // El terreno se renderiza primero para que tape a las entidades en la prueba de profundidad y en las consultas de oclusion
+        if (prePass) depthRenderer.renderTerrains(this.terrains, viewMatrix, clipPlane);
+        else renderTerrains(lights, camera, clipPlane, deferred, shadowed);
+        if (occlusion) for (Entity entity : occlusionCuller.cull(viewMatrix, camera)) processEntity(entity, camera);
+        if (prePass) {
+            depthRenderer.renderEntities(this.entities, viewMatrix, clipPlane);
+            // La pasada de color solo pasa en los pixeles de la superficie visible y no vuelve a escribir la profundidad
+            glDepthFunc(GL_LEQUAL);
+            glDepthMask(false);
+            renderTerrains(lights, camera, clipPlane, false, shadowed);
+        }
+        renderEntities(lights, camera, clipPlane, deferred, shadowed);
+        if (prePass) {
+            glDepthMask(true);
+            glDepthFunc(GL_LESS);
+        }
+        if (deferred) {
+            deferredRenderer.renderLights(sceneLights, camera, viewMatrix, sun, shadowed ? shadowMapRenderer : null);
+            prepare();
+            deferredRenderer.composite();
+        }
+        renderImpostors(camera, clipPlane);
+        skyboxRenderer.render(camera, RED, GREEN, BLUE);
     }
 
     public void render(List<Light> lights, Camera camera, Vector4f clipPlane) {
+        lights = prepareLights(lights, Maths.createViewMatrix(camera, ScratchArena.FRAME.matrix()));
         prepare();
-        entityShader.start();
-        entityShader.loadClipPlane(clipPlane);
-        // entityShader.loadSkyColor(RED, GREEN, BLUE); // Lo carga en cada frame para el ciclo dia/noche
-        entityShader.loadLights(lights);
-        entityShader.loadViewMatrix(camera);
-        entityRenderer.render(entities);
-        entityShader.stop();
-        terrainShader.start();
-        terrainShader.loadClipPlane(clipPlane);
-        // terrainShader.loadSkyColor(RED, GREEN, BLUE);
-        terrainShader.loadLights(lights);
-        terrainShader.loadViewMatrix(camera);
-        terrainRenderer.render(terrains);
-        terrainShader.stop();
+        renderTerrains(lights, camera, clipPlane, false, false);
+        renderEntities(lights, camera, clipPlane, false, false);
+        renderImpostors(camera, clipPlane);
         skyboxRenderer.render(camera, RED, GREEN, BLUE);
+    }
+
+    /**
+     * Con la iluminacion clusterizada, asigna las luces locales a los clusters de la camara y devuelve solo las luces sin
+     * atenuacion (como el sol), que son las que se cargan en las variables uniformes de los shaders. Sin la iluminacion
+     * clusterizada, las luces se agregan al administrador de luces para elegir las cuatro mas relevantes de cada entidad.
+     *
+     * @param lights     fuentes de luz de la escena.
+     * @param viewMatrix matriz de vista de la pasada.
+     * @return las luces que se cargan en las variables uniformes.
+     */
+    private List<Light> prepareLights(List<Light> lights, Matrix4f viewMatrix) {
+        if (!clustered) {
+            lightManager.update(lights);
+            return lights;
+        }
+        clusteredLighting.update(lights, projectionMatrix, viewMatrix);
+        clusteredLighting.bind();
+        uniformLights.clear();
+        for (Light light : lights)
+            if (Float.isInfinite(light.getRadius())) uniformLights.add(light);
+        return uniformLights;
+    }
+
+    /**
+     * Busca la luz que proyecta las sombras.
+     *
+     * @param lights fuentes de luz de la escena.
+     * @return la primera luz sin atenuacion o null si no hay ninguna.
+     */
+    private static Light getSun(List<Light> lights) {
+        for (Light light : lights)
+            if (Float.isInfinite(light.getRadius())) return light;
+        return null;
+    }
+
+    private void renderTerrains(List<Light> lights, Camera camera, Vector4f clipPlane, boolean deferred, boolean shadowed) {
+        // El tamanio del framebuffer actual, que cambia entre las pasadas del agua y la pantalla
+        glGetInteger(GL_VIEWPORT, viewport);
+        int features = isClipping(clipPlane) ? TerrainShader.CLIP_PLANE : 0;
+        if (deferred) features |= TerrainShader.DEFERRED;
+        else {
+            if (clustered) features |= TerrainShader.CLUSTERED_LIGHTING;
+            if (shadowed) features |= TerrainShader.SHADOWS;
+        }
+        boolean receiveShadows = (features & TerrainShader.SHADOWS) != 0;
+        // El terreno es una sola malla, asi que sin la iluminacion clusterizada usa las luces mas cercanas a la camara
+        List<Light> terrainLights = deferred ? null : clustered ? lights : lightManager.selectNearest(camera.getPosition());
+        terrainRenderer.render(terrains, features, terrainShader -> {
+            terrainShader.loadClipPlane(clipPlane);
+            if (receiveShadows) terrainShader.loadShadows(shadowMapRenderer);
+            // terrainShader.loadSkyColor(RED, GREEN, BLUE);
+            if (terrainLights != null) terrainShader.loadLights(terrainLights);
+            terrainShader.loadClusteredLighting(viewport.get(2), viewport.get(3), FAR_PLANE);
+            terrainShader.loadViewMatrix(camera);
+        });
         terrains.clear();
-        entities.clear(); // Limpia las entidades, de lo contrario se acumularan y se terminaran renderizando millones de entidades
+    }
+
+    private void renderEntities(List<Light> lights, Camera camera, Vector4f clipPlane, boolean deferred, boolean shadowed) {
+        int features = isClipping(clipPlane) ? EntityShader.CLIP_PLANE : 0;
+        if (deferred) features |= EntityShader.DEFERRED;
+        else {
+            if (clustered) features |= EntityShader.CLUSTERED_LIGHTING;
+            if (shadowed) features |= EntityShader.SHADOWS;
+        }
+        boolean receiveShadows = (features & EntityShader.SHADOWS) != 0;
+        // Con el renderizado diferido o la iluminacion clusterizada no hace falta elegir las luces de cada entidad
+        entityRenderer.render(entities, deferred || clustered ? null : lightManager, features, entityShader -> {
+            entityShader.loadClipPlane(clipPlane);
+            if (receiveShadows) entityShader.loadShadows(shadowMapRenderer);
+            // entityShader.loadSkyColor(RED, GREEN, BLUE); // Lo carga en cada frame para el ciclo dia/noche
+            entityShader.loadLights(lights);
+            entityShader.loadClusteredLighting(viewport.get(2), viewport.get(3), FAR_PLANE);
+            entityShader.loadViewMatrix(camera);
+        });
+        // Limpia las entidades, de lo contrario se acumularan y se terminaran renderizando millones de entidades
+        recycleBatches(entities);
+    }
+
+    /**
+     * Renderiza los impostores con su iluminacion horneada. Con el renderizado diferido se dibujan despues de la composicion.
+     */
+    private void renderImpostors(Camera camera, Vector4f clipPlane) {
+        impostorRenderer.render(impostors, camera, clipPlane);
+        recycleBatches(impostors);
+    }
+
+    /**
+     * Verifica si la pasada recorta la escena. La pasada principal usa un plano nulo porque no recorta nada.
+     *
+     * @param clipPlane plano de recorte.
+     * @return true si el plano tiene normal.
+     */
+    static boolean isClipping(Vector4f clipPlane) {
+        return clipPlane.x != 0 || clipPlane.y != 0 || clipPlane.z != 0;
+    }
+
+    private void cullEntities(List<Entity> entities, Camera camera, Vector4f clipPlane, boolean clipping, boolean occlusion, Set<TexturedModel> excluded) {
+        for (Entity entity : entities) {
+            if (isExcluded(entity, excluded) || !isInsideFrustum(entity)) continue;
+            if (clipping && !isInsideClipPlane(entity, clipPlane)) continue;
+            if (occlusion) occlusionCuller.add(entity);
+            else processEntity(entity, camera);
+        }
+    }
+
+    /**
+     * Un lote estatico se excluye si todas sus entidades son de un modelo excluido, porque su propio modelo es la malla
+     * combinada.
+     */
+    private static boolean isExcluded(Entity entity, Set<TexturedModel> excluded) {
+        if (excluded.isEmpty()) return false;
+        if (excluded.contains(entity.getModel())) return true;
+        return entity instanceof StaticBatch && excluded.contains(((StaticBatch) entity).getSourceModel());
+    }
+
+    /**
+     * Junta las entidades de la lista con todas las del grafo de escena, porque las que estan fuera de la vista tambien
+     * pueden proyectar sombra dentro de ella.
+     */
+    private List<Entity> getShadowCasters(List<Entity> entities) {
+        if (sceneGraph == null) return entities;
+        shadowCasters.clear();
+        shadowCasters.addAll(entities);
+        sceneGraph.collectEntities(null, shadowCasters);
+        return shadowCasters;
+    }
+
+    /**
+     * Verifica si la esfera que envuelve a la entidad toca el frustum. Las entidades cuyo modelo no tiene radio conocido
+     * nunca se descartan.
+     *
+     * @param entity entidad.
+     * @return true si la entidad puede verse.
+     */
+    private boolean isInsideFrustum(Entity entity) {
+        float radius = getBoundingRadius(entity);
+        return radius <= 0 || frustum.intersectsSphere(entity.getPosition(), radius);
+    }
+
+    /**
+     * Verifica si la esfera que envuelve a la entidad tiene alguna parte del lado del plano de recorte que se renderiza.
+     *
+     * @param entity    entidad.
+     * @param clipPlane plano de recorte.
+     * @return true si gl_ClipDistance no recorta a la entidad entera.
+     */
+    private static boolean isInsideClipPlane(Entity entity, Vector4f clipPlane) {
+        float radius = getBoundingRadius(entity);
+        if (radius <= 0) return true;
+        Vector3f position = entity.getPosition();
+        return clipPlane.x * position.x + clipPlane.y * position.y + clipPlane.z * position.z + clipPlane.w >= -radius;
+    }
+
+    /**
+     * Verifica si la caja que envuelve al terreno tiene alguna parte del lado del plano de recorte que se renderiza. Alcanza
+     * con probar la esquina de la caja que esta mas adelante en la direccion de la normal del plano.
+     *
+     * @param terrain   terreno.
+     * @param clipPlane plano de recorte.
+     * @return true si gl_ClipDistance no recorta al terreno entero.
+     */
+    private static boolean isInsideClipPlane(Terrain terrain, Vector4f clipPlane) {
+        float x = clipPlane.x >= 0 ? terrain.getX() + Terrain.SIZE : terrain.getX();
+        float y = clipPlane.y >= 0 ? Terrain.MAX_HEIGHT : -Terrain.MAX_HEIGHT;
+        float z = clipPlane.z >= 0 ? terrain.getZ() + Terrain.SIZE : terrain.getZ();
+        return clipPlane.x * x + clipPlane.y * y + clipPlane.z * z + clipPlane.w >= 0;
+    }
+
+    /**
+     * Calcula el radio de la esfera que envuelve a la entidad teniendo en cuenta su escala.
+     *
+     * @param entity entidad.
+     * @return el radio o 0 si el modelo no tiene radio conocido.
+     */
+    private static float getBoundingRadius(Entity entity) {
+        float radius = entity.getModel().getBoundingRadius();
+        if (radius <= 0) return 0;
+        Vector3f scale = entity.getScale();
+        return radius * Math.max(scale.x, Math.max(scale.y, scale.z));
+    }
+
+    /**
+     * Establece la raiz del grafo de escena cuyas entidades se renderizan ademas de las de la lista. El grafo se tiene que
+     * {@link SceneNode#update() actualizar} antes de renderizar el frame.
+     *
+     * @param sceneGraph raiz del grafo o null para no usar ninguno.
+     */
+    public void setSceneGraph(SceneNode sceneGraph) {
+        this.sceneGraph = sceneGraph;
+    }
+
+    public void setOcclusionCulling(boolean occlusionCulling) {
+        this.occlusionCulling = occlusionCulling;
+    }
+
+    public void setClusteredLighting(boolean clustered) {
+        this.clustered = clustered;
+    }
+
+    /**
+     * Cambia la pasada principal entre el renderizado forward y el diferido.
+     *
+     * @param deferredShading true para usar el renderizado diferido.
+     */
+    public void setDeferredShading(boolean deferredShading) {
+        this.deferredShading = deferredShading;
+    }
+
+    /**
+     * Activa la pasada previa de profundidad en el renderizado forward.
+     *
+     * @param depthPrePass true para renderizar la profundidad antes que el color.
+     */
+    public void setDepthPrePass(boolean depthPrePass) {
+        this.depthPrePass = depthPrePass;
+    }
+
+    /**
+     * Activa las sombras del sol en la pasada principal.
+     *
+     * @param shadows true para renderizar el mapa de sombras.
+     */
+    public void setShadows(boolean shadows) {
+        this.shadows = shadows;
+    }
+
+    /**
+     * Descarta las sombras guardadas de los objetos estaticos. Se llama despues de agregar, quitar o mover entidades estaticas.
+     */
+    public void invalidateShadows() {
+        shadowMapRenderer.invalidate();
+    }
+
+    /**
+     * Excluye las entidades del modelo de una pasada, por ejemplo la vegetacion chica que casi no se ve en la reflexion del
+     * agua.
+     *
+     * @param model modelo texturizado de las entidades.
+     * @param pass  pasada de renderizado.
+     */
+    public void excludeFromPass(TexturedModel model, RenderPass pass) {
+        excludedModels.computeIfAbsent(pass, k -> new HashSet<>()).add(model);
+    }
+
+    /**
+     * Cambia el sesgo del nivel de detalle de una pasada. El tamanio que ocupa cada entidad en pantalla se multiplica por el
+     * sesgo antes de elegir el nivel de detalle, asi que con valores menores a 1 la pasada usa modelos mas simples.
+     *
+     * @param pass    pasada de renderizado.
+     * @param lodBias sesgo del nivel de detalle.
+     */
+    public void setLodBias(RenderPass pass, float lodBias) {
+        lodBiases.put(pass, lodBias);
     }
 
     public void processTerrain(Terrain terrain) {
@@ -102,19 +455,94 @@ public class MasterRenderer {
      * @param entity entidad.
      */
     public void processEntity(Entity entity) {
-        TexturedModel entityModel = entity.getModel();
+        batchEntity(entity.getModel(), entity);
+    }
+
+    /**
+     * Coloca las entidades en el HashMap de entidades usando el nivel de detalle que corresponde al tamanio que ocupa la entidad
+     * en pantalla. El tamanio se calcula proyectando el diametro de la esfera que envuelve a la entidad a la distancia a la que
+     * se encuentra de la camara con la matriz de proyeccion, asi que es una fraccion de la altura de la pantalla que depende
+     * del FOV pero no de la resolucion, y se multiplica por el sesgo de la pasada actual. Si el modelo tiene impostor y la
+     * entidad esta mas lejos que la distancia del impostor, se renderiza como impostor.
+     *
+     * @param entity entidad.
+     * @param camera camara.
+     */
+    public void processEntity(Entity entity, Camera camera) {
+        TexturedModel model = entity.getModel();
+        if (!model.hasLods() && model.getImpostor() == null) {
+            batchEntity(model, entity);
+            return;
+        }
+        Vector3f position = entity.getPosition(), cameraPosition = camera.getPosition();
+        float dx = position.x - cameraPosition.x, dy = position.y - cameraPosition.y, dz = position.z - cameraPosition.z;
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        Impostor impostor = model.getImpostor();
+        if (impostor != null && distance > impostor.getDistance()) {
+            List<Entity> batch = impostors.get(impostor);
+            if (batch == null) impostors.put(impostor, batch = newBatch());
+            // Un lote estatico lejano se reemplaza por los impostores de sus entidades
+            if (entity instanceof StaticBatch) batch.addAll(((StaticBatch) entity).getMembers());
+            else batch.add(entity);
+            return;
+        }
+        if (model.hasLods()) {
+            Vector3f scale = entity.getScale();
+            float radius = model.getBoundingRadius() * Math.max(scale.x, Math.max(scale.y, scale.z));
+            // Si la camara esta dentro de la esfera envolvente se usa el modelo completo
+            if (distance > radius) model = model.getLod(radius * projectionMatrix.m11 / distance * lodBias);
+        }
+        batchEntity(model, entity);
+    }
+
+    /**
+     * Genera el impostor del modelo para que las entidades lejanas se rendericen como quads instanciados.
+     *
+     * @param model         modelo texturizado.
+     * @param data          datos del modelo.
+     * @param lightPosition posicion de la luz direccional con la que se ilumina el impostor.
+     * @param distance      distancia a la camara a partir de la cual se usa el impostor.
+     */
+    public void createImpostor(TexturedModel model, ModelData data, Vector3f lightPosition, float distance) {
+        impostorRenderer.createImpostor(model, data, lightPosition, distance);
+    }
+
+    private void batchEntity(TexturedModel entityModel, Entity entity) {
         List<Entity> batch = entities.get(entityModel);
         if (batch != null) batch.add(entity);
         else {
-            List<Entity> newBatch = new ArrayList<>();
+            List<Entity> newBatch = newBatch();
             newBatch.add(entity);
             entities.put(entityModel, newBatch);
         }
     }
 
+    private List<Entity> newBatch() {
+        return freeBatches.isEmpty() ? new ArrayList<>() : freeBatches.remove(freeBatches.size() - 1);
+    }
+
+    /**
+     * Vacia los lotes y los guarda para reutilizarlos en el siguiente frame.
+     */
+    private void recycleBatches(Map<?, List<Entity>> batches) {
+        for (List<Entity> batch : batches.values()) {
+            batch.clear();
+            freeBatches.add(batch);
+        }
+        batches.clear();
+    }
+
     public void clean() {
-        entityShader.clean();
-        terrainShader.clean();
+        entityShaders.clean();
+        terrainShaders.clean();
+        entityRenderer.clean();
+        terrainRenderer.clean();
+        impostorRenderer.clean();
+        occlusionCuller.clean();
+        clusteredLighting.clean();
+        deferredRenderer.clean();
+        depthRenderer.clean();
+        shadowMapRenderer.clean();
     }
 
     /**
@@ -186,4 +614,8 @@ public class MasterRenderer {
         return projectionMatrix;
     }
 
+    public SkyboxRenderer getSkyboxRenderer() {
+        return skyboxRenderer;
+    }
+
 }
@@ -0,0 +1,253 @@
+package render;
+
+import models.RawModel;
+import utils.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * Arena de mallas: un vao con un unico vbo y un unico buffer de indices de donde se reservan las partes de todos los modelos
+ * con la misma organizacion de vertices. Como todos los modelos comparten el vao, los renderers no tienen que vincular un vao
+ * por modelo y pueden dibujar una pasada entera con una sola llamada a glMultiDrawElementsIndirect.
+ * <p>
+ * Cada modelo ocupa un rango de vertices y un rango de indices. Los indices se guardan relativos al primer vertice del modelo
+ * y se dibujan con un base vertex, asi que mover un modelo dentro del arena no obliga a reescribir sus indices. Los rangos
+ * libres se guardan ordenados por posicion y se unen con sus vecinos al liberar un modelo. Cuando ningun rango libre alcanza,
+ * los modelos se copian uno detras del otro a buffers nuevos (agrandados si hace falta), lo que elimina los huecos.
+ */
+
+public class MeshArena {
+
+    // Los indices siempre son de 32 bits porque el rango de vertices del arena supera los 65536
+    private static final int INDEX_SIZE = 4;
+
+    private final boolean compressed;
+    private final int stride;
+    private final int vao;
+    private int vbo, ibo;
+    private int vertexCapacity, indexCapacity;
+    private final FreeList freeVertices = new FreeList(), freeIndices = new FreeList();
+    private final Map<RawModel, Allocation> allocations = new HashMap<>();
+
+    /**
+     * @param compressed     si los vertices estan comprimidos.
+     * @param vertexCapacity cantidad inicial de vertices.
+     * @param indexCapacity  cantidad inicial de indices.
+     */
+    public MeshArena(boolean compressed, int vertexCapacity, int indexCapacity) {
+        this.compressed = compressed;
+        stride = Loader.getStride(compressed);
+        vao = glGenVertexArrays();
+        vbo = createBuffer((long) vertexCapacity * stride);
+        ibo = createBuffer((long) indexCapacity * INDEX_SIZE);
+        this.vertexCapacity = vertexCapacity;
+        this.indexCapacity = indexCapacity;
+        freeVertices.free(0, vertexCapacity);
+        freeIndices.free(0, indexCapacity);
+        bindBuffers();
+    }
+
+    /**
+     * Carga el modelo en una parte libre de los buffers.
+     *
+     * @param position      array de posiciones.
+     * @param textureCoords array de coordenadas de texturas.
+     * @param normals       array de normales.
+     * @param indices       array de indices.
+     * @return el modelo sin procesar.
+     */
+    public RawModel allocate(float[] position, float[] textureCoords, float[] normals, int[] indices) {
+        int vertexCount = position.length / 3;
+        int firstVertex = freeVertices.allocate(vertexCount), firstIndex = freeIndices.allocate(indices.length);
+        if (firstVertex < 0 || firstIndex < 0) {
+            // Devuelve lo que se llego a reservar, porque la reconstruccion vuelve a armar las listas libres
+            if (firstVertex >= 0) freeVertices.free(firstVertex, vertexCount);
+            if (firstIndex >= 0) freeIndices.free(firstIndex, indices.length);
+            rebuild(vertexCount, indices.length);
+            firstVertex = freeVertices.allocate(vertexCount);
+            firstIndex = freeIndices.allocate(indices.length);
+        }
+
+        // Se carga por GL_COPY_WRITE_BUFFER para no cambiar el buffer de indices del vao que este vinculado
+        glBindBuffer(GL_COPY_WRITE_BUFFER, vbo);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) firstVertex * stride, Loader.storeInterleavedData(position, textureCoords, normals, compressed));
+        glBindBuffer(GL_COPY_WRITE_BUFFER, ibo);
+        glBufferSubData(GL_COPY_WRITE_BUFFER, (long) firstIndex * INDEX_SIZE, Utils.storeIndicesInBuffer(indices));
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        RawModel model = new RawModel(vao, indices.length, GL_UNSIGNED_INT, firstIndex, firstVertex);
+        allocations.put(model, new Allocation(firstVertex, vertexCount, firstIndex, indices.length));
+        return model;
+    }
+
+    /**
+     * Libera la parte de los buffers que ocupa el modelo, que no se puede volver a renderizar.
+     */
+    public void free(RawModel model) {
+        Allocation allocation = allocations.remove(model);
+        if (allocation == null) return;
+        freeVertices.free(allocation.firstVertex, allocation.vertexCount);
+        freeIndices.free(allocation.firstIndex, allocation.indexCount);
+    }
+
+    /**
+     * Junta los modelos al principio de los buffers para que el espacio libre quede en un unico rango al final.
+     */
+    public void compact() {
+        rebuild(0, 0);
+    }
+
+    /**
+     * Copia los modelos uno detras del otro a buffers nuevos con lugar para la cantidad pedida al final. La capacidad se
+     * duplica hasta que alcanza, asi que cargar muchos modelos copia cada vertice pocas veces.
+     *
+     * @param extraVertices cantidad de vertices libres que tiene que haber al final.
+     * @param extraIndices  cantidad de indices libres que tiene que haber al final.
+     */
+    private void rebuild(int extraVertices, int extraIndices) {
+        int usedVertices = 0, usedIndices = 0;
+        for (Allocation allocation : allocations.values()) {
+            usedVertices += allocation.vertexCount;
+            usedIndices += allocation.indexCount;
+        }
+        int newVertexCapacity = vertexCapacity, newIndexCapacity = indexCapacity;
+        while (newVertexCapacity < usedVertices + extraVertices) newVertexCapacity *= 2;
+        while (newIndexCapacity < usedIndices + extraIndices) newIndexCapacity *= 2;
+
+        int newVbo = createBuffer((long) newVertexCapacity * stride), newIbo = createBuffer((long) newIndexCapacity * INDEX_SIZE);
+        int vertexPointer = 0, indexPointer = 0;
+        for (Map.Entry<RawModel, Allocation> entry : allocations.entrySet()) {
+            Allocation allocation = entry.getValue();
+            copy(vbo, newVbo, (long) allocation.firstVertex * stride, (long) vertexPointer * stride, (long) allocation.vertexCount * stride);
+            copy(ibo, newIbo, (long) allocation.firstIndex * INDEX_SIZE, (long) indexPointer * INDEX_SIZE, (long) allocation.indexCount * INDEX_SIZE);
+            allocation.firstVertex = vertexPointer;
+            allocation.firstIndex = indexPointer;
+            // Los indices son relativos al primer vertice, asi que basta con actualizar los desplazamientos del modelo
+            entry.getKey().relocate(indexPointer, vertexPointer);
+            vertexPointer += allocation.vertexCount;
+            indexPointer += allocation.indexCount;
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        glDeleteBuffers(vbo);
+        glDeleteBuffers(ibo);
+        vbo = newVbo;
+        ibo = newIbo;
+        vertexCapacity = newVertexCapacity;
+        indexCapacity = newIndexCapacity;
+
+        freeVertices.clear();
+        freeIndices.clear();
+        freeVertices.free(vertexPointer, vertexCapacity - vertexPointer);
+        freeIndices.free(indexPointer, indexCapacity - indexPointer);
+        bindBuffers();
+    }
+
+    private static void copy(int source, int dest, long sourceOffset, long destOffset, long size) {
+        if (size == 0) return;
+        glBindBuffer(GL_COPY_READ_BUFFER, source);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, dest);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, sourceOffset, destOffset, size);
+    }
+
+    private static int createBuffer(long size) {
+        int id = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, id);
+        glBufferData(GL_COPY_WRITE_BUFFER, size, GL_STATIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return id;
+    }
+
+    /**
+     * Vincula los buffers actuales al vao.
+     */
+    private void bindBuffers() {
+        glBindVertexArray(vao);
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        Loader.setInterleavedAttributes(compressed);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ibo);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void clean() {
+        glDeleteVertexArrays(vao);
+        glDeleteBuffers(vbo);
+        glDeleteBuffers(ibo);
+    }
+
+    /**
+     * Rangos de vertices y de indices que ocupa un modelo.
+     */
+    private static class Allocation {
+
+        int firstVertex, vertexCount, firstIndex, indexCount;
+
+        Allocation(int firstVertex, int vertexCount, int firstIndex, int indexCount) {
+            this.firstVertex = firstVertex;
+            this.vertexCount = vertexCount;
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+        }
+
+    }
+
+    /**
+     * Rangos libres ordenados por posicion. Se reserva del primer rango que alcanza y al liberar se une el rango con los vecinos
+     * que lo tocan, asi los huecos chicos vuelven a formar rangos grandes.
+     */
+    private static class FreeList {
+
+        private final TreeMap<Integer, Integer> ranges = new TreeMap<>(); // Posicion y tamanio de cada rango
+
+        /**
+         * @return la posicion del rango reservado, o -1 si ningun rango alcanza.
+         */
+        int allocate(int size) {
+            for (Iterator<Map.Entry<Integer, Integer>> it = ranges.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, Integer> range = it.next();
+                if (range.getValue() < size) continue;
+                int start = range.getKey(), length = range.getValue();
+                it.remove();
+                if (length > size) ranges.put(start + size, length - size);
+                return start;
+            }
+            return -1;
+        }
+
+        void free(int start, int size) {
+            if (size <= 0) return;
+            Map.Entry<Integer, Integer> previous = ranges.floorEntry(start);
+            if (previous != null && previous.getKey() + previous.getValue() == start) {
+                ranges.remove(previous.getKey());
+                start = previous.getKey();
+                size += previous.getValue();
+            }
+            Integer next = ranges.get(start + size);
+            if (next != null) {
+                ranges.remove(start + size);
+                size += next;
+            }
+            ranges.put(start, size);
+        }
+
+        void clear() {
+            ranges.clear();
+        }
+
+    }
+
+}
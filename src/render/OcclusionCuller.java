@@ -0,0 +1,185 @@
+package render;
+
+import entities.Camera;
+import entities.Entity;
+import models.RawModel;
+import shaders.OcclusionShader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * Descarta las entidades que estan ocultas detras del terreno usando consultas de oclusion por hardware.
+ * <p>
+ * Las entidades se agrupan en celdas de una cuadricula sobre el plano [x,z]. Despues de renderizar el terreno, se dibuja la caja
+ * que envuelve a cada celda sin escribir color ni profundidad dentro de una consulta {@code GL_ANY_SAMPLES_PASSED}, que indica si
+ * algun fragmento de la caja paso la prueba de profundidad, es decir, si alguna parte de la celda puede verse. Esperar el
+ * resultado en el mismo frame detendria a la CPU hasta que la GPU termine de dibujar, por lo que cada celda usa el resultado de
+ * la consulta del frame anterior. Como consecuencia, una celda que acaba de quedar a la vista aparece un frame tarde.
+ * <p>
+ * Los resultados solo son validos para la misma camara, asi que el culler se usa unicamente en la pasada principal.
+ * <p>
+ * Las celdas que quedan vacias durante {@link #EVICT_FRAMES} frames (por ejemplo, cuando la vegetacion de esa zona se
+ * descarta) se quitan y se guardan con su consulta para reutilizarlas en otra celda, asi la cantidad de consultas no crece
+ * mientras la camara recorre el mundo.
+ */
+
+public class OcclusionCuller {
+
+    private static final float CELL_SIZE = 25; // Tamanio de cada celda de la cuadricula
+    private static final float PADDING = 0.5f; // Margen de la caja para no ocultar entidades que asoman un poco
+    private static final int EVICT_FRAMES = 120; // Frames que una celda puede estar vacia antes de quitarla
+
+    // Cubo unitario entre [0,0,0] y [1,1,1]
+    private static final float[] VERTICES = {
+            0, 0, 0, 1, 0, 0, 1, 1, 0, 1, 1, 0, 0, 1, 0, 0, 0, 0,
+            0, 0, 1, 1, 1, 1, 1, 0, 1, 1, 1, 1, 0, 0, 1, 0, 1, 1,
+            0, 0, 0, 0, 1, 0, 0, 1, 1, 0, 1, 1, 0, 0, 1, 0, 0, 0,
+            1, 0, 0, 1, 1, 1, 1, 1, 0, 1, 1, 1, 1, 0, 0, 1, 0, 1,
+            0, 0, 0, 0, 0, 1, 1, 0, 1, 1, 0, 1, 1, 0, 0, 0, 0, 0,
+            0, 1, 0, 1, 1, 1, 0, 1, 1, 1, 1, 1, 0, 1, 0, 1, 1, 0
+    };
+
+    private final OcclusionShader shader = new OcclusionShader();
+    private final RawModel cube;
+    private final Map<Long, Cell> cells = new HashMap<>();
+    private final List<Cell> freeCells = new ArrayList<>(); // Celdas quitadas que se reutilizan con su consulta
+    private final List<Entity> visibleEntities = new ArrayList<>();
+    private final Vector3f boxSize = new Vector3f();
+    private int frame;
+
+    public OcclusionCuller(Loader loader, Matrix4f projectionMatrix) {
+        cube = loader.loadToVAO(VERTICES, 3);
+        shader.start();
+        shader.loadProjectionMatrix(projectionMatrix);
+        shader.stop();
+    }
+
+    /**
+     * Agrega la entidad a la celda que corresponde a su posicion y expande la caja de la celda con la esfera de la entidad.
+     *
+     * @param entity entidad.
+     */
+    public void add(Entity entity) {
+        Vector3f position = entity.getPosition(), scale = entity.getScale();
+        // Los modelos sin radio conocido usan una esfera de una unidad
+        float radius = entity.getModel().getBoundingRadius() > 0 ? entity.getModel().getBoundingRadius() : 1;
+        radius = radius * Math.max(scale.x, Math.max(scale.y, scale.z)) + PADDING;
+        long key = ((long) Math.floor(position.x / CELL_SIZE) << 32) | ((long) Math.floor(position.z / CELL_SIZE) & 0xffffffffL);
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = freeCells.isEmpty() ? new Cell() : freeCells.remove(freeCells.size() - 1);
+            cells.put(key, cell);
+        }
+        if (cell.entities.isEmpty()) {
+            cell.min.set(position.x - radius, position.y - radius, position.z - radius);
+            cell.max.set(position.x + radius, position.y + radius, position.z + radius);
+        } else {
+            cell.min.set(Math.min(cell.min.x, position.x - radius), Math.min(cell.min.y, position.y - radius), Math.min(cell.min.z, position.z - radius));
+            cell.max.set(Math.max(cell.max.x, position.x + radius), Math.max(cell.max.y, position.y + radius), Math.max(cell.max.z, position.z + radius));
+        }
+        cell.entities.add(entity);
+    }
+
+    /**
+     * Obtiene las entidades de las celdas que eran visibles en el frame anterior y lanza las consultas de este frame. Se tiene
+     * que llamar despues de renderizar los oclusores (el terreno) para que el buffer de profundidad ya los contenga.
+     *
+     * @param viewMatrix matriz de vista.
+     * @param camera     camara.
+     * @return las entidades que se deben renderizar.
+     */
+    public List<Entity> cull(Matrix4f viewMatrix, Camera camera) {
+        frame++;
+        visibleEntities.clear();
+        shader.start();
+        shader.loadViewMatrix(viewMatrix);
+        // Las cajas solo se prueban contra el buffer de profundidad, no se tienen que ver ni tapar nada
+        glColorMask(false, false, false, false);
+        glDepthMask(false);
+        MasterRenderer.disableCulling();
+        glBindVertexArray(cube.getID());
+        glEnableVertexAttribArray(0);
+        for (Iterator<Cell> it = cells.values().iterator(); it.hasNext(); ) {
+            Cell cell = it.next();
+            if (cell.entities.isEmpty()) {
+                if (frame - cell.lastFrame > EVICT_FRAMES) {
+                    it.remove();
+                    cell.reset();
+                    freeCells.add(cell);
+                }
+                continue;
+            }
+            if (cell.pending && glGetQueryObjecti(cell.query, GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+                cell.visible = glGetQueryObjecti(cell.query, GL_QUERY_RESULT) == GL_TRUE;
+                cell.pending = false;
+            }
+            // Si la celda no se probo en el frame anterior (por ejemplo porque estaba fuera del frustum) su resultado es viejo
+            if (cell.lastFrame != frame - 1) cell.visible = true;
+            cell.lastFrame = frame;
+            // Con la camara dentro de la caja, sus caras quedan detras del plano cercano y la consulta daria un falso negativo
+            if (cell.contains(camera.getPosition())) cell.visible = true;
+            else if (!cell.pending) {
+                shader.loadBox(cell.min, Vector3f.sub(cell.max, cell.min, boxSize));
+                glBeginQuery(GL_ANY_SAMPLES_PASSED, cell.query);
+                glDrawArrays(GL_TRIANGLES, 0, cube.getVertexCount());
+                glEndQuery(GL_ANY_SAMPLES_PASSED);
+                cell.pending = true;
+            }
+            if (cell.visible) visibleEntities.addAll(cell.entities);
+            cell.entities.clear();
+        }
+        glDisableVertexAttribArray(0);
+        glBindVertexArray(0);
+        MasterRenderer.enableCulling();
+        glDepthMask(true);
+        glColorMask(true, true, true, true);
+        shader.stop();
+        return visibleEntities;
+    }
+
+    public void clean() {
+        shader.clean();
+        for (Cell cell : cells.values()) glDeleteQueries(cell.query);
+        for (Cell cell : freeCells) glDeleteQueries(cell.query);
+    }
+
+    /**
+     * Celda de la cuadricula con su consulta de oclusion.
+     */
+    private static class Cell {
+
+        private final int query = glGenQueries();
+        private final List<Entity> entities = new ArrayList<>();
+        private final Vector3f min = new Vector3f(), max = new Vector3f();
+        private boolean visible = true, pending;
+        private int lastFrame = -1;
+
+        /**
+         * Descarta el estado de la celda anterior. Si la consulta seguia pendiente, la siguiente la reemplaza.
+         */
+        private void reset() {
+            visible = true;
+            pending = false;
+            lastFrame = -1;
+        }
+
+        private boolean contains(Vector3f point) {
+            return point.x >= min.x && point.x <= max.x && point.y >= min.y && point.y <= max.y && point.z >= min.z && point.z <= max.z;
+        }
+
+    }
+
+}
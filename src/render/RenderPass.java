@@ -0,0 +1,16 @@
+package render;
+
+/**
+ * Pasada de renderizado de la escena. El agua necesita renderizar la escena tres veces por frame: una vez desde la camara
+ * reflejada por debajo del agua ({@link #REFLECTION}), otra para lo que se ve a traves del agua ({@link #REFRACTION}) y la
+ * ultima en pantalla ({@link #MAIN}). Algunas tecnicas solo tienen sentido en una pasada, por ejemplo las consultas de
+ * oclusion del frame anterior solo son validas para la misma camara.
+ */
+
+public enum RenderPass {
+
+    REFLECTION,
+    REFRACTION,
+    MAIN
+
+}
@@ -1,44 +1,108 @@
 package render;
 
 import models.RawModel;
+import shaders.ShaderVariants;
 import shaders.TerrainShader;
 import terrains.Terrain;
 import textures.TerrainTexturePack;
 import utils.Maths;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector3f;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Renderiza los terrenos. Si el contexto soporta el dibujo indirecto, los terrenos del {@link MeshArena arena de mallas} que
+ * comparten texturas se dibujan con una sola llamada y la matriz de cada uno va en un vbo por instancia.
+ */
 
 public class TerrainRenderer {
 
-    private final TerrainShader shader;
+    private final ShaderVariants<TerrainShader> shaders;
+    private final Matrix4f transformationMatrix = new Matrix4f(); // Se reutiliza para cada terreno
+    private final IndirectDraw indirectDraw; // null si el contexto no soporta el dibujo indirecto
+    private final List<Terrain> indirectTerrains = new ArrayList<>(); // Terrenos que se dibujan indirectamente, se reutiliza
 
-    public TerrainRenderer(TerrainShader shader, Matrix4f projectionMatrix) {
-        this.shader = shader;
-        shader.start();
-        shader.loadProjectionMatrix(projectionMatrix);
-        // Solo necesita conectarlos una vez cuando se carga el juego y luego los samplers permanecen conectados a esas unidades de textura por el resto del tiempo
-        shader.connectTextureUnits();
-        shader.stop();
+    public TerrainRenderer(ShaderVariants<TerrainShader> shaders, Matrix4f projectionMatrix) {
+        this.shaders = shaders;
+        for (TerrainShader shader : shaders.getAll()) {
+            shader.start();
+            shader.loadProjectionMatrix(projectionMatrix);
+            // Solo necesita conectarlos una vez cuando se carga el juego y luego los samplers permanecen conectados a esas unidades de textura por el resto del tiempo
+            shader.connectTextureUnits();
+            shader.stop();
+        }
+        indirectDraw = IndirectDraw.isSupported() ? new IndirectDraw(3, TerrainShader.INSTANCE_MATRIX_ATTRIBUTE, false) : null;
     }
 
-    public void render(List<Terrain> terrains) {
+    /**
+     * Renderiza los terrenos. Los del arena se dejan para el final y se dibujan con la variante {@link TerrainShader#INDIRECT}.
+     *
+     * @param terrains     lista de terrenos.
+     * @param passFeatures caracteristicas de la pasada.
+     * @param passSetup    carga las variables uniformes de la pasada en la variante.
+     */
+    public void render(List<Terrain> terrains, int passFeatures, Consumer<TerrainShader> passSetup) {
+        TerrainShader shader = null;
+        indirectTerrains.clear();
         for (Terrain terrain : terrains) {
-            prepareTexturedModel(terrain);
-            loadModelMatrix(terrain);
-            glDrawElements(GL_TRIANGLES, terrain.getModel().getVertexCount(), GL_UNSIGNED_INT, 0);
+            if (indirectDraw != null && indirectDraw.accepts(terrain.getModel())) {
+                indirectTerrains.add(terrain);
+                continue;
+            }
+            if (shader == null) shader = start(passFeatures, passSetup);
+            prepareTexturedModel(terrain, shader);
+            loadModelMatrix(terrain, shader);
+            RawModel model = terrain.getModel();
+            glDrawElementsBaseVertex(GL_TRIANGLES, model.getVertexCount(), model.getIndexType(), model.getIndexOffset(), model.getBaseVertex());
             unbindTexturedModel();
         }
+        if (shader != null) shader.stop();
+        if (!indirectTerrains.isEmpty()) renderIndirect(passFeatures | TerrainShader.INDIRECT, passSetup);
     }
 
-    private void prepareTexturedModel(Terrain terrain) {
+    /**
+     * Dibuja los terrenos del arena con una llamada por cada grupo de terrenos seguidos que usan las mismas texturas.
+     */
+    private void renderIndirect(int features, Consumer<TerrainShader> passSetup) {
+        TerrainShader shader = start(features, passSetup);
+        shader.loadSpecularLight(1, 0);
+        Terrain group = null; // Primer terreno del grupo, cuyas texturas estan vinculadas
+        indirectDraw.clear();
+        for (Terrain terrain : indirectTerrains) {
+            if (group == null || !hasSameTextures(group, terrain)) {
+                if (!indirectDraw.isEmpty()) indirectDraw.draw();
+                indirectDraw.clear();
+                bindTextures(terrain);
+                group = terrain;
+            }
+            indirectDraw.addCommand(terrain.getModel(), 1);
+            indirectDraw.addInstance(Maths.createTranslationMatrix(terrain.getX(), 0, terrain.getZ(), transformationMatrix));
+        }
+        indirectDraw.draw();
+        shader.stop();
+    }
+
+    private static boolean hasSameTextures(Terrain a, Terrain b) {
+        return a.getTexturePack() == b.getTexturePack() && a.getBlendMap() == b.getBlendMap();
+    }
+
+    private TerrainShader start(int features, Consumer<TerrainShader> passSetup) {
+        TerrainShader shader = shaders.get(features);
+        shader.start();
+        passSetup.accept(shader);
+        return shader;
+    }
+
+    private void prepareTexturedModel(Terrain terrain, TerrainShader shader) {
         RawModel rawModel = terrain.getModel();
         glBindVertexArray(rawModel.getID());
         glEnableVertexAttribArray(0);
@@ -67,9 +131,8 @@ public class TerrainRenderer {
         glBindTexture(GL_TEXTURE_2D, terrain.getBlendMap().getID());
     }
 
-    private void loadModelMatrix(Terrain terrain) {
-        Matrix4f matrix = Maths.createTransformationMatrix(new Vector3f(terrain.getX(), 0, terrain.getZ()), new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
-        shader.loadTransformationMatrix(matrix);
+    private void loadModelMatrix(Terrain terrain, TerrainShader shader) {
+        shader.loadTransformationMatrix(Maths.createTranslationMatrix(terrain.getX(), 0, terrain.getZ(), transformationMatrix));
     }
 
     private void unbindTexturedModel() {
@@ -79,4 +142,8 @@ public class TerrainRenderer {
         glBindVertexArray(0);
     }
 
+    public void clean() {
+        if (indirectDraw != null) indirectDraw.clean();
+    }
+
 }
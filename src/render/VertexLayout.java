@@ -0,0 +1,21 @@
+package render;
+
+/**
+ * Organizacion de los datos de vertice dentro del VAO.
+ * <p>
+ * Con {@link #SEPARATE} cada atributo (posicion, coordenada de textura y normal) vive en su propio VBO, que es la forma mas
+ * simple de entenderlo pero obliga a la GPU a leer de tres lugares distintos de la memoria para armar cada vertice. Con
+ * {@link #INTERLEAVED} todos los atributos de un vertice se guardan uno al lado del otro en un unico VBO
+ * ({@code x y z u v nx ny nz | x y z u v nx ny nz | ...}), por lo que al leer un vertice se aprovecha mejor la cache de la GPU.
+ * {@link #COMPRESSED} ademas reduce el tamanio de cada vertice de 32 a 20 bytes guardando las coordenadas de textura como
+ * half floats (16 bits por componente) y la normal empaquetada en un solo entero con el formato
+ * {@code GL_INT_2_10_10_10_REV} (10 bits por componente).
+ */
+
+public enum VertexLayout {
+
+    SEPARATE,
+    INTERLEAVED,
+    COMPRESSED
+
+}
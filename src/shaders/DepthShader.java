@@ -0,0 +1,106 @@
+package shaders;
+
+import textures.ModelTexture;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector4f;
+
+/**
+ * Shader de la pasada previa de profundidad, que solo transforma las posiciones. La variante con prueba alfa muestrea la
+ * textura para descartar las partes transparentes de la vegetacion. La variante indirecta lee la matriz de transformacion de
+ * un atributo por instancia para dibujar muchos modelos con una sola llamada.
+ */
+
+public class DepthShader extends ShaderProgram {
+
+    // Caracteristicas de las variantes
+    public static final int ALPHA_TEST = 1, TEXTURE_ATLAS = 2, CLIP_PLANE = 4, INDIRECT = 8;
+    public static final int FEATURES = 4;
+    // Atributo de la matriz de transformacion por instancia de la variante indirecta, que ocupa cuatro atributos seguidos
+    public static final int INSTANCE_MATRIX_ATTRIBUTE = 4;
+
+    private static final String VERTEX_FILE = "src/shaders/depthVertexShader.glsl";
+    private static final String FRAGMENT_FILE = "src/shaders/depthFragmentShader.glsl";
+
+    private int location_transformationMatrix, location_viewMatrix, location_projectionMatrix;
+    private int location_numberOfRows, location_offset;
+    private int location_plane;
+    private int location_modelTexture;
+
+    /**
+     * @param features mascara de bits con las caracteristicas de la variante.
+     */
+    public DepthShader(int features) {
+        super(VERTEX_FILE, FRAGMENT_FILE, getDefines(features, "ALPHA_TEST", "TEXTURE_ATLAS", "CLIP_PLANE", "INDIRECT").toArray(new String[0]));
+    }
+
+    /**
+     * Indica si la combinacion de caracteristicas se usa. La variante indirecta solo dibuja modelos opacos, que no necesitan
+     * la textura.
+     *
+     * @param features mascara de bits con las caracteristicas.
+     * @return true si la variante se compila.
+     */
+    public static boolean isValid(int features) {
+        return (features & INDIRECT) == 0 || (features & (ALPHA_TEST | TEXTURE_ATLAS)) == 0;
+    }
+
+    /**
+     * Devuelve las caracteristicas de la variante que corresponden a la textura del modelo. El atlas solo importa si la textura
+     * tiene transparencia, porque sin prueba alfa no se muestrea.
+     *
+     * @param texture textura del modelo, o null para el terreno.
+     * @return mascara de bits con {@link #ALPHA_TEST} y {@link #TEXTURE_ATLAS}.
+     */
+    public static int getFeatures(ModelTexture texture) {
+        if (texture == null || !texture.isHasTransparency()) return 0;
+        return ALPHA_TEST | (texture.getNumberOfRows() > 1 ? TEXTURE_ATLAS : 0);
+    }
+
+    @Override
+    protected void bindAttributes() {
+        bindAttribute(0, "position");
+        bindAttribute(1, "textureCoords");
+        bindAttribute(INSTANCE_MATRIX_ATTRIBUTE, "instanceTransformation");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_transformationMatrix = getUniformLocation("transformationMatrix");
+        location_viewMatrix = getUniformLocation("viewMatrix");
+        location_projectionMatrix = getUniformLocation("projectionMatrix");
+        location_numberOfRows = getUniformLocation("numberOfRows");
+        location_offset = getUniformLocation("offset");
+        location_plane = getUniformLocation("plane");
+        location_modelTexture = getUniformLocation("modelTexture");
+    }
+
+    public void connectTextureUnits() {
+        loadInt(location_modelTexture, 0);
+    }
+
+    public void loadProjectionMatrix(Matrix4f matrix) {
+        loadMatrix(location_projectionMatrix, matrix);
+    }
+
+    public void loadViewMatrix(Matrix4f matrix) {
+        loadMatrix(location_viewMatrix, matrix);
+    }
+
+    public void loadTransformationMatrix(Matrix4f matrix) {
+        loadMatrix(location_transformationMatrix, matrix);
+    }
+
+    public void loadNumberOfRows(int numberOfRows) {
+        loadFloat(location_numberOfRows, numberOfRows);
+    }
+
+    public void loadOffset(float x, float y) {
+        load2DVector(location_offset, x, y);
+    }
+
+    public void loadClipPlane(Vector4f plane) {
+        loadVector(location_plane, plane);
+    }
+
+}
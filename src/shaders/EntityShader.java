@@ -2,33 +2,90 @@ package shaders;
 
 import entities.Camera;
 import entities.Light;
+import render.ClusteredLighting;
+import shadows.ShadowMapRenderer;
+import textures.ModelTexture;
 import utils.Maths;
 
 import java.util.List;
 
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 
 public class EntityShader extends ShaderProgram {
 
     private static final int MAX_LIGHTS = 4;
+    // Valores constantes que se cargan en cada pasada
+    private static final Vector3f CLUSTER_GRID = new Vector3f(ClusteredLighting.GRID_X, ClusteredLighting.GRID_Y, ClusteredLighting.GRID_Z);
+    private static final Vector3f ZERO = new Vector3f(0, 0, 0), NO_ATTENUATION = new Vector3f(1, 0, 0); // Luces vacias
+
+    // Caracteristicas de las variantes
+    public static final int FAKE_LIGHTING = 1, TEXTURE_ATLAS = 2, CLIP_PLANE = 4, CLUSTERED_LIGHTING = 8, DEFERRED = 16, SHADOWS = 32, INDIRECT = 64;
+    public static final int FEATURES = 7;
+    // Atributos por instancia de la variante indirecta: la matriz ocupa cuatro atributos seguidos y el desplazamiento del atlas uno
+    public static final int INSTANCE_MATRIX_ATTRIBUTE = 4, INSTANCE_OFFSET_ATTRIBUTE = 8;
 
     private static final String VERTEX_FILE = "src/shaders/vertexShader.glsl";
     private static final String FRAGMENT_FILE = "src/shaders/fragmentShader.glsl";
 
     private int location_transformationMatrix, location_viewMatrix, location_projectionMatrix;
     private int location_shineDamper, location_reflectivity;
-    private int location_useFakeLighting;
     private int location_skyColor;
     private int location_numberOfRows;
     private int location_offset;
     private int location_plane;
+    private int location_modelTexture;
     private int[] location_lightPosition, location_lightColour, location_attenuation;
+    private int location_lightCount;
+    private int location_lightData, location_lightIndices, location_lightGrid;
+    private int location_clusterGrid, location_screenSize, location_clusterNear, location_clusterFar;
+    private int location_shadowMap;
+    private int[] location_shadowMatrices, location_cascadeFar;
+    private final Matrix4f viewMatrix = new Matrix4f(); // Se reutiliza en cada frame
+    private final Vector3f skyColor = new Vector3f();
+
+    // Luces cargadas en las variables uniformes, para no volver a cargarlas si la siguiente entidad usa las mismas
+    private final Light[] loadedLights = new Light[MAX_LIGHTS];
+    private int loadedLightCount;
+
+    /**
+     * @param features mascara de bits con las caracteristicas de la variante.
+     */
+    public EntityShader(int features) {
+        super(VERTEX_FILE, FRAGMENT_FILE, getDefines(features));
+    }
+
+    private static String[] getDefines(int features) {
+        List<String> defines = getDefines(features, "FAKE_LIGHTING", "TEXTURE_ATLAS", "CLIP_PLANE", "CLUSTERED_LIGHTING", "DEFERRED", "SHADOWS", "INDIRECT");
+        defines.add("MAX_LIGHTS " + MAX_LIGHTS);
+        defines.add("SHADOW_CASCADES " + ShadowMapRenderer.CASCADES);
+        return defines.toArray(new String[0]);
+    }
+
+    /**
+     * Indica si la combinacion de caracteristicas se usa. La pasada de geometria del renderizado diferido no calcula la
+     * iluminacion, y las sombras solo se reciben en la pasada principal, que no recorta la escena. La variante indirecta
+     * dibuja muchas entidades con una llamada, asi que solo sirve cuando las luces no se eligen por entidad: con la
+     * iluminacion clusterizada o en la pasada de geometria.
+     *
+     * @param features mascara de bits con las caracteristicas de la variante.
+     * @return true si hay que compilar la variante.
+     */
+    public static boolean isValid(int features) {
+        if ((features & DEFERRED) != 0 && (features & (CLIP_PLANE | CLUSTERED_LIGHTING | SHADOWS)) != 0) return false;
+        if ((features & INDIRECT) != 0 && (features & (CLUSTERED_LIGHTING | DEFERRED)) == 0) return false;
+        return (features & SHADOWS) == 0 || (features & CLIP_PLANE) == 0;
+    }
 
-    public EntityShader() {
-        super(VERTEX_FILE, FRAGMENT_FILE);
+    /**
+     * Devuelve las caracteristicas de la variante que corresponden a la textura del modelo.
+     *
+     * @param texture textura del modelo.
+     * @return mascara de bits con {@link #FAKE_LIGHTING} y {@link #TEXTURE_ATLAS}.
+     */
+    public static int getFeatures(ModelTexture texture) {
+        return (texture.isUseFakeLighting() ? FAKE_LIGHTING : 0) | (texture.getNumberOfRows() > 1 ? TEXTURE_ATLAS : 0);
     }
 
     @Override
@@ -37,6 +94,8 @@ public class EntityShader extends ShaderProgram {
         bindAttribute(0, "position"); // Es importante que los nombres de las variables coincidan con los del Vertex Shader
         bindAttribute(1, "textureCoords");
         bindAttribute(2, "normal");
+        bindAttribute(INSTANCE_MATRIX_ATTRIBUTE, "instanceTransformation");
+        bindAttribute(INSTANCE_OFFSET_ATTRIBUTE, "instanceOffset");
     }
 
     @Override
@@ -47,11 +106,28 @@ public class EntityShader extends ShaderProgram {
         location_projectionMatrix = getUniformLocation("projectionMatrix");
         location_shineDamper = getUniformLocation("shineDamper");
         location_reflectivity = getUniformLocation("reflectivity");
-        location_useFakeLighting = getUniformLocation("useFakeLighting");
         location_skyColor = getUniformLocation("skyColor");
         location_numberOfRows = getUniformLocation("numberOfRows");
         location_offset = getUniformLocation("offset");
         location_plane = getUniformLocation("plane");
+        location_modelTexture = getUniformLocation("modelTexture");
+        location_lightCount = getUniformLocation("lightCount");
+        location_lightData = getUniformLocation("lightData");
+        location_lightIndices = getUniformLocation("lightIndices");
+        location_lightGrid = getUniformLocation("lightGrid");
+        location_clusterGrid = getUniformLocation("clusterGrid");
+        location_screenSize = getUniformLocation("screenSize");
+        location_clusterNear = getUniformLocation("clusterNear");
+        location_clusterFar = getUniformLocation("clusterFar");
+        location_shadowMap = getUniformLocation("shadowMap");
+
+        location_shadowMatrices = new int[ShadowMapRenderer.CASCADES];
+        location_cascadeFar = new int[ShadowMapRenderer.CASCADES];
+
+        for (int i = 0; i < ShadowMapRenderer.CASCADES; i++) {
+            location_shadowMatrices[i] = getUniformLocation("shadowMatrices[" + i + "]");
+            location_cascadeFar[i] = getUniformLocation("cascadeFar[" + i + "]");
+        }
 
         location_lightPosition = new int[MAX_LIGHTS];
         location_lightColour = new int[MAX_LIGHTS];
@@ -79,7 +155,7 @@ public class EntityShader extends ShaderProgram {
      * @param camera camara.
      */
     public void loadViewMatrix(Camera camera) {
-        Matrix4f matrix = Maths.createViewMatrix(camera);
+        Matrix4f matrix = Maths.createViewMatrix(camera, viewMatrix);
         loadMatrix(location_viewMatrix, matrix);
     }
 
@@ -103,15 +179,6 @@ public class EntityShader extends ShaderProgram {
         loadFloat(location_reflectivity, reflectivity);
     }
 
-    /**
-     * Carga la iluminacion falsa.
-     *
-     * @param useFake si la textura usa o no iluminacion falsa.
-     */
-    public void loadFakeLighting(boolean useFake) {
-        loadBoolean(location_useFakeLighting, useFake);
-    }
-
     /**
      * Carga el color del cielo.
      *
@@ -120,7 +187,19 @@ public class EntityShader extends ShaderProgram {
      * @param g canal verde.
      */
     public void loadSkyColor(float r, float g, float b) {
-        loadVector(location_skyColor, new Vector3f(r, g, b));
+        skyColor.set(r, g, b);
+        loadVector(location_skyColor, skyColor);
+    }
+
+    /**
+     * Conecta las variables del shader a cada unidad de textura.
+     */
+    public void connectTextureUnits() {
+        loadInt(location_modelTexture, 0);
+        loadInt(location_lightData, ClusteredLighting.LIGHT_DATA_UNIT);
+        loadInt(location_lightIndices, ClusteredLighting.LIGHT_INDEX_UNIT);
+        loadInt(location_lightGrid, ClusteredLighting.LIGHT_GRID_UNIT);
+        loadInt(location_shadowMap, ShadowMapRenderer.SHADOW_UNIT);
     }
 
     public void loadNumberOfRows(int numberOfRows) {
@@ -128,7 +207,33 @@ public class EntityShader extends ShaderProgram {
     }
 
     public void loadOffset(float x, float y) {
-        load2DVector(location_offset, new Vector2f(x, y));
+        load2DVector(location_offset, x, y);
+    }
+
+    /**
+     * Carga los parametros de la iluminacion clusterizada.
+     *
+     * @param width   ancho en pixeles del framebuffer en el que se renderiza.
+     * @param height  alto en pixeles del framebuffer en el que se renderiza.
+     * @param far     distancia hasta la que llegan las rebanadas de los clusters.
+     */
+    public void loadClusteredLighting(float width, float height, float far) {
+        loadVector(location_clusterGrid, CLUSTER_GRID);
+        load2DVector(location_screenSize, width, height);
+        loadFloat(location_clusterNear, ClusteredLighting.CLUSTER_NEAR);
+        loadFloat(location_clusterFar, far);
+    }
+
+    /**
+     * Carga las matrices y las distancias de las cascadas del mapa de sombras.
+     *
+     * @param shadows renderer del mapa de sombras.
+     */
+    public void loadShadows(ShadowMapRenderer shadows) {
+        for (int i = 0; i < ShadowMapRenderer.CASCADES; i++) {
+            loadMatrix(location_shadowMatrices[i], shadows.getShadowMatrix(i));
+            loadFloat(location_cascadeFar[i], shadows.getCascadeFar(i));
+        }
     }
 
     public void loadClipPlane(Vector4f plane) {
@@ -141,6 +246,9 @@ public class EntityShader extends ShaderProgram {
      * @param lights fuentes de luz.
      */
     public void loadLights(List<Light> lights) {
+        loadedLightCount = Math.min(lights.size(), MAX_LIGHTS);
+        for (int i = 0; i < loadedLightCount; i++) loadedLights[i] = lights.get(i);
+        loadInt(location_lightCount, loadedLightCount);
         /* Carga las primeras cuatro luces de la lista en las variables uniformes del shader y si hay menos de 4 luces en la lista,
          * carga una lista de ceros para llenar esos espacios adicionales en las matrices uniformes. */
         for (int i = 0; i < MAX_LIGHTS; i++) {
@@ -149,11 +257,24 @@ public class EntityShader extends ShaderProgram {
                 loadVector(location_lightColour[i], lights.get(i).getColour());
                 loadVector(location_attenuation[i], lights.get(i).getAttenuation());
             } else {
-                loadVector(location_lightPosition[i], new Vector3f(0, 0, 0));
-                loadVector(location_lightColour[i], new Vector3f(0, 0, 0));
-                loadVector(location_attenuation[i], new Vector3f(1, 0, 0));
+                loadVector(location_lightPosition[i], ZERO);
+                loadVector(location_lightColour[i], ZERO);
+                loadVector(location_attenuation[i], NO_ATTENUATION);
             }
         }
     }
 
+    /**
+     * Carga las luces elegidas para una entidad solo si son distintas a las que ya estan cargadas. Como las luces se pueden mover
+     * entre fotogramas, la comparacion es valida dentro de una misma pasada, que siempre empieza con {@link #loadLights(List)}.
+     *
+     * @param lights luces elegidas para la entidad.
+     */
+    public void loadSelectedLights(List<Light> lights) {
+        int count = Math.min(lights.size(), MAX_LIGHTS);
+        boolean changed = count != loadedLightCount;
+        for (int i = 0; i < count && !changed; i++) changed = lights.get(i) != loadedLights[i];
+        if (changed) loadLights(lights);
+    }
+
 }
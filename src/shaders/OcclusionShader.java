@@ -0,0 +1,44 @@
+package shaders;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+public class OcclusionShader extends ShaderProgram {
+
+    private static final String VERTEX_FILE = "src/shaders/occlusionVertexShader.glsl";
+    private static final String FRAGMENT_FILE = "src/shaders/occlusionFragmentShader.glsl";
+
+    private int location_viewMatrix, location_projectionMatrix;
+    private int location_boxMin, location_boxSize;
+
+    public OcclusionShader() {
+        super(VERTEX_FILE, FRAGMENT_FILE);
+    }
+
+    @Override
+    protected void bindAttributes() {
+        bindAttribute(0, "position");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_viewMatrix = getUniformLocation("viewMatrix");
+        location_projectionMatrix = getUniformLocation("projectionMatrix");
+        location_boxMin = getUniformLocation("boxMin");
+        location_boxSize = getUniformLocation("boxSize");
+    }
+
+    public void loadProjectionMatrix(Matrix4f matrix) {
+        loadMatrix(location_projectionMatrix, matrix);
+    }
+
+    public void loadViewMatrix(Matrix4f matrix) {
+        loadMatrix(location_viewMatrix, matrix);
+    }
+
+    public void loadBox(Vector3f min, Vector3f size) {
+        loadVector(location_boxMin, min);
+        loadVector(location_boxSize, size);
+    }
+
+}
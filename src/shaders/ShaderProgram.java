@@ -1,10 +1,18 @@
 package shaders;
 
-import javax.swing.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GLContext;
 import org.lwjgl.util.vector.Matrix4f;
 import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
@@ -12,6 +20,8 @@ import org.lwjgl.util.vector.Vector4f;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL41.*;
 
 /**
  * <h2>Pipeline Grafico</h2>
@@ -117,21 +127,84 @@ import static org.lwjgl.opengl.GL20.*;
 
 public abstract class ShaderProgram {
 
-    private final int programID, vertexShaderID, fragmentShaderID;
+    private static final String CACHE_DIR = "cache/shaders"; // Carpeta donde se guardan los binarios de los programas
+    private static final int GL_COMPLETION_STATUS_KHR = 0x91B1; // KHR_parallel_shader_compile, que LWJGL 2 no define
+
+    // Capacidades del driver, que se consultan una sola vez con el primer programa
+    private static boolean capabilitiesQueried, binaryCache, parallelCompile;
+    private static String driver;
+
+    private final String name;
+    private final int programID;
+    private int vertexShaderID, fragmentShaderID; // Quedan en 0 si el programa se cargo desde la cache
+    private final File cacheFile;
+    private boolean linked;
 
     private static final FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
 
-    public ShaderProgram(String vertexFile, String fragmentFile) {
-        vertexShaderID = loadShader(vertexFile, GL_VERTEX_SHADER);
-        fragmentShaderID = loadShader(fragmentFile, GL_FRAGMENT_SHADER);
+    /**
+     * Crea el programa de shader con una variante (permutacion) de los archivos GLSL, agregando un {@code #define} por cada
+     * caracteristica despues de la directiva {@code #version}. Asi cada variante compila solo el codigo que usa en lugar de
+     * decidirlo con condiciones en cada vertice o pixel.
+     * <p>
+     * Si el driver permite leer los binarios de los programas, el programa se carga desde la cache del disco usando como clave
+     * un hash del codigo fuente y del driver, y solo se compila si no esta en la cache o si el driver rechaza el binario. La
+     * compilacion no espera a que termine, el resultado se comprueba en {@link #finish()} para que el driver pueda compilar
+     * varios programas en paralelo mientras se crean los siguientes.
+     *
+     * @param vertexFile   archivo del Vertex Shader.
+     * @param fragmentFile archivo del Fragment Shader.
+     * @param defines      definiciones que se agregan al codigo de los dos shaders.
+     */
+    public ShaderProgram(String vertexFile, String fragmentFile, String... defines) {
+        queryCapabilities();
+        name = vertexFile + ", " + fragmentFile;
+        String vertexSource = loadSource(vertexFile, defines), fragmentSource = loadSource(fragmentFile, defines);
         programID = glCreateProgram();
+        cacheFile = binaryCache ? new File(CACHE_DIR, getKey(vertexSource, fragmentSource) + ".bin") : null;
+        if (loadBinary()) return;
+        vertexShaderID = compileShader(vertexSource, GL_VERTEX_SHADER);
+        fragmentShaderID = compileShader(fragmentSource, GL_FRAGMENT_SHADER);
         // Adjunta el shader al programa de shader
         glAttachShader(programID, vertexShaderID);
         glAttachShader(programID, fragmentShaderID);
         bindAttributes();
+        // Le avisa al driver que se va a leer el binario del programa para que no lo descarte despues de enlazarlo
+        if (cacheFile != null) glProgramParameteri(programID, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
         /* Enlaza los shaders adjuntos al programa de shader. Despues de adjuntar los shaders individuales al programa, glLinkProgram()
          * realiza la vinculacion final para crear un programa de shader completo y listo para su uso en el pipeline grafico. */
         glLinkProgram(programID);
+    }
+
+    /**
+     * Verifica si el driver termino de compilar y enlazar el programa, sin bloquear. Si el driver no soporta la compilacion en
+     * paralelo, siempre devuelve true y {@link #finish()} bloquea hasta que termine.
+     *
+     * @return true si {@link #finish()} no tiene que esperar al driver.
+     */
+    public boolean isReady() {
+        return linked || !parallelCompile || glGetProgrami(programID, GL_COMPLETION_STATUS_KHR) == GL_TRUE;
+    }
+
+    /**
+     * Comprueba el resultado de la compilacion y del enlace, guarda el binario en la cache y obtiene las ubicaciones de las
+     * variables uniformes. Se llama automaticamente la primera vez que se inicia el programa.
+     *
+     * @throws RuntimeException si algun shader no compila o si el programa no se puede enlazar.
+     */
+    public void finish() {
+        if (linked) return;
+        linked = true;
+        if (vertexShaderID != 0) {
+            /* Despues de compilar el shader, es recomendable verificar si hubo errores de compilacion utilizando glGetShaderiv() y
+             * glGetShaderInfoLog(). La informacion de registro (log) proporciona detalles sobre cualquier problema que haya surgido
+             * durante la compilacion del shader. */
+            checkShader(vertexShaderID);
+            checkShader(fragmentShaderID);
+            if (glGetProgrami(programID, GL_LINK_STATUS) == GL_FALSE)
+                throw new RuntimeException("Could not link shader program " + name + "\n" + glGetProgramInfoLog(programID, glGetProgrami(programID, GL_INFO_LOG_LENGTH)));
+            saveBinary();
+        }
         /* Valida el programa de shader despues de ser enlazado. La validacion proporciona informacion sobre la compatibilidad
          * entre los shaders en el programa y asegura que esten configurados de manera coherente para ejecutarse correctamente en
          * el hardware de la tarjeta grafica. */
@@ -139,6 +212,20 @@ public abstract class ShaderProgram {
         getAllUniformLocations();
     }
 
+    /**
+     * Devuelve los nombres de las caracteristicas activas en una mascara de bits, donde el bit i corresponde al nombre i.
+     *
+     * @param features mascara de bits.
+     * @param names    nombres de cada bit.
+     * @return los nombres que se agregan como {@code #define}.
+     */
+    protected static List<String> getDefines(int features, String... names) {
+        List<String> defines = new ArrayList<>();
+        for (int i = 0; i < names.length; i++)
+            if ((features & (1 << i)) != 0) defines.add(names[i]);
+        return defines;
+    }
+
     protected abstract void bindAttributes();
 
     protected abstract void getAllUniformLocations();
@@ -196,7 +283,14 @@ public abstract class ShaderProgram {
     }
 
     protected void loadVector(int location, Vector3f vector) {
-        glUniform3f(location, vector.x, vector.y, vector.z);
+        loadVector(location, vector.x, vector.y, vector.z);
+    }
+
+    /**
+     * Carga un vec3 a partir de sus componentes, para no crear un vector por cada llamada.
+     */
+    protected void loadVector(int location, float x, float y, float z) {
+        glUniform3f(location, x, y, z);
     }
 
     protected void loadVector(int location, Vector4f vector) {
@@ -205,7 +299,14 @@ public abstract class ShaderProgram {
 
     // TODO Mejorar los nombres para cada metodo
     protected void load2DVector(int location, Vector2f vector) {
-        glUniform2f(location, vector.x, vector.y);
+        load2DVector(location, vector.x, vector.y);
+    }
+
+    /**
+     * Carga un vec2 a partir de sus componentes, para no crear un vector por cada llamada.
+     */
+    protected void load2DVector(int location, float x, float y) {
+        glUniform2f(location, x, y);
     }
 
     protected void loadBoolean(int location, boolean value) {
@@ -227,6 +328,7 @@ public abstract class ShaderProgram {
      * cambiar entre programas de shader y aplicar efectos visuales durante la renderizacion.
      */
     public void start() {
+        if (!linked) finish();
         glUseProgram(programID);
     }
 
@@ -236,6 +338,14 @@ public abstract class ShaderProgram {
 
     public void clean() {
         stop();
+        if (vertexShaderID != 0) deleteShaders();
+        /* Elimina un programa de shader compuesto por shaders individuales adjuntos, compilados y enlazados, como Vertex Shaders
+         * o Fragment Shaders. Es crucial entender que glDeleteProgram() borra el programa de shader, pero no afecta a los shaders
+         * individuales adjuntos. */
+        glDeleteProgram(programID);
+    }
+
+    private void deleteShaders() {
         // Desvincula un shader de un programa de shader eliminando la conexion entre un shader especifico y el programa sin destruir el shader en si
         glDetachShader(programID, vertexShaderID);
         glDetachShader(programID, fragmentShaderID);
@@ -245,48 +355,128 @@ public abstract class ShaderProgram {
          * elimina el objeto de shader individual. */
         glDeleteShader(vertexShaderID);
         glDeleteShader(fragmentShaderID);
-        /* Elimina un programa de shader compuesto por shaders individuales adjuntos, compilados y enlazados, como Vertex Shaders
-         * o Fragment Shaders. Es crucial entender que glDeleteProgram() borra el programa de shader, pero no afecta a los shaders
-         * individuales adjuntos. */
-        glDeleteProgram(programID);
     }
 
     /**
-     * Carga el shader.
+     * Lee el codigo fuente del shader y agrega las definiciones despues de la directiva {@code #version}, que tiene que ser la
+     * primera linea.
      *
-     * @param file archivo del shader.
-     * @param type tipo de shader.
-     * @return el identificador del shader
+     * @param file    archivo del shader.
+     * @param defines definiciones.
+     * @return el codigo fuente.
      */
-    private static int loadShader(String file, int type) {
+    private static String loadSource(String file, String... defines) {
         StringBuilder shaderSource = new StringBuilder();
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(file));
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             String line;
-            while ((line = reader.readLine()) != null)
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
                 shaderSource.append(line).append("\n");
-
-            reader.close();
+                if (first) for (String define : defines)
+                    shaderSource.append("#define ").append(define).append("\n");
+                first = false;
+            }
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(null, "Error de I/O", "Error", JOptionPane.ERROR_MESSAGE);
+            throw new RuntimeException("Could not read shader " + file, e);
         }
+        return shaderSource.toString();
+    }
 
+    /**
+     * Envia el codigo fuente del shader a compilar. El resultado se comprueba en {@link #finish()}.
+     *
+     * @param source codigo fuente.
+     * @param type   tipo de shader.
+     * @return el identificador del shader
+     */
+    private static int compileShader(String source, int type) {
         // Devuelve un identificador unico para el objeto de shader creado
         int shaderID = glCreateShader(type);
         // Carga el codigo fuente
-        glShaderSource(shaderID, shaderSource);
+        glShaderSource(shaderID, source);
         // Compila el codigo fuente
         glCompileShader(shaderID);
-        /* Despues de compilar el shader, es recomendable verificar si hubo errores de compilacion utilizando glGetShaderiv() y
-         * glGetShaderInfoLog(). La informacion de registro (log) proporciona detalles sobre cualquier problema que haya surgido
-         * durante la compilacion del shader. */
-        if (glGetShaderi(shaderID, GL_COMPILE_STATUS) == GL_FALSE) {
-            System.out.println(glGetShaderInfoLog(shaderID, 500));
-            System.err.println("Could not compile shader!");
-            System.exit(-1);
+        return shaderID;
+    }
+
+    private void checkShader(int shaderID) {
+        if (glGetShaderi(shaderID, GL_COMPILE_STATUS) == GL_FALSE)
+            throw new RuntimeException("Could not compile shader " + name + "\n" + glGetShaderInfoLog(shaderID, glGetShaderi(shaderID, GL_INFO_LOG_LENGTH)));
+    }
+
+    /**
+     * Intenta cargar el programa desde la cache. El driver puede rechazar el binario (por ejemplo, si se actualizo), en cuyo caso
+     * se borra el archivo y el programa se compila desde el codigo fuente.
+     *
+     * @return true si el programa se cargo desde la cache.
+     */
+    private boolean loadBinary() {
+        if (cacheFile == null || !cacheFile.isFile()) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            int format = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            ByteBuffer binary = BufferUtils.createByteBuffer(data.length);
+            binary.put(data).flip();
+            glProgramBinary(programID, format, binary);
+        } catch (IOException e) {
+            return false;
         }
+        if (glGetProgrami(programID, GL_LINK_STATUS) == GL_TRUE) return true;
+        cacheFile.delete();
+        return false;
+    }
 
-        return shaderID;
+    private void saveBinary() {
+        if (cacheFile == null) return;
+        int length = glGetProgrami(programID, GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) return;
+        ByteBuffer binary = BufferUtils.createByteBuffer(length);
+        IntBuffer written = BufferUtils.createIntBuffer(1), format = BufferUtils.createIntBuffer(1);
+        glGetProgramBinary(programID, written, format, binary);
+        byte[] data = new byte[length];
+        binary.get(data);
+        cacheFile.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+            out.writeInt(format.get(0));
+            out.writeInt(length);
+            out.write(data);
+        } catch (IOException e) {
+            // La cache es opcional, asi que el programa se vuelve a compilar la proxima vez
+            System.err.println("Could not save shader binary " + cacheFile);
+        }
+    }
+
+    /**
+     * Calcula la clave del programa en la cache. Incluye la clase, porque cada una vincula sus propios atributos, y el driver,
+     * porque los binarios no son compatibles entre drivers.
+     */
+    private String getKey(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String part : new String[]{getClass().getName(), driver, vertexSource, fragmentSource}) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void queryCapabilities() {
+        if (capabilitiesQueried) return;
+        capabilitiesQueried = true;
+        ContextCapabilities capabilities = GLContext.getCapabilities();
+        binaryCache = (capabilities.OpenGL41 || capabilities.GL_ARB_get_program_binary) && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+        for (int i = 0; i < glGetInteger(GL_NUM_EXTENSIONS); i++) {
+            String extension = glGetStringi(GL_EXTENSIONS, i);
+            if (extension.equals("GL_KHR_parallel_shader_compile") || extension.equals("GL_ARB_parallel_shader_compile"))
+                parallelCompile = true;
+        }
+        driver = glGetString(GL_VENDOR) + "/" + glGetString(GL_RENDERER) + "/" + glGetString(GL_VERSION);
     }
 
 }
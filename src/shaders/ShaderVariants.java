@@ -0,0 +1,71 @@
+package shaders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Conjunto de variantes de un programa de shader, una por cada combinacion de caracteristicas. Cada variante se identifica con
+ * una mascara de bits que el shader traduce a {@code #define}.
+ * <p>
+ * Todas las variantes se envian a compilar antes de comprobar el resultado de cualquiera de ellas, para que el driver pueda
+ * compilarlas en paralelo, y se terminan en el orden en que el driver las tiene listas. Las combinaciones que nunca se usan
+ * (por ejemplo, caracteristicas que se excluyen entre si) no se compilan.
+ *
+ * @param <T> tipo del programa de shader.
+ */
+
+public class ShaderVariants<T extends ShaderProgram> {
+
+    private final List<T> variants = new ArrayList<>(); // Indexadas por la mascara de bits, null si la combinacion no es valida
+    private final List<T> all = new ArrayList<>();
+
+    /**
+     * @param features cantidad de caracteristicas (bits) que combinan las variantes.
+     * @param factory  crea la variante de una mascara de bits.
+     */
+    public ShaderVariants(int features, IntFunction<T> factory) {
+        this(features, factory, variant -> true);
+    }
+
+    /**
+     * @param features cantidad de caracteristicas (bits) que combinan las variantes.
+     * @param factory  crea la variante de una mascara de bits.
+     * @param valid    indica si una combinacion de caracteristicas se usa.
+     */
+    public ShaderVariants(int features, IntFunction<T> factory, IntPredicate valid) {
+        for (int i = 0; i < 1 << features; i++) {
+            T variant = valid.test(i) ? factory.apply(i) : null;
+            variants.add(variant);
+            if (variant != null) all.add(variant);
+        }
+        List<T> pending = new ArrayList<>(all);
+        while (!pending.isEmpty()) {
+            boolean finished = false;
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                if (pending.get(i).isReady()) {
+                    pending.remove(i).finish();
+                    finished = true;
+                }
+            }
+            // Si ninguna esta lista, espera a la primera en lugar de seguir consultando
+            if (!finished) pending.remove(0).finish();
+        }
+    }
+
+    public T get(int features) {
+        T variant = variants.get(features);
+        if (variant == null) throw new IllegalArgumentException("Invalid shader variant " + features);
+        return variant;
+    }
+
+    public List<T> getAll() {
+        return all;
+    }
+
+    public void clean() {
+        for (T variant : all) variant.clean();
+    }
+
+}
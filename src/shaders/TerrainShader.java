@@ -2,6 +2,8 @@ package shaders;
 
 import entities.Camera;
 import entities.Light;
+import render.ClusteredLighting;
+import shadows.ShadowMapRenderer;
 import utils.Maths;
 
 import java.util.List;
@@ -13,6 +15,15 @@ import org.lwjgl.util.vector.Vector3f;
 public class TerrainShader extends ShaderProgram {
 
     private static final int MAX_LIGHTS = 4;
+    // Valores constantes que se cargan en cada pasada
+    private static final Vector3f CLUSTER_GRID = new Vector3f(ClusteredLighting.GRID_X, ClusteredLighting.GRID_Y, ClusteredLighting.GRID_Z);
+    private static final Vector3f ZERO = new Vector3f(0, 0, 0), NO_ATTENUATION = new Vector3f(1, 0, 0); // Luces vacias
+
+    // Caracteristicas de las variantes
+    public static final int CLIP_PLANE = 1, CLUSTERED_LIGHTING = 2, DEFERRED = 4, SHADOWS = 8, INDIRECT = 16;
+    public static final int FEATURES = 5;
+    // Atributo de la matriz de transformacion por instancia de la variante indirecta, que ocupa cuatro atributos seguidos
+    public static final int INSTANCE_MATRIX_ATTRIBUTE = 4;
 
     private static final String VERTEX_FILE = "src/shaders/terrainVertexShader.glsl";
     private static final String FRAGMENT_FILE = "src/shaders/terrainFragmentShader.glsl";
@@ -23,9 +34,38 @@ public class TerrainShader extends ShaderProgram {
     private int location_background, location_r, location_g, location_b, location_blendMap;
     private int location_plane;
     private int[] location_lightPosition, location_lightColour, location_attenuation;
+    private int location_lightCount;
+    private int location_lightData, location_lightIndices, location_lightGrid;
+    private int location_clusterGrid, location_screenSize, location_clusterNear, location_clusterFar;
+    private int location_shadowMap;
+    private int[] location_shadowMatrices, location_cascadeFar;
+    private final Matrix4f viewMatrix = new Matrix4f(); // Se reutiliza en cada frame
+    private final Vector3f skyColor = new Vector3f();
+
+    /**
+     * @param features mascara de bits con las caracteristicas de la variante.
+     */
+    public TerrainShader(int features) {
+        super(VERTEX_FILE, FRAGMENT_FILE, getDefines(features));
+    }
 
-    public TerrainShader() {
-        super(VERTEX_FILE, FRAGMENT_FILE);
+    private static String[] getDefines(int features) {
+        List<String> defines = getDefines(features, "CLIP_PLANE", "CLUSTERED_LIGHTING", "DEFERRED", "SHADOWS", "INDIRECT");
+        defines.add("MAX_LIGHTS " + MAX_LIGHTS);
+        defines.add("SHADOW_CASCADES " + ShadowMapRenderer.CASCADES);
+        return defines.toArray(new String[0]);
+    }
+
+    /**
+     * Indica si la combinacion de caracteristicas se usa (ver {@link EntityShader#isValid(int)}). A diferencia de las
+     * entidades, la variante indirecta sirve en todas las pasadas porque las luces del terreno se cargan una vez por pasada.
+     *
+     * @param features mascara de bits con las caracteristicas de la variante.
+     * @return true si hay que compilar la variante.
+     */
+    public static boolean isValid(int features) {
+        if ((features & DEFERRED) != 0 && (features & (CLIP_PLANE | CLUSTERED_LIGHTING | SHADOWS)) != 0) return false;
+        return (features & SHADOWS) == 0 || (features & CLIP_PLANE) == 0;
     }
 
     @Override
@@ -33,6 +73,7 @@ public class TerrainShader extends ShaderProgram {
         bindAttribute(0, "position");
         bindAttribute(1, "textureCoords");
         bindAttribute(2, "normal");
+        bindAttribute(INSTANCE_MATRIX_ATTRIBUTE, "instanceTransformation");
     }
 
     @Override
@@ -49,6 +90,23 @@ public class TerrainShader extends ShaderProgram {
         location_b = getUniformLocation("b");
         location_blendMap = getUniformLocation("blendMap");
         location_plane = getUniformLocation("plane");
+        location_lightCount = getUniformLocation("lightCount");
+        location_lightData = getUniformLocation("lightData");
+        location_lightIndices = getUniformLocation("lightIndices");
+        location_lightGrid = getUniformLocation("lightGrid");
+        location_clusterGrid = getUniformLocation("clusterGrid");
+        location_screenSize = getUniformLocation("screenSize");
+        location_clusterNear = getUniformLocation("clusterNear");
+        location_clusterFar = getUniformLocation("clusterFar");
+        location_shadowMap = getUniformLocation("shadowMap");
+
+        location_shadowMatrices = new int[ShadowMapRenderer.CASCADES];
+        location_cascadeFar = new int[ShadowMapRenderer.CASCADES];
+
+        for (int i = 0; i < ShadowMapRenderer.CASCADES; i++) {
+            location_shadowMatrices[i] = getUniformLocation("shadowMatrices[" + i + "]");
+            location_cascadeFar[i] = getUniformLocation("cascadeFar[" + i + "]");
+        }
 
         location_lightPosition = new int[MAX_LIGHTS];
         location_lightColour = new int[MAX_LIGHTS];
@@ -77,7 +135,7 @@ public class TerrainShader extends ShaderProgram {
      * @param camera camara.
      */
     public void loadViewMatrix(Camera camera) {
-        Matrix4f matrix = Maths.createViewMatrix(camera);
+        Matrix4f matrix = Maths.createViewMatrix(camera, viewMatrix);
         loadMatrix(location_viewMatrix, matrix);
     }
 
@@ -109,7 +167,8 @@ public class TerrainShader extends ShaderProgram {
      * @param b canal azul.
      */
     public void loadSkyColor(float r, float g, float b) {
-        loadVector(location_skyColor, new Vector3f(r, g, b));
+        skyColor.set(r, g, b);
+        loadVector(location_skyColor, skyColor);
     }
 
     /**
@@ -122,6 +181,36 @@ public class TerrainShader extends ShaderProgram {
         loadInt(location_g, 2);
         loadInt(location_b, 3);
         loadInt(location_blendMap, 4);
+        loadInt(location_lightData, ClusteredLighting.LIGHT_DATA_UNIT);
+        loadInt(location_lightIndices, ClusteredLighting.LIGHT_INDEX_UNIT);
+        loadInt(location_lightGrid, ClusteredLighting.LIGHT_GRID_UNIT);
+        loadInt(location_shadowMap, ShadowMapRenderer.SHADOW_UNIT);
+    }
+
+    /**
+     * Carga los parametros de la iluminacion clusterizada.
+     *
+     * @param width   ancho en pixeles del framebuffer en el que se renderiza.
+     * @param height  alto en pixeles del framebuffer en el que se renderiza.
+     * @param far     distancia hasta la que llegan las rebanadas de los clusters.
+     */
+    public void loadClusteredLighting(float width, float height, float far) {
+        loadVector(location_clusterGrid, CLUSTER_GRID);
+        load2DVector(location_screenSize, width, height);
+        loadFloat(location_clusterNear, ClusteredLighting.CLUSTER_NEAR);
+        loadFloat(location_clusterFar, far);
+    }
+
+    /**
+     * Carga las matrices y las distancias de las cascadas del mapa de sombras.
+     *
+     * @param shadows renderer del mapa de sombras.
+     */
+    public void loadShadows(ShadowMapRenderer shadows) {
+        for (int i = 0; i < ShadowMapRenderer.CASCADES; i++) {
+            loadMatrix(location_shadowMatrices[i], shadows.getShadowMatrix(i));
+            loadFloat(location_cascadeFar[i], shadows.getCascadeFar(i));
+        }
     }
 
     public void loadClipPlane(Vector4f plane) {
@@ -134,15 +223,16 @@ public class TerrainShader extends ShaderProgram {
      * @param lights fuentes de luz.
      */
     public void loadLights(List<Light> lights) {
+        loadInt(location_lightCount, Math.min(lights.size(), MAX_LIGHTS));
         for (int i = 0; i < MAX_LIGHTS; i++) {
             if (i < lights.size()) {
                 loadVector(location_lightPosition[i], lights.get(i).getPosition());
                 loadVector(location_lightColour[i], lights.get(i).getColour());
                 loadVector(location_attenuation[i], lights.get(i).getAttenuation());
             } else {
-                loadVector(location_lightPosition[i], new Vector3f(0, 0, 0));
-                loadVector(location_lightColour[i], new Vector3f(0, 0, 0));
-                loadVector(location_attenuation[i], new Vector3f(1, 0, 0));
+                loadVector(location_lightPosition[i], ZERO);
+                loadVector(location_lightColour[i], ZERO);
+                loadVector(location_attenuation[i], NO_ATTENUATION);
             }
         }
     }
@@ -0,0 +1,14 @@
+#version 400 core
+
+in vec2 pass_textureCoords;
+
+uniform sampler2D modelTexture;
+
+void main(void) {
+
+#ifdef ALPHA_TEST
+    // Las partes transparentes no escriben profundidad, igual que en el Fragment Shader de las entidades
+    if (texture(modelTexture, pass_textureCoords).a < 0.5) discard;
+#endif
+
+}
@@ -0,0 +1,41 @@
+#version 400 core
+
+in vec3 position;
+in vec2 textureCoords;
+#ifdef INDIRECT
+in mat4 instanceTransformation; // Matriz de la instancia, desde el baseInstance del comando de dibujo
+#endif
+
+out vec2 pass_textureCoords;
+
+uniform mat4 transformationMatrix, viewMatrix, projectionMatrix;
+uniform float numberOfRows;
+uniform vec2 offset;
+uniform vec4 plane;
+
+/*  La pasada de color prueba la profundidad contra la que escribe este shader, asi que la posicion se tiene que calcular
+    exactamente igual. Con invariant, el compilador no puede reordenar las operaciones de forma distinta en cada shader. */
+invariant gl_Position;
+
+void main(void) {
+
+#ifdef INDIRECT
+    vec4 worldPosition = instanceTransformation * vec4(position, 1.0);
+#else
+    vec4 worldPosition = transformationMatrix * vec4(position, 1.0);
+#endif
+
+#ifdef CLIP_PLANE
+    gl_ClipDistance[0] = dot(worldPosition, plane);
+#endif
+
+    vec4 positionRelativeToCam = viewMatrix * worldPosition;
+    gl_Position = projectionMatrix * positionRelativeToCam;
+
+#ifdef TEXTURE_ATLAS
+    pass_textureCoords = (textureCoords / numberOfRows) + offset;
+#else
+    pass_textureCoords = textureCoords;
+#endif
+
+}
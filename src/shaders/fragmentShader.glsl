@@ -2,67 +2,146 @@
 
 in vec2 pass_textureCoords;
 in vec3 surfaceNormal;
-in vec3 toLightVector[4];
+in vec3 toLightVector[MAX_LIGHTS];
 in vec3 toCameraVector;
 in float visibility;
+in vec3 pass_worldPosition;
+in float viewDepth; // Distancia en [z] desde la camara, para calcular la rebanada del cluster
 
 // La salida es el color del pixel que esta procesando actualmente y que sera un vector de 4 colores con su respectivo brillo y luz especular
+#ifdef DEFERRED
+// En la pasada de geometria del renderizado diferido, la salida son los datos de la superficie para el G-buffer
+layout(location = 0) out vec4 out_Color; // Albedo
+layout(location = 1) out vec4 out_Normal;
+layout(location = 2) out vec4 out_Material; // shineDamper y reflectividad
+#else
 out vec4 out_Color;
+#endif
 
 uniform sampler2D modelTexture;
-uniform vec3 lightColour[4], attenuation[4];
+uniform vec3 lightColour[MAX_LIGHTS], attenuation[MAX_LIGHTS];
 uniform float shineDamper, reflectivity;
 uniform vec3 skyColor;
+uniform int lightCount; // Cantidad de luces cargadas en las variables uniformes
+
+// Iluminacion clusterizada
+uniform samplerBuffer lightData; // Posicion y radio, color y atenuacion de cada luz
+uniform usamplerBuffer lightIndices, lightGrid; // Indices de luces de cada cluster, y desplazamiento y cantidad de cada cluster
+uniform vec3 clusterGrid; // Cantidad de clusters en [x], [y] y [z]
+uniform vec2 screenSize;
+uniform float clusterNear, clusterFar;
+
+// Sombras del sol
+uniform sampler2DArrayShadow shadowMap; // Una capa por cascada
+uniform mat4 shadowMatrices[SHADOW_CASCADES]; // Vista-proyeccion del sol de cada cascada
+uniform float cascadeFar[SHADOW_CASCADES]; // Distancia desde la camara a la que termina cada cascada
 
 const float levels = 3.0;
 
+vec3 totalDiffuse = vec3(0.0);
+vec3 totalSpecular = vec3(0.0);
+
+// Acumula la iluminacion difusa y especular de una fuente de luz
+void addLight(vec3 toLightVector, vec3 colour, vec3 lightAttenuation, vec3 unitNormal, vec3 unitVectorToCamera) {
+    float distance = length(toLightVector);
+    // Calcula el factor de atenuacion
+    float attFactor = lightAttenuation.x + (lightAttenuation.y * distance) + (lightAttenuation.z * distance * distance);
+    vec3 unitLightVector = normalize(toLightVector);
+/*  Calcula el producto escalar de los dos vectores normales. El resultado representa que tan correcto debe ser el pixel.
+    Lo que es importante tener en cuenta es que el producto escalar de dos vectores unitarios que apuntan exactamente en
+    la misma direccion es uno y el producto escalar de dos vectores perpendiculares que apuntan en direcciones totalmente
+    diferentes es 0 y todo lo demas esta en algun punto intermedio (0.6, 0.3, etc.). Esto nos da una representacion
+    perfecta de que tan similares son dos vectores y, por lo tanto, una representacion perfecta de que tan brillante debe
+    ser un cierto punto en el objeto. */
+    float nDotl = dot(unitNormal, unitLightVector);
+    // Se asegura de que el resultado se encuentre entre 0 y 1, porque a veces el producto escalar devolvera valores menores a 0
+    float brightness = max(nDotl, 0.0);
+    // float level = floor(brightness * levels); // Averigua en que nivel de sombreado se encuentra este valor de brillo
+    // brightness = level / levels; // Establece el brillo en el limite inferior de ese nivel
+    // CALCULA LA LUZ ESPECULAR DEL PIXEL
+    // Crea el vector con los puntos en la direccion de donde proviene la luz, esto es justo lo opuesto al vector que apunta hacia la luz, por lo tanto lo invierte
+    vec3 lightDirection = -unitLightVector;
+    // Esta funcion toma el vector de la luz entrante y la normal de la superficie con la que desea reflejar la luz, y devuelve la direccion de la luz reflejada
+    vec3 reflectedLightDirection = reflect(lightDirection, unitNormal);
+    // Indica que tan brillante debe ser la luz especular sin ninguna amortiguacion (shineDamper)
+    float specularFactor = dot(reflectedLightDirection, unitVectorToCamera);
+    // Se asegura de que el factor especular sea mayor que cero porque obviamente no podemos tener un brillo negativo
+    specularFactor = max(specularFactor, 0.0);
+/*  Aplica la amortiguacion elevando el factor especular a la potencia del valor de amortiguacion, lo que hace que
+    los factores especulares bajos sean aun mas bajos, pero no afecta tanto a los valores mas altos. */
+    float dampedFactor = pow(specularFactor, shineDamper);
+    // level = floor(dampedFactor * levels);
+    // dampedFactor = level / levels;
+    // Multiplica el brillo por el color de la luz actual para obtener la iluminacion final y acumularlo en totalDiffuse
+    totalDiffuse = totalDiffuse + (brightness * colour) / attFactor; // TODO No es mejor usar +=?
+    // Multiplica el factor amortiguado por la reflectividad por el color de la luz actual y lo acumula en totalSpecular
+    totalSpecular = totalSpecular + (dampedFactor * reflectivity * colour) / attFactor;
+}
+
+#ifdef SHADOWS
+/*  Devuelve la fraccion de la luz del sol que llega al pixel. Elige la cascada por la distancia a la camara, proyecta la
+    posicion mundial en el mapa de sombras y promedia la comparacion de profundidad de los 3x3 texels vecinos (PCF) para
+    suavizar el borde de la sombra. */
+float getShadow() {
+    if (viewDepth > cascadeFar[SHADOW_CASCADES - 1]) return 1.0;
+    int cascade = 0;
+    while (cascade < SHADOW_CASCADES - 1 && viewDepth > cascadeFar[cascade]) cascade++;
+    vec3 shadowCoords = (shadowMatrices[cascade] * vec4(pass_worldPosition, 1.0)).xyz * 0.5 + 0.5;
+    vec2 texelSize = 1.0 / vec2(textureSize(shadowMap, 0).xy);
+    float lit = 0.0;
+    for (int x = -1; x <= 1; x++)
+        for (int y = -1; y <= 1; y++)
+            lit += texture(shadowMap, vec4(shadowCoords.xy + vec2(x, y) * texelSize, cascade, shadowCoords.z - 0.0005));
+    return lit / 9.0;
+}
+#endif
+
 void main(void) {
 
+#ifdef DEFERRED
+    vec4 textureColor = texture(modelTexture, pass_textureCoords);
+    if (textureColor.a < 0.5) discard;
+    // La iluminacion se calcula despues una sola vez por pixel
+    out_Color = vec4(textureColor.rgb, 1.0);
+    out_Normal = vec4(normalize(surfaceNormal), 0.0);
+    out_Material = vec4(shineDamper, reflectivity, 0.0, 0.0);
+#else
+
 /*  Normaliza los dos vectores para asegurarse de que el tamanio de los dos vectores sea uno. Asi la direccion del
     vector permanece exactamente igual, de modo que solo importa la direccion y la magnitud del vector es irrelevante. */
     vec3 unitNormal = normalize(surfaceNormal);
     // Normaliza el vector de la camara para asegurarnos que el tamanio de este sea solo 1
     vec3 unitVectorToCamera = normalize(toCameraVector);
 
-    vec3 totalDiffuse = vec3(0.0);
-    vec3 totalSpecular = vec3(0.0);
-
-    // Calcula la iluminacion del pixel para cada una de las fuentes de luz
-    for (int i = 0; i < 4; i++) {
-        float distance = length(toLightVector[i]);
-        // Calcula el factor de atenuacion
-        float attFactor = attenuation[i].x + (attenuation[i].y * distance) + (attenuation[i].z * distance * distance);
-        vec3 unitLightVector = normalize(toLightVector[i]);
-    /*  Calcula el producto escalar de los dos vectores normales. El resultado representa que tan correcto debe ser el pixel.
-        Lo que es importante tener en cuenta es que el producto escalar de dos vectores unitarios que apuntan exactamente en
-        la misma direccion es uno y el producto escalar de dos vectores perpendiculares que apuntan en direcciones totalmente
-        diferentes es 0 y todo lo demas esta en algun punto intermedio (0.6, 0.3, etc.). Esto nos da una representacion
-        perfecta de que tan similares son dos vectores y, por lo tanto, una representacion perfecta de que tan brillante debe
-        ser un cierto punto en el objeto. */
-        float nDotl = dot(unitNormal, unitLightVector);
-        // Se asegura de que el resultado se encuentre entre 0 y 1, porque a veces el producto escalar devolvera valores menores a 0
-        float brightness = max(nDotl, 0.0);
-        // float level = floor(brightness * levels); // Averigua en que nivel de sombreado se encuentra este valor de brillo
-        // brightness = level / levels; // Establece el brillo en el limite inferior de ese nivel
-        // CALCULA LA LUZ ESPECULAR DEL PIXEL
-        // Crea el vector con los puntos en la direccion de donde proviene la luz, esto es justo lo opuesto al vector que apunta hacia la luz, por lo tanto lo invierte
-        vec3 lightDirection = -unitLightVector;
-        // Esta funcion toma el vector de la luz entrante y la normal de la superficie con la que desea reflejar la luz, y devuelve la direccion de la luz reflejada
-        vec3 reflectedLightDirection = reflect(lightDirection, unitNormal);
-        // Indica que tan brillante debe ser la luz especular sin ninguna amortiguacion (shineDamper)
-        float specularFactor = dot(reflectedLightDirection, unitVectorToCamera);
-        // Se asegura de que el factor especular sea mayor que cero porque obviamente no podemos tener un brillo negativo
-        specularFactor = max(specularFactor, 0.0);
-    /*  Aplica la amortiguacion elevando el factor especular a la potencia del valor de amortiguacion, lo que hace que
-        los factores especulares bajos sean aun mas bajos, pero no afecta tanto a los valores mas altos. */
-        float dampedFactor = pow(specularFactor, shineDamper);
-        // level = floor(dampedFactor * levels);
-        // dampedFactor = level / levels;
-        // Multiplica el brillo por el color de la luz actual (i) para obtener la iluminacion final y acumularlo en totalDiffuse
-        totalDiffuse = totalDiffuse + (brightness * lightColour[i]) / attFactor; // TODO No es mejor usar +=?
-        // Multiplica el factor amortiguado por la reflectividad por el color de la luz actual (i) y lo acumula en totalSpecular
-        totalSpecular = totalSpecular + (dampedFactor * reflectivity * lightColour[i]) / attFactor;
+#ifdef SHADOWS
+    // La primera luz cargada es el sol, que es la que proyecta las sombras
+    float shadow = getShadow();
+#else
+    float shadow = 1.0;
+#endif
+
+    // Calcula la iluminacion del pixel para cada una de las fuentes de luz cargadas en las variables uniformes
+    for (int i = 0; i < lightCount; i++) {
+        addLight(toLightVector[i], lightColour[i] * (i == 0 ? shadow : 1.0), attenuation[i], unitNormal, unitVectorToCamera);
+    }
+
+/*  Con la iluminacion clusterizada, busca el cluster que contiene al pixel a partir de su posicion en pantalla y de su
+    profundidad, y solo suma las luces locales asignadas a ese cluster. Las rebanadas en profundidad son exponenciales,
+    igual que en ClusteredLighting. */
+#ifdef CLUSTERED_LIGHTING
+    {
+        ivec2 tile = clamp(ivec2(gl_FragCoord.xy / screenSize * clusterGrid.xy), ivec2(0), ivec2(clusterGrid.xy) - 1);
+        int slice = viewDepth <= clusterNear ? 0 : int(log(viewDepth / clusterNear) / log(clusterFar / clusterNear) * clusterGrid.z);
+        slice = clamp(slice, 0, int(clusterGrid.z) - 1);
+        int cluster = tile.x + tile.y * int(clusterGrid.x) + slice * int(clusterGrid.x) * int(clusterGrid.y);
+        uvec2 offsetAndCount = texelFetch(lightGrid, cluster).xy;
+        for (uint i = 0u; i < offsetAndCount.y; i++) {
+            int light = int(texelFetch(lightIndices, int(offsetAndCount.x + i)).r) * 3;
+            vec3 toLight = texelFetch(lightData, light).xyz - pass_worldPosition;
+            addLight(toLight, texelFetch(lightData, light + 1).rgb, texelFetch(lightData, light + 2).rgb, unitNormal, unitVectorToCamera);
+        }
     }
+#endif
 
     // Se asegura que ninguna parte del modelo se oscurece por completo
     totalDiffuse = max(totalDiffuse, 0.2);
@@ -85,4 +164,5 @@ void main(void) {
     // Mezcla el color final con el color del cielo
     // out_Color = mix(vec4(skyColor, 1.0), out_Color, visibility);
 
+#endif
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+#version 400 core
+
+out vec4 out_Color;
+
+void main(void) {
+
+    // El color no se escribe (glColorMask), solo importa si algun fragmento pasa la prueba de profundidad
+    out_Color = vec4(1.0);
+
+}
@@ -0,0 +1,13 @@
+#version 400 core
+
+in vec3 position; // Vertice del cubo unitario entre [0,0,0] y [1,1,1]
+
+uniform mat4 viewMatrix, projectionMatrix;
+uniform vec3 boxMin, boxSize;
+
+void main(void) {
+
+    // Estira el cubo unitario hasta la caja que envuelve a las entidades de la celda
+    gl_Position = projectionMatrix * viewMatrix * vec4(boxMin + position * boxSize, 1.0);
+
+}
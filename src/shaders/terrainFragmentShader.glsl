@@ -1,8 +1,10 @@
 #version 400 core
 
 in vec2 pass_textureCoords;
-in vec3 surfaceNormal, toLightVector[4], toCameraVector;
+in vec3 surfaceNormal, toLightVector[MAX_LIGHTS], toCameraVector;
 in float visibility;
+in vec3 pass_worldPosition;
+in float viewDepth;
 
 /*  En OpenGL, se utiliza un mapa de mezcla (blendMap) para indicar la ubicacion de diferentes texturas en un terreno.
     Este mapa asigna colores a texturas especificas, como hierba (negro), tierra (rojo), flores (verde) y camino (azul).
@@ -12,11 +14,63 @@ in float visibility;
     para ajustar la proporcion de cada textura en el resultado final. */
 uniform sampler2D background, r, g, b, blendMap;
 
-uniform vec3 lightColour[4], attenuation[4];
+uniform vec3 lightColour[MAX_LIGHTS], attenuation[MAX_LIGHTS];
 uniform float shineDamper, reflectivity;
 uniform vec3 skyColor;
+uniform int lightCount;
 
+uniform samplerBuffer lightData;
+uniform usamplerBuffer lightIndices, lightGrid;
+uniform vec3 clusterGrid;
+uniform vec2 screenSize;
+uniform float clusterNear, clusterFar;
+
+uniform sampler2DArrayShadow shadowMap;
+uniform mat4 shadowMatrices[SHADOW_CASCADES];
+uniform float cascadeFar[SHADOW_CASCADES];
+
+#ifdef DEFERRED
+// En la pasada de geometria del renderizado diferido, la salida son los datos de la superficie para el G-buffer
+layout(location = 0) out vec4 out_Color; // Albedo
+layout(location = 1) out vec4 out_Normal;
+layout(location = 2) out vec4 out_Material; // shineDamper y reflectividad
+#else
 out vec4 out_Color;
+#endif
+
+vec3 totalDiffuse = vec3(0.0);
+vec3 totalSpecular = vec3(0.0);
+
+void addLight(vec3 toLightVector, vec3 colour, vec3 lightAttenuation, vec3 unitNormal, vec3 unitVectorToCamera) {
+    float distance = length(toLightVector);
+    float attFactor = lightAttenuation.x + (lightAttenuation.y * distance) + (lightAttenuation.z * distance * distance);
+    vec3 unitLightVector = normalize(toLightVector);
+    float nDotl = dot(unitNormal, unitLightVector);
+    float brightness = max(nDotl, 0.0);
+    vec3 lightDirection = -unitLightVector;
+    vec3 reflectedLightDirection = reflect(lightDirection, unitNormal);
+    float specularFactor = dot(reflectedLightDirection, unitVectorToCamera);
+    specularFactor = max(specularFactor, 0.0);
+    float dampedFactor = pow(specularFactor, shineDamper);
+    totalDiffuse = totalDiffuse + (brightness * colour) / attFactor;
+    totalSpecular = totalSpecular + (dampedFactor * reflectivity * colour) / attFactor;
+}
+
+#ifdef SHADOWS
+// Fraccion de la luz del sol que llega al pixel (ver fragmentShader.glsl)
+float getShadow() {
+    if (viewDepth > cascadeFar[SHADOW_CASCADES - 1]) return 1.0;
+    int cascade = 0;
+    while (cascade < SHADOW_CASCADES - 1 && viewDepth > cascadeFar[cascade]) cascade++;
+    vec3 shadowCoords = (shadowMatrices[cascade] * vec4(pass_worldPosition, 1.0)).xyz * 0.5 + 0.5;
+    vec2 texelSize = 1.0 / vec2(textureSize(shadowMap, 0).xy);
+    float lit = 0.0;
+    for (int x = -1; x <= 1; x++)
+        for (int y = -1; y <= 1; y++)
+            lit += texture(shadowMap, vec4(shadowCoords.xy + vec2(x, y) * texelSize, cascade, shadowCoords.z - 0.0005));
+    return lit / 9.0;
+}
+#endif
 
 void main(void) {
 
@@ -37,26 +91,39 @@ void main(void) {
     // Calcula el color total del terreno, que es una mezcla de los tres colores que ya hemos calculado dependiendo del color del blendMap
     vec4 totalColor = backgroundTextureColor + rTextureColor + gTextureColor + bTextureColor;
 
+#ifdef DEFERRED
+    out_Color = vec4(totalColor.rgb, 1.0);
+    out_Normal = vec4(normalize(surfaceNormal), 0.0);
+    out_Material = vec4(shineDamper, reflectivity, 0.0, 0.0);
+#else
     vec3 unitNormal = normalize(surfaceNormal);
     vec3 unitVectorToCamera = normalize(toCameraVector);
 
-    vec3 totalDiffuse = vec3(0.0);
-    vec3 totalSpecular = vec3(0.0);
-
-    for (int i = 0; i < 4; i++) {
-        float distance = length(toLightVector[i]);
-        float attFactor = attenuation[i].x + (attenuation[i].y * distance) + (attenuation[i].z * distance * distance);
-        vec3 unitLightVector = normalize(toLightVector[i]);
-        float nDotl = dot(unitNormal, unitLightVector);
-        float brightness = max(nDotl, 0.0);
-        vec3 lightDirection = -unitLightVector;
-        vec3 reflectedLightDirection = reflect(lightDirection, unitNormal);
-        float specularFactor = dot(reflectedLightDirection, unitVectorToCamera);
-        specularFactor = max(specularFactor, 0.0);
-        float dampedFactor = pow(specularFactor, shineDamper);
-        totalDiffuse = totalDiffuse + (brightness * lightColour[i]) / attFactor;
-        totalSpecular = totalSpecular + (dampedFactor * reflectivity * lightColour[i]) / attFactor;
+#ifdef SHADOWS
+    float shadow = getShadow();
+#else
+    float shadow = 1.0;
+#endif
+
+    for (int i = 0; i < lightCount; i++) {
+        addLight(toLightVector[i], lightColour[i] * (i == 0 ? shadow : 1.0), attenuation[i], unitNormal, unitVectorToCamera);
+    }
+
+    // Solo suma las luces locales del cluster que contiene al pixel (ver fragmentShader.glsl)
+#ifdef CLUSTERED_LIGHTING
+    {
+        ivec2 tile = clamp(ivec2(gl_FragCoord.xy / screenSize * clusterGrid.xy), ivec2(0), ivec2(clusterGrid.xy) - 1);
+        int slice = viewDepth <= clusterNear ? 0 : int(log(viewDepth / clusterNear) / log(clusterFar / clusterNear) * clusterGrid.z);
+        slice = clamp(slice, 0, int(clusterGrid.z) - 1);
+        int cluster = tile.x + tile.y * int(clusterGrid.x) + slice * int(clusterGrid.x) * int(clusterGrid.y);
+        uvec2 offsetAndCount = texelFetch(lightGrid, cluster).xy;
+        for (uint i = 0u; i < offsetAndCount.y; i++) {
+            int light = int(texelFetch(lightIndices, int(offsetAndCount.x + i)).r) * 3;
+            vec3 toLight = texelFetch(lightData, light).xyz - pass_worldPosition;
+            addLight(toLight, texelFetch(lightData, light + 1).rgb, texelFetch(lightData, light + 2).rgb, unitNormal, unitVectorToCamera);
+        }
     }
+#endif
 
     totalDiffuse = max(totalDiffuse, 0.2);
 
@@ -64,4 +131,5 @@ void main(void) {
 
     // Se comenta esta linea en caso de mantener la visibilidad del terreno y no se oscurezca cuando se aleja la camara
     // out_Color = mix(vec4(skyColor, 1.0), out_Color, visibility);
+#endif
 }
\ No newline at end of file
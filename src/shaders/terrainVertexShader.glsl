@@ -3,15 +3,22 @@
 in vec3 position;
 in vec2 textureCoords;
 in vec3 normal;
+#ifdef INDIRECT
+in mat4 instanceTransformation; // Matriz del terreno, desde el baseInstance del comando de dibujo
+#endif
 
 out vec2 pass_textureCoords;
 out vec3 surfaceNormal;
-out vec3 toLightVector[4];
+out vec3 toLightVector[MAX_LIGHTS];
 out vec3 toCameraVector;
 out float visibility;
+out vec3 pass_worldPosition;
+out float viewDepth;
 
 uniform mat4 transformationMatrix, viewMatrix, projectionMatrix;
-uniform vec3 lightPosition[4];
+uniform vec3 lightPosition[MAX_LIGHTS];
+
+invariant gl_Position;
 
 const float density = 0.0025;
 const float gradient = 5.0;
@@ -20,17 +27,27 @@ uniform vec4 plane;
 
 void main(void) {
 
-    vec4 worldPosition = transformationMatrix * vec4(position, 1.0);
+#ifdef INDIRECT
+    mat4 transformation = instanceTransformation;
+#else
+    mat4 transformation = transformationMatrix;
+#endif
+
+    vec4 worldPosition = transformation * vec4(position, 1.0);
 
+#ifdef CLIP_PLANE
     gl_ClipDistance[0] = dot(worldPosition, plane);
+#endif
 
     vec4 positionRelativeToCam = viewMatrix * worldPosition;
     gl_Position = projectionMatrix * positionRelativeToCam;
+    pass_worldPosition = worldPosition.xyz;
+    viewDepth = -positionRelativeToCam.z;
     pass_textureCoords = textureCoords;
 
-    surfaceNormal = (transformationMatrix * vec4(normal, 0.0)).xyz;
+    surfaceNormal = (transformation * vec4(normal, 0.0)).xyz;
 
-    for (int i = 0; i < 4; i++) {
+    for (int i = 0; i < MAX_LIGHTS; i++) {
         toLightVector[i] = lightPosition[i] - worldPosition.xyz;
     }
 
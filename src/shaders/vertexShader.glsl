@@ -4,53 +4,78 @@
 in vec3 position;
 in vec2 textureCoords;
 in vec3 normal;
+#ifdef INDIRECT
+in mat4 instanceTransformation; // Matriz de la instancia, desde el baseInstance del comando de dibujo
+in vec2 instanceOffset; // Desplazamiento del texture atlas de la instancia
+#endif
 
 out vec2 pass_textureCoords;
 out vec3 surfaceNormal; // Superficie normal del vector
-out vec3 toLightVector[4]; // Vector que apunta hacia la fuente de luz
+out vec3 toLightVector[MAX_LIGHTS]; // Vector que apunta hacia la fuente de luz
 out vec3 toCameraVector; // Vector que apunta hacia la camara
 out float visibility;
+out vec3 pass_worldPosition; // Posicion mundial del vertice para calcular el vector hacia las luces de los clusters
+out float viewDepth;
 
 uniform mat4 transformationMatrix, viewMatrix, projectionMatrix;
-uniform vec3 lightPosition[4];
-uniform float useFakeLighting; // El valor sera 0 si no debemos usar iluminacion falsa y 1 en caso contrario
+uniform vec3 lightPosition[MAX_LIGHTS];
 uniform float numberOfRows;
 uniform vec2 offset;
 uniform vec4 plane; // Crea un plano horizontal
 
+// Misma posicion que en la pasada previa de profundidad (ver depthVertexShader.glsl)
+invariant gl_Position;
+
 const float density = 0.0025; // Determina el espesor de la niebla, y aumentar este valor disminuye la visibilidad general de la escena
 const float gradient = 5.0; // Determina que tan rapido disminuye la visibilidad con la distancia, y aumentar este valor hace que la transicion de visibilidad total a visibilidad 0 sea mucho mas pequenia
 
 // Metodo principal que se ejecutara cada vez que este sombreador de vertices procese un vertice
 void main(void) {
 
+#ifdef INDIRECT
+    mat4 transformation = instanceTransformation;
+    vec2 textureOffset = instanceOffset;
+#else
+    mat4 transformation = transformationMatrix;
+    vec2 textureOffset = offset;
+#endif
+
     // Transforma la posicion de la entidad en el espacio mundial
-    vec4 worldPosition = transformationMatrix * vec4(position, 1.0);
+    vec4 worldPosition = transformation * vec4(position, 1.0);
 
+#ifdef CLIP_PLANE
     // Busca la distancia de cada vertice desde ese plano
     gl_ClipDistance[0] = dot(worldPosition, plane);
+#endif
 
     // Distancia del vertice a la camara
     vec4 positionRelativeToCam = viewMatrix * worldPosition;
     // Le dice a la GPU donde representar este vertice en la pantalla
     gl_Position = projectionMatrix * positionRelativeToCam;
+    pass_worldPosition = worldPosition.xyz;
+    viewDepth = -positionRelativeToCam.z;
     // Pasa (pass_) las coordendas de texturas al Fragment Shader
-    pass_textureCoords = (textureCoords / numberOfRows) + offset;
+#ifdef TEXTURE_ATLAS
+    pass_textureCoords = (textureCoords / numberOfRows) + textureOffset;
+#else
+    pass_textureCoords = textureCoords;
+#endif
 
+#ifdef FAKE_LIGHTING
+    // Con la iluminacion falsa, la normal apunta hacia arriba
+    vec3 actualNormal = vec3(0.0, 1.0, 0.0);
+#else
     vec3 actualNormal = normal;
-    if (useFakeLighting > 0.5) {
-        // Si la iluminacion falsa es mayor a 0.5, entonces la normal apunta hacia arriba
-        actualNormal = vec3(0.0, 1.0, 0.0);
-    }
+#endif
 
 /*  Podria pensar que la normal de la superficie deberia ser igual a la normal que obtenemos, pero no olvidemos que
     a veces vamos a rotar el modelo. Cuando tenemos la matriz de transformacion, va a rotar la entidad, por lo que
     la normal tambien tiene que rotarse porque cambiara su direccion si la entidad se gira. Asi que tenemos que hacer
     una matriz de transformacion multiplicada por la normal y tenemos que convertir la normal en un vector 4D para que
     pueda multiplicarse por la matriz 4x4 de transformacion. */
-    surfaceNormal = (transformationMatrix * vec4(actualNormal, 0.0)).xyz;
+    surfaceNormal = (transformation * vec4(actualNormal, 0.0)).xyz;
 
-    for (int i = 0; i < 4; i++) {
+    for (int i = 0; i < MAX_LIGHTS; i++) {
         // Calcula la diferencia entre la posicion de la luz y la posicion mundial del vertice, y como la posicion mundial es un vector 4D y solo necesitamos que sea 3D, entonces obtiene los componentes xyz
         toLightVector[i] = lightPosition[i] - worldPosition.xyz;
     }
@@ -0,0 +1,113 @@
+package shadows;
+
+import utils.Frustum;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector4f;
+
+/**
+ * Una cascada del mapa de sombras: la proyeccion ortografica desde el sol que cubre una rebanada del frustum de la camara.
+ * <p>
+ * La cascada envuelve a la esfera que contiene a su rebanada, de modo que su tamanio no cambia al girar la camara. El centro se
+ * ajusta en el espacio de la luz a pasos que son multiplos exactos del tamanio de un texel, asi que mientras la camara se mueve
+ * dentro de un paso la proyeccion es identica y la capa de los objetos estaticos se puede reutilizar. El cuadrado se agranda en
+ * un paso para que la esfera siga dentro aunque el centro quede corrido.
+ */
+
+class ShadowCascade {
+
+    private static final int SNAP_TEXELS = 128; // Texels de cada paso del centro
+    private static final float CASTER_RANGE = 100; // Distancia hacia el sol desde la que se incluyen los objetos que proyectan sombra
+
+    private final Matrix4f projectionMatrix = new Matrix4f();
+    private final Matrix4f lightViewProjection = new Matrix4f();
+    private final Frustum frustum = new Frustum();
+    private final Vector4f center = new Vector4f();
+    private final float far, centerDistance, halfSize, step;
+    private float x, y, z = Float.NaN; // Centro ajustado en el espacio de la luz
+    private boolean staticValid;
+
+    /**
+     * @param near             distancia de la camara a la que empieza la rebanada.
+     * @param far              distancia de la camara a la que termina la rebanada.
+     * @param projectionMatrix matriz de proyeccion de la camara.
+     * @param size             tamanio en texels del mapa de sombras.
+     */
+    ShadowCascade(float near, float far, Matrix4f projectionMatrix, int size) {
+        this.far = far;
+        // Cuadrado de la tangente de la mitad del FOV hacia la esquina del frustum
+        float k2 = 1 / (projectionMatrix.m00 * projectionMatrix.m00) + 1 / (projectionMatrix.m11 * projectionMatrix.m11);
+        // Centro de la esfera que pasa por las esquinas de los dos extremos de la rebanada, sin pasarse del extremo lejano
+        centerDistance = Math.min(far, (far + near) * (1 + k2) / 2);
+        float radius = (float) Math.sqrt(Math.max(sq(far - centerDistance) + far * far * k2, sq(centerDistance - near) + near * near * k2));
+        halfSize = radius / (1 - 2f * SNAP_TEXELS / size);
+        step = halfSize * 2 * SNAP_TEXELS / size;
+    }
+
+    /**
+     * Ubica la cascada en el centro de su rebanada. Si la proyeccion cambia, la capa de los objetos estaticos se tiene que volver
+     * a renderizar.
+     *
+     * @param lightView         matriz de vista del sol, sin traslacion.
+     * @param inverseCameraView inversa de la matriz de vista de la camara.
+     */
+    void update(Matrix4f lightView, Matrix4f inverseCameraView) {
+        center.set(0, 0, -centerDistance, 1);
+        Matrix4f.transform(inverseCameraView, center, center);
+        Matrix4f.transform(lightView, center, center);
+        float snappedX = snap(center.x), snappedY = snap(center.y), snappedZ = snap(center.z);
+        if (snappedX != x || snappedY != y || snappedZ != z) {
+            x = snappedX;
+            y = snappedY;
+            z = snappedZ;
+            // La camara de la luz mira hacia -z, asi que el sol esta hacia +z
+            setOrthographic(x - halfSize, x + halfSize, y - halfSize, y + halfSize, -(z + halfSize + CASTER_RANGE), -(z - halfSize));
+            staticValid = false;
+        }
+        Matrix4f.mul(projectionMatrix, lightView, lightViewProjection);
+        frustum.update(projectionMatrix, lightView);
+    }
+
+    private void setOrthographic(float left, float right, float bottom, float top, float near, float far) {
+        projectionMatrix.setIdentity();
+        projectionMatrix.m00 = 2 / (right - left);
+        projectionMatrix.m11 = 2 / (top - bottom);
+        projectionMatrix.m22 = -2 / (far - near);
+        projectionMatrix.m30 = -(right + left) / (right - left);
+        projectionMatrix.m31 = -(top + bottom) / (top - bottom);
+        projectionMatrix.m32 = -(far + near) / (far - near);
+    }
+
+    private float snap(float value) {
+        return (float) Math.floor(value / step) * step;
+    }
+
+    private static float sq(float value) {
+        return value * value;
+    }
+
+    void invalidate() {
+        staticValid = false;
+    }
+
+    boolean isStaticValid() {
+        return staticValid;
+    }
+
+    void setStaticValid() {
+        staticValid = true;
+    }
+
+    Matrix4f getLightViewProjection() {
+        return lightViewProjection;
+    }
+
+    Frustum getFrustum() {
+        return frustum;
+    }
+
+    float getFar() {
+        return far;
+    }
+
+}
@@ -0,0 +1,269 @@
+package shadows;
+
+import entities.Entity;
+import entities.Light;
+import models.TexturedModel;
+import render.DepthRenderer;
+import terrains.Terrain;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL14.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Sombras del sol con mapas de sombras en cascada (cascaded shadow maps).
+ * <p>
+ * El frustum de la camara se divide en {@link #CASCADES} rebanadas hasta {@link #SHADOW_DISTANCE}, mas finas cerca de la camara,
+ * y cada una tiene su propia proyeccion ortografica desde el sol en una capa de un arreglo de texturas de profundidad. Los
+ * objetos que proyectan sombra se descartan con el volumen de cada cascada.
+ * <p>
+ * El terreno y las entidades estaticas se renderizan a un segundo arreglo que funciona como cache, y solo se vuelven a
+ * renderizar cuando el sol se mueve o la cascada avanza un paso (ver {@link ShadowCascade}). En cada fotograma la capa de la
+ * cache se copia al mapa de sombras y encima se renderizan solo las entidades dinamicas, como el player.
+ */
+
+public class ShadowMapRenderer {
+
+    public static final int CASCADES = 3;
+    public static final int SHADOW_UNIT = 8; // Unidad de textura del mapa de sombras, despues de las de la iluminacion clusterizada
+
+    private static final int SHADOW_MAP_SIZE = 2048;
+    private static final float SHADOW_DISTANCE = 200; // Distancia desde la camara hasta la que hay sombras
+    private static final float SPLIT_LAMBDA = 0.75f; // Mezcla entre la division logaritmica (1) y la uniforme (0) de las rebanadas
+    private static final Vector4f NO_CLIP = new Vector4f(0, 0, 0, 0);
+
+    private final ShadowCascade[] cascades = new ShadowCascade[CASCADES];
+    private final int staticTexture, shadowTexture;
+    private final int[] staticFrameBuffers = new int[CASCADES], shadowFrameBuffers = new int[CASCADES];
+    // Las matrices de la cascada ya son la proyeccion completa, asi que la proyeccion del renderer es la identidad
+    private final DepthRenderer depthRenderer = new DepthRenderer(new Matrix4f());
+    private final Matrix4f lightView = new Matrix4f(), inverseCameraView = new Matrix4f();
+    private final Vector3f lightDirection = new Vector3f();
+    private final Vector3f lightForward = new Vector3f(), lightUp = new Vector3f(), lightRight = new Vector3f(); // Ejes de la vista del sol
+    private final Map<TexturedModel, List<Entity>> casters = new HashMap<>();
+    private final List<List<Entity>> freeBatches = new ArrayList<>(); // Listas de casters que se reutilizan para no generar basura
+    private final List<Terrain> terrainCasters = new ArrayList<>();
+    private final Vector3f terrainMin = new Vector3f(), terrainMax = new Vector3f();
+
+    /**
+     * @param projectionMatrix matriz de proyeccion de la camara.
+     * @param nearPlane        plano cercano de la camara.
+     */
+    public ShadowMapRenderer(Matrix4f projectionMatrix, float nearPlane) {
+        float near = nearPlane;
+        for (int i = 0; i < CASCADES; i++) {
+            // Division practica: mezcla de la division logaritmica y la uniforme
+            float fraction = (float) (i + 1) / CASCADES;
+            float logarithmic = nearPlane * (float) Math.pow(SHADOW_DISTANCE / nearPlane, fraction);
+            float uniform = nearPlane + (SHADOW_DISTANCE - nearPlane) * fraction;
+            float far = SPLIT_LAMBDA * logarithmic + (1 - SPLIT_LAMBDA) * uniform;
+            cascades[i] = new ShadowCascade(near, far, projectionMatrix, SHADOW_MAP_SIZE);
+            near = far;
+        }
+        staticTexture = createDepthTextureArray(false);
+        shadowTexture = createDepthTextureArray(true);
+        for (int i = 0; i < CASCADES; i++) {
+            staticFrameBuffers[i] = createFrameBuffer(staticTexture, i);
+            shadowFrameBuffers[i] = createFrameBuffer(shadowTexture, i);
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Renderiza el mapa de sombras de cada cascada y vuelve al framebuffer por defecto.
+     *
+     * @param entities   entidades de la escena.
+     * @param terrains   terrenos de la escena.
+     * @param sun        luz sin atenuacion que proyecta las sombras.
+     * @param viewMatrix matriz de vista de la camara.
+     */
+    public void render(List<Entity> entities, List<Terrain> terrains, Light sun, Matrix4f viewMatrix) {
+        updateLightView(sun.getPosition());
+        Matrix4f.invert(viewMatrix, inverseCameraView);
+        glViewport(0, 0, SHADOW_MAP_SIZE, SHADOW_MAP_SIZE);
+        glEnable(GL_DEPTH_TEST);
+        // Aleja la profundidad de los objetos para que las superficies iluminadas no se sombreen a si mismas (shadow acne)
+        glEnable(GL_POLYGON_OFFSET_FILL);
+        glPolygonOffset(2, 4);
+        for (int i = 0; i < CASCADES; i++) {
+            ShadowCascade cascade = cascades[i];
+            cascade.update(lightView, inverseCameraView);
+            if (!cascade.isStaticValid()) {
+                glBindFramebuffer(GL_FRAMEBUFFER, staticFrameBuffers[i]);
+                glClear(GL_DEPTH_BUFFER_BIT);
+                terrainCasters.clear();
+                for (Terrain terrain : terrains) {
+                    terrainMin.set(terrain.getX(), -Terrain.MAX_HEIGHT, terrain.getZ());
+                    terrainMax.set(terrain.getX() + Terrain.SIZE, Terrain.MAX_HEIGHT, terrain.getZ() + Terrain.SIZE);
+                    if (cascade.getFrustum().intersectsBox(terrainMin, terrainMax)) terrainCasters.add(terrain);
+                }
+                depthRenderer.renderTerrains(terrainCasters, cascade.getLightViewProjection(), NO_CLIP);
+                renderEntities(entities, cascade, false);
+                cascade.setStaticValid();
+            }
+            // Copia la cache de los objetos estaticos y agrega las entidades dinamicas
+            glBindFramebuffer(GL_READ_FRAMEBUFFER, staticFrameBuffers[i]);
+            glBindFramebuffer(GL_DRAW_FRAMEBUFFER, shadowFrameBuffers[i]);
+            glBlitFramebuffer(0, 0, SHADOW_MAP_SIZE, SHADOW_MAP_SIZE, 0, 0, SHADOW_MAP_SIZE, SHADOW_MAP_SIZE, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+            glBindFramebuffer(GL_FRAMEBUFFER, shadowFrameBuffers[i]);
+            renderEntities(entities, cascade, true);
+        }
+        glDisable(GL_POLYGON_OFFSET_FILL);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glViewport(0, 0, Display.getWidth(), Display.getHeight());
+    }
+
+    /**
+     * Renderiza las entidades estaticas o dinamicas que estan dentro del volumen de la cascada.
+     */
+    private void renderEntities(List<Entity> entities, ShadowCascade cascade, boolean dynamic) {
+        for (List<Entity> batch : casters.values()) {
+            batch.clear();
+            freeBatches.add(batch);
+        }
+        casters.clear();
+        for (Entity entity : entities) {
+            if (entity.isDynamic() != dynamic || !isInsideCascade(entity, cascade)) continue;
+            List<Entity> batch = casters.get(entity.getModel());
+            if (batch == null) {
+                batch = freeBatches.isEmpty() ? new ArrayList<>() : freeBatches.remove(freeBatches.size() - 1);
+                casters.put(entity.getModel(), batch);
+            }
+            batch.add(entity);
+        }
+        if (!casters.isEmpty()) depthRenderer.renderEntities(casters, cascade.getLightViewProjection(), NO_CLIP);
+    }
+
+    private static boolean isInsideCascade(Entity entity, ShadowCascade cascade) {
+        float radius = entity.getModel().getBoundingRadius();
+        if (radius <= 0) return true;
+        Vector3f scale = entity.getScale();
+        return cascade.getFrustum().intersectsSphere(entity.getPosition(), radius * Math.max(scale.x, Math.max(scale.y, scale.z)));
+    }
+
+    /**
+     * Calcula la matriz de vista del sol, que mira en la direccion de sus rayos desde el origen. Sin traslacion, la posicion de
+     * la cascada en el espacio de la luz solo depende de la camara. Si el sol se movio, las capas estaticas dejan de servir.
+     */
+    private void updateLightView(Vector3f sunPosition) {
+        Vector3f forward = lightForward, up = lightUp, right = lightRight;
+        forward.set(-sunPosition.x, -sunPosition.y, -sunPosition.z);
+        forward.normalise();
+        if (forward.equals(lightDirection)) return;
+        lightDirection.set(forward);
+        invalidate();
+        if (Math.abs(forward.y) > 0.99f) up.set(0, 0, 1);
+        else up.set(0, 1, 0);
+        Vector3f.cross(forward, up, right);
+        right.normalise();
+        Vector3f.cross(right, forward, up);
+        lightView.setIdentity();
+        lightView.m00 = right.x;
+        lightView.m10 = right.y;
+        lightView.m20 = right.z;
+        lightView.m01 = up.x;
+        lightView.m11 = up.y;
+        lightView.m21 = up.z;
+        lightView.m02 = -forward.x;
+        lightView.m12 = -forward.y;
+        lightView.m22 = -forward.z;
+    }
+
+    /**
+     * Vincula el mapa de sombras a {@link #SHADOW_UNIT} para los shaders que reciben sombras.
+     */
+    public void bindShadowMap() {
+        glActiveTexture(GL_TEXTURE0 + SHADOW_UNIT);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, shadowTexture);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    /**
+     * Descarta la cache de los objetos estaticos. Se tiene que llamar si se agregan, quitan o mueven entidades estaticas.
+     */
+    public void invalidate() {
+        for (ShadowCascade cascade : cascades) cascade.invalidate();
+    }
+
+    /**
+     * Devuelve la matriz que transforma una posicion mundial al espacio de recorte de la cascada.
+     *
+     * @param cascade indice de la cascada.
+     * @return la matriz de vista-proyeccion de la cascada.
+     */
+    public Matrix4f getShadowMatrix(int cascade) {
+        return cascades[cascade].getLightViewProjection();
+    }
+
+    /**
+     * Devuelve la distancia desde la camara a la que termina la cascada.
+     *
+     * @param cascade indice de la cascada.
+     * @return la distancia en [z] del extremo lejano de la rebanada.
+     */
+    public float getCascadeFar(int cascade) {
+        return cascades[cascade].getFar();
+    }
+
+    /**
+     * Crea un arreglo de texturas de profundidad con una capa por cascada.
+     *
+     * @param compare true para que el shader compare la profundidad al muestrear (sampler2DArrayShadow).
+     * @return el id de la textura.
+     */
+    private static int createDepthTextureArray(boolean compare) {
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D_ARRAY, id);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT24, SHADOW_MAP_SIZE, SHADOW_MAP_SIZE, CASCADES, 0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        int filter = compare ? GL_LINEAR : GL_NEAREST; // Con la comparacion, el filtro lineal promedia el resultado de cuatro texels
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, filter);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, filter);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        if (compare) {
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+        }
+        glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+        return id;
+    }
+
+    /**
+     * Crea un framebuffer que solo tiene una capa del arreglo como buffer de profundidad.
+     */
+    private static int createFrameBuffer(int texture, int layer) {
+        int id = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, id);
+        glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, texture, 0, layer);
+        // Sin colores adjuntos
+        glDrawBuffer(GL_NONE);
+        glReadBuffer(GL_NONE);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+            throw new RuntimeException("Could not create the shadow map framebuffer");
+        return id;
+    }
+
+    public void clean() {
+        for (int i = 0; i < CASCADES; i++) {
+            glDeleteFramebuffers(staticFrameBuffers[i]);
+            glDeleteFramebuffers(shadowFrameBuffers[i]);
+        }
+        glDeleteTextures(staticTexture);
+        glDeleteTextures(shadowTexture);
+        depthRenderer.clean();
+    }
+
+}
@@ -12,6 +12,14 @@ import static org.lwjgl.opengl.GL13.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 
+/**
+ * Renderiza el skybox despues de la escena, en el plano lejano, para que solo se sombreen los pixeles que no cubre ningun
+ * objeto.
+ * <p>
+ * Los cube maps se cargan recien la primera vez que se usan: el de la noche solo hace falta con el ciclo de dia y noche, a
+ * partir de la franja horaria en la que aparece. Las caras se reducen al tamanio indicado en el constructor.
+ */
+
 public class SkyboxRenderer {
 
     private static final float SIZE = 500f;
@@ -67,18 +75,27 @@ public class SkyboxRenderer {
     private static final String[] NIGHT_TEXTURE_FILES = {skybox_dir + "night_right", skybox_dir + "night_left", skybox_dir + "night_top", skybox_dir + "night_bottom", skybox_dir + "night_back", skybox_dir + "night_front"};
 
     private final RawModel cube;
-    private final int dayTexture;
-    private final int nightTexture;
+    private final Loader loader;
+    private final int cubeMapSize;
+    private int dayTexture; // 0 hasta que se carga
+    private int nightTexture; // 0 hasta que se carga
     private final SkyboxShader shader;
     private float time;
+    private boolean dayNightCycle;
+    private int texture1, texture2; // Cube maps que se mezclan en el frame actual
+    private float blendFactor;
 
-    public SkyboxRenderer(Loader loader, Matrix4f projectionMatrix) {
+    /**
+     * @param loader           cargador del cubo y de los cube maps.
+     * @param projectionMatrix matriz de proyeccion de la camara.
+     * @param cubeMapSize      tamanio maximo en pixeles de las caras de los cube maps.
+     */
+    public SkyboxRenderer(Loader loader, Matrix4f projectionMatrix, int cubeMapSize) {
+        this.loader = loader;
+        this.cubeMapSize = cubeMapSize;
         /* Carga los vertices del SkyBox en el VAO y lo alamacena el modelo en crudo. Luego ese modelo en crudo se utiliza para
          * enlazar el VAO al contexto de renderizado actual a travez del ID. */
         cube = loader.loadToVAO(VERTICES, 3);
-        // Carga las texturas que forman al skybox
-        dayTexture = loader.loadCubeMap(DAY_TEXTURE_FILES);
-        nightTexture = loader.loadCubeMap(NIGHT_TEXTURE_FILES);
         shader = new SkyboxShader(); // Crea el programa shader para el skybox
         shader.start(); // Inicia el programa del shader
         shader.connectTextureUnits();
@@ -99,7 +116,12 @@ public class SkyboxRenderer {
         glBindVertexArray(cube.getID());
         glEnableVertexAttribArray(0);
         bindTextures();
+        // El skybox queda en el plano lejano, asi que pasa la prueba de profundidad solo donde no se dibujo nada
+        glDepthFunc(GL_LEQUAL);
+        glDepthMask(false);
         glDrawArrays(GL_TRIANGLES, 0, cube.getVertexCount());
+        glDepthMask(true);
+        glDepthFunc(GL_LESS);
         glDisableVertexAttribArray(0);
         glBindVertexArray(0);
         shader.stop();
@@ -108,23 +130,22 @@ public class SkyboxRenderer {
     private void bindTextures() {
         time += DisplayManager.getFrameTimeSeconds() * 1000;
         time %= 24000; // Si es mayor que 24000 vuelve a 0
-        int texture1, texture2;
-        float blendFactor;
+        // Sin el ciclo de dia y noche las franjas de la noche tambien usan el cielo de dia
         if (time >= 0 && time < 5000) {
-            texture1 = dayTexture; // n
-            texture2 = dayTexture; // n
+            texture1 = getTexture(dayNightCycle);
+            texture2 = getTexture(dayNightCycle);
             blendFactor = (time - 0) / 5000;
         } else if (time >= 5000 && time < 8000) {
-            texture1 = dayTexture; // n
-            texture2 = dayTexture;
+            texture1 = getTexture(dayNightCycle);
+            texture2 = getTexture(false);
             blendFactor = (time - 5000) / (8000 - 5000);
         } else if (time >= 8000 && time < 21000) {
-            texture1 = dayTexture;
-            texture2 = dayTexture;
+            texture1 = getTexture(false);
+            texture2 = getTexture(false);
             blendFactor = (time - 8000) / (21000 - 8000);
         } else {
-            texture1 = dayTexture;
-            texture2 = dayTexture; // n
+            texture1 = getTexture(false);
+            texture2 = getTexture(dayNightCycle);
             blendFactor = (time - 21000) / (24000 - 21000);
         }
 
@@ -135,4 +156,41 @@ public class SkyboxRenderer {
         shader.loadBlendFactor(blendFactor);
     }
 
+    /**
+     * Devuelve el cube map del dia o de la noche, cargandolo si todavia no se uso.
+     */
+    private int getTexture(boolean night) {
+        if (night) {
+            if (nightTexture == 0) nightTexture = loader.loadCubeMap(NIGHT_TEXTURE_FILES, cubeMapSize);
+            return nightTexture;
+        }
+        if (dayTexture == 0) dayTexture = loader.loadCubeMap(DAY_TEXTURE_FILES, cubeMapSize);
+        return dayTexture;
+    }
+
+    /**
+     * Devuelve el cube map que predomina en el frame actual, para los reflejos del cielo.
+     */
+    public int getCubeMap() {
+        if (texture1 == 0) return getTexture(false);
+        return blendFactor < 0.5f ? texture1 : texture2;
+    }
+
+    /**
+     * Activa el ciclo de dia y noche, que mezcla el cielo de dia con el de la noche. El cube map de la noche se carga recien
+     * cuando empieza la primera franja horaria que lo usa.
+     *
+     * @param dayNightCycle true para mezclar el cielo de la noche.
+     */
+    public void setDayNightCycle(boolean dayNightCycle) {
+        this.dayNightCycle = dayNightCycle;
+    }
+
+    /**
+     * Devuelve el angulo en grados que el skybox esta girado sobre el eje [y].
+     */
+    public float getRotation() {
+        return shader.getRotation();
+    }
+
 }
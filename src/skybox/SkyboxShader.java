@@ -17,6 +17,9 @@ public class SkyboxShader extends ShaderProgram {
     private int location_fogColour;
     private int location_cubeMap, location_cubeMap2;
     private int location_blendFactor;
+    private final Matrix4f viewMatrix = new Matrix4f(); // Se reutiliza en cada frame
+    private final Vector3f fogColour = new Vector3f();
+    private static final Vector3f Y_AXIS = new Vector3f(0, 1, 0);
 
     private float rotation;
 
@@ -44,7 +47,7 @@ public class SkyboxShader extends ShaderProgram {
     }
 
     public void loadViewMatrix(Camera camera) {
-        Matrix4f matrix = Maths.createViewMatrix(camera);
+        Matrix4f matrix = Maths.createViewMatrix(camera, viewMatrix);
         /* La ultima columa de la matriz determina la traslacion, asi que al configurar esa traslacion en 0, la matriz de vista no
          * hara que el skybox se mueva en relacion con la camara. */
         matrix.m30 = 0;
@@ -53,12 +56,13 @@ public class SkyboxShader extends ShaderProgram {
         float ROTATE_SPEED = 1;
         rotation += ROTATE_SPEED * DisplayManager.getFrameTimeSeconds();
         // Rota la matriz en el eje y usando el valor de rotacion calculado
-        Matrix4f.rotate((float) Math.toRadians(rotation), new Vector3f(0, 1, 0), matrix, matrix);
+        Matrix4f.rotate((float) Math.toRadians(rotation), Y_AXIS, matrix, matrix);
         loadMatrix(location_viewMatrix, matrix);
     }
 
     public void loadFogColour(float r, float g, float b) {
-        loadVector(location_fogColour, new Vector3f(r, g, b));
+        fogColour.set(r, g, b);
+        loadVector(location_fogColour, fogColour);
     }
 
     public void loadBlendFactor(float blend) {
@@ -70,4 +74,11 @@ public class SkyboxShader extends ShaderProgram {
         loadInt(location_cubeMap2, 1);
     }
 
+    /**
+     * Devuelve el angulo en grados que el skybox esta girado sobre el eje [y].
+     */
+    public float getRotation() {
+        return rotation;
+    }
+
 }
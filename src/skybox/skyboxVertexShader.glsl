@@ -9,7 +9,10 @@ uniform mat4 viewMatrix, projectionMatrix;
 void main(void) {
 /* 	Como la posicion es un vector 3D entonces necesita agregarle un componente mas (1.0 como el componente w) para
 	que se pueda multiplicar por la matriz de proyeccion y la matriz de vista. */
-    gl_Position = projectionMatrix * viewMatrix * vec4(position, 1.0);
+    vec4 clipPosition = projectionMatrix * viewMatrix * vec4(position, 1.0);
+    /*  Usa w como z para que despues de la division de perspectiva la profundidad quede en el plano lejano. Asi el skybox
+        se dibuja al final con GL_LEQUAL y solo se sombrean los pixeles que la escena dejo sin cubrir. */
+    gl_Position = clipPosition.xyww;
     textureCoords = position;
 }
 
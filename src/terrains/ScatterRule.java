@@ -0,0 +1,105 @@
+package terrains;
+
+import models.TexturedModel;
+
+/**
+ * Regla de distribucion de un modelo sobre el terreno para {@link VegetationScatter}. La densidad se multiplica por el peso
+ * que el blend map le da a la textura del pack en cada punto, asi que por ejemplo las flores solo aparecen donde el terreno
+ * usa la textura de pasto con flores.
+ */
+
+public class ScatterRule {
+
+    /**
+     * Canal del blend map que corresponde a cada textura del {@link textures.TerrainTexturePack}. El fondo es lo que queda
+     * cuando los otros tres canales no suman uno.
+     */
+    public enum Channel {
+        BACKGROUND, R, G, B
+    }
+
+    private final TexturedModel model;
+    private final Channel channel;
+    private final float density; // Ejemplares por unidad cuadrada donde el canal tiene peso 1
+    private final float minSpacing; // Distancia minima entre dos ejemplares de la regla (Poisson disk)
+    private float minHeight = -Float.MAX_VALUE, maxHeight = Float.MAX_VALUE;
+    private float maxSlope = 90; // Pendiente maxima en grados
+    private float minScale = 1, maxScale = 1;
+    private int textureCount = 1; // Cantidad de texturas del texture atlas entre las que se elige al azar
+
+    /**
+     * @param model      modelo de los ejemplares.
+     * @param channel    canal del blend map que controla la densidad.
+     * @param density    ejemplares por unidad cuadrada donde el canal tiene peso 1.
+     * @param minSpacing distancia minima entre dos ejemplares de la regla.
+     */
+    public ScatterRule(TexturedModel model, Channel channel, float density, float minSpacing) {
+        this.model = model;
+        this.channel = channel;
+        this.density = density;
+        this.minSpacing = minSpacing;
+    }
+
+    public ScatterRule setHeightRange(float minHeight, float maxHeight) {
+        this.minHeight = minHeight;
+        this.maxHeight = maxHeight;
+        return this;
+    }
+
+    public ScatterRule setMaxSlope(float maxSlope) {
+        this.maxSlope = maxSlope;
+        return this;
+    }
+
+    public ScatterRule setScaleRange(float minScale, float maxScale) {
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        return this;
+    }
+
+    public ScatterRule setTextureCount(int textureCount) {
+        this.textureCount = textureCount;
+        return this;
+    }
+
+    public TexturedModel getModel() {
+        return model;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public float getDensity() {
+        return density;
+    }
+
+    public float getMinSpacing() {
+        return minSpacing;
+    }
+
+    public float getMinHeight() {
+        return minHeight;
+    }
+
+    public float getMaxHeight() {
+        return maxHeight;
+    }
+
+    public float getMaxSlope() {
+        return maxSlope;
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    public float getMaxScale() {
+        return maxScale;
+    }
+
+    public int getTextureCount() {
+        return textureCount;
+    }
+
+}
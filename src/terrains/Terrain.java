@@ -11,7 +11,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
-import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 
 /**
@@ -26,7 +25,7 @@ import org.lwjgl.util.vector.Vector3f;
 public class Terrain {
 
     public static final float SIZE = 150; // Tamaño del terreno
-    private static final float MAX_HEIGHT = 40; // Altura maxima del terreno
+    public static final float MAX_HEIGHT = 40; // Altura maxima del terreno
     private static final float MAX_PIXEL_COLOUR = 256 * 256 * 256; // Color maximo de pixeles
 
     private final float x, z;
@@ -86,17 +85,40 @@ public class Terrain {
          * lo que necesitamos ahora es encontrar la altura del triangulo en la posicion [x,z] del player. Una forma de hacerlo es
          * la interpolacion centrada en bary. */
         if (xCoord <= (1 - zCoord)) {
-            answer = Maths.barryCentric(new Vector3f(0, heights[gridX][gridZ], 0), new Vector3f(1,
-                    heights[gridX + 1][gridZ], 0), new Vector3f(0,
-                    heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
+            answer = Maths.barryCentric(0, heights[gridX][gridZ], 0, 1,
+                    heights[gridX + 1][gridZ], 0, 0,
+                    heights[gridX][gridZ + 1], 1, xCoord, zCoord);
         } else {
-            answer = Maths.barryCentric(new Vector3f(1, heights[gridX + 1][gridZ], 0), new Vector3f(1,
-                    heights[gridX + 1][gridZ + 1], 1), new Vector3f(0,
-                    heights[gridX][gridZ + 1], 1), new Vector2f(xCoord, zCoord));
+            answer = Maths.barryCentric(1, heights[gridX + 1][gridZ], 0, 1,
+                    heights[gridX + 1][gridZ + 1], 1, 0,
+                    heights[gridX][gridZ + 1], 1, xCoord, zCoord);
         }
         return answer;
     }
 
+    /**
+     * Busca la altura mas baja de los vertices del terreno dentro de un rectangulo, incluyendo los vertices del borde.
+     *
+     * @param minX coordenada [x] minima del rectangulo en el mundo.
+     * @param minZ coordenada [z] minima del rectangulo en el mundo.
+     * @param maxX coordenada [x] maxima del rectangulo en el mundo.
+     * @param maxZ coordenada [z] maxima del rectangulo en el mundo.
+     * @return la altura mas baja o infinito si el rectangulo no toca el terreno.
+     */
+    public float getMinHeight(float minX, float minZ, float maxX, float maxZ) {
+        float gridSquareSize = SIZE / ((float) heights.length - 1);
+        int last = heights.length - 1;
+        int x0 = Math.max(0, (int) Math.floor((minX - x) / gridSquareSize));
+        int z0 = Math.max(0, (int) Math.floor((minZ - z) / gridSquareSize));
+        int x1 = Math.min(last, (int) Math.ceil((maxX - x) / gridSquareSize));
+        int z1 = Math.min(last, (int) Math.ceil((maxZ - z) / gridSquareSize));
+        float min = Float.POSITIVE_INFINITY;
+        for (int i = x0; i <= x1; i++)
+            for (int j = z0; j <= z1; j++)
+                min = Math.min(min, heights[i][j]);
+        return min;
+    }
+
     /**
      * Genera un terreno a partir del heightmap.
      */
@@ -0,0 +1,373 @@
+package terrains;
+
+import converter.ModelData;
+import entities.Entity;
+import entities.SceneNode;
+import entities.StaticBatch;
+import models.TexturedModel;
+import render.Loader;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Distribuye vegetacion sobre el terreno siguiendo {@link ScatterRule reglas} de densidad por canal del blend map, rango de
+ * altura, pendiente maxima y distancia minima entre ejemplares.
+ * <p>
+ * El terreno se divide en celdas que se generan en hilos aparte a medida que la camara se acerca y se descartan cuando se
+ * aleja, asi que no hay una pausa al cargar la escena aunque el terreno tenga decenas de miles de ejemplares. Cada celda usa
+ * su propia semilla, calculada a partir de la semilla global y de su posicion, por lo que el resultado es siempre el mismo sin
+ * importar en que orden o en que hilo se genere cada celda.
+ * <p>
+ * La distancia minima se respeta con muestreo de disco de Poisson por lanzamiento de dardos: cada candidato se descarta si
+ * queda demasiado cerca de uno ya aceptado, de esta o de cualquier otra regla, asi que por ejemplo un helecho no aparece
+ * dentro de un pino. Los ejemplares aceptados se guardan en una grilla de fondo con celdas de lado igual a la menor distancia
+ * minima dividida por raiz de dos, donde entra a lo sumo un ejemplar por celda, y cada candidato solo se compara con los de
+ * las celdas que alcanza su distancia. Los candidatos se mantienen a media distancia minima del borde de la celda, asi que
+ * tampoco quedan demasiado cerca de los ejemplares de las celdas vecinas.
+ * <p>
+ * Cada celda generada es un nodo del {@link SceneNode grafo de escena}, que la descarta entera si esta fuera del frustum. Con
+ * {@link #setStaticBatching(Loader, Map)} los ejemplares de la celda se combinan en {@link StaticBatch lotes estaticos} en el
+ * hilo de renderizado cuando la celda termina de generarse, y las mallas se liberan cuando la celda se descarta.
+ */
+
+public class VegetationScatter {
+
+    private final Terrain terrain;
+    private final long seed;
+    private final float cellSize, loadDistance;
+    private final int columns;
+    private final List<ScatterRule> rules = new ArrayList<>();
+    private final SceneNode root;
+
+    // Canales del blend map en el rango [0, 1], fila por fila
+    private final float[] red, green, blue;
+    private final int blendWidth, blendHeight;
+
+    // Cargador y mallas de los modelos para combinar cada celda, o null si los ejemplares se renderizan por separado
+    private Loader loader;
+    private Map<TexturedModel, ModelData> modelData;
+
+    private final ExecutorService executor;
+    private final Map<Integer, Future<List<Entity>>> pending = new HashMap<>();
+    private final Map<Integer, SceneNode> loaded = new HashMap<>();
+
+    /**
+     * @param terrain      terreno sobre el que se distribuye la vegetacion.
+     * @param blendMap     nombre del archivo del blend map del terreno.
+     * @param seed         semilla de la distribucion.
+     * @param cellSize     tamanio de cada celda.
+     * @param loadDistance distancia desde la camara hasta la que se generan las celdas.
+     * @param root         nodo del grafo de escena del que cuelgan las celdas generadas.
+     */
+    public VegetationScatter(Terrain terrain, String blendMap, long seed, float cellSize, float loadDistance, SceneNode root) {
+        this.terrain = terrain;
+        this.seed = seed;
+        this.cellSize = cellSize;
+        this.loadDistance = loadDistance;
+        this.root = root;
+        columns = (int) Math.ceil(Terrain.SIZE / cellSize);
+
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new File("res/" + blendMap + ".png"));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load blend map " + blendMap, e);
+        }
+        blendWidth = image.getWidth();
+        blendHeight = image.getHeight();
+        red = new float[blendWidth * blendHeight];
+        green = new float[red.length];
+        blue = new float[red.length];
+        for (int y = 0; y < blendHeight; y++) {
+            for (int x = 0; x < blendWidth; x++) {
+                int rgb = image.getRGB(x, y);
+                red[y * blendWidth + x] = (rgb >> 16 & 0xFF) / 255f;
+                green[y * blendWidth + x] = (rgb >> 8 & 0xFF) / 255f;
+                blue[y * blendWidth + x] = (rgb & 0xFF) / 255f;
+            }
+        }
+
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "Vegetation scatter");
+            // Para que el juego pueda terminar aunque no se llame a clean()
+            thread.setDaemon(true);
+            // La generacion no tiene que quitarle tiempo al hilo de renderizado
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Agrega una regla. Las reglas se tienen que agregar antes de la primera actualizacion.
+     */
+    public void addRule(ScatterRule rule) {
+        rules.add(rule);
+    }
+
+    /**
+     * Combina los ejemplares de cada celda en lotes estaticos por textura. Se tiene que llamar antes de la primera
+     * actualizacion.
+     *
+     * @param loader    cargador de las mallas combinadas.
+     * @param modelData datos de la malla de cada modelo. Los ejemplares cuyo modelo no tiene datos se renderizan por separado.
+     */
+    public void setStaticBatching(Loader loader, Map<TexturedModel, ModelData> modelData) {
+        this.loader = loader;
+        this.modelData = modelData;
+    }
+
+    /**
+     * Pide en segundo plano las celdas que entraron en la distancia de carga, agrega al grafo de escena las que terminaron de
+     * generarse (combinandolas si hay lotes estaticos) y quita las que quedaron lejos. Las celdas se descartan a una celda mas de la distancia de carga para que no
+     * se generen y descarten una y otra vez cuando la camara esta cerca del limite.
+     *
+     * @param cameraPosition posicion de la camara.
+     * @return true si se agregaron o quitaron celdas, en cuyo caso hay que descartar las sombras guardadas.
+     */
+    public boolean update(Vector3f cameraPosition) {
+        boolean changed = false;
+        for (int cellX = 0; cellX < columns; cellX++) {
+            for (int cellZ = 0; cellZ < columns; cellZ++) {
+                int key = cellX * columns + cellZ;
+                if (pending.containsKey(key) || loaded.containsKey(key)) continue;
+                if (getDistance(cellX, cellZ, cameraPosition) > loadDistance) continue;
+                int x = cellX, z = cellZ;
+                pending.put(key, executor.submit(() -> generateCell(x, z)));
+            }
+        }
+
+        for (Iterator<Map.Entry<Integer, Future<List<Entity>>>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Future<List<Entity>>> entry = it.next();
+            Future<List<Entity>> future = entry.getValue();
+            int key = entry.getKey();
+            if (getDistance(key / columns, key % columns, cameraPosition) > loadDistance + cellSize) {
+                future.cancel(false);
+                it.remove();
+            } else if (future.isDone()) {
+                SceneNode cell = createCell(getEntities(future));
+                root.addChild(cell);
+                loaded.put(key, cell);
+                it.remove();
+                changed = true;
+            }
+        }
+
+        for (Iterator<Map.Entry<Integer, SceneNode>> it = loaded.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, SceneNode> entry = it.next();
+            int key = entry.getKey();
+            if (getDistance(key / columns, key % columns, cameraPosition) > loadDistance + cellSize) {
+                root.removeChild(entry.getValue());
+                unloadCell(entry.getValue());
+                it.remove();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static List<Entity> getEntities(Future<List<Entity>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Could not scatter vegetation cell", e.getCause());
+        }
+    }
+
+    /**
+     * Crea el nodo de la celda en el hilo de renderizado, porque cargar las mallas de los lotes usa el contexto de OpenGL.
+     */
+    private SceneNode createCell(List<Entity> entities) {
+        SceneNode cell = new SceneNode();
+        if (loader == null) {
+            for (Entity entity : entities) cell.addChild(new SceneNode(entity));
+            return cell;
+        }
+        // La celda ya es la unidad de culling, asi que sus ejemplares se combinan solo por textura
+        for (StaticBatch batch : StaticBatch.create(loader, entities, modelData, Float.POSITIVE_INFINITY))
+            cell.addChild(new SceneNode(batch));
+        for (Entity entity : entities)
+            if (!modelData.containsKey(entity.getModel())) cell.addChild(new SceneNode(entity));
+        return cell;
+    }
+
+    private void unloadCell(SceneNode cell) {
+        if (loader == null) return;
+        for (SceneNode child : cell.getChildren())
+            if (child.getEntity() instanceof StaticBatch) loader.unload(child.getEntity().getModel().getRawModel());
+    }
+
+    /**
+     * Distancia horizontal desde la camara hasta el punto mas cercano de la celda.
+     */
+    private float getDistance(int cellX, int cellZ, Vector3f cameraPosition) {
+        float minX = terrain.getX() + cellX * cellSize, minZ = terrain.getZ() + cellZ * cellSize;
+        float dx = Math.max(0, Math.max(minX - cameraPosition.x, cameraPosition.x - (minX + cellSize)));
+        float dz = Math.max(0, Math.max(minZ - cameraPosition.z, cameraPosition.z - (minZ + cellSize)));
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
+
+    /**
+     * Genera los ejemplares de la celda. Se ejecuta en los hilos de generacion, por lo que solo lee datos que no cambian.
+     */
+    private List<Entity> generateCell(int cellX, int cellZ) {
+        Random random = new Random(getCellSeed(cellX, cellZ));
+        float minX = terrain.getX() + cellX * cellSize, minZ = terrain.getZ() + cellZ * cellSize;
+        float maxX = Math.min(minX + cellSize, terrain.getX() + Terrain.SIZE), maxZ = Math.min(minZ + cellSize, terrain.getZ() + Terrain.SIZE);
+        List<Entity> entities = new ArrayList<>();
+        float minSpacing = Float.MAX_VALUE, maxSpacing = 0;
+        for (ScatterRule rule : rules) {
+            minSpacing = Math.min(minSpacing, rule.getMinSpacing());
+            maxSpacing = Math.max(maxSpacing, rule.getMinSpacing());
+        }
+        if (rules.isEmpty()) return entities;
+        // Una sola grilla para todas las reglas, asi la distancia minima tambien se respeta entre ejemplares de reglas distintas
+        SpacingGrid grid = new SpacingGrid(minX, minZ, maxX, maxZ, minSpacing, maxSpacing);
+        for (ScatterRule rule : rules) {
+            float margin = rule.getMinSpacing() / 2;
+            float width = maxX - minX - 2 * margin, depth = maxZ - minZ - 2 * margin;
+            if (width <= 0 || depth <= 0) continue;
+            // Un candidato por cada ejemplar que habria donde el canal tiene peso 1, aceptado con probabilidad igual al peso
+            int candidates = Math.round(rule.getDensity() * (maxX - minX) * (maxZ - minZ));
+            for (int i = 0; i < candidates; i++) {
+                // Se consumen siempre los mismos numeros aleatorios por candidato para que el resultado no dependa de los rechazos
+                float x = minX + margin + random.nextFloat() * width, z = minZ + margin + random.nextFloat() * depth;
+                float chance = random.nextFloat(), angle = random.nextFloat() * 360, scale = random.nextFloat();
+                int textureIndex = random.nextInt(rule.getTextureCount());
+                if (chance >= getWeight(rule.getChannel(), x, z)) continue;
+                float height = terrain.getHeightOfTerrain(x, z);
+                if (height < rule.getMinHeight() || height > rule.getMaxHeight() || getSlope(x, z) > rule.getMaxSlope()) continue;
+                if (grid.isTooClose(x, z, rule.getMinSpacing())) continue;
+                grid.add(x, z, rule.getMinSpacing());
+                float size = rule.getMinScale() + scale * (rule.getMaxScale() - rule.getMinScale());
+                entities.add(new Entity(rule.getModel(), textureIndex, new Vector3f(x, height, z), new Vector3f(0, angle, 0), new Vector3f(size, size, size)));
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Mezcla la semilla global con la posicion de la celda (como en SplitMix64) para que celdas vecinas no tengan secuencias
+     * parecidas.
+     */
+    private long getCellSeed(int cellX, int cellZ) {
+        long hash = seed + cellX * 0x9E3779B97F4A7C15L + cellZ * 0xC2B2AE3D27D4EB4FL;
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Peso del canal en el blend map, que cubre el terreno con [u] a lo largo de [x] y [v] a lo largo de [z].
+     */
+    private float getWeight(ScatterRule.Channel channel, float x, float z) {
+        int u = Math.min(blendWidth - 1, Math.max(0, (int) ((x - terrain.getX()) / Terrain.SIZE * blendWidth)));
+        int v = Math.min(blendHeight - 1, Math.max(0, (int) ((z - terrain.getZ()) / Terrain.SIZE * blendHeight)));
+        int i = v * blendWidth + u;
+        switch (channel) {
+            case R:
+                return red[i];
+            case G:
+                return green[i];
+            case B:
+                return blue[i];
+            default:
+                return Math.max(0, 1 - red[i] - green[i] - blue[i]);
+        }
+    }
+
+    /**
+     * Pendiente del terreno en grados, a partir de las diferencias de altura a cada lado del punto.
+     */
+    private float getSlope(float x, float z) {
+        float dx = (terrain.getHeightOfTerrain(x + 1, z) - terrain.getHeightOfTerrain(x - 1, z)) / 2;
+        float dz = (terrain.getHeightOfTerrain(x, z + 1) - terrain.getHeightOfTerrain(x, z - 1)) / 2;
+        return (float) Math.toDegrees(Math.atan(Math.sqrt(dx * dx + dz * dz)));
+    }
+
+    public void clean() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Grilla de fondo del muestreo de disco de Poisson. El lado de cada celda es la menor distancia minima dividida por raiz de
+     * dos, de modo que la diagonal de una celda es menor que cualquier distancia minima y dos ejemplares aceptados nunca
+     * comparten celda. Dos ejemplares tienen que estar separados por la mayor de sus dos distancias minimas, asi que cada
+     * consulta revisa las celdas que alcanza la mayor distancia minima de todas las reglas.
+     */
+    private static class SpacingGrid {
+
+        private final float minX, minZ, inverseCellSize;
+        private final int width, depth, reach;
+        private final int[] cells; // Indice del ejemplar de cada celda mas uno, o cero si esta vacia
+        private float[] xs = new float[16], zs = new float[16], spacings = new float[16];
+        private int count;
+
+        SpacingGrid(float minX, float minZ, float maxX, float maxZ, float minSpacing, float maxSpacing) {
+            float cellSize = minSpacing / (float) Math.sqrt(2);
+            this.minX = minX;
+            this.minZ = minZ;
+            inverseCellSize = 1 / cellSize;
+            width = Math.max(1, (int) Math.ceil((maxX - minX) * inverseCellSize));
+            depth = Math.max(1, (int) Math.ceil((maxZ - minZ) * inverseCellSize));
+            reach = (int) Math.ceil(maxSpacing * inverseCellSize);
+            cells = new int[width * depth];
+        }
+
+        boolean isTooClose(float x, float z, float minSpacing) {
+            int cellX = getColumn(x), cellZ = getRow(z);
+            int fromX = Math.max(0, cellX - reach), toX = Math.min(width - 1, cellX + reach);
+            int fromZ = Math.max(0, cellZ - reach), toZ = Math.min(depth - 1, cellZ + reach);
+            for (int gz = fromZ; gz <= toZ; gz++) {
+                for (int gx = fromX; gx <= toX; gx++) {
+                    int i = cells[gz * width + gx] - 1;
+                    if (i < 0) continue;
+                    float dx = xs[i] - x, dz = zs[i] - z, spacing = Math.max(minSpacing, spacings[i]);
+                    if (dx * dx + dz * dz < spacing * spacing) return true;
+                }
+            }
+            return false;
+        }
+
+        void add(float x, float z, float minSpacing) {
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, count * 2);
+                zs = Arrays.copyOf(zs, count * 2);
+                spacings = Arrays.copyOf(spacings, count * 2);
+            }
+            xs[count] = x;
+            zs[count] = z;
+            spacings[count] = minSpacing;
+            cells[getRow(z) * width + getColumn(x)] = ++count;
+        }
+
+        private int getColumn(float x) {
+            return Math.min(width - 1, Math.max(0, (int) ((x - minX) * inverseCellSize)));
+        }
+
+        private int getRow(float z) {
+            return Math.min(depth - 1, Math.max(0, (int) ((z - minZ) * inverseCellSize)));
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package utils;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Volumen de vision (viewing frustum) de la camara representado por sus seis planos. Los planos se extraen directamente de la
+ * matriz que resulta de multiplicar la matriz de proyeccion por la matriz de vista (metodo de Gribb-Hartmann), por lo que
+ * siempre coinciden con lo que realmente se renderiza. Cada plano apunta hacia adentro del frustum, asi que un punto esta
+ * dentro si su distancia a los seis planos es positiva.
+ */
+
+public class Frustum {
+
+    // Seis planos (izquierdo, derecho, inferior, superior, cercano y lejano) de la forma ax + by + cz + d = 0
+    private final float[][] planes = new float[6][4];
+    private final Matrix4f clip = new Matrix4f();
+
+    /**
+     * Actualiza los planos del frustum.
+     *
+     * @param projectionMatrix matriz de proyeccion.
+     * @param viewMatrix       matriz de vista.
+     */
+    public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix) {
+        Matrix4f.mul(projectionMatrix, viewMatrix, clip);
+        // Cada plano es la suma o resta de la ultima fila de la matriz con una de las otras tres filas
+        setPlane(0, clip.m03 + clip.m00, clip.m13 + clip.m10, clip.m23 + clip.m20, clip.m33 + clip.m30);
+        setPlane(1, clip.m03 - clip.m00, clip.m13 - clip.m10, clip.m23 - clip.m20, clip.m33 - clip.m30);
+        setPlane(2, clip.m03 + clip.m01, clip.m13 + clip.m11, clip.m23 + clip.m21, clip.m33 + clip.m31);
+        setPlane(3, clip.m03 - clip.m01, clip.m13 - clip.m11, clip.m23 - clip.m21, clip.m33 - clip.m31);
+        setPlane(4, clip.m03 + clip.m02, clip.m13 + clip.m12, clip.m23 + clip.m22, clip.m33 + clip.m32);
+        setPlane(5, clip.m03 - clip.m02, clip.m13 - clip.m12, clip.m23 - clip.m22, clip.m33 - clip.m32);
+    }
+
+    /**
+     * Verifica si una esfera esta dentro del frustum o lo toca.
+     *
+     * @param center centro de la esfera.
+     * @param radius radio de la esfera.
+     * @return true si la esfera es al menos parcialmente visible.
+     */
+    public boolean intersectsSphere(Vector3f center, float radius) {
+        for (float[] plane : planes)
+            if (plane[0] * center.x + plane[1] * center.y + plane[2] * center.z + plane[3] < -radius) return false;
+        return true;
+    }
+
+    /**
+     * Verifica si una caja alineada con los ejes esta dentro del frustum o lo toca. Para cada plano solo se prueba la esquina
+     * de la caja que esta mas adentro del plano.
+     *
+     * @param min esquina minima de la caja.
+     * @param max esquina maxima de la caja.
+     * @return true si la caja es al menos parcialmente visible.
+     */
+    public boolean intersectsBox(Vector3f min, Vector3f max) {
+        for (float[] plane : planes) {
+            float x = plane[0] > 0 ? max.x : min.x;
+            float y = plane[1] > 0 ? max.y : min.y;
+            float z = plane[2] > 0 ? max.z : min.z;
+            if (plane[0] * x + plane[1] * y + plane[2] * z + plane[3] < 0) return false;
+        }
+        return true;
+    }
+
+    private void setPlane(int index, float a, float b, float c, float d) {
+        // Normaliza el plano para que la distancia de un punto al plano este en unidades del mundo
+        float length = (float) Math.sqrt(a * a + b * b + c * c);
+        planes[index][0] = a / length;
+        planes[index][1] = b / length;
+        planes[index][2] = c / length;
+        planes[index][3] = d / length;
+    }
+
+}
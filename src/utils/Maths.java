@@ -13,6 +13,11 @@ import org.lwjgl.util.vector.Vector2f;
  * <p>
  * La clase Matrix4f se utiliza para representar y manipular matrices de transformacion en graficos 3D. Estas matrices se utilizan
  * comunmente para aplicar operaciones de transformacion, como traslacion, rotacion y escalado, a objetos en un espacio tridimensional.
+ * <p>
+ * Los metodos que reciben una matriz de destino la escriben directamente, sin crear objetos temporales, y calculan las
+ * rotaciones con el seno y coseno de cada angulo en lugar de multiplicar una matriz por cada eje. Son los que se usan en el
+ * bucle de renderizado, con matrices guardadas en campos o tomadas del {@link ScratchArena#FRAME arena del frame}. Los que
+ * devuelven una matriz nueva se mantienen para el codigo que se ejecuta una sola vez.
  */
 
 public class Maths {
@@ -24,19 +29,50 @@ public class Maths {
      * @return la altura del triangulo en la posicion del player.
      */
     public static float barryCentric(Vector3f p1, Vector3f p2, Vector3f p3, Vector2f pos) {
-        float det = (p2.z - p3.z) * (p1.x - p3.x) + (p3.x - p2.x) * (p1.z - p3.z);
-        float l1 = ((p2.z - p3.z) * (pos.x - p3.x) + (p3.x - p2.x) * (pos.y - p3.z)) / det;
-        float l2 = ((p3.z - p1.z) * (pos.x - p3.x) + (p1.x - p3.x) * (pos.y - p3.z)) / det;
+        return barryCentric(p1.x, p1.y, p1.z, p2.x, p2.y, p2.z, p3.x, p3.y, p3.z, pos.x, pos.y);
+    }
+
+    /**
+     * Igual que {@link #barryCentric(Vector3f, Vector3f, Vector3f, Vector2f)} pero con las coordenadas sueltas, para no crear
+     * vectores en cada consulta de altura.
+     */
+    public static float barryCentric(float x1, float y1, float z1, float x2, float y2, float z2, float x3, float y3, float z3, float posX, float posZ) {
+        float det = (z2 - z3) * (x1 - x3) + (x3 - x2) * (z1 - z3);
+        float l1 = ((z2 - z3) * (posX - x3) + (x3 - x2) * (posZ - z3)) / det;
+        float l2 = ((z3 - z1) * (posX - x3) + (x1 - x3) * (posZ - z3)) / det;
         float l3 = 1.0f - l1 - l2;
-        return l1 * p1.y + l2 * p2.y + l3 * p3.y;
+        return l1 * y1 + l2 * y2 + l3 * y3;
     }
 
     public static Matrix4f createTransformationMatrix(Vector2f translation, Vector2f scale) {
-        Matrix4f matrix = new Matrix4f();
-        matrix.setIdentity();
-        Matrix4f.translate(translation, matrix, matrix);
-        Matrix4f.scale(new Vector3f(scale.x, scale.y, 1f), matrix, matrix);
-        return matrix;
+        return createTransformationMatrix(translation, scale, new Matrix4f());
+    }
+
+    /**
+     * Crea la matriz que escala y despues traslada en el plano, escribiendola en el destino.
+     *
+     * @return la matriz de destino.
+     */
+    public static Matrix4f createTransformationMatrix(Vector2f translation, Vector2f scale, Matrix4f dest) {
+        dest.setIdentity();
+        dest.m00 = scale.x;
+        dest.m11 = scale.y;
+        dest.m30 = translation.x;
+        dest.m31 = translation.y;
+        return dest;
+    }
+
+    /**
+     * Crea una matriz que solo traslada, como la de los terrenos, escribiendola en el destino.
+     *
+     * @return la matriz de destino.
+     */
+    public static Matrix4f createTranslationMatrix(float x, float y, float z, Matrix4f dest) {
+        dest.setIdentity();
+        dest.m30 = x;
+        dest.m31 = y;
+        dest.m32 = z;
+        return dest;
     }
 
     /**
@@ -44,31 +80,74 @@ public class Maths {
      * (entidad) en la posicion mundial.
      */
     public static Matrix4f createTransformationMatrix(Vector3f translation, Vector3f angle, Vector3f scale) {
-        // Crear una matriz de identidad
-        Matrix4f matrix = new Matrix4f();
-        // Restablece la matriz
-        matrix.setIdentity();
-        // Aplica la traslacion
-        Matrix4f.translate(translation, matrix, matrix);
-        // Aplica la rotacion
-        Matrix4f.rotate((float) Math.toRadians(angle.x), new Vector3f(1, 0, 0), matrix, matrix); // El metodo toRadians convierte un angulo medido en grados en un angulo aproximadamente equivalente medido en radianes
-        Matrix4f.rotate((float) Math.toRadians(angle.y), new Vector3f(0, 1, 0), matrix, matrix);
-        Matrix4f.rotate((float) Math.toRadians(angle.z), new Vector3f(0, 0, 1), matrix, matrix);
-        // Aplica la escala
-        Matrix4f.scale(scale, matrix, matrix);
-        return matrix;
+        return createTransformationMatrix(translation, angle, scale, new Matrix4f());
+    }
+
+    /**
+     * Escribe en el destino la matriz de transformacion traslacion * rotacion[x] * rotacion[y] * rotacion[z] * escala, el
+     * mismo orden en que se aplicaban las operaciones de Matrix4f. La rotacion combinada se calcula directamente con el seno y
+     * coseno de cada angulo y cada columna se multiplica por la escala de su eje.
+     *
+     * @return la matriz de destino.
+     */
+    public static Matrix4f createTransformationMatrix(Vector3f translation, Vector3f angle, Vector3f scale, Matrix4f dest) {
+        // El metodo toRadians convierte un angulo medido en grados en un angulo aproximadamente equivalente medido en radianes
+        double x = Math.toRadians(angle.x), y = Math.toRadians(angle.y), z = Math.toRadians(angle.z);
+        float sx = (float) Math.sin(x), cx = (float) Math.cos(x);
+        float sy = (float) Math.sin(y), cy = (float) Math.cos(y);
+        float sz = (float) Math.sin(z), cz = (float) Math.cos(z);
+        // Los campos mCR son la columna C y la fila R
+        dest.m00 = cy * cz * scale.x;
+        dest.m01 = (sx * sy * cz + cx * sz) * scale.x;
+        dest.m02 = (-cx * sy * cz + sx * sz) * scale.x;
+        dest.m03 = 0;
+        dest.m10 = -cy * sz * scale.y;
+        dest.m11 = (-sx * sy * sz + cx * cz) * scale.y;
+        dest.m12 = (cx * sy * sz + sx * cz) * scale.y;
+        dest.m13 = 0;
+        dest.m20 = sy * scale.z;
+        dest.m21 = -sx * cy * scale.z;
+        dest.m22 = cx * cy * scale.z;
+        dest.m23 = 0;
+        dest.m30 = translation.x;
+        dest.m31 = translation.y;
+        dest.m32 = translation.z;
+        dest.m33 = 1;
+        return dest;
     }
 
     public static Matrix4f createViewMatrix(Camera camera) {
-        Matrix4f matrix = new Matrix4f();
-        matrix.setIdentity();
-        Matrix4f.rotate((float) Math.toRadians(camera.getXAngle()), new Vector3f(1, 0, 0), matrix, matrix);
-        Matrix4f.rotate((float) Math.toRadians(camera.getYaw()), new Vector3f(0, 1, 0), matrix, matrix);
-        Vector3f cameraPos = camera.getPosition();
-        // Invierte la posicion de la camara para mover todos los objetos en la direccion opuesta
-        Vector3f negativeCameraPos = new Vector3f(-cameraPos.x, -cameraPos.y, -cameraPos.z);
-        Matrix4f.translate(negativeCameraPos, matrix, matrix);
-        return matrix;
+        return createViewMatrix(camera, new Matrix4f());
+    }
+
+    /**
+     * Escribe en el destino la matriz de vista rotacion[x] * rotacion[y] * traslacion, donde la traslacion es la posicion de
+     * la camara invertida para mover todos los objetos en la direccion opuesta.
+     *
+     * @return la matriz de destino.
+     */
+    public static Matrix4f createViewMatrix(Camera camera, Matrix4f dest) {
+        double x = Math.toRadians(camera.getXAngle()), y = Math.toRadians(camera.getYaw());
+        float sx = (float) Math.sin(x), cx = (float) Math.cos(x);
+        float sy = (float) Math.sin(y), cy = (float) Math.cos(y);
+        dest.m00 = cy;
+        dest.m01 = sx * sy;
+        dest.m02 = -cx * sy;
+        dest.m03 = 0;
+        dest.m10 = 0;
+        dest.m11 = cx;
+        dest.m12 = sx;
+        dest.m13 = 0;
+        dest.m20 = sy;
+        dest.m21 = -sx * cy;
+        dest.m22 = cx * cy;
+        dest.m23 = 0;
+        Vector3f position = camera.getPosition();
+        dest.m30 = -(dest.m00 * position.x + dest.m10 * position.y + dest.m20 * position.z);
+        dest.m31 = -(dest.m01 * position.x + dest.m11 * position.y + dest.m21 * position.z);
+        dest.m32 = -(dest.m02 * position.x + dest.m12 * position.y + dest.m22 * position.z);
+        dest.m33 = 1;
+        return dest;
     }
 
 }
@@ -6,7 +6,6 @@ import terrains.Terrain;
 import org.lwjgl.input.Mouse;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector2f;
 import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.util.vector.Vector4f;
 
@@ -22,15 +21,20 @@ public class MousePicker {
 
     private final Camera camera;
     private final Matrix4f projectionMatrix;
-    private Matrix4f viewMatrix;
+    private final Matrix4f viewMatrix = new Matrix4f();
 
     private final Terrain terrain;
     private Vector3f currentTerrainPoint;
 
+    // Temporales que se reutilizan en cada actualizacion
+    private final Matrix4f invertedMatrix = new Matrix4f();
+    private final Vector4f clipCoords = new Vector4f(), eyeCoords = new Vector4f();
+    private final Vector3f currentRay = new Vector3f(), terrainPoint = new Vector3f(), pointOnRay = new Vector3f();
+
     public MousePicker(Camera camera, Matrix4f projectionMatrix, Terrain terrain) {
         this.camera = camera;
         this.projectionMatrix = projectionMatrix;
-        this.viewMatrix = Maths.createViewMatrix(camera);
+        Maths.createViewMatrix(camera, viewMatrix);
         this.terrain = terrain;
     }
 
@@ -39,8 +43,8 @@ public class MousePicker {
     }
 
     public void update() {
-        viewMatrix = Maths.createViewMatrix(camera);
-        Vector3f currentRay = calculateMouseRay();
+        Maths.createViewMatrix(camera, viewMatrix);
+        calculateMouseRay();
         if (intersectionInRange(0, RAY_RANGE, currentRay)) currentTerrainPoint = binarySearch(0, 0, RAY_RANGE, currentRay);
         else currentTerrainPoint = null;
     }
@@ -51,12 +55,12 @@ public class MousePicker {
      * @return el rayo en el espacio mundial.
      */
     private Vector3f calculateMouseRay() {
-        Vector2f normalizedCoords = getNormalizedDeviceCoords(Mouse.getX(), Mouse.getY());
+        // Normaliza (convierte) las coordenadas del mouse en pantalla al sistema de coordenadas de OpenGL
+        float x = (2f * Mouse.getX()) / Display.getWidth() - 1;
+        float y = (2f * Mouse.getY()) / Display.getHeight() - 1;
         // Resta -1 al eje [z] para que apunte hacia la pantalla y agrega un componente w para convertirlo en un vector 4D
-        Vector4f clipCoords = new Vector4f(normalizedCoords.x, normalizedCoords.y, -1f, -1f);
-        Vector4f eyeCoords = toEyeCoords(clipCoords);
-        Vector3f worldRay = toWorldCoords(eyeCoords);
-        return worldRay;
+        clipCoords.set(x, y, -1f, -1f);
+        return toWorldCoords(toEyeCoords(clipCoords));
     }
 
     /**
@@ -66,12 +70,12 @@ public class MousePicker {
      * @return las coordenadas del mundo.
      */
     private Vector3f toWorldCoords(Vector4f eyeCoords) {
-        Matrix4f invertedView = Matrix4f.invert(viewMatrix, null);
-        Vector4f rayWorld = Matrix4f.transform(invertedView, eyeCoords, null);
-        Vector3f mouseRay = new Vector3f(rayWorld.x, rayWorld.y, rayWorld.z);
+        Matrix4f invertedView = Matrix4f.invert(viewMatrix, invertedMatrix);
+        Vector4f rayWorld = Matrix4f.transform(invertedView, eyeCoords, eyeCoords);
+        currentRay.set(rayWorld.x, rayWorld.y, rayWorld.z);
         // Normaliza el rayo porque es una direccion y queremos que sea un vector
-        mouseRay.normalise();
-        return mouseRay;
+        currentRay.normalise();
+        return currentRay;
     }
 
     /**
@@ -81,22 +85,10 @@ public class MousePicker {
      * @return las coordenadas 4D en el espacio ocular.
      */
     private Vector4f toEyeCoords(Vector4f clipCoords) {
-        Matrix4f invertedProjection = Matrix4f.invert(projectionMatrix, null);
-        Vector4f eyeCoords = Matrix4f.transform(invertedProjection, clipCoords, null);
-        return new Vector4f(eyeCoords.x, eyeCoords.y, -1f, 0f);
-    }
-
-    /**
-     * Normaliza (convierte) las coordenadas del mouse en pantalla al sistema de coordenadas de OpenGL.
-     *
-     * @param mouseX coordenada [x] del mouse.
-     * @param mouseY coordenada [y] del mouse.
-     * @return la posicion [x,y] del mouse en el sistema de coordenadas de OpenGL.
-     */
-    private Vector2f getNormalizedDeviceCoords(float mouseX, float mouseY) {
-        float x = (2f * mouseX) / Display.getWidth() - 1;
-        float y = (2f * mouseY) / Display.getHeight() - 1;
-        return new Vector2f(x, y);
+        Matrix4f invertedProjection = Matrix4f.invert(projectionMatrix, invertedMatrix);
+        Matrix4f.transform(invertedProjection, clipCoords, eyeCoords);
+        eyeCoords.set(eyeCoords.x, eyeCoords.y, -1f, 0f);
+        return eyeCoords;
     }
 
     /**
@@ -119,7 +111,7 @@ public class MousePicker {
         float half = start + ((finish - start) / 2);
         // Si se termino de buscar el punto de interseccion del rayo
         if (count >= RECURSION_COUNT) {
-            Vector3f endPoint = getPointOnRay(ray, half);
+            Vector3f endPoint = getPointOnRay(ray, half, terrainPoint);
             Terrain terrain = getTerrain(endPoint.getX(), endPoint.getZ());
             // Si el terreno es distinto a nulo, devuelve el punto de interseccion
             if (terrain != null) return endPoint;
@@ -142,9 +134,7 @@ public class MousePicker {
      */
     private boolean intersectionInRange(float start, float finish, Vector3f ray) {
         // Obtiene el punto del rayo de inicio y final
-        Vector3f startPoint = getPointOnRay(ray, start);
-        Vector3f endPoint = getPointOnRay(ray, finish);
-        return !isUnderGround(startPoint) && isUnderGround(endPoint);
+        return !isUnderGround(getPointOnRay(ray, start, pointOnRay)) && isUnderGround(getPointOnRay(ray, finish, pointOnRay));
     }
 
     /**
@@ -152,16 +142,15 @@ public class MousePicker {
      *
      * @param ray      rayo.
      * @param distance distancia del rayo.
+     * @param dest     vector donde se guarda el punto.
      * @return el punto en el rayo.
      */
-    private Vector3f getPointOnRay(Vector3f ray, float distance) {
+    private Vector3f getPointOnRay(Vector3f ray, float distance, Vector3f dest) {
         Vector3f camPos = camera.getPosition();
-        // Posicion de la camara
-        Vector3f start = new Vector3f(camPos.x, camPos.y, camPos.z);
         /* Escala el rayo (que inicia desde la posicion de la camara) a la distancia especificada (la distancia es el rango
          * especificado que esta entre el inicio y final del rango del rayo). */
-        Vector3f scaledRay = new Vector3f(ray.x * distance, ray.y * distance, ray.z * distance);
-        return Vector3f.add(start, scaledRay, null);
+        dest.set(camPos.x + ray.x * distance, camPos.y + ray.y * distance, camPos.z + ray.z * distance);
+        return dest;
     }
 
     /**
@@ -0,0 +1,48 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+import org.lwjgl.util.vector.Vector4f;
+
+/**
+ * Reserva de objetos temporales que se reutilizan en cada frame. Los metodos devuelven el siguiente objeto libre y
+ * {@link #reset()} los libera a todos juntos, asi que despues de los primeros frames el bucle de renderizado ya no crea
+ * matrices ni vectores. Los objetos solo son validos hasta el siguiente reset y su contenido es el que dejo el frame anterior.
+ */
+
+public class ScratchArena {
+
+    /** Arena del hilo de renderizado, que se libera al final de cada frame en {@link render.DisplayManager#update()}. */
+    public static final ScratchArena FRAME = new ScratchArena();
+
+    private final List<Matrix4f> matrices = new ArrayList<>();
+    private final List<Vector3f> vectors3 = new ArrayList<>();
+    private final List<Vector4f> vectors4 = new ArrayList<>();
+    private int matrixCount, vector3Count, vector4Count;
+
+    public Matrix4f matrix() {
+        if (matrixCount == matrices.size()) matrices.add(new Matrix4f());
+        return matrices.get(matrixCount++);
+    }
+
+    public Vector3f vector3() {
+        if (vector3Count == vectors3.size()) vectors3.add(new Vector3f());
+        return vectors3.get(vector3Count++);
+    }
+
+    public Vector4f vector4() {
+        if (vector4Count == vectors4.size()) vectors4.add(new Vector4f());
+        return vectors4.get(vector4Count++);
+    }
+
+    /**
+     * Libera todos los objetos para que se vuelvan a usar.
+     */
+    public void reset() {
+        matrixCount = vector3Count = vector4Count = 0;
+    }
+
+}
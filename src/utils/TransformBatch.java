@@ -0,0 +1,200 @@
+package utils;
+
+import entities.Entity;
+
+import java.util.Arrays;
+
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Calcula en bloque las matrices de transformacion de muchos objetos, para llenar un vbo de instancias sin crear una matriz
+ * por objeto.
+ * <p>
+ * Las posiciones, angulos y escalas se guardan en un array por componente (estructura de arrays) en lugar de un objeto por
+ * entidad, asi cada paso recorre memoria contigua con el mismo calculo para todos los elementos, que es la forma de bucle que
+ * el compilador JIT puede vectorizar. Primero se calculan el seno y coseno de todos los angulos y despues cada columna de
+ * todas las matrices. El resultado tiene el mismo orden de columnas que {@link org.lwjgl.util.vector.Matrix4f#store} y
+ * coincide con {@link Maths#createTransformationMatrix(Vector3f, Vector3f, Vector3f)}.
+ * <p>
+ * Si la JVM arranca con el modulo {@code jdk.incubator.vector} ({@code --add-modules jdk.incubator.vector}) y
+ * {@code TransformBatchVector} esta compilada (esta en {@code src-vector}, que se compila con el mismo parametro), las
+ * matrices se calculan con la Vector API. Si no, se usa el calculo escalar, asi el resto del proyecto compila y corre sin
+ * parametros de modulos.
+ */
+
+public class TransformBatch {
+
+    public static final int MATRIX_LENGTH = 16;
+    // Elementos de la matriz que dependen de la rotacion y la escala (las tres primeras filas de las tres primeras columnas)
+    static final int ROTATION_ELEMENTS = 9;
+
+    private static final Kernel VECTOR_KERNEL = loadVectorKernel();
+
+    // Los arrays son de paquete para que TransformBatchVector los recorra directamente
+    float[] px, py, pz; // Posiciones
+    float[] ax, ay, az; // Angulos en grados
+    float[] sx, sy, sz; // Escalas
+    float[] sinX, cosX, sinY, cosY, sinZ, cosZ;
+    float[] column; // Columna de todas las matrices antes de intercalarla en el destino
+    float[][] rotation; // Los elementos de rotacion y escala de todas las matrices, para el calculo vectorial
+    int count;
+
+    /**
+     * Calculo de las matrices que reemplaza al escalar.
+     */
+    interface Kernel {
+        void compute(TransformBatch batch, float[] dest, int offset);
+    }
+
+    /**
+     * @param capacity cantidad inicial de transformaciones, que se duplica cuando no alcanza.
+     */
+    public TransformBatch(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        px = resize(px, capacity);
+        py = resize(py, capacity);
+        pz = resize(pz, capacity);
+        ax = resize(ax, capacity);
+        ay = resize(ay, capacity);
+        az = resize(az, capacity);
+        sx = resize(sx, capacity);
+        sy = resize(sy, capacity);
+        sz = resize(sz, capacity);
+        // Los demas arrays se recalculan en cada llamada a compute(), asi que no hace falta copiarlos
+        sinX = new float[capacity];
+        cosX = new float[capacity];
+        sinY = new float[capacity];
+        cosY = new float[capacity];
+        sinZ = new float[capacity];
+        cosZ = new float[capacity];
+        column = new float[capacity];
+        rotation = VECTOR_KERNEL != null ? new float[ROTATION_ELEMENTS][capacity] : null;
+    }
+
+    private static float[] resize(float[] array, int capacity) {
+        return array == null ? new float[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    /**
+     * Carga el calculo vectorial si el modulo de la Vector API esta en la capa de arranque. La clase no se puede cargar sin el
+     * modulo, porque fallaria al resolver FloatVector.
+     *
+     * @return el calculo vectorial o null si no esta disponible.
+     */
+    private static Kernel loadVectorKernel() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return null;
+        try {
+            return (Kernel) Class.forName("utils.TransformBatchVector").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // El modulo esta, pero src-vector no se compilo
+            return null;
+        }
+    }
+
+    /**
+     * @return true si {@link #compute(float[], int)} usa la Vector API.
+     */
+    public static boolean isVectorized() {
+        return VECTOR_KERNEL != null;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Agrega una transformacion.
+     *
+     * @return el indice de la transformacion, que es tambien el de su matriz en el destino.
+     */
+    public int add(Vector3f position, Vector3f angle, Vector3f scale) {
+        if (count == px.length) allocate(px.length * 2);
+        int i = count++;
+        px[i] = position.x;
+        py[i] = position.y;
+        pz[i] = position.z;
+        ax[i] = angle.x;
+        ay[i] = angle.y;
+        az[i] = angle.z;
+        sx[i] = scale.x;
+        sy[i] = scale.y;
+        sz[i] = scale.z;
+        return i;
+    }
+
+    public int add(Entity entity) {
+        return add(entity.getPosition(), entity.getAngle(), entity.getScale());
+    }
+
+    /**
+     * Calcula las matrices de todas las transformaciones agregadas, con la Vector API si esta disponible.
+     *
+     * @param dest   array donde se escriben las matrices, {@link #MATRIX_LENGTH} floats por transformacion.
+     * @param offset posicion del destino donde empieza la primera matriz.
+     */
+    public void compute(float[] dest, int offset) {
+        if (VECTOR_KERNEL != null) VECTOR_KERNEL.compute(this, dest, offset);
+        else computeScalar(dest, offset);
+    }
+
+    /**
+     * Calcula las matrices de todas las transformaciones agregadas sin la Vector API.
+     *
+     * @param dest   array donde se escriben las matrices, {@link #MATRIX_LENGTH} floats por transformacion.
+     * @param offset posicion del destino donde empieza la primera matriz.
+     */
+    public void computeScalar(float[] dest, int offset) {
+        int n = count;
+        final float toRadians = (float) (Math.PI / 180);
+        for (int i = 0; i < n; i++) {
+            sinX[i] = (float) Math.sin(ax[i] * toRadians);
+            cosX[i] = (float) Math.cos(ax[i] * toRadians);
+            sinY[i] = (float) Math.sin(ay[i] * toRadians);
+            cosY[i] = (float) Math.cos(ay[i] * toRadians);
+            sinZ[i] = (float) Math.sin(az[i] * toRadians);
+            cosZ[i] = (float) Math.cos(az[i] * toRadians);
+        }
+
+        /* Cada elemento de la matriz se calcula para todas las transformaciones en un bucle propio, con las mismas formulas
+         * que Maths, y despues se copia a su lugar en cada matriz. */
+        for (int i = 0; i < n; i++) column[i] = cosY[i] * cosZ[i] * sx[i];
+        scatter(column, n, dest, offset);
+        for (int i = 0; i < n; i++) column[i] = (sinX[i] * sinY[i] * cosZ[i] + cosX[i] * sinZ[i]) * sx[i];
+        scatter(column, n, dest, offset + 1);
+        for (int i = 0; i < n; i++) column[i] = (-cosX[i] * sinY[i] * cosZ[i] + sinX[i] * sinZ[i]) * sx[i];
+        scatter(column, n, dest, offset + 2);
+        for (int i = 0; i < n; i++) column[i] = -cosY[i] * sinZ[i] * sy[i];
+        scatter(column, n, dest, offset + 4);
+        for (int i = 0; i < n; i++) column[i] = (-sinX[i] * sinY[i] * sinZ[i] + cosX[i] * cosZ[i]) * sy[i];
+        scatter(column, n, dest, offset + 5);
+        for (int i = 0; i < n; i++) column[i] = (cosX[i] * sinY[i] * sinZ[i] + sinX[i] * cosZ[i]) * sy[i];
+        scatter(column, n, dest, offset + 6);
+        for (int i = 0; i < n; i++) column[i] = sinY[i] * sz[i];
+        scatter(column, n, dest, offset + 8);
+        for (int i = 0; i < n; i++) column[i] = -sinX[i] * cosY[i] * sz[i];
+        scatter(column, n, dest, offset + 9);
+        for (int i = 0; i < n; i++) column[i] = cosX[i] * cosY[i] * sz[i];
+        scatter(column, n, dest, offset + 10);
+        scatter(px, n, dest, offset + 12);
+        scatter(py, n, dest, offset + 13);
+        scatter(pz, n, dest, offset + 14);
+        for (int i = 0, pointer = offset; i < n; i++, pointer += MATRIX_LENGTH) {
+            dest[pointer + 3] = 0;
+            dest[pointer + 7] = 0;
+            dest[pointer + 11] = 0;
+            dest[pointer + 15] = 1;
+        }
+    }
+
+    static void scatter(float[] values, int n, float[] dest, int offset) {
+        for (int i = 0, pointer = offset; i < n; i++, pointer += MATRIX_LENGTH) dest[pointer] = values[i];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,102 @@
+package utils;
+
+import java.util.Random;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Compara {@link TransformBatch} con el calculo de una matriz por vez de {@link Maths}. Primero verifica que las dos formas
+ * den el mismo resultado y despues mide cuanto tarda cada una en calcular las matrices de muchas transformaciones. No
+ * necesita contexto de OpenGL.
+ * <p>
+ * El calculo en bloque se mide escalar y, si la JVM arranco con {@code --add-modules jdk.incubator.vector}, tambien con la
+ * Vector API.
+ */
+
+public class TransformBatchBenchmark {
+
+    private static final int COUNT = 10000;
+    private static final int WARMUP = 200, ITERATIONS = 500;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        Vector3f[] positions = new Vector3f[COUNT], angles = new Vector3f[COUNT], scales = new Vector3f[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            positions[i] = new Vector3f(random.nextFloat() * 800, random.nextFloat() * 50, random.nextFloat() * -800);
+            angles[i] = new Vector3f(random.nextFloat() * 360, random.nextFloat() * 360, random.nextFloat() * 360);
+            scales[i] = new Vector3f(0.5f + random.nextFloat() * 2, 0.5f + random.nextFloat() * 2, 0.5f + random.nextFloat() * 2);
+        }
+
+        TransformBatch batch = new TransformBatch(COUNT);
+        float[] bulk = new float[COUNT * TransformBatch.MATRIX_LENGTH], scalar = new float[bulk.length];
+        Matrix4f matrix = new Matrix4f();
+
+        boolean vectorized = TransformBatch.isVectorized();
+        System.out.println("Error maximo escalar: " + maxError(batch, positions, angles, scales, bulk, scalar, matrix, false));
+        if (vectorized) System.out.println("Error maximo vectorial: " + maxError(batch, positions, angles, scales, bulk, scalar, matrix, true));
+        else System.out.println("Vector API no disponible, se mide solo el calculo escalar");
+
+        for (int i = 0; i < WARMUP; i++) {
+            runBulk(batch, positions, angles, scales, bulk, false);
+            if (vectorized) runBulk(batch, positions, angles, scales, bulk, true);
+            runScalar(positions, angles, scales, scalar, matrix);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) runScalar(positions, angles, scales, scalar, matrix);
+        long scalarTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) runBulk(batch, positions, angles, scales, bulk, false);
+        long bulkTime = System.nanoTime() - start;
+
+        System.out.printf("Maths:                     %.3f ms por frame%n", scalarTime / 1e6 / ITERATIONS);
+        System.out.printf("TransformBatch escalar:    %.3f ms por frame%n", bulkTime / 1e6 / ITERATIONS);
+        if (vectorized) {
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) runBulk(batch, positions, angles, scales, bulk, true);
+            long vectorTime = System.nanoTime() - start;
+            System.out.printf("TransformBatch vectorial:  %.3f ms por frame%n", vectorTime / 1e6 / ITERATIONS);
+        }
+    }
+
+    private static float maxError(TransformBatch batch, Vector3f[] positions, Vector3f[] angles, Vector3f[] scales, float[] bulk, float[] scalar, Matrix4f matrix, boolean vectorized) {
+        runBulk(batch, positions, angles, scales, bulk, vectorized);
+        runScalar(positions, angles, scales, scalar, matrix);
+        float error = 0;
+        for (int i = 0; i < bulk.length; i++) {
+            // Error relativo para las traslaciones grandes y absoluto para la rotacion
+            error = Math.max(error, Math.abs(bulk[i] - scalar[i]) / Math.max(1, Math.abs(scalar[i])));
+        }
+        return error;
+    }
+
+    private static void runBulk(TransformBatch batch, Vector3f[] positions, Vector3f[] angles, Vector3f[] scales, float[] dest, boolean vectorized) {
+        batch.clear();
+        for (int i = 0; i < COUNT; i++) batch.add(positions[i], angles[i], scales[i]);
+        if (vectorized) batch.compute(dest, 0);
+        else batch.computeScalar(dest, 0);
+    }
+
+    private static void runScalar(Vector3f[] positions, Vector3f[] angles, Vector3f[] scales, float[] dest, Matrix4f matrix) {
+        for (int i = 0, pointer = 0; i < COUNT; i++) {
+            Maths.createTransformationMatrix(positions[i], angles[i], scales[i], matrix);
+            dest[pointer++] = matrix.m00;
+            dest[pointer++] = matrix.m01;
+            dest[pointer++] = matrix.m02;
+            dest[pointer++] = matrix.m03;
+            dest[pointer++] = matrix.m10;
+            dest[pointer++] = matrix.m11;
+            dest[pointer++] = matrix.m12;
+            dest[pointer++] = matrix.m13;
+            dest[pointer++] = matrix.m20;
+            dest[pointer++] = matrix.m21;
+            dest[pointer++] = matrix.m22;
+            dest[pointer++] = matrix.m23;
+            dest[pointer++] = matrix.m30;
+            dest[pointer++] = matrix.m31;
+            dest[pointer++] = matrix.m32;
+            dest[pointer++] = matrix.m33;
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package utils;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import org.lwjgl.BufferUtils;
 
@@ -36,4 +37,58 @@ public final class Utils {
         return buffer;
     }
 
+    /**
+     * Almacena los indices en un buffer de shorts. Solo se puede usar cuando ningun indice supera 65535.
+     *
+     * @param indices array de indices.
+     * @return un buffer de indices de 16 bits.
+     */
+    public static ShortBuffer storeIndicesInShortBuffer(int[] indices) {
+        ShortBuffer buffer = BufferUtils.createShortBuffer(indices.length);
+        for (int index : indices) buffer.put((short) index);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Convierte un float de 32 bits a un half float de 16 bits (1 bit de signo, 5 de exponente y 10 de mantisa) redondeando al
+     * valor mas cercano. Los valores demasiado chicos se convierten en 0 y los demasiado grandes en infinito.
+     *
+     * @param value valor de 32 bits.
+     * @return los 16 bits del half float.
+     */
+    public static short toHalfFloat(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent >= 31) return (short) (sign | 0x7C00); // Infinito (o NaN, que no deberia aparecer en un modelo)
+        if (exponent <= 0) {
+            // Numero subnormal, se desplaza la mantisa (con el 1 implicito) tantas posiciones como falten en el exponente
+            if (exponent < -10) return (short) sign;
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            return (short) (sign | ((mantissa + (1 << (shift - 1))) >> shift));
+        }
+        // El redondeo puede desbordar la mantisa, lo que incrementa el exponente correctamente al sumarse
+        return (short) (sign | ((exponent << 10) + ((mantissa + 0x1000) >> 13)));
+    }
+
+    /**
+     * Empaqueta una normal en un entero con el formato {@code GL_INT_2_10_10_10_REV}, en donde [x] ocupa los bits 0-9, [y] los
+     * bits 10-19 y [z] los bits 20-29, cada uno como un entero con signo normalizado en el rango [-511,511].
+     *
+     * @param x componente x de la normal.
+     * @param y componente y de la normal.
+     * @param z componente z de la normal.
+     * @return la normal empaquetada.
+     */
+    public static int packNormal(float x, float y, float z) {
+        return (packSnorm10(z) << 20) | (packSnorm10(y) << 10) | packSnorm10(x);
+    }
+
+    private static int packSnorm10(float value) {
+        return Math.round(Math.max(-1, Math.min(1, value)) * 511) & 0x3FF;
+    }
+
 }
@@ -0,0 +1,67 @@
+package water;
+
+import entities.Camera;
+import shaders.ShaderProgram;
+import utils.Maths;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+public class ReflectionShader extends ShaderProgram {
+
+    private final static String VERTEX_FILE = "src/water/reflectionVertex.glsl";
+    private final static String FRAGMENT_FILE = "src/water/reflectionFragment.glsl";
+
+    private int location_modelMatrix, location_viewMatrix, location_projectionMatrix;
+    private int location_cameraPosition;
+    private int location_sceneTexture, location_depthTexture, location_skyboxTexture;
+    private int location_skyboxRotation;
+    private final Matrix4f viewMatrix = new Matrix4f(); // Se reutiliza en cada frame
+
+    public ReflectionShader() {
+        super(VERTEX_FILE, FRAGMENT_FILE);
+    }
+
+    @Override
+    protected void bindAttributes() {
+        bindAttribute(0, "position");
+    }
+
+    @Override
+    protected void getAllUniformLocations() {
+        location_modelMatrix = getUniformLocation("modelMatrix");
+        location_viewMatrix = getUniformLocation("viewMatrix");
+        location_projectionMatrix = getUniformLocation("projectionMatrix");
+        location_cameraPosition = getUniformLocation("cameraPosition");
+        location_sceneTexture = getUniformLocation("sceneTexture");
+        location_depthTexture = getUniformLocation("depthTexture");
+        location_skyboxTexture = getUniformLocation("skyboxTexture");
+        location_skyboxRotation = getUniformLocation("skyboxRotation");
+    }
+
+    public void connectTextureUnits() {
+        loadInt(location_sceneTexture, 0);
+        loadInt(location_depthTexture, 1);
+        loadInt(location_skyboxTexture, 2);
+    }
+
+    public void loadProjectionMatrix(Matrix4f projection) {
+        loadMatrix(location_projectionMatrix, projection);
+    }
+
+    public void loadViewMatrix(Camera camera) {
+        loadMatrix(location_viewMatrix, Maths.createViewMatrix(camera, viewMatrix));
+        loadVector(location_cameraPosition, camera.getPosition());
+    }
+
+    public void loadModelMatrix(Matrix4f modelMatrix) {
+        loadMatrix(location_modelMatrix, modelMatrix);
+    }
+
+    /**
+     * Carga el angulo en grados que el skybox esta girado sobre el eje [y].
+     */
+    public void loadSkyboxRotation(float rotation) {
+        loadFloat(location_skyboxRotation, (float) Math.toRadians(rotation));
+    }
+
+}
@@ -0,0 +1,78 @@
+package water;
+
+import entities.Camera;
+import models.RawModel;
+import skybox.SkyboxRenderer;
+
+import java.util.List;
+
+import org.lwjgl.util.vector.Matrix4f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Reflejo del agua en espacio de pantalla, una alternativa a la pasada de reflexion plana que no vuelve a renderizar la
+ * escena. Dibuja las superficies de agua al FBO de reflexion, que tiene menos resolucion que la pantalla, buscando el reflejo en la
+ * copia del color y la profundidad de la pasada principal (ver reflectionFragment.glsl). Lo que no esta en pantalla no se
+ * refleja y se reemplaza por el skybox.
+ */
+
+public class ScreenSpaceReflection {
+
+    private final ReflectionShader shader = new ReflectionShader();
+    private final SkyboxRenderer skybox;
+
+    /**
+     * @param projectionMatrix matriz de proyeccion de la camara.
+     * @param skybox           skybox que se refleja cuando el rayo no choca con la escena.
+     */
+    public ScreenSpaceReflection(Matrix4f projectionMatrix, SkyboxRenderer skybox) {
+        this.skybox = skybox;
+        shader.start();
+        shader.connectTextureUnits();
+        shader.loadProjectionMatrix(projectionMatrix);
+        shader.stop();
+    }
+
+    /**
+     * Renderiza el reflejo de las superficies al FBO de reflexion. El color y la profundidad de la pasada principal ya tienen que
+     * estar copiados en las texturas de refraccion.
+     *
+     * @param buffers FBOs del agua.
+     * @param waters  superficies de agua.
+     * @param camera  camara de la pasada principal.
+     */
+    public void render(WaterFrameBuffers buffers, List<WaterSurface> waters, Camera camera) {
+        buffers.bindReflectionFrameBuffer();
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        shader.start();
+        shader.loadViewMatrix(camera);
+        shader.loadSkyboxRotation(skybox.getRotation());
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, buffers.getRefractionTexture());
+        glActiveTexture(GL_TEXTURE1);
+        glBindTexture(GL_TEXTURE_2D, buffers.getRefractionDepthTexture());
+        glActiveTexture(GL_TEXTURE2);
+        glBindTexture(GL_TEXTURE_CUBE_MAP, skybox.getCubeMap());
+        glEnableVertexAttribArray(0);
+        for (WaterSurface surface : waters) {
+            RawModel model = surface.getModel();
+            glBindVertexArray(model.getID());
+            shader.loadModelMatrix(surface.getTransformationMatrix());
+            glDrawArrays(GL_TRIANGLES, 0, model.getVertexCount());
+        }
+        glDisableVertexAttribArray(0);
+        glBindVertexArray(0);
+        glActiveTexture(GL_TEXTURE0);
+        shader.stop();
+        buffers.unbindCurrentFrameBuffer();
+    }
+
+    public void clean() {
+        shader.clean();
+    }
+
+}
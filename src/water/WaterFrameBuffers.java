@@ -3,6 +3,7 @@ package water;
 import java.nio.ByteBuffer;
 
 import org.lwjgl.opengl.Display;
+import org.lwjgl.util.vector.Matrix4f;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL14.*;
@@ -31,34 +32,70 @@ import static org.lwjgl.opengl.GL32.*;
 
 public class WaterFrameBuffers {
 
-    // Resoluciones, mientras menor sea la resolucion, menos costoso sera renderizar
-    protected static final int REFLECTION_WIDTH = 320, REFLECTION_HEIGHT = 180;
-    protected static final int REFRACTION_WIDTH = 800, REFRACTION_HEIGHT = 600;
+    /* Resoluciones relativas a la pantalla con calidad 1, mientras menor sea la resolucion, menos costoso sera renderizar. La
+     * reflexion se distorsiona y se mezcla con la refraccion, por lo que puede tener menos resolucion. */
+    private static final float REFLECTION_SCALE = 0.5f, REFRACTION_SCALE = 1;
 
+    private final boolean sceneRefraction;
+    private boolean screenSpaceReflection; // Indica si la textura de reflexion tiene un reflejo en espacio de pantalla
+    private int reflectionWidth, reflectionHeight, refractionWidth, refractionHeight;
     private int reflectionFrameBuffer, reflectionTexture, reflectionDepthBuffer;
     private int refractionFrameBuffer, refractionTexture, refractionDepthTexture;
 
+    // Matrices de vista-proyeccion de la camara con la que se renderizo por ultima vez cada textura, para reproyectarlas
+    private final Matrix4f reflectionViewProjection = new Matrix4f(), refractionViewProjection = new Matrix4f();
+
     public WaterFrameBuffers() {
+        this(1, false);
+    }
+
+    /**
+     * @param quality         escala de la resolucion de las texturas respecto de la resolucion por defecto.
+     * @param sceneRefraction true para copiar la refraccion de la pasada principal en lugar de renderizarla aparte (ver
+     *                        {@link #copyRefraction()}).
+     */
+    public WaterFrameBuffers(float quality, boolean sceneRefraction) {
+        this.sceneRefraction = sceneRefraction;
         /* Crea dos FBOs, uno con un archivo adjunto de textura de buffer de color y de profundidad, y el otro con un archivo
          * adjunto de textura de buffer de color y un archivo adjunto de buffer de renderizado de buffer de profundidad. */
-        initialiseReflectionFrameBuffer();
-        initialiseRefractionFrameBuffer();
+        initialiseReflectionFrameBuffer(quality);
+        initialiseRefractionFrameBuffer(quality);
     }
 
-    private void initialiseReflectionFrameBuffer() {
+    /**
+     * Vuelve a crear los FBOs con otra calidad. Las texturas quedan vacias hasta que se vuelvan a renderizar.
+     *
+     * @param quality escala de la resolucion de las texturas respecto de la resolucion por defecto.
+     */
+    public void setQuality(float quality) {
+        clean();
+        initialiseReflectionFrameBuffer(quality);
+        initialiseRefractionFrameBuffer(quality);
+    }
+
+    private void initialiseReflectionFrameBuffer(float quality) {
+        reflectionWidth = scale(Display.getWidth(), REFLECTION_SCALE * quality);
+        reflectionHeight = scale(Display.getHeight(), REFLECTION_SCALE * quality);
         reflectionFrameBuffer = createFrameBuffer();
-        reflectionTexture = createTextureAttachment(REFLECTION_WIDTH, REFLECTION_HEIGHT);
-        reflectionDepthBuffer = createDepthBufferAttachment(REFLECTION_WIDTH, REFLECTION_HEIGHT);
+        reflectionTexture = createTextureAttachment(reflectionWidth, reflectionHeight);
+        reflectionDepthBuffer = createDepthBufferAttachment(reflectionWidth, reflectionHeight);
         unbindCurrentFrameBuffer();
     }
 
-    private void initialiseRefractionFrameBuffer() {
+    private void initialiseRefractionFrameBuffer(float quality) {
+        // La copia de la pasada principal tiene la resolucion de la pantalla
+        refractionWidth = sceneRefraction ? Display.getWidth() : scale(Display.getWidth(), REFRACTION_SCALE * quality);
+        refractionHeight = sceneRefraction ? Display.getHeight() : scale(Display.getHeight(), REFRACTION_SCALE * quality);
         refractionFrameBuffer = createFrameBuffer();
-        refractionTexture = createTextureAttachment(REFRACTION_WIDTH, REFRACTION_HEIGHT);
-        refractionDepthTexture = createDepthTextureAttachment(REFRACTION_WIDTH, REFRACTION_HEIGHT);
+        refractionTexture = createTextureAttachment(refractionWidth, refractionHeight);
+        refractionDepthTexture = createDepthTextureAttachment(refractionWidth, refractionHeight);
         unbindCurrentFrameBuffer();
     }
 
+    private static int scale(int size, float scale) {
+        return Math.max(1, Math.round(size * scale));
+    }
+
     /**
      * Si queremos volver a renderizar al framebuffer predeterminado, tenemos que llamar al metodo glBindFramebuffer y pasarle 0
      * como ID.
@@ -69,11 +106,24 @@ public class WaterFrameBuffers {
     }
 
     public void bindReflectionFrameBuffer() { // Se llama antes de renderizar a este FBO
-        bindFrameBuffer(reflectionFrameBuffer, REFLECTION_WIDTH, REFLECTION_HEIGHT);
+        bindFrameBuffer(reflectionFrameBuffer, reflectionWidth, reflectionHeight);
     }
 
     public void bindRefractionFrameBuffer() { // Se llama antes de renderizar a este FBO
-        bindFrameBuffer(refractionFrameBuffer, REFRACTION_WIDTH, REFRACTION_HEIGHT);
+        bindFrameBuffer(refractionFrameBuffer, refractionWidth, refractionHeight);
+    }
+
+    /**
+     * Copia el color y la profundidad del framebuffer por defecto a las texturas de refraccion. Se llama despues de renderizar
+     * la escena opaca en pantalla y antes del agua, que todavia no esta en ella, asi lo que se ve a traves del agua sale de la
+     * pasada principal y no hace falta renderizar la escena otra vez por debajo del plano del agua.
+     */
+    public void copyRefraction() {
+        glBindTexture(GL_TEXTURE_2D, refractionTexture);
+        glCopyTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, 0, 0, refractionWidth, refractionHeight);
+        glBindTexture(GL_TEXTURE_2D, refractionDepthTexture);
+        glCopyTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, 0, 0, refractionWidth, refractionHeight);
+        glBindTexture(GL_TEXTURE_2D, 0);
     }
 
     /**
@@ -157,4 +207,24 @@ public class WaterFrameBuffers {
         return refractionDepthTexture;
     }
 
+    public boolean isSceneRefraction() {
+        return sceneRefraction;
+    }
+
+    public boolean isScreenSpaceReflection() {
+        return screenSpaceReflection;
+    }
+
+    public void setScreenSpaceReflection(boolean screenSpaceReflection) {
+        this.screenSpaceReflection = screenSpaceReflection;
+    }
+
+    public Matrix4f getReflectionViewProjection() {
+        return reflectionViewProjection;
+    }
+
+    public Matrix4f getRefractionViewProjection() {
+        return refractionViewProjection;
+    }
+
 }
\ No newline at end of file
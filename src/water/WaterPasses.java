@@ -0,0 +1,175 @@
+package water;
+
+import entities.Camera;
+import entities.Entity;
+import entities.Light;
+import render.MasterRenderer;
+import render.RenderPass;
+import terrains.Terrain;
+import utils.Frustum;
+import utils.Maths;
+import utils.ScratchArena;
+
+import java.util.List;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector4f;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Renderiza las pasadas de reflexion y refraccion del agua a sus FBOs.
+ * <p>
+ * Las dos pasadas renderizan la escena completa, asi que se evitan siempre que se pueda: si ninguna superficie de agua toca el frustum
+ * de la camara no se renderiza ninguna, y mientras el agua esta a la vista cada textura se actualiza una vez cada
+ * {@link #setUpdateInterval(int) intervalo} de frames, alternando entre las dos. En los frames en que una textura no se
+ * actualiza, el shader del agua la reproyecta con la camara con la que se renderizo, por lo que la imagen sigue pegada a la
+ * escena aunque la camara se mueva.
+ * <p>
+ * Si los FBOs copian la refraccion de la pasada principal, la pasada de refraccion no se renderiza y la textura se actualiza
+ * en cada frame con {@link #copyScene(List, Camera)}. En ese modo, la reflexion plana se puede reemplazar por un
+ * {@link ScreenSpaceReflection reflejo en espacio de pantalla}, que tampoco vuelve a renderizar la escena.
+ */
+
+public class WaterPasses {
+
+    private final WaterFrameBuffers buffers;
+    private final Matrix4f projectionMatrix;
+    private final Frustum frustum = new Frustum();
+    private final Vector4f reflectionPlane = new Vector4f(), refractionPlane = new Vector4f();
+    private int updateInterval = 2;
+    private int frame;
+    private boolean reflectionValid, refractionValid;
+    private ScreenSpaceReflection screenSpaceReflection; // Null para la reflexion plana
+
+    public WaterPasses(WaterFrameBuffers buffers, Matrix4f projectionMatrix) {
+        this.buffers = buffers;
+        this.projectionMatrix = projectionMatrix;
+    }
+
+    /**
+     * Actualiza las texturas de reflexion y refraccion que correspondan a este frame y vuelve al framebuffer por defecto. Las
+     * pasadas se renderizan con la altura de la primera superficie a la vista, asi que la escena deberia tener un solo nivel de
+     * agua.
+     *
+     * @return true si hay agua a la vista y hay que renderizarla.
+     */
+    public boolean render(MasterRenderer renderer, List<Entity> entities, List<Terrain> terrains, List<Light> lights, Camera camera, List<WaterSurface> waters) {
+        Matrix4f viewMatrix = Maths.createViewMatrix(camera, ScratchArena.FRAME.matrix());
+        frustum.update(projectionMatrix, viewMatrix);
+        WaterSurface water = getVisibleSurface(waters);
+        if (water == null) {
+            // Cuando el agua vuelve a aparecer, la camara pudo haberse movido demasiado para reproyectar las texturas
+            reflectionValid = refractionValid = false;
+            return false;
+        }
+        frame++;
+
+        /* Una vez habilitado un plano de recorte, se debe especificar su ecuacion en el Vertex Shader para que se aplique
+         * correctamente durante el renderizado. Esto permite crear efectos complejos, como renderizar escenas desde el
+         * interior de un objeto o mostrar unicamente las partes visibles a traves de un agujero. */
+        glEnable(GL_CLIP_DISTANCE0);
+
+        if (screenSpaceReflection == null && (!reflectionValid || isDue(0))) {
+            // Renderiza las texturas de reflexion
+            buffers.bindReflectionFrameBuffer();
+            Matrix4f.mul(projectionMatrix, viewMatrix, buffers.getReflectionViewProjection());
+            // Mueva la camara por debajo del agua para simular el efecto de reflejo en los objetos
+            float distance = 2 * (camera.getPosition().y - water.getHeight());
+            camera.getPosition().y -= distance;
+            camera.invertXAngle();
+            /* Recorta todo lo que esta por encima de la altura del agua. Esto nos deja mucho margen de error y es lo que causa
+             * los fallos, especialmente cuando el agua estaba distorcionada. Ahora que hemos amortiguado la distorsion, el error
+             * casi ha desaparecido, pero todavia se ve algun pixel ocasional, por lo que en lugar de hacer que el plano de recorte
+             * se corte exactamente en la superficie del agua, podemos agregar un pequenio desplazamiento para crea una pequenia
+             * superposicion (+ 1f). */
+            reflectionPlane.set(0, 1, 0, -water.getHeight() + 1f);
+            renderer.renderScene(entities, terrains, lights, camera, reflectionPlane, RenderPass.REFLECTION);
+            // Vuelve la camara a su posicion original
+            camera.getPosition().y += distance;
+            camera.invertXAngle();
+            buffers.setScreenSpaceReflection(false);
+            reflectionValid = true;
+        }
+
+        if (!buffers.isSceneRefraction() && (!refractionValid || isDue(updateInterval / 2))) {
+            // Renderiza las texturas de refraccion
+            buffers.bindRefractionFrameBuffer();
+            Matrix4f.mul(projectionMatrix, viewMatrix, buffers.getRefractionViewProjection());
+            // Recorta todo lo que esta por debajo de la altura del agua
+            refractionPlane.set(0, -1, 0, water.getHeight());
+            renderer.renderScene(entities, terrains, lights, camera, refractionPlane, RenderPass.REFRACTION);
+            refractionValid = true;
+        }
+
+        // Para el renderizado final, solo queremos renderizar toda la escena en pantalla sin recortar nada
+        glDisable(GL_CLIP_DISTANCE0);
+        buffers.unbindCurrentFrameBuffer();
+        return true;
+    }
+
+    /**
+     * Copia la escena opaca de la pasada principal a las texturas de refraccion, si los FBOs funcionan de esa forma, y renderiza
+     * el reflejo en espacio de pantalla si esta activado. Se llama despues de la pasada principal y antes de renderizar el agua.
+     *
+     * @param waters superficies de agua.
+     * @param camera camara de la pasada principal.
+     */
+    public void copyScene(List<WaterSurface> waters, Camera camera) {
+        if (!buffers.isSceneRefraction()) return;
+        buffers.copyRefraction();
+        Matrix4f.mul(projectionMatrix, Maths.createViewMatrix(camera, ScratchArena.FRAME.matrix()), buffers.getRefractionViewProjection());
+        if (screenSpaceReflection != null) {
+            screenSpaceReflection.render(buffers, waters, camera);
+            buffers.getReflectionViewProjection().load(buffers.getRefractionViewProjection());
+            buffers.setScreenSpaceReflection(true);
+        }
+    }
+
+    /**
+     * Elige entre la reflexion plana y el reflejo en espacio de pantalla. El reflejo en espacio de pantalla necesita la copia
+     * de la pasada principal en las texturas de refraccion.
+     *
+     * @param screenSpaceReflection reflejo en espacio de pantalla, o null para la reflexion plana.
+     */
+    public void setScreenSpaceReflection(ScreenSpaceReflection screenSpaceReflection) {
+        if (screenSpaceReflection != null && !buffers.isSceneRefraction())
+            throw new IllegalStateException("Screen-space reflections need the refraction copied from the main pass");
+        this.screenSpaceReflection = screenSpaceReflection;
+        reflectionValid = false;
+    }
+
+    private WaterSurface getVisibleSurface(List<WaterSurface> waters) {
+        for (WaterSurface surface : waters)
+            if (frustum.intersectsBox(surface.getMin(), surface.getMax())) return surface;
+        return null;
+    }
+
+    /**
+     * Verifica si le toca actualizarse a la textura que se actualiza en la fase indicada del intervalo.
+     */
+    private boolean isDue(int phase) {
+        return frame % updateInterval == phase;
+    }
+
+    /**
+     * Cambia cada cuantos frames se actualiza cada textura. Con 1 se actualizan las dos en cada frame y con 2 se alternan.
+     *
+     * @param updateInterval cantidad de frames entre dos actualizaciones de la misma textura.
+     */
+    public void setUpdateInterval(int updateInterval) {
+        this.updateInterval = Math.max(1, updateInterval);
+    }
+
+    /**
+     * Cambia la resolucion de las texturas (ver {@link WaterFrameBuffers#setQuality(float)}).
+     *
+     * @param quality escala de la resolucion de las texturas respecto de la resolucion por defecto.
+     */
+    public void setQuality(float quality) {
+        buffers.setQuality(quality);
+        reflectionValid = refractionValid = false;
+    }
+
+}
@@ -3,20 +3,23 @@ package water;
 import models.RawModel;
 import render.DisplayManager;
 import render.Loader;
-import utils.Maths;
+import shaders.ShaderVariants;
 import entities.Camera;
 import entities.Light;
 
 import java.util.List;
 
 import org.lwjgl.util.vector.Matrix4f;
-import org.lwjgl.util.vector.Vector3f;
 import org.lwjgl.opengl.GL13;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
 
+/**
+ * Renderiza las superficies de agua con una llamada por cada nivel (ver {@link WaterSurface}).
+ */
+
 public class WaterRenderer {
 
     private static final String DUDV_MAP = "dudv";
@@ -24,8 +27,7 @@ public class WaterRenderer {
     // Velocidad de movimiento de las ondas del agua
     private static final float WAVE_SPEED = 0.03f;
 
-    private RawModel quad;
-    private final WaterShader shader;
+    private final ShaderVariants<WaterShader> shaders = new ShaderVariants<>(WaterShader.FEATURES, WaterShader::new);
     private final WaterFrameBuffers fbos;
 
     private float moveFactor;
@@ -33,31 +35,35 @@ public class WaterRenderer {
     private final int dudvTexture;
     private final int normalMap;
 
-    public WaterRenderer(Loader loader, WaterShader shader, Matrix4f projectionMatrix, WaterFrameBuffers fbos) {
-        this.shader = shader;
+    public WaterRenderer(Loader loader, Matrix4f projectionMatrix, WaterFrameBuffers fbos) {
         this.fbos = fbos;
         dudvTexture = loader.loadTexture(DUDV_MAP);
         normalMap = loader.loadTexture(NORMAL_MAP);
-        shader.start();
-        shader.connectTextureUnits();
-        shader.loadProjectionMatrix(projectionMatrix);
-        shader.stop();
-        setUpVAO(loader);
+        for (WaterShader shader : shaders.getAll()) {
+            shader.start();
+            shader.connectTextureUnits();
+            shader.loadProjectionMatrix(projectionMatrix);
+            shader.stop();
+        }
     }
 
-    public void render(List<WaterTile> water, Camera camera, Light sun) {
-        prepareRender(camera, sun);
-        for (WaterTile tile : water) {
-            Matrix4f modelMatrix = Maths.createTransformationMatrix(new Vector3f(tile.getX(), tile.getHeight(), tile.getZ()), new Vector3f(0, 0, 0), new Vector3f(WaterTile.TILE_SIZE, WaterTile.TILE_SIZE, WaterTile.TILE_SIZE));
-            shader.loadModelMatrix(modelMatrix);
-            glDrawArrays(GL_TRIANGLES, 0, quad.getVertexCount());
+    public void render(List<WaterSurface> surfaces, Camera camera, Light sun) {
+        // La variante depende de como se genero la textura de reflexion
+        WaterShader shader = shaders.get(fbos.isScreenSpaceReflection() ? WaterShader.SCREEN_SPACE_REFLECTION : 0);
+        prepareRender(shader, camera, sun);
+        for (WaterSurface surface : surfaces) {
+            RawModel model = surface.getModel();
+            glBindVertexArray(model.getID());
+            shader.loadModelMatrix(surface.getTransformationMatrix());
+            glDrawArrays(GL_TRIANGLES, 0, model.getVertexCount());
         }
-        unbind();
+        unbind(shader);
     }
 
-    private void prepareRender(Camera camera, Light sun) {
+    private void prepareRender(WaterShader shader, Camera camera, Light sun) {
         shader.start();
         shader.loadViewMatrix(camera);
+        shader.loadTextureViewProjections(fbos.getReflectionViewProjection(), fbos.getRefractionViewProjection());
         // Aumenta el movimiento de las ondas del agua en cada frame
         moveFactor += WAVE_SPEED * DisplayManager.getFrameTimeSeconds();
         // Vuelve a 0 cuando llega a 1
@@ -65,7 +71,6 @@ public class WaterRenderer {
         // Carga el movimiento en el shader
         shader.loadMoveFactor(moveFactor);
         shader.loadLight(sun);
-        glBindVertexArray(quad.getID());
         glEnableVertexAttribArray(0);
         GL13.glActiveTexture(GL13.GL_TEXTURE0);
         glBindTexture(GL_TEXTURE_2D, fbos.getReflectionTexture());
@@ -83,20 +88,15 @@ public class WaterRenderer {
         glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
     }
 
-    private void unbind() {
+    private void unbind(WaterShader shader) {
         glDisable(GL_BLEND);
         glDisableVertexAttribArray(0);
         glBindVertexArray(0);
         shader.stop();
     }
 
-    /**
-     * Carga un quad en un VAO.
-     */
-    private void setUpVAO(Loader loader) {
-        // Solo las posiciones de [x] y [z] vertex aqui, [y] se establece en 0 en v.shader
-        float[] vertices = {-1, -1, -1, 1, 1, -1, 1, -1, -1, 1, 1, 1};
-        quad = loader.loadToVAO(vertices, 2);
+    public void clean() {
+        shaders.clean();
     }
 
 }
@@ -9,6 +9,10 @@ import org.lwjgl.util.vector.Matrix4f;
 
 public class WaterShader extends ShaderProgram {
 
+    // Caracteristicas de las variantes
+    public static final int SCREEN_SPACE_REFLECTION = 1; // La textura de reflexion esta alineada con la pantalla en lugar de reflejada
+    public static final int FEATURES = 1;
+
     private final static String VERTEX_FILE = "src/water/waterVertex.glsl";
     private final static String FRAGMENT_FILE = "src/water/waterFragment.glsl";
 
@@ -18,9 +22,14 @@ public class WaterShader extends ShaderProgram {
     private int location_moveFactor;
     private int location_cameraPosition;
     private int location_lightColour, location_lightPosition;
+    private int location_reflectionViewProjection, location_refractionViewProjection;
+    private final Matrix4f viewMatrix = new Matrix4f(); // Se reutiliza en cada frame
 
-    public WaterShader() {
-        super(VERTEX_FILE, FRAGMENT_FILE);
+    /**
+     * @param features mascara de bits con las caracteristicas de la variante.
+     */
+    public WaterShader(int features) {
+        super(VERTEX_FILE, FRAGMENT_FILE, getDefines(features, "SCREEN_SPACE_REFLECTION").toArray(new String[0]));
     }
 
     @Override
@@ -42,6 +51,8 @@ public class WaterShader extends ShaderProgram {
         location_cameraPosition = getUniformLocation("cameraPosition");
         location_lightColour = getUniformLocation("lightColour");
         location_lightPosition = getUniformLocation("lightPosition");
+        location_reflectionViewProjection = getUniformLocation("reflectionViewProjection");
+        location_refractionViewProjection = getUniformLocation("refractionViewProjection");
     }
 
     public void connectTextureUnits() {
@@ -57,11 +68,22 @@ public class WaterShader extends ShaderProgram {
     }
 
     public void loadViewMatrix(Camera camera) {
-        Matrix4f matrix = Maths.createViewMatrix(camera);
+        Matrix4f matrix = Maths.createViewMatrix(camera, viewMatrix);
         loadMatrix(location_viewMatrix, matrix);
         loadVector(location_cameraPosition, camera.getPosition());
     }
 
+    /**
+     * Carga las matrices de vista-proyeccion con las que se renderizaron las texturas de reflexion y refraccion.
+     *
+     * @param reflection matriz de la textura de reflexion.
+     * @param refraction matriz de la textura de refraccion.
+     */
+    public void loadTextureViewProjections(Matrix4f reflection, Matrix4f refraction) {
+        loadMatrix(location_reflectionViewProjection, reflection);
+        loadMatrix(location_refractionViewProjection, refraction);
+    }
+
     public void loadModelMatrix(Matrix4f modelMatrix) {
         loadMatrix(location_modelMatrix, modelMatrix);
     }
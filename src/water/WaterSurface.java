@@ -0,0 +1,178 @@
+package water;
+
+import models.RawModel;
+import render.Loader;
+import terrains.Terrain;
+import utils.Maths;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.lwjgl.util.vector.Matrix4f;
+import org.lwjgl.util.vector.Vector3f;
+
+/**
+ * Superficie de agua de un nivel, generada a partir de los tiles que estan a esa altura y del terreno que hay debajo.
+ * <p>
+ * Los tiles se dividen en una cuadricula de celdas de {@link #CELL_SIZE} y solo se conservan las celdas donde el terreno
+ * baja de la altura del agua, de forma que no se dibuja agua sobre la tierra para que despues la descarte la prueba de
+ * profundidad. Las celdas de todos los tiles del nivel se unen en rectangulos lo mas grandes posibles y se cargan en una sola
+ * malla, por lo que cada nivel se dibuja con una sola llamada.
+ */
+
+public class WaterSurface {
+
+    public static final float CELL_SIZE = 4;
+
+    private final RawModel model;
+    private final float height;
+    private final Vector3f min, max;
+    private final Matrix4f transformationMatrix;
+
+    private WaterSurface(RawModel model, float height, Vector3f min, Vector3f max) {
+        this.model = model;
+        this.height = height;
+        this.min = min;
+        this.max = max;
+        transformationMatrix = Maths.createTransformationMatrix(new Vector3f(0, height, 0), new Vector3f(0, 0, 0), new Vector3f(1, 1, 1));
+    }
+
+    /**
+     * Genera una superficie por cada altura de agua. Los niveles que quedan enteros por debajo del terreno no generan
+     * superficie.
+     *
+     * @param loader   cargador de la malla.
+     * @param tiles    tiles de agua.
+     * @param terrains terrenos de la escena.
+     * @return las superficies de agua.
+     */
+    public static List<WaterSurface> create(Loader loader, List<WaterTile> tiles, List<Terrain> terrains) {
+        Map<Float, List<WaterTile>> levels = new TreeMap<>();
+        for (WaterTile tile : tiles)
+            levels.computeIfAbsent(tile.getHeight(), k -> new ArrayList<>()).add(tile);
+        List<WaterSurface> surfaces = new ArrayList<>();
+        for (Map.Entry<Float, List<WaterTile>> level : levels.entrySet()) {
+            WaterSurface surface = create(loader, level.getValue(), terrains, level.getKey());
+            if (surface != null) surfaces.add(surface);
+        }
+        return surfaces;
+    }
+
+    private static WaterSurface create(Loader loader, List<WaterTile> tiles, List<Terrain> terrains, float height) {
+        // Cuadricula alineada al origen del mundo que cubre todos los tiles del nivel
+        int gridX = Integer.MAX_VALUE, gridZ = Integer.MAX_VALUE, endX = Integer.MIN_VALUE, endZ = Integer.MIN_VALUE;
+        for (WaterTile tile : tiles) {
+            gridX = Math.min(gridX, (int) Math.floor((tile.getX() - WaterTile.TILE_SIZE) / CELL_SIZE));
+            gridZ = Math.min(gridZ, (int) Math.floor((tile.getZ() - WaterTile.TILE_SIZE) / CELL_SIZE));
+            endX = Math.max(endX, (int) Math.ceil((tile.getX() + WaterTile.TILE_SIZE) / CELL_SIZE));
+            endZ = Math.max(endZ, (int) Math.ceil((tile.getZ() + WaterTile.TILE_SIZE) / CELL_SIZE));
+        }
+        int columns = endX - gridX, rows = endZ - gridZ;
+        boolean[][] water = new boolean[columns][rows];
+        for (int i = 0; i < columns; i++) {
+            for (int j = 0; j < rows; j++) {
+                float x = (gridX + i) * CELL_SIZE, z = (gridZ + j) * CELL_SIZE;
+                water[i][j] = isInsideTile(tiles, x + CELL_SIZE / 2, z + CELL_SIZE / 2) && isUnderwater(terrains, x, z, height);
+            }
+        }
+
+        /* Une las celdas en rectangulos: desde cada celda libre avanza en [x] mientras haya agua y despues agrega filas en [z]
+         * mientras la fila completa tenga agua. */
+        List<Float> vertices = new ArrayList<>();
+        Vector3f min = new Vector3f(Float.MAX_VALUE, height, Float.MAX_VALUE);
+        Vector3f max = new Vector3f(-Float.MAX_VALUE, height, -Float.MAX_VALUE);
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < columns; i++) {
+                if (!water[i][j]) continue;
+                int width = 1, depth = 1;
+                while (i + width < columns && water[i + width][j]) width++;
+                while (j + depth < rows && isRowWater(water, i, width, j + depth)) depth++;
+                for (int a = i; a < i + width; a++)
+                    for (int b = j; b < j + depth; b++)
+                        water[a][b] = false;
+                float x0 = (gridX + i) * CELL_SIZE, z0 = (gridZ + j) * CELL_SIZE;
+                float x1 = x0 + width * CELL_SIZE, z1 = z0 + depth * CELL_SIZE;
+                // Mismo orden que el quad anterior del agua para que las caras miren hacia arriba
+                addVertex(vertices, x0, z0);
+                addVertex(vertices, x0, z1);
+                addVertex(vertices, x1, z0);
+                addVertex(vertices, x1, z0);
+                addVertex(vertices, x0, z1);
+                addVertex(vertices, x1, z1);
+                min.x = Math.min(min.x, x0);
+                min.z = Math.min(min.z, z0);
+                max.x = Math.max(max.x, x1);
+                max.z = Math.max(max.z, z1);
+            }
+        }
+        if (vertices.isEmpty()) return null;
+
+        float[] data = new float[vertices.size()];
+        for (int i = 0; i < data.length; i++) data[i] = vertices.get(i);
+        return new WaterSurface(loader.loadToVAO(data, 2), height, min, max);
+    }
+
+    private static boolean isInsideTile(List<WaterTile> tiles, float x, float z) {
+        for (WaterTile tile : tiles)
+            if (Math.abs(x - tile.getX()) <= WaterTile.TILE_SIZE && Math.abs(z - tile.getZ()) <= WaterTile.TILE_SIZE)
+                return true;
+        return false;
+    }
+
+    /**
+     * Verifica si alguna parte de la celda queda por debajo del agua. Las celdas que no tocan ningun terreno son agua.
+     */
+    private static boolean isUnderwater(List<Terrain> terrains, float x, float z, float height) {
+        boolean covered = false;
+        for (Terrain terrain : terrains) {
+            float minHeight = terrain.getMinHeight(x, z, x + CELL_SIZE, z + CELL_SIZE);
+            if (Float.isInfinite(minHeight)) continue;
+            if (minHeight < height) return true;
+            covered = true;
+        }
+        return !covered;
+    }
+
+    private static boolean isRowWater(boolean[][] water, int i, int width, int j) {
+        for (int a = i; a < i + width; a++)
+            if (!water[a][j]) return false;
+        return true;
+    }
+
+    private static void addVertex(List<Float> vertices, float x, float z) {
+        vertices.add(x);
+        vertices.add(z);
+    }
+
+    public RawModel getModel() {
+        return model;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    /**
+     * @return la esquina minima de la caja que envuelve a la superficie.
+     */
+    public Vector3f getMin() {
+        return min;
+    }
+
+    /**
+     * @return la esquina maxima de la caja que envuelve a la superficie.
+     */
+    public Vector3f getMax() {
+        return max;
+    }
+
+    /**
+     * @return la matriz que sube la malla a la altura del agua.
+     */
+    public Matrix4f getTransformationMatrix() {
+        return transformationMatrix;
+    }
+
+}
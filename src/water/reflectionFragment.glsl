@@ -0,0 +1,73 @@
+#version 400 core
+
+in vec3 worldPosition, viewPosition;
+
+out vec4 out_Color;
+
+uniform sampler2D sceneTexture, depthTexture; // Color y profundidad de la pasada principal
+uniform samplerCube skyboxTexture;
+uniform mat4 projectionMatrix, viewMatrix;
+uniform vec3 cameraPosition;
+uniform float skyboxRotation; // Giro del skybox en radianes, para que el reflejo del cielo coincida con el cielo
+
+// Estos valores deben ser iguales a los de la clase MasterRenderer
+const float near = 0.1;
+const float far = 1000.0;
+
+const int maxSteps = 48;
+const int refineSteps = 5;
+const float firstStep = 0.5; // Largo del primer paso en unidades del mundo
+const float stepGrowth = 1.1; // Cada paso es mas largo que el anterior, porque lejos de la camara un pixel cubre mas distancia
+
+float getSceneDistance(vec2 texCoords) {
+    float depth = texture(depthTexture, texCoords).r;
+    return 2.0 * near * far / (far + near - (2.0 * depth - 1.0) * (far - near));
+}
+
+vec2 project(vec3 position) {
+    vec4 clipSpace = projectionMatrix * vec4(position, 1.0);
+    return (clipSpace.xy / clipSpace.w) / 2.0 + 0.5;
+}
+
+/*  Reflejo en espacio de pantalla. En lugar de renderizar la escena desde una camara reflejada, el rayo reflejado en la
+    superficie del agua avanza en el espacio de la vista y en cada paso se proyecta en la pantalla para comparar su
+    distancia con la profundidad de la pasada principal. Cuando el rayo queda detras de la escena, se refina la interseccion
+    con una busqueda binaria y se usa el color de la escena en ese punto. Si el rayo sale de la pantalla o no choca con nada,
+    se usa el skybox. La normal es la del agua sin ondas, porque el shader del agua distorsiona despues este reflejo igual que
+    el reflejo plano. */
+void main(void) {
+
+    // Color del cielo en la direccion reflejada, teniendo en cuenta el giro del skybox
+    vec3 worldReflection = reflect(normalize(worldPosition - cameraPosition), vec3(0.0, 1.0, 0.0));
+    float s = sin(skyboxRotation), c = cos(skyboxRotation);
+    vec3 skyCoords = vec3(c * worldReflection.x - s * worldReflection.z, worldReflection.y, s * worldReflection.x + c * worldReflection.z);
+    out_Color = texture(skyboxTexture, skyCoords);
+
+    vec3 ray = reflect(normalize(viewPosition), normalize(mat3(viewMatrix) * vec3(0.0, 1.0, 0.0)));
+    vec3 position = viewPosition;
+    float stepLength = firstStep;
+    for (int i = 0; i < maxSteps; i++) {
+        vec3 previous = position;
+        position += ray * stepLength;
+        if (-position.z < near) break; // El rayo paso por detras de la camara
+        vec2 texCoords = project(position);
+        if (any(lessThan(texCoords, vec2(0.0))) || any(greaterThan(texCoords, vec2(1.0)))) break;
+        float behind = -position.z - getSceneDistance(texCoords);
+        // Si el rayo quedo mucho mas atras de la superficie, paso por detras de un objeto en lugar de chocar con el
+        if (behind > 0.0 && behind < stepLength * 2.0) {
+            for (int j = 0; j < refineSteps; j++) {
+                vec3 middle = (previous + position) * 0.5;
+                if (-middle.z > getSceneDistance(project(middle))) position = middle;
+                else previous = middle;
+            }
+            texCoords = project(position);
+            // Se mezcla con el cielo cerca de los bordes de la pantalla, donde falta la informacion de la escena
+            vec2 edge = min(texCoords, 1.0 - texCoords);
+            float fade = clamp(min(edge.x, edge.y) * 10.0, 0.0, 1.0);
+            out_Color = mix(out_Color, texture(sceneTexture, texCoords), fade);
+            break;
+        }
+        stepLength *= stepGrowth;
+    }
+
+}
@@ -0,0 +1,18 @@
+#version 400 core
+
+in vec2 position;
+
+out vec3 worldPosition, viewPosition;
+
+uniform mat4 projectionMatrix, viewMatrix, modelMatrix;
+
+// Misma posicion que la superficie del agua (ver waterVertex.glsl)
+void main(void) {
+
+    vec4 world = modelMatrix * vec4(position.x, 0.0, position.y, 1.0);
+    vec4 view = viewMatrix * world;
+    gl_Position = projectionMatrix * view;
+    worldPosition = world.xyz;
+    viewPosition = view.xyz;
+
+}
@@ -2,7 +2,7 @@
 
 in vec2 textureCoords;
 in vec3 toCameraVector, fromLightVector;
-in vec4 clipSpace;
+in vec4 reflectionClipSpace, refractionClipSpace;
 
 out vec4 out_Color;
 
@@ -37,13 +37,19 @@ void main(void) {
     realiza la division de perspectiva para normalizar el espacio del dispositivo. Para muestrear una textura,
     necesitamos las coordenadas de pantalla de los puntos del cuadrilatero de agua. Esto se logra dividiendo las
     coordenadas entre 2 y sumando 0.5, dando las coordenadas de pantalla para muestrear las texturas. */
-    vec2 ndc = (clipSpace.xy / clipSpace.w) / 2.0 + 0.5;
+    vec2 reflectNdc = (reflectionClipSpace.xy / reflectionClipSpace.w) / 2.0 + 0.5;
+    vec2 refractNdc = (refractionClipSpace.xy / refractionClipSpace.w) / 2.0 + 0.5;
 /*  Finalmente, las coordenadas NDC se transforman al espacio de ventana o window space mediante la transformacion de
     viewport, que las mapea a las coordenadas de pixeles 2D en la pantalla. En resumen, el espacio de recorte es un paso
     clave en el pipeline de renderizado de OpenGL que permite realizar operaciones de recorte de geometria de manera
     eficiente antes de la proyeccion final a la pantalla 2D. */
-    vec2 reflectTexCoords = vec2(ndc.x, -ndc.y); // Invierte la coordenada [y] debido a que es una reflexion
-    vec2 refractTexCoords = vec2(ndc.x, ndc.y); // Las coordenadas de la texturan de refraccion son iguales a las coordenadas normalizadas del dispositivo
+#ifdef SCREEN_SPACE_REFLECTION
+    // El reflejo en espacio de pantalla ya se guardo en la posicion del pixel del agua
+    vec2 reflectTexCoords = reflectNdc;
+#else
+    vec2 reflectTexCoords = vec2(reflectNdc.x, -reflectNdc.y); // Invierte la coordenada [y] debido a que es una reflexion
+#endif
+    vec2 refractTexCoords = vec2(refractNdc.x, refractNdc.y); // Las coordenadas de la texturan de refraccion son iguales a las coordenadas normalizadas del dispositivo
 
     // Estos valores deben ser iguales a los de la clase MasterRenderer
     float near = 0.1;
@@ -57,10 +63,10 @@ void main(void) {
     // Hace la conversion calculando la distancia desde la camara al terreno bajo el agua
     float floorDistance = 2.0 * near * far / (far + near - (2.0 * depth - 1.0) * (far - near));
 
-    // Calcula la distancia desde la camara hasta el fragmento actual en la superficie del agua y podemos hacerlo mediante la variable gl_FragCoord usando el componente z para obtener la profundidadd
-    depth = gl_FragCoord.z;
-    // Hace la conversion para convertir la profundidad en una distancia real
-    float waterDistance = 2.0 * near * far / (far + near - (2.0 * depth - 1.0) * (far - near));
+/*  Calcula la distancia desde la camara hasta el fragmento actual en la superficie del agua. Tiene que ser la camara con la
+    que se renderizo la textura de profundidad, y con una proyeccion perspectiva el componente w del espacio de recorte ya es
+    esa distancia. */
+    float waterDistance = refractionClipSpace.w;
 
 /*  Ahora que tenemos la distancia del piso y la distancia de la superficie del agua, podemos calcular la profundidad
     del agua restando la distancia del agua de la distancia del piso. Ahora tenemos la informacion sobre la profundidad
@@ -79,18 +85,28 @@ void main(void) {
     vec2 totalDistortion = (texture(dudvMap, distortedTexCoords).rg * 2.0 - 1.0) * waveStrength * clamp(waterDepth / 20.0, 0.0, 1.0);
 
     // Ahora podemos usar este valor para distorsionar las coordenadas de textura de reflexion y refraccion
+    vec2 undistortedRefractTexCoords = refractTexCoords;
     refractTexCoords += totalDistortion;
 /*  Debido a la textura proyectiva y la distorsion, las coordenadas de textura de reflexion y refraccion a veces estan
     fuera del rango 0-1 en el eje [y], causando que las texturas se salgan y regresen de forma incorrecta. Para
     solucionarlo, se fijan las coordenadas de textura entre 0.001 y 0.999 utilizando el metodo clamp, evitando que suban
     o bajen demasiado. */
     refractTexCoords = clamp(refractTexCoords, 0.001, 0.999);
+/*  Si la textura de refraccion es una copia de la pasada principal, tambien tiene lo que esta por encima del agua. Cuando
+    la distorsion cae en un pixel que esta delante de la superficie del agua, se muestrea sin distorsion para que esos
+    objetos no se filtren en el agua. */
+    depth = texture(depthMap, refractTexCoords).r;
+    if (2.0 * near * far / (far + near - (2.0 * depth - 1.0) * (far - near)) < waterDistance) refractTexCoords = undistortedRefractTexCoords;
 
     reflectTexCoords += totalDistortion;
 /*  En el caso de la reflexion, tenemos que fijar los componentes de forma separada. Para la coordenada [y], los valores
     se invierten entre -0.999 y -0.001. */
+#ifdef SCREEN_SPACE_REFLECTION
+    reflectTexCoords = clamp(reflectTexCoords, 0.001, 0.999);
+#else
     reflectTexCoords.x = clamp(reflectTexCoords.x, 0.001, 0.999);
     reflectTexCoords.y = clamp(reflectTexCoords.y, -0.999, -0.001);
+#endif
 
 /*  "Muestrear" (sampling en ingles) se refiere al proceso de obtener un valor de una fuente de datos, como una textura, 
     en un punto especifico. Mas concretamente, cuando se habla de "muestrear una textura", significa recuperar el valor
@@ -4,13 +4,17 @@ in vec2 position;
 
 out vec2 textureCoords;
 out vec3 toCameraVector, fromLightVector;
-out vec4 clipSpace;
+out vec4 reflectionClipSpace, refractionClipSpace;
 
 uniform mat4 projectionMatrix, viewMatrix, modelMatrix;
+// Camara con la que se renderizo cada textura, que puede ser de un frame anterior
+uniform mat4 reflectionViewProjection, refractionViewProjection;
 uniform vec3 cameraPosition, lightPosition;
 
 // Valor para colocar en mosaicos las coordendas de textura
 const float tiling = 4.0;
+// Debe ser igual a WaterTile.TILE_SIZE, para que las ondas tengan el mismo tamanio que en los tiles
+const float tileSize = 60.0;
 
 /*  El efecto Fresnel describe como la reflectividad del agua cambia segun el angulo de vision. El agua parece mas
     transparente cuando se mira desde arriba y mas reflectante desde angulos bajos. Si la normal del agua y el vector
@@ -21,10 +25,12 @@ const float tiling = 4.0;
 void main(void) {
     
     vec4 worldPosition = modelMatrix * vec4(position.x, 0.0, position.y, 1.0);
-    // Genera las coordenadas del espacio de recorte de este vertice
-    clipSpace = projectionMatrix * viewMatrix * worldPosition;
-    gl_Position = clipSpace;
-    textureCoords = vec2(position.x / 2.0 + 0.5, position.y / 2.0 + 0.5) * tiling;
+    gl_Position = projectionMatrix * viewMatrix * worldPosition;
+    // Genera las coordenadas del espacio de recorte de este vertice con la camara de cada textura para reproyectarlas
+    reflectionClipSpace = reflectionViewProjection * worldPosition;
+    refractionClipSpace = refractionViewProjection * worldPosition;
+    // La malla esta en coordenadas del mundo, asi que las ondas continuan de un tile al otro
+    textureCoords = worldPosition.xz / (2.0 * tileSize) * tiling;
     // Calcula el vector que apunta hacia la camara restando la posicion de esta y la posicion del modelo
     toCameraVector = cameraPosition - worldPosition.xyz;
     // Calcula el vector que apunta desde la luz al agua